@@ -20,10 +20,10 @@ import com.google.common.collect.ImmutableList;
 import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
 import com.google.idea.blaze.base.model.BlazeLibrary;
 import com.google.idea.blaze.base.model.LibraryKey;
+import com.google.idea.blaze.base.sync.libraries.LibraryRoots;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.roots.OrderRootType;
-import com.intellij.openapi.roots.libraries.Library;
 import javax.annotation.concurrent.Immutable;
 
 /** A library that contains sources. */
@@ -58,12 +58,12 @@ public final class BlazeResourceLibrary extends BlazeLibrary {
   }
 
   @Override
-  public void modifyLibraryModel(
+  public void addRoots(
       Project project,
       ArtifactLocationDecoder artifactLocationDecoder,
-      Library.ModifiableModel libraryModel) {
+      LibraryRoots.Builder libraryRoots) {
     for (ArtifactLocation file : sources) {
-      libraryModel.addRoot(pathToUrl(artifactLocationDecoder.decode(file)), OrderRootType.SOURCES);
+      libraryRoots.addRoot(pathToUrl(artifactLocationDecoder.decode(file)), OrderRootType.SOURCES);
     }
   }
 }
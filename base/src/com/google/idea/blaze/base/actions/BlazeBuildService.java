@@ -41,6 +41,7 @@ import com.google.idea.blaze.base.sync.aspects.BuildResult;
 import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
 import com.google.idea.blaze.base.sync.sharding.BlazeBuildTargetSharder;
 import com.google.idea.blaze.base.sync.sharding.BlazeBuildTargetSharder.ShardedTargetsResult;
+import com.google.idea.blaze.base.sync.sharding.ShardStatistics;
 import com.google.idea.blaze.base.util.SaveUtil;
 import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.project.Project;
@@ -125,7 +126,8 @@ public class BlazeBuildService {
                     workspaceRoot,
                     projectViewSet,
                     blazeProjectData.workspacePathResolver,
-                    targets);
+                    targets,
+                    blazeProjectData.syncState.get(ShardStatistics.class));
             if (shardedTargets.buildResult.status == BuildResult.Status.FATAL_ERROR) {
               return;
             }
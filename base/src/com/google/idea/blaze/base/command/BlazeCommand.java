@@ -27,11 +27,17 @@ import javax.annotation.concurrent.Immutable;
 public final class BlazeCommand {
 
   private final String binaryPath;
+  private final ImmutableList<String> startupFlags;
   private final BlazeCommandName name;
   private final ImmutableList<String> arguments;
 
-  private BlazeCommand(String binaryPath, BlazeCommandName name, ImmutableList<String> arguments) {
+  private BlazeCommand(
+      String binaryPath,
+      ImmutableList<String> startupFlags,
+      BlazeCommandName name,
+      ImmutableList<String> arguments) {
     this.binaryPath = binaryPath;
+    this.startupFlags = startupFlags;
     this.name = name;
     this.arguments = arguments;
   }
@@ -43,6 +49,7 @@ public final class BlazeCommand {
   public ImmutableList<String> toList() {
     return ImmutableList.<String>builder()
         .add(binaryPath)
+        .addAll(startupFlags)
         .add(name.toString())
         .addAll(arguments)
         .build();
@@ -61,6 +68,7 @@ public final class BlazeCommand {
   public static class Builder {
     private final String binaryPath;
     private final BlazeCommandName name;
+    private final ImmutableList.Builder<String> startupFlags = ImmutableList.builder();
     private final ImmutableList.Builder<TargetExpression> targets = ImmutableList.builder();
     private final ImmutableList.Builder<String> blazeFlags = ImmutableList.builder();
     private final ImmutableList.Builder<String> exeFlags = ImmutableList.builder();
@@ -83,7 +91,7 @@ public final class BlazeCommand {
       }
 
       arguments.addAll(exeFlags.build());
-      return new BlazeCommand(binaryPath, name, arguments.build());
+      return new BlazeCommand(binaryPath, startupFlags.build(), name, arguments.build());
     }
 
     public Builder addTargets(TargetExpression... targets) {
@@ -104,6 +112,12 @@ public final class BlazeCommand {
       return this;
     }
 
+    /** Adds startup options, which are passed before the command name. */
+    public Builder addStartupFlags(String... flags) {
+      this.startupFlags.addAll(Arrays.asList(flags));
+      return this;
+    }
+
     public Builder addBlazeFlags(String... flags) {
       return addBlazeFlags(Arrays.asList(flags));
     }
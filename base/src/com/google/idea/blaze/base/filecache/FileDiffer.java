@@ -15,7 +15,9 @@
  */
 package com.google.idea.blaze.base.filecache;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.idea.blaze.base.io.ModifiedTimeScanner;
 import com.intellij.openapi.diagnostic.Logger;
@@ -31,30 +33,59 @@ public final class FileDiffer {
 
   private FileDiffer() {}
 
+  /**
+   * Reads the state of the given files and diffs it against {@code oldState}. Updated files are
+   * listed in the order of {@code files}.
+   */
   @Nullable
-  public static ImmutableMap<File, Long> updateFiles(
-      @Nullable ImmutableMap<File, Long> oldState,
+  public static FileState updateFiles(
+      @Nullable FileState oldState,
       Iterable<File> files,
       List<File> updatedFiles,
       List<File> removedFiles) {
-    ImmutableMap<File, Long> newState = readFileState(files);
+    List<File> fileList = ImmutableList.copyOf(files);
+    FileState newState = readFileState(fileList);
     if (newState == null) {
       return null;
     }
-    diffState(oldState, newState, updatedFiles, removedFiles);
+    diffState(oldState, newState, fileList, updatedFiles, removedFiles);
     return newState;
   }
 
   @Nullable
-  public static ImmutableMap<File, Long> readFileState(Iterable<File> files) {
+  public static FileState readFileState(Iterable<File> files) {
     try {
-      return ModifiedTimeScanner.readTimestamps(files);
+      List<File> fileList = ImmutableList.copyOf(files);
+      return FileState.of(fileList, ModifiedTimeScanner.readModifiedTimes(fileList));
     } catch (Exception e) {
       logger.error(e);
       return null;
     }
   }
 
+  /**
+   * Diffs two file states. Updated files are listed in the order of {@code files}, which must
+   * contain every file in {@code newState}.
+   */
+  public static void diffState(
+      @Nullable FileState oldState,
+      FileState newState,
+      Iterable<File> files,
+      List<File> updated,
+      List<File> removed) {
+    List<File> changed = Lists.newArrayList();
+    FileState.diff(oldState, newState, changed::add, removed::add);
+    if (changed.isEmpty()) {
+      return;
+    }
+    Set<File> changedSet = Sets.newHashSet(changed);
+    for (File file : files) {
+      if (changedSet.remove(file)) {
+        updated.add(file);
+      }
+    }
+  }
+
   public static <K, V> void diffState(
       @Nullable Map<K, V> oldState, Map<K, V> newState, List<K> updated, List<K> removed) {
     oldState = oldState != null ? oldState : ImmutableMap.of();
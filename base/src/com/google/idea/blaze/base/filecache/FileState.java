@@ -0,0 +1,355 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.filecache;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Ints;
+import java.io.File;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
+import javax.annotation.Nullable;
+
+/**
+ * The modified times of a set of files.
+ *
+ * <p>Files are stored in path order, grouped by parent directory: each directory path is stored
+ * once, and each file as its name and a primitive modified time. Two file states can therefore be
+ * diffed or merged in a single linear pass.
+ */
+public final class FileState implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  public static final FileState EMPTY =
+      new FileState(new String[0], new int[] {0}, new String[0], new long[0]);
+
+  /** The distinct parent directories, sorted. "" stands for files without a parent. */
+  private final String[] directories;
+  /** The files of directories[i] are those in [directoryStarts[i], directoryStarts[i + 1]). */
+  private final int[] directoryStarts;
+  /** The file names, sorted within each directory. */
+  private final String[] names;
+
+  private final long[] modifiedTimes;
+
+  private FileState(
+      String[] directories, int[] directoryStarts, String[] names, long[] modifiedTimes) {
+    this.directories = directories;
+    this.directoryStarts = directoryStarts;
+    this.names = names;
+    this.modifiedTimes = modifiedTimes;
+  }
+
+  /**
+   * Returns the state of the given files, ignoring any with a modified time of 0 (i.e. missing
+   * files).
+   */
+  public static FileState of(List<File> files, long[] modifiedTimes) {
+    checkArgument(files.size() == modifiedTimes.length);
+    Builder builder = builder();
+    for (int i = 0; i < modifiedTimes.length; i++) {
+      if (modifiedTimes[i] != 0) {
+        builder.put(files.get(i), modifiedTimes[i]);
+      }
+    }
+    return builder.build();
+  }
+
+  public int size() {
+    return names.length;
+  }
+
+  public boolean isEmpty() {
+    return names.length == 0;
+  }
+
+  /** Returns the modified time of the given file, or 0 if it's not in this state. */
+  public long getModifiedTime(File file) {
+    int directory = Arrays.binarySearch(directories, directoryOf(file));
+    if (directory < 0) {
+      return 0;
+    }
+    int index =
+        Arrays.binarySearch(
+            names, directoryStarts[directory], directoryStarts[directory + 1], file.getName());
+    return index >= 0 ? modifiedTimes[index] : 0;
+  }
+
+  public boolean contains(File file) {
+    return getModifiedTime(file) != 0;
+  }
+
+  /** Calls the given consumer with each file and its modified time, in path order. */
+  public void forEach(ObjLongConsumer<File> consumer) {
+    for (int directory = 0; directory < directories.length; directory++) {
+      for (int i = directoryStarts[directory]; i < directoryStarts[directory + 1]; i++) {
+        consumer.accept(toFile(directories[directory], names[i]), modifiedTimes[i]);
+      }
+    }
+  }
+
+  /** Returns the files in this state, in path order. */
+  public ImmutableList<File> getFiles() {
+    ImmutableList.Builder<File> files = ImmutableList.builder();
+    forEach((file, modifiedTime) -> files.add(file));
+    return files.build();
+  }
+
+  /**
+   * Returns the union of this state and {@code other}. Files in both states keep the modified time
+   * from this one.
+   */
+  public FileState merge(FileState other) {
+    if (other.isEmpty()) {
+      return this;
+    }
+    if (isEmpty()) {
+      return other;
+    }
+    SortedAppender result = new SortedAppender(size() + other.size());
+    Cursor cursor = new Cursor(this);
+    Cursor otherCursor = new Cursor(other);
+    while (!cursor.done() || !otherCursor.done()) {
+      int comparison = compare(cursor, otherCursor);
+      if (comparison <= 0) {
+        result.append(cursor.directory(), cursor.name(), cursor.modifiedTime());
+        cursor.advance();
+        if (comparison == 0) {
+          otherCursor.advance();
+        }
+      } else {
+        result.append(otherCursor.directory(), otherCursor.name(), otherCursor.modifiedTime());
+        otherCursor.advance();
+      }
+    }
+    return result.build();
+  }
+
+  /**
+   * Diffs two states in a single pass, reporting files which are new or have a different modified
+   * time in {@code newState}, and files which are only in {@code oldState}. Files are reported in
+   * path order.
+   */
+  public static void diff(
+      @Nullable FileState oldState,
+      FileState newState,
+      Consumer<File> updated,
+      Consumer<File> removed) {
+    Cursor oldCursor = new Cursor(oldState != null ? oldState : EMPTY);
+    Cursor newCursor = new Cursor(newState);
+    while (!oldCursor.done() || !newCursor.done()) {
+      int comparison = compare(oldCursor, newCursor);
+      if (comparison < 0) {
+        removed.accept(oldCursor.file());
+        oldCursor.advance();
+      } else if (comparison > 0) {
+        updated.accept(newCursor.file());
+        newCursor.advance();
+      } else {
+        if (oldCursor.modifiedTime() != newCursor.modifiedTime()) {
+          updated.accept(newCursor.file());
+        }
+        oldCursor.advance();
+        newCursor.advance();
+      }
+    }
+  }
+
+  /** Compares the current files of two cursors, ordering exhausted cursors last. */
+  private static int compare(Cursor a, Cursor b) {
+    if (a.done() || b.done()) {
+      return Boolean.compare(a.done(), b.done());
+    }
+    int comparison = a.compareDirectory(b);
+    return comparison != 0 ? comparison : a.name().compareTo(b.name());
+  }
+
+  private static String directoryOf(File file) {
+    String parent = file.getParent();
+    return parent != null ? parent : "";
+  }
+
+  private static File toFile(String directory, String name) {
+    return directory.isEmpty() ? new File(name) : new File(directory, name);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof FileState)) {
+      return false;
+    }
+    FileState that = (FileState) o;
+    return Arrays.equals(directories, that.directories)
+        && Arrays.equals(directoryStarts, that.directoryStarts)
+        && Arrays.equals(names, that.names)
+        && Arrays.equals(modifiedTimes, that.modifiedTimes);
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(names) * 31 + Arrays.hashCode(modifiedTimes);
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Builder for a file state. Files may be added in any order; if a file is added more than once,
+   * the first modified time wins.
+   */
+  public static final class Builder {
+    private final List<String> directories = Lists.newArrayList();
+    private final List<String> names = Lists.newArrayList();
+    private long[] modifiedTimes = new long[16];
+
+    private Builder() {}
+
+    public Builder put(File file, long modifiedTime) {
+      int index = names.size();
+      if (index == modifiedTimes.length) {
+        modifiedTimes = Arrays.copyOf(modifiedTimes, index * 2);
+      }
+      directories.add(directoryOf(file));
+      names.add(file.getName());
+      modifiedTimes[index] = modifiedTime;
+      return this;
+    }
+
+    public FileState build() {
+      Integer[] order = new Integer[names.size()];
+      for (int i = 0; i < order.length; i++) {
+        order[i] = i;
+      }
+      // Stable, so the first of any duplicates comes first
+      Arrays.sort(
+          order,
+          Comparator.<Integer, String>comparing(directories::get).thenComparing(names::get));
+      SortedAppender result = new SortedAppender(order.length);
+      for (int i : order) {
+        result.append(directories.get(i), names.get(i), modifiedTimes[i]);
+      }
+      return result.build();
+    }
+  }
+
+  /** Assembles a file state from files appended in path order. Duplicates are ignored. */
+  private static final class SortedAppender {
+    private final List<String> directories = Lists.newArrayList();
+    private final List<Integer> directoryStarts = Lists.newArrayList();
+    private final String[] names;
+    private final long[] modifiedTimes;
+    private int size;
+
+    SortedAppender(int capacity) {
+      names = new String[capacity];
+      modifiedTimes = new long[capacity];
+    }
+
+    void append(String directory, String name, long modifiedTime) {
+      int lastDirectory = directories.size() - 1;
+      if (lastDirectory < 0 || !directories.get(lastDirectory).equals(directory)) {
+        directories.add(directory);
+        directoryStarts.add(size);
+      } else if (names[size - 1].equals(name)) {
+        return;
+      }
+      names[size] = name;
+      modifiedTimes[size] = modifiedTime;
+      size++;
+    }
+
+    FileState build() {
+      if (size == 0) {
+        return EMPTY;
+      }
+      directoryStarts.add(size);
+      return new FileState(
+          directories.toArray(new String[0]),
+          Ints.toArray(directoryStarts),
+          Arrays.copyOf(names, size),
+          Arrays.copyOf(modifiedTimes, size));
+    }
+  }
+
+  /** Iterates over the files of a state in path order. */
+  private static final class Cursor {
+    private final FileState state;
+    private int directory;
+    private int index;
+
+    @Nullable private Cursor cachedOther;
+    private int cachedDirectory = -1;
+    private int cachedOtherDirectory = -1;
+    private int cachedComparison;
+
+    Cursor(FileState state) {
+      this.state = state;
+    }
+
+    boolean done() {
+      return index >= state.names.length;
+    }
+
+    String directory() {
+      return state.directories[directory];
+    }
+
+    String name() {
+      return state.names[index];
+    }
+
+    long modifiedTime() {
+      return state.modifiedTimes[index];
+    }
+
+    File file() {
+      return toFile(directory(), name());
+    }
+
+    void advance() {
+      index++;
+      if (index == state.directoryStarts[directory + 1] && !done()) {
+        directory++;
+      }
+    }
+
+    /**
+     * Compares the current directories of two cursors. The comparison is cached until either
+     * cursor moves to another directory, so each pair of directories is compared at most once.
+     */
+    int compareDirectory(Cursor other) {
+      if (other != cachedOther
+          || directory != cachedDirectory
+          || other.directory != cachedOtherDirectory) {
+        cachedOther = other;
+        cachedDirectory = directory;
+        cachedOtherDirectory = other.directory;
+        cachedComparison = directory().compareTo(other.directory());
+      }
+      return cachedComparison;
+    }
+  }
+}
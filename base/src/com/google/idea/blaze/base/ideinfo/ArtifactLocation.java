@@ -22,19 +22,25 @@ import java.nio.file.Paths;
 
 /** Represents a blaze-produced artifact. */
 public final class ArtifactLocation implements Serializable, Comparable<ArtifactLocation> {
-  private static final long serialVersionUID = 5L;
+  private static final long serialVersionUID = 6L;
 
   private final String rootExecutionPathFragment;
   public final String relativePath;
   public final boolean isSource;
   public final boolean isExternal;
+  private final int outputBaseIndex;
 
   private ArtifactLocation(
-      String rootExecutionPathFragment, String relativePath, boolean isSource, boolean isExternal) {
+      String rootExecutionPathFragment,
+      String relativePath,
+      boolean isSource,
+      boolean isExternal,
+      int outputBaseIndex) {
     this.rootExecutionPathFragment = rootExecutionPathFragment;
     this.relativePath = relativePath;
     this.isSource = isSource;
     this.isExternal = isExternal;
+    this.outputBaseIndex = outputBaseIndex;
   }
 
   /**
@@ -45,6 +51,11 @@ public final class ArtifactLocation implements Serializable, Comparable<Artifact
     return relativePath;
   }
 
+  /** The execution-root-relative path of the artifact root, or "" for main-workspace sources. */
+  public String getRootExecutionPathFragment() {
+    return rootExecutionPathFragment;
+  }
+
   public boolean isSource() {
     return isSource;
   }
@@ -53,6 +64,14 @@ public final class ArtifactLocation implements Serializable, Comparable<Artifact
     return !isSource;
   }
 
+  /**
+   * The output base whose execution root holds this generated artifact: 0 for the default output
+   * base, or i for the i'th additional output base used to build sync shards concurrently.
+   */
+  public int getOutputBaseIndex() {
+    return outputBaseIndex;
+  }
+
   /** For main-workspace source artifacts, this is simply the workspace-relative path. */
   public String getExecutionRootRelativePath() {
     return Paths.get(rootExecutionPathFragment, relativePath).toString();
@@ -68,6 +87,7 @@ public final class ArtifactLocation implements Serializable, Comparable<Artifact
     String rootExecutionPathFragment = "";
     boolean isSource;
     boolean isExternal;
+    int outputBaseIndex;
 
     public Builder setRelativePath(String relativePath) {
       this.relativePath = relativePath;
@@ -89,8 +109,19 @@ public final class ArtifactLocation implements Serializable, Comparable<Artifact
       return this;
     }
 
+    public Builder setOutputBaseIndex(int outputBaseIndex) {
+      this.outputBaseIndex = outputBaseIndex;
+      return this;
+    }
+
     public ArtifactLocation build() {
-      return new ArtifactLocation(rootExecutionPathFragment, relativePath, isSource, isExternal);
+      return new ArtifactLocation(
+          rootExecutionPathFragment, relativePath, isSource, isExternal, outputBaseIndex);
+    }
+
+    /** Builds the artifact location, returning the interner's canonical instance. */
+    public ArtifactLocation build(IdeInfoInterner interner) {
+      return interner.intern(build());
     }
   }
 
@@ -106,12 +137,14 @@ public final class ArtifactLocation implements Serializable, Comparable<Artifact
     return Objects.equal(rootExecutionPathFragment, that.rootExecutionPathFragment)
         && Objects.equal(relativePath, that.relativePath)
         && Objects.equal(isSource, that.isSource)
-        && Objects.equal(isExternal, that.isExternal);
+        && Objects.equal(isExternal, that.isExternal)
+        && outputBaseIndex == that.outputBaseIndex;
   }
 
   @Override
   public int hashCode() {
-    return Objects.hashCode(rootExecutionPathFragment, relativePath, isSource, isExternal);
+    return Objects.hashCode(
+        rootExecutionPathFragment, relativePath, isSource, isExternal, outputBaseIndex);
   }
 
   @Override
@@ -126,6 +159,7 @@ public final class ArtifactLocation implements Serializable, Comparable<Artifact
         .compare(relativePath, o.relativePath)
         .compareFalseFirst(isSource, o.isSource)
         .compareFalseFirst(isExternal, o.isExternal)
+        .compare(outputBaseIndex, o.outputBaseIndex)
         .result();
   }
 }
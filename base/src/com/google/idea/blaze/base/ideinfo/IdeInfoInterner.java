@@ -0,0 +1,152 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.ideinfo;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.idea.blaze.base.model.primitives.ExecutionRootPath;
+import com.google.idea.blaze.base.model.primitives.Label;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Deduplicates the strings and value objects referenced from ide info.
+ *
+ * <p>The same labels, paths and artifacts are referenced from many targets (e.g. every target in a
+ * package shares a BUILD file, and every target depending on a library references its label). An
+ * interner is scoped to a single sync (or a single project data load); all conversion from aspect
+ * output goes through it, so each distinct value is only retained once in the target map.
+ *
+ * <p>Aspect output built against an additional output base (see {@link #forOutputBase}) is
+ * converted via a view of the interner which also records that output base in each generated
+ * artifact.
+ *
+ * <p>Thread-safe.
+ */
+public final class IdeInfoInterner {
+  private final Interner<String> strings;
+  private final Interner<TargetKey> targetKeys;
+  private final Interner<ExecutionRootPath> executionRootPaths;
+  private final Interner<ImmutableList<String>> stringLists;
+  private final ConcurrentMap<String, Label> labels;
+  private final ConcurrentMap<ArtifactLocation, ArtifactLocation> artifacts;
+  private final int outputBaseIndex;
+
+  public IdeInfoInterner() {
+    this.strings = Interners.newStrongInterner();
+    this.targetKeys = Interners.newStrongInterner();
+    this.executionRootPaths = Interners.newStrongInterner();
+    this.stringLists = Interners.newStrongInterner();
+    this.labels = new ConcurrentHashMap<>();
+    this.artifacts = new ConcurrentHashMap<>();
+    this.outputBaseIndex = 0;
+  }
+
+  private IdeInfoInterner(IdeInfoInterner interner, int outputBaseIndex) {
+    this.strings = interner.strings;
+    this.targetKeys = interner.targetKeys;
+    this.executionRootPaths = interner.executionRootPaths;
+    this.stringLists = interner.stringLists;
+    this.labels = interner.labels;
+    this.artifacts = interner.artifacts;
+    this.outputBaseIndex = outputBaseIndex;
+  }
+
+  /**
+   * Returns an interner sharing this one's canonical values, which marks each generated artifact
+   * it interns as built against the given output base.
+   *
+   * @see ArtifactLocation#getOutputBaseIndex()
+   */
+  public IdeInfoInterner forOutputBase(int outputBaseIndex) {
+    return outputBaseIndex == this.outputBaseIndex
+        ? this
+        : new IdeInfoInterner(this, outputBaseIndex);
+  }
+
+  public String intern(String string) {
+    return strings.intern(string);
+  }
+
+  /** Returns the canonical list of interned strings equal to the given list. */
+  public ImmutableList<String> intern(List<String> list) {
+    if (list.isEmpty()) {
+      return ImmutableList.of();
+    }
+    ImmutableList.Builder<String> builder = ImmutableList.builder();
+    for (String string : list) {
+      builder.add(intern(string));
+    }
+    return stringLists.intern(builder.build());
+  }
+
+  /** Returns the canonical label for the given string. Each distinct label is validated once. */
+  public Label label(String label) {
+    Label result = labels.get(label);
+    if (result == null) {
+      result = labels.computeIfAbsent(intern(label), Label::create);
+    }
+    return result;
+  }
+
+  public TargetKey targetKey(String label, List<String> aspectIds) {
+    return targetKeys.intern(TargetKey.forGeneralTarget(label(label), intern(aspectIds)));
+  }
+
+  public TargetKey targetKey(Label label, List<String> aspectIds) {
+    return targetKeys.intern(TargetKey.forGeneralTarget(label, intern(aspectIds)));
+  }
+
+  public ExecutionRootPath executionRootPath(String path) {
+    return executionRootPaths.intern(new ExecutionRootPath(intern(path)));
+  }
+
+  /**
+   * Returns the canonical artifact equal to the given one, interning its path components. Generated
+   * artifacts are first assigned this interner's output base.
+   */
+  public ArtifactLocation intern(ArtifactLocation location) {
+    if (location.isGenerated() && location.getOutputBaseIndex() != outputBaseIndex) {
+      location = withOutputBase(location, outputBaseIndex);
+    }
+    ArtifactLocation result = artifacts.get(location);
+    if (result != null) {
+      return result;
+    }
+    ArtifactLocation canonical =
+        ArtifactLocation.builder()
+            .setRootExecutionPathFragment(intern(location.getRootExecutionPathFragment()))
+            .setRelativePath(intern(location.getRelativePath()))
+            .setIsSource(location.isSource)
+            .setIsExternal(location.isExternal)
+            .setOutputBaseIndex(location.getOutputBaseIndex())
+            .build();
+    result = artifacts.putIfAbsent(canonical, canonical);
+    return result != null ? result : canonical;
+  }
+
+  private static ArtifactLocation withOutputBase(ArtifactLocation location, int outputBaseIndex) {
+    return ArtifactLocation.builder()
+        .setRootExecutionPathFragment(location.getRootExecutionPathFragment())
+        .setRelativePath(location.getRelativePath())
+        .setIsSource(location.isSource)
+        .setIsExternal(location.isExternal)
+        .setOutputBaseIndex(outputBaseIndex)
+        .build();
+  }
+}
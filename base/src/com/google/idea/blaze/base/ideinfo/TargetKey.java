@@ -53,6 +53,10 @@ public class TargetKey implements Serializable, Comparable<TargetKey> {
     return aspectIds.isEmpty();
   }
 
+  public ImmutableList<String> getAspectIds() {
+    return aspectIds;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) {
@@ -15,33 +15,181 @@
  */
 package com.google.idea.blaze.base.ideinfo;
 
-import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableMap;
+import com.google.idea.blaze.base.util.HashTrieMap;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.Collection;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
 
-/** Map of configured targets (and soon aspects). */
+/**
+ * Map of configured targets (and soon aspects).
+ *
+ * <p>Target maps are immutable. A target map updated via {@link #toBuilder} shares all unchanged
+ * entries with the original, so the difference between them can be computed cheaply via {@link
+ * #diff}.
+ */
 public class TargetMap implements Serializable {
-  private static final long serialVersionUID = 2L;
+  private static final long serialVersionUID = 3L;
+
+  private transient volatile HashTrieMap<TargetKey, TargetIdeInfo> targetMap;
 
-  private final ImmutableMap<TargetKey, TargetIdeInfo> targetMap;
+  /** Decodes the map on first access, for target maps loaded from disk. */
+  @Nullable private transient Supplier<HashTrieMap<TargetKey, TargetIdeInfo>> loader;
+
+  /** An immutable copy of the map, made on the first call to {@link #map}. */
+  @Nullable private transient volatile ImmutableMap<TargetKey, TargetIdeInfo> immutableMap;
 
   public TargetMap(ImmutableMap<TargetKey, TargetIdeInfo> targetMap) {
+    this(HashTrieMap.copyOf(targetMap));
+  }
+
+  private TargetMap(HashTrieMap<TargetKey, TargetIdeInfo> targetMap) {
     this.targetMap = targetMap;
   }
 
+  private TargetMap(Supplier<HashTrieMap<TargetKey, TargetIdeInfo>> loader) {
+    this.loader = loader;
+  }
+
+  /** Returns a target map whose contents are only computed the first time they're accessed. */
+  public static TargetMap lazy(Supplier<HashTrieMap<TargetKey, TargetIdeInfo>> loader) {
+    return new TargetMap(loader);
+  }
+
   public TargetIdeInfo get(TargetKey key) {
-    return targetMap.get(key);
+    return trie().get(key);
   }
 
   public boolean contains(TargetKey key) {
-    return targetMap.containsKey(key);
+    return trie().containsKey(key);
+  }
+
+  /** Returns an unmodifiable view of the targets. */
+  public Collection<TargetIdeInfo> targets() {
+    return trie().asMap().values();
   }
 
-  public ImmutableCollection<TargetIdeInfo> targets() {
-    return targetMap.values();
+  public int size() {
+    return trie().size();
   }
 
   public ImmutableMap<TargetKey, TargetIdeInfo> map() {
-    return targetMap;
+    ImmutableMap<TargetKey, TargetIdeInfo> map = immutableMap;
+    if (map == null) {
+      map = ImmutableMap.copyOf(trie().asMap());
+      immutableMap = map;
+    }
+    return map;
+  }
+
+  /** Returns a builder for a new target map, initially empty. */
+  public static Builder builder() {
+    return new Builder(HashTrieMap.<TargetKey, TargetIdeInfo>of().toBuilder());
+  }
+
+  /** Returns a builder initially containing all the targets of this map. */
+  public Builder toBuilder() {
+    return new Builder(trie().toBuilder());
+  }
+
+  /**
+   * Returns the targets added, removed or changed since the given target map. Takes time
+   * proportional to the number of differences if this map was derived from the given one via
+   * {@link #toBuilder}, or vice versa.
+   */
+  public TargetMapDiff diff(@Nullable TargetMap previous) {
+    TargetMapDiff.Builder diff = new TargetMapDiff.Builder();
+    HashTrieMap.diff(
+        previous != null ? previous.trie() : HashTrieMap.of(),
+        trie(),
+        new HashTrieMap.DiffVisitor<TargetKey, TargetIdeInfo>() {
+          @Override
+          public void added(TargetKey key, TargetIdeInfo value) {
+            diff.added.add(key);
+          }
+
+          @Override
+          public void removed(TargetKey key, TargetIdeInfo value) {
+            diff.removed.add(key);
+          }
+
+          @Override
+          public void changed(TargetKey key, TargetIdeInfo before, TargetIdeInfo after) {
+            diff.changed.add(key);
+          }
+        });
+    return diff.build();
+  }
+
+  private HashTrieMap<TargetKey, TargetIdeInfo> trie() {
+    HashTrieMap<TargetKey, TargetIdeInfo> map = targetMap;
+    if (map != null) {
+      return map;
+    }
+    synchronized (this) {
+      if (targetMap == null) {
+        targetMap = loader.get();
+        loader = null;
+      }
+      return targetMap;
+    }
+  }
+
+  /** Builds a new target map, sharing unchanged entries with the original. Not thread-safe. */
+  public static final class Builder {
+    private final HashTrieMap.Builder<TargetKey, TargetIdeInfo> targets;
+
+    private Builder(HashTrieMap.Builder<TargetKey, TargetIdeInfo> targets) {
+      this.targets = targets;
+    }
+
+    @Nullable
+    public TargetIdeInfo get(TargetKey key) {
+      return targets.get(key);
+    }
+
+    /** Adds or replaces a target, returning the previous target with the same key, if any. */
+    @Nullable
+    public TargetIdeInfo put(TargetKey key, TargetIdeInfo target) {
+      return targets.put(key, target);
+    }
+
+    @Nullable
+    public TargetIdeInfo remove(TargetKey key) {
+      return targets.remove(key);
+    }
+
+    public int size() {
+      return targets.size();
+    }
+
+    public TargetMap build() {
+      return new TargetMap(targets.build());
+    }
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    HashTrieMap<TargetKey, TargetIdeInfo> map = trie();
+    out.defaultWriteObject();
+    out.writeInt(map.size());
+    for (TargetIdeInfo target : map.asMap().values()) {
+      out.writeObject(target);
+    }
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    int size = in.readInt();
+    HashTrieMap.Builder<TargetKey, TargetIdeInfo> builder =
+        HashTrieMap.<TargetKey, TargetIdeInfo>of().toBuilder();
+    for (int i = 0; i < size; i++) {
+      TargetIdeInfo target = (TargetIdeInfo) in.readObject();
+      builder.put(target.key, target);
+    }
+    targetMap = builder.build();
   }
 }
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.ideinfo;
+
+import com.google.common.collect.ImmutableSet;
+
+/** The targets added, removed and changed between two {@link TargetMap}s. */
+public final class TargetMapDiff {
+  public final ImmutableSet<TargetKey> added;
+  public final ImmutableSet<TargetKey> removed;
+  public final ImmutableSet<TargetKey> changed;
+
+  private TargetMapDiff(
+      ImmutableSet<TargetKey> added,
+      ImmutableSet<TargetKey> removed,
+      ImmutableSet<TargetKey> changed) {
+    this.added = added;
+    this.removed = removed;
+    this.changed = changed;
+  }
+
+  public boolean isEmpty() {
+    return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+  }
+
+  /** The total number of added, removed and changed targets. */
+  public int size() {
+    return added.size() + removed.size() + changed.size();
+  }
+
+  static class Builder {
+    final ImmutableSet.Builder<TargetKey> added = ImmutableSet.builder();
+    final ImmutableSet.Builder<TargetKey> removed = ImmutableSet.builder();
+    final ImmutableSet.Builder<TargetKey> changed = ImmutableSet.builder();
+
+    TargetMapDiff build() {
+      return new TargetMapDiff(added.build(), removed.build(), changed.build());
+    }
+  }
+}
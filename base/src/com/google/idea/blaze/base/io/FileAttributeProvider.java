@@ -15,13 +15,37 @@
  */
 package com.google.idea.blaze.base.io;
 
+import com.google.common.collect.Maps;
 import com.intellij.openapi.components.ServiceManager;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToLongFunction;
 import javax.annotation.Nullable;
 
 /** Simple file system checks (existence, isDirectory) */
 public class FileAttributeProvider {
 
+  /**
+   * Batches at least this large are read with a single listing of their directory, rather than one
+   * stat() per file.
+   */
+  private static final int DIRECTORY_LISTING_THRESHOLD = 64;
+
+  /**
+   * A directory is only listed if at least 1/N of its entries are requested, so a few files in a
+   * large directory are still read one at a time.
+   */
+  private static final int MIN_LISTED_SHARE = 2;
+
   public static FileAttributeProvider getInstance() {
     return ServiceManager.getService(FileAttributeProvider.class);
   }
@@ -38,14 +62,117 @@ public class FileAttributeProvider {
     return file.isFile();
   }
 
+  /**
+   * Returns the file's modified time in milliseconds, or 0 if it doesn't exist.
+   *
+   * <p>Read via NIO, like {@link #getFileModifiedTimes}: {@link File#lastModified} truncates to
+   * whole seconds on some JDKs, so mixing the two would report different times for the same file.
+   */
   public long getFileModifiedTime(File file) {
-    return file.lastModified();
+    try {
+      return Files.getLastModifiedTime(file.toPath()).toMillis();
+    } catch (IOException e) {
+      return 0;
+    }
   }
 
   public long getFileSize(File file) {
     return file.length();
   }
 
+  /**
+   * Reads the modified times of several files with the given parent directory. Missing files have a
+   * modified time of 0.
+   *
+   * @return the modified time of each file, indexed like {@code files}
+   */
+  public long[] getFileModifiedTimes(@Nullable File directory, List<File> files) {
+    if (!useDirectoryListing(directory, files)) {
+      return readSingleFiles(files, this::getFileModifiedTime);
+    }
+    return readFromDirectoryListing(directory, files, attr -> attr.lastModifiedTime().toMillis());
+  }
+
+  /**
+   * Reads the sizes of several files with the given parent directory. Missing files have a size of
+   * 0.
+   *
+   * @return the size of each file, indexed like {@code files}
+   */
+  public long[] getFileSizes(@Nullable File directory, List<File> files) {
+    if (!useDirectoryListing(directory, files)) {
+      return readSingleFiles(files, this::getFileSize);
+    }
+    return readFromDirectoryListing(directory, files, BasicFileAttributes::size);
+  }
+
+  /**
+   * Whether a batch of files should be read with a single listing of their directory, rather than
+   * one stat() per file. Only true for large batches covering a large share of the directory.
+   *
+   * <p>Subclasses overriding the single file reads (e.g. test fakes) are read one file at a time by
+   * default, as a directory listing would bypass them.
+   */
+  protected boolean useDirectoryListing(@Nullable File directory, List<File> files) {
+    if (directory == null
+        || files.size() < DIRECTORY_LISTING_THRESHOLD
+        || getClass() != FileAttributeProvider.class) {
+      return false;
+    }
+    // names only, so much cheaper than reading the attributes of every entry
+    String[] names = directory.list();
+    return names != null && (long) files.size() * MIN_LISTED_SHARE >= names.length;
+  }
+
+  private static long[] readSingleFiles(List<File> files, ToLongFunction<File> singleFileReader) {
+    long[] result = new long[files.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = singleFileReader.applyAsLong(files.get(i));
+    }
+    return result;
+  }
+
+  /**
+   * Reads an attribute of several files with the given parent directory by listing it. Missing
+   * files are 0.
+   */
+  protected long[] readFromDirectoryListing(
+      File directory, List<File> files, ToLongFunction<BasicFileAttributes> attributeReader) {
+    long[] result = new long[files.size()];
+    Map<String, Integer> indices = Maps.newHashMapWithExpectedSize(files.size());
+    for (int i = 0; i < result.length; i++) {
+      indices.put(files.get(i).getName(), i);
+    }
+    Path start = directory.toPath();
+    try {
+      // Follow links, for consistency with the single file reads. Entries which can't be read (e.g.
+      // broken links) are left as 0.
+      Files.walkFileTree(
+          start,
+          EnumSet.of(FileVisitOption.FOLLOW_LINKS),
+          1,
+          new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+              Integer index =
+                  file.equals(start) ? null : indices.get(file.getFileName().toString());
+              if (index != null) {
+                result[index] = attributeReader.applyAsLong(attrs);
+              }
+              return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+              return FileVisitResult.CONTINUE;
+            }
+          });
+    } catch (IOException e) {
+      // The directory couldn't be listed, so the files are missing.
+    }
+    return result;
+  }
+
   @Nullable
   public File[] listFiles(File file) {
     return file.listFiles();
@@ -15,55 +15,115 @@
  */
 package com.google.idea.blaze.base.io;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.idea.blaze.base.async.executor.BlazeExecutor;
 import java.io.File;
 import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
 
-/** Reads file attributes from a list files in parallel. */
+/**
+ * Reads file attributes from a list files in parallel.
+ *
+ * <p>Files are grouped by parent directory, and each executor task reads the files of a batch of
+ * directories, so the number of tasks doesn't grow with the number of files.
+ */
 public class FileAttributeScanner {
 
-  interface AttributeReader<T> {
-    T getAttribute(File file);
+  /** The minimum number of files read by each executor task. */
+  private static final int MIN_FILES_PER_TASK = 256;
 
-    boolean isValid(T attribute);
+  /** The maximum number of executor tasks used to read a single list of files. */
+  private static final int MAX_TASKS = 64;
+
+  /** Reads an attribute of several files with the same parent directory. */
+  interface AttributeReader {
+    /** Returns the attribute of each file, indexed like {@code files}, or 0 if it's invalid. */
+    long[] getAttributes(@Nullable File directory, List<File> files);
   }
 
-  public static <T> ImmutableMap<File, T> readAttributes(
-      Iterable<File> fileList, AttributeReader<T> attributeReader, BlazeExecutor executor)
+  /** Returns the files with a valid (non-zero) attribute, in the order of the input list. */
+  public static ImmutableMap<File, Long> readAttributes(
+      Iterable<File> fileList, AttributeReader attributeReader, BlazeExecutor executor)
       throws Exception {
-    List<ListenableFuture<FilePair<T>>> futures = Lists.newArrayList();
-    for (File file : fileList) {
-      futures.add(
-          executor.submit(
-              () -> {
-                T attribute = attributeReader.getAttribute(file);
-                if (attributeReader.isValid(attribute)) {
-                  return new FilePair<>(file, attribute);
-                }
-                return null;
-              }));
+    List<File> files = ImmutableList.copyOf(fileList);
+    long[] attributes = readAttributeValues(files, attributeReader, executor);
+    ImmutableMap.Builder<File, Long> result = ImmutableMap.builder();
+    for (int i = 0; i < attributes.length; i++) {
+      if (attributes[i] != 0) {
+        result.put(files.get(i), attributes[i]);
+      }
+    }
+    return result.build();
+  }
+
+  /** Returns the attribute of each file, indexed like {@code files}. */
+  static long[] readAttributeValues(
+      List<File> files, AttributeReader attributeReader, BlazeExecutor executor) throws Exception {
+    Map<File, DirectoryBatch> directories = Maps.newLinkedHashMap();
+    for (int i = 0; i < files.size(); i++) {
+      File file = files.get(i);
+      directories.computeIfAbsent(file.getParentFile(), DirectoryBatch::new).add(i, file);
     }
+    long[] result = new long[files.size()];
+    int taskCount = Math.min(directories.size(), files.size() / MIN_FILES_PER_TASK);
+    taskCount = Math.max(1, Math.min(MAX_TASKS, taskCount));
+    int filesPerTask = (files.size() + taskCount - 1) / taskCount;
 
-    ImmutableMap.Builder<File, T> result = ImmutableMap.builder();
-    for (FilePair<T> filePair : Futures.allAsList(futures).get()) {
-      if (filePair != null) {
-        result.put(filePair.file, filePair.attribute);
+    List<ListenableFuture<?>> futures = Lists.newArrayList();
+    List<DirectoryBatch> task = Lists.newArrayList();
+    int taskSize = 0;
+    for (DirectoryBatch batch : directories.values()) {
+      task.add(batch);
+      taskSize += batch.files.size();
+      if (taskSize >= filesPerTask) {
+        futures.add(submit(executor, task, attributeReader, result));
+        task = Lists.newArrayList();
+        taskSize = 0;
       }
     }
-    return result.build();
+    if (!task.isEmpty()) {
+      futures.add(submit(executor, task, attributeReader, result));
+    }
+    Futures.allAsList(futures).get();
+    return result;
   }
 
-  private static class FilePair<T> {
-    public final File file;
-    public final T attribute;
+  private static ListenableFuture<?> submit(
+      BlazeExecutor executor,
+      List<DirectoryBatch> batches,
+      AttributeReader attributeReader,
+      long[] result) {
+    return executor.submit(
+        () -> {
+          for (DirectoryBatch batch : batches) {
+            long[] attributes = attributeReader.getAttributes(batch.directory, batch.files);
+            for (int i = 0; i < attributes.length; i++) {
+              result[batch.indices.get(i)] = attributes[i];
+            }
+          }
+          return null;
+        });
+  }
+
+  /** The files in a single directory, along with their indices in the input list. */
+  private static class DirectoryBatch {
+    @Nullable final File directory;
+    final List<File> files = Lists.newArrayList();
+    final List<Integer> indices = Lists.newArrayList();
+
+    DirectoryBatch(@Nullable File directory) {
+      this.directory = directory;
+    }
 
-    public FilePair(File file, T attribute) {
-      this.file = file;
-      this.attribute = attribute;
+    void add(int index, File file) {
+      indices.add(index);
+      files.add(file);
     }
   }
 }
@@ -15,36 +15,20 @@
  */
 package com.google.idea.blaze.base.io;
 
-import com.google.common.collect.ImmutableMap;
 import com.google.idea.blaze.base.async.executor.BlazeExecutor;
 import java.io.File;
+import java.util.List;
 
 /** Reads the last modified times from a list of files. */
 public class ModifiedTimeScanner {
 
-  private static final class TimestampReader implements FileAttributeScanner.AttributeReader<Long> {
-
-    private final FileAttributeProvider attributeProvider;
-
-    TimestampReader(FileAttributeProvider attributeProvider) {
-      this.attributeProvider = attributeProvider;
-    }
-
-    @Override
-    public Long getAttribute(File file) {
-      return attributeProvider.getFileModifiedTime(file);
+  /** Returns the modified time of each file, indexed like {@code files}, or 0 if it's missing. */
+  public static long[] readModifiedTimes(List<File> files) throws Exception {
+    if (files.isEmpty()) {
+      return new long[0];
     }
-
-    @Override
-    public boolean isValid(Long timestamp) {
-      return timestamp != 0;
-    }
-  }
-
-  public static ImmutableMap<File, Long> readTimestamps(Iterable<File> fileList) throws Exception {
-    final TimestampReader timestampReader =
-        new TimestampReader(FileAttributeProvider.getInstance());
-    return FileAttributeScanner.readAttributes(
-        fileList, timestampReader, BlazeExecutor.getInstance());
+    FileAttributeProvider attributeProvider = FileAttributeProvider.getInstance();
+    return FileAttributeScanner.readAttributeValues(
+        files, attributeProvider::getFileModifiedTimes, BlazeExecutor.getInstance());
   }
 }
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.actions;
+
+import com.google.idea.blaze.base.lang.buildfile.psi.FuncallExpression;
+import com.google.idea.blaze.base.lang.buildfile.stubs.BuildRuleNameIndex;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.settings.Blaze;
+import com.intellij.ide.actions.GotoActionBase;
+import com.intellij.ide.util.gotoByName.ChooseByNamePopup;
+import com.intellij.ide.util.gotoByName.ContributorsBasedGotoByModel;
+import com.intellij.navigation.ChooseByNameContributor;
+import com.intellij.navigation.NavigationItem;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.stubs.StubIndex;
+import java.util.Collection;
+import javax.annotation.Nullable;
+
+/** Navigates to a BUILD rule, chosen by name or label from all rules in the workspace. */
+public class GotoBlazeTargetAction extends GotoActionBase {
+
+  @Override
+  public void update(AnActionEvent event) {
+    super.update(event);
+    Project project = event.getProject();
+    if (project == null || !Blaze.isBlazeProject(project)) {
+      event.getPresentation().setEnabledAndVisible(false);
+    }
+  }
+
+  @Override
+  protected void gotoActionPerformed(AnActionEvent e) {
+    Project project = e.getProject();
+    if (project == null) {
+      return;
+    }
+    showNavigationPopup(
+        e,
+        new GotoTargetModel(project),
+        new GotoActionCallback<Object>() {
+          @Override
+          public void elementChosen(ChooseByNamePopup popup, Object element) {
+            if (element instanceof NavigationItem) {
+              ((NavigationItem) element).navigate(true);
+            }
+          }
+        },
+        "Blaze targets matching pattern",
+        true);
+  }
+
+  /**
+   * Names are target names, served from {@link BuildRuleNameIndex}. The full name of each target is
+   * its label, so patterns containing a package path also match.
+   */
+  private static class GotoTargetModel extends ContributorsBasedGotoByModel {
+
+    GotoTargetModel(Project project) {
+      super(project, new ChooseByNameContributor[] {new TargetContributor()});
+    }
+
+    @Override
+    public String getPromptText() {
+      return "Enter Blaze target name or label:";
+    }
+
+    @Override
+    public String getNotInMessage() {
+      return "No matches found in project";
+    }
+
+    @Override
+    public String getNotFoundMessage() {
+      return "No matching targets found";
+    }
+
+    @Nullable
+    @Override
+    public String getCheckBoxName() {
+      return "Include non-project targets";
+    }
+
+    public char getCheckBoxMnemonic() {
+      return 'n';
+    }
+
+    @Override
+    public boolean loadInitialCheckBoxState() {
+      return false;
+    }
+
+    @Override
+    public void saveInitialCheckBoxState(boolean state) {}
+
+    @Override
+    public String[] getSeparators() {
+      return new String[] {"/", ":"};
+    }
+
+    @Nullable
+    @Override
+    public String getElementName(Object element) {
+      return element instanceof FuncallExpression ? ((FuncallExpression) element).getName() : null;
+    }
+
+    @Nullable
+    @Override
+    public String getFullName(Object element) {
+      if (!(element instanceof FuncallExpression)) {
+        return null;
+      }
+      Label label = ((FuncallExpression) element).resolveBuildLabel();
+      return label != null ? label.toString() : getElementName(element);
+    }
+
+    @Nullable
+    @Override
+    public String getHelpId() {
+      return null;
+    }
+
+    @Override
+    public boolean willOpenEditor() {
+      return true;
+    }
+
+    @Override
+    public boolean useMiddleMatching() {
+      return true;
+    }
+  }
+
+  private static class TargetContributor implements ChooseByNameContributor {
+    @Override
+    public String[] getNames(Project project, boolean includeNonProjectItems) {
+      Collection<String> names =
+          StubIndex.getInstance().getAllKeys(BuildRuleNameIndex.KEY, project);
+      return names.toArray(new String[0]);
+    }
+
+    @Override
+    public NavigationItem[] getItemsByName(
+        String name, String pattern, Project project, boolean includeNonProjectItems) {
+      GlobalSearchScope scope =
+          includeNonProjectItems
+              ? GlobalSearchScope.allScope(project)
+              : GlobalSearchScope.projectScope(project);
+      return StubIndex.getElements(
+              BuildRuleNameIndex.KEY, name, project, scope, FuncallExpression.class)
+          .stream()
+          .filter(rule -> rule.resolveBuildLabel() != null)
+          .toArray(NavigationItem[]::new);
+    }
+  }
+}
@@ -17,10 +17,12 @@ package com.google.idea.blaze.base.lang.buildfile.completion;
 
 import com.google.common.collect.Lists;
 import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile;
-import com.google.idea.blaze.base.lang.buildfile.psi.FuncallExpression;
 import com.google.idea.blaze.base.lang.buildfile.references.LabelUtils;
 import com.google.idea.blaze.base.lang.buildfile.references.QuoteType;
+import com.google.idea.blaze.base.lang.buildfile.search.BuildTargetIndex;
+import icons.BlazeIcons;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import javax.annotation.Nullable;
 import javax.swing.Icon;
@@ -28,6 +30,8 @@ import javax.swing.Icon;
 /**
  * Given a label fragment containing a (possibly implicit) package path, provides a lookup element
  * to a rule target in that package.
+ *
+ * <p>Targets are read from {@link BuildTargetIndex}, so the referenced BUILD file isn't parsed.
  */
 public class LabelRuleLookupElement extends BuildLookupElement {
 
@@ -43,37 +47,25 @@ public class LabelRuleLookupElement extends BuildLookupElement {
 
     String ruleFragment = LabelUtils.getRuleComponent(originalString);
     List<BuildLookupElement> lookups = Lists.newArrayList();
-    for (FuncallExpression target : file.findChildrenByClass(FuncallExpression.class)) {
-      String targetName = target.getName();
-      if (targetName == null
-          || Objects.equals(target.getName(), excluded)
-          || !targetName.startsWith(ruleFragment)) {
-        continue;
-      }
-      String ruleType = target.getFunctionName();
-      if (ruleType == null) {
+    for (Map.Entry<String, String> target : BuildTargetIndex.getTargets(file).entrySet()) {
+      String targetName = target.getKey();
+      if (Objects.equals(targetName, excluded) || !targetName.startsWith(ruleFragment)) {
         continue;
       }
       lookups.add(
-          new LabelRuleLookupElement(packagePrefix, target, targetName, ruleType, quoteType));
+          new LabelRuleLookupElement(packagePrefix, targetName, target.getValue(), quoteType));
     }
     return lookups.isEmpty()
         ? BuildLookupElement.EMPTY_ARRAY
         : lookups.toArray(new BuildLookupElement[lookups.size()]);
   }
 
-  private final FuncallExpression target;
   private final String targetName;
   private final String ruleType;
 
   private LabelRuleLookupElement(
-      String packagePrefix,
-      FuncallExpression target,
-      String targetName,
-      String ruleType,
-      QuoteType quoteType) {
+      String packagePrefix, String targetName, String ruleType, QuoteType quoteType) {
     super(packagePrefix + targetName, quoteType);
-    this.target = target;
     this.targetName = targetName;
     this.ruleType = ruleType;
 
@@ -82,7 +74,7 @@ public class LabelRuleLookupElement extends BuildLookupElement {
 
   @Override
   public Icon getIcon() {
-    return target.getIcon(0);
+    return BlazeIcons.BuildRule;
   }
 
   @Override
@@ -0,0 +1,316 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.globbing;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.idea.blaze.base.bazel.BuildSystemProvider;
+import com.google.idea.blaze.base.io.FileAttributeProvider;
+import com.google.idea.blaze.base.io.VirtualFileSystemProvider;
+import com.google.idea.blaze.base.settings.Blaze;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.VFileProperty;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileAdapter;
+import com.intellij.openapi.vfs.VirtualFileEvent;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.VirtualFileMoveEvent;
+import com.intellij.openapi.vfs.VirtualFilePropertyEvent;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Caches compiled glob matchers, and the directory listings used to evaluate globs and find blaze
+ * packages. Directory listings are read from the VFS, and invalidated by VFS events, so the cache
+ * is never newer or older than the VFS.
+ */
+public class GlobCache {
+
+  private static final int MAX_CACHED_MATCHERS = 1000;
+  private static final int MAX_CACHED_LISTINGS = 10000;
+
+  public static GlobCache getInstance(Project project) {
+    return ServiceManager.getService(project, GlobCache.class);
+  }
+
+  private final Project project;
+  private final Cache<MatcherKey, GlobMatcher> matchers =
+      CacheBuilder.newBuilder().maximumSize(MAX_CACHED_MATCHERS).build();
+  /** The paths of all cached listings, sorted so the listings under a directory are a range. */
+  private final NavigableSet<String> listingPaths = new ConcurrentSkipListSet<>();
+
+  private final Cache<String, DirectoryListing> listings =
+      CacheBuilder.newBuilder()
+          .maximumSize(MAX_CACHED_LISTINGS)
+          .<String, DirectoryListing>removalListener(
+              notification -> {
+                if (notification.getCause() != RemovalCause.REPLACED) {
+                  listingPaths.remove(notification.getKey());
+                }
+              })
+          .build();
+  /** Incremented on every invalidation, so listings read concurrently aren't cached stale. */
+  private final AtomicLong modificationCount = new AtomicLong();
+  /** Held while invalidating, and while caching a listing after checking it isn't stale. */
+  private final Object invalidationLock = new Object();
+
+  private final FileAttributeProvider cachingFileAttributeProvider =
+      new CachingFileAttributeProvider();
+
+  public GlobCache(Project project) {
+    this.project = project;
+    VirtualFileManager.getInstance().addVirtualFileListener(new FileListener(), project);
+  }
+
+  /** Returns the compiled matcher for the given glob. */
+  public GlobMatcher getMatcher(
+      List<String> includes, List<String> excludes, boolean excludeDirectories) {
+    MatcherKey key =
+        new MatcherKey(
+            ImmutableList.copyOf(includes), ImmutableList.copyOf(excludes), excludeDirectories);
+    GlobMatcher matcher = matchers.getIfPresent(key);
+    if (matcher == null) {
+      matcher = GlobMatcher.create(key.includes, key.excludes, excludeDirectories);
+      matchers.put(key, matcher);
+    }
+    return matcher;
+  }
+
+  /**
+   * Evaluates the glob relative to the given package directory, without traversing subpackages.
+   * Directory listings are cached.
+   */
+  public List<File> glob(
+      File packageDirectory, List<String> includes, List<String> excludes, boolean excludeDirs)
+      throws IOException, InterruptedException {
+    return UnixGlob.forPath(packageDirectory)
+        .addPatterns(includes)
+        .addExcludes(excludes)
+        .setExcludeDirectories(excludeDirs)
+        .setFileAttributeProvider(cachingFileAttributeProvider)
+        .setDirectoryFilter(dir -> dir.equals(packageDirectory) || !hasBuildFile(dir))
+        .glob();
+  }
+
+  /** Returns true if the given directory has a BUILD file, using the cached directory listing. */
+  public boolean hasBuildFile(File directory) {
+    BuildSystemProvider provider = Blaze.getBuildSystemProvider(project);
+    for (String name : getListing(directory).kinds.keySet()) {
+      if (provider.isBuildFile(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private DirectoryListing getListing(File directory) {
+    String key = FileUtil.toSystemIndependentName(directory.getPath());
+    DirectoryListing listing = listings.getIfPresent(key);
+    if (listing != null) {
+      return listing;
+    }
+    long stamp = modificationCount.get();
+    listing = DirectoryListing.read(directory);
+    synchronized (invalidationLock) {
+      // otherwise an invalidation may have run between reading and caching the listing
+      if (modificationCount.get() == stamp) {
+        listingPaths.add(key);
+        listings.asMap().putIfAbsent(key, listing);
+      }
+    }
+    return listing;
+  }
+
+  private void invalidate(@Nullable VirtualFile parent, String path, boolean isDirectory) {
+    synchronized (invalidationLock) {
+      modificationCount.incrementAndGet();
+      if (parent != null) {
+        listings.invalidate(parent.getPath());
+      }
+      if (isDirectory) {
+        listings.invalidate(path);
+        // every path starting with "path/" sorts between "path/" and "path0", as '0' follows '/'
+        listings.invalidateAll(ImmutableList.copyOf(listingPaths.subSet(path + "/", path + "0")));
+      }
+    }
+  }
+
+  private enum FileKind {
+    FILE,
+    DIRECTORY,
+    OTHER,
+  }
+
+  /** The children of a directory in the VFS, and their types. */
+  private static class DirectoryListing {
+    private static final DirectoryListing EMPTY = new DirectoryListing(null, ImmutableMap.of());
+
+    @Nullable private final File[] children;
+    private final ImmutableMap<String, FileKind> kinds;
+
+    private DirectoryListing(@Nullable File[] children, ImmutableMap<String, FileKind> kinds) {
+      this.children = children;
+      this.kinds = kinds;
+    }
+
+    static DirectoryListing read(File directory) {
+      VirtualFile dir =
+          VirtualFileSystemProvider.getInstance().getSystem().findFileByIoFile(directory);
+      if (dir == null || !dir.isValid() || !dir.isDirectory()) {
+        return EMPTY;
+      }
+      VirtualFile[] children = dir.getChildren();
+      File[] files = new File[children.length];
+      ImmutableMap.Builder<String, FileKind> kinds = ImmutableMap.builder();
+      for (int i = 0; i < children.length; i++) {
+        VirtualFile child = children[i];
+        files[i] = new File(directory, child.getName());
+        if (child.isDirectory()) {
+          kinds.put(child.getName(), FileKind.DIRECTORY);
+        } else if (child.is(VFileProperty.SPECIAL)) {
+          kinds.put(child.getName(), FileKind.OTHER);
+        } else {
+          kinds.put(child.getName(), FileKind.FILE);
+        }
+      }
+      return new DirectoryListing(files, kinds.build());
+    }
+  }
+
+  /** Answers file system checks from the cached listing of the parent directory. */
+  private class CachingFileAttributeProvider extends FileAttributeProvider {
+    @Nullable
+    private FileKind getKind(File file) {
+      File parent = file.getParentFile();
+      if (parent == null) {
+        FileAttributeProvider provider = FileAttributeProvider.getInstance();
+        if (provider.isDirectory(file)) {
+          return FileKind.DIRECTORY;
+        }
+        return provider.exists(file) ? FileKind.OTHER : null;
+      }
+      return getListing(parent).kinds.get(file.getName());
+    }
+
+    @Override
+    public boolean exists(File file) {
+      return getKind(file) != null;
+    }
+
+    @Override
+    public boolean isDirectory(File file) {
+      return getKind(file) == FileKind.DIRECTORY;
+    }
+
+    @Override
+    public boolean isFile(File file) {
+      return getKind(file) == FileKind.FILE;
+    }
+
+    @Nullable
+    @Override
+    public File[] listFiles(File file) {
+      File[] children = getListing(file).children;
+      return children != null ? children.clone() : null;
+    }
+  }
+
+  private class FileListener extends VirtualFileAdapter {
+    @Override
+    public void fileCreated(@NotNull VirtualFileEvent event) {
+      processEvent(event);
+    }
+
+    @Override
+    public void fileDeleted(@NotNull VirtualFileEvent event) {
+      processEvent(event);
+    }
+
+    @Override
+    public void fileMoved(@NotNull VirtualFileMoveEvent event) {
+      VirtualFile file = event.getFile();
+      invalidate(
+          event.getOldParent(),
+          event.getOldParent().getPath() + "/" + file.getName(),
+          file.isDirectory());
+      invalidate(event.getNewParent(), file.getPath(), file.isDirectory());
+    }
+
+    @Override
+    public void propertyChanged(@NotNull VirtualFilePropertyEvent event) {
+      if (!VirtualFile.PROP_NAME.equals(event.getPropertyName())) {
+        return;
+      }
+      VirtualFile file = event.getFile();
+      VirtualFile parent = file.getParent();
+      if (parent != null) {
+        invalidate(parent, parent.getPath() + "/" + event.getOldValue(), file.isDirectory());
+      }
+      invalidate(parent, file.getPath(), file.isDirectory());
+    }
+
+    private void processEvent(VirtualFileEvent event) {
+      VirtualFile file = event.getFile();
+      invalidate(event.getParent(), file.getPath(), file.isDirectory());
+    }
+  }
+
+  private static class MatcherKey {
+    final ImmutableList<String> includes;
+    final ImmutableList<String> excludes;
+    final boolean excludeDirectories;
+
+    MatcherKey(
+        ImmutableList<String> includes,
+        ImmutableList<String> excludes,
+        boolean excludeDirectories) {
+      this.includes = includes;
+      this.excludes = excludes;
+      this.excludeDirectories = excludeDirectories;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof MatcherKey)) {
+        return false;
+      }
+      MatcherKey that = (MatcherKey) o;
+      return excludeDirectories == that.excludeDirectories
+          && includes.equals(that.includes)
+          && excludes.equals(that.excludes);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(includes, excludes, excludeDirectories);
+    }
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.globbing;
+
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * A glob with precompiled include and exclude patterns, matching package-relative paths without
+ * touching the file system.
+ */
+public final class GlobMatcher {
+
+  private final boolean excludeDirectories;
+  private final ImmutableList<Predicate<String>> includes;
+  private final ImmutableList<Predicate<String>> directIncludes;
+  private final ImmutableList<Predicate<String>> excludes;
+
+  private GlobMatcher(
+      boolean excludeDirectories,
+      ImmutableList<Predicate<String>> includes,
+      ImmutableList<Predicate<String>> directIncludes,
+      ImmutableList<Predicate<String>> excludes) {
+    this.excludeDirectories = excludeDirectories;
+    this.includes = includes;
+    this.directIncludes = directIncludes;
+    this.excludes = excludes;
+  }
+
+  public static GlobMatcher create(
+      List<String> includes, List<String> excludes, boolean excludeDirectories) {
+    ImmutableList.Builder<Predicate<String>> includeMatchers = ImmutableList.builder();
+    ImmutableList.Builder<Predicate<String>> directIncludeMatchers = ImmutableList.builder();
+    for (String include : includes) {
+      Predicate<String> matcher = UnixGlob.matcher(include);
+      includeMatchers.add(matcher);
+      if (!hasWildcard(include)) {
+        directIncludeMatchers.add(matcher);
+      }
+    }
+    ImmutableList.Builder<Predicate<String>> excludeMatchers = ImmutableList.builder();
+    for (String exclude : excludes) {
+      excludeMatchers.add(UnixGlob.matcher(exclude));
+    }
+    return new GlobMatcher(
+        excludeDirectories,
+        includeMatchers.build(),
+        directIncludeMatchers.build(),
+        excludeMatchers.build());
+  }
+
+  private static boolean hasWildcard(String pattern) {
+    return pattern.contains("*");
+  }
+
+  /**
+   * Returns true iff the complete glob references the specified file.
+   *
+   * <p>In particular, it's not concerned with individual patterns referencing the file, only
+   * whether the overall glob does (i.e. returns false if the file is explicitly excluded).
+   */
+  public boolean matches(String packageRelativePath, boolean isDirectory) {
+    return matches(includes, packageRelativePath, isDirectory);
+  }
+
+  /**
+   * Returns true iff an include pattern *without wildcards* matches the given path and it's not
+   * excluded.
+   */
+  public boolean matchesDirectly(String packageRelativePath, boolean isDirectory) {
+    return matches(directIncludes, packageRelativePath, isDirectory);
+  }
+
+  private boolean matches(
+      List<Predicate<String>> includes, String packageRelativePath, boolean isDirectory) {
+    if (isDirectory && excludeDirectories) {
+      return false;
+    }
+    for (Predicate<String> exclude : excludes) {
+      if (exclude.test(packageRelativePath)) {
+        return false;
+      }
+    }
+    for (Predicate<String> include : includes) {
+      if (include.test(packageRelativePath)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
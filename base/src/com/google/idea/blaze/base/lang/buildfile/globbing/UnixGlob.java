@@ -65,10 +65,11 @@ public final class UnixGlob {
       Collection<String> patterns,
       boolean excludeDirectories,
       Predicate<File> dirPred,
-      ThreadPoolExecutor threadPool)
+      ThreadPoolExecutor threadPool,
+      FileAttributeProvider fileAttributeProvider)
       throws IOException, InterruptedException {
 
-    GlobVisitor visitor = (threadPool == null) ? new GlobVisitor() : new GlobVisitor(threadPool);
+    GlobVisitor visitor = new GlobVisitor(threadPool, fileAttributeProvider);
     return visitor.glob(base, patterns, excludeDirectories, dirPred);
   }
 
@@ -100,6 +101,39 @@ public final class UnixGlob {
     }
   }
 
+  /**
+   * Returns a predicate equivalent to {@link #matches(String, String)} for the given pattern,
+   * compiling it up front.
+   */
+  static Predicate<String> matcher(String pattern) {
+    if (pattern.length() == 0) {
+      return str -> false;
+    }
+    if (pattern.equals("**") || pattern.equals("*")) {
+      return str -> str.length() != 0;
+    }
+    boolean leadingDot = pattern.charAt(0) == '.';
+    Predicate<String> matcher;
+    int lastIndex = pattern.length() - 1;
+    if (pattern.charAt(0) == '*' && pattern.lastIndexOf('*') == 0) {
+      String suffix = pattern.substring(1);
+      matcher = str -> str.endsWith(suffix);
+    } else if (pattern.charAt(lastIndex) == '*' && pattern.indexOf('*') == lastIndex) {
+      String prefix = pattern.substring(0, lastIndex);
+      matcher = str -> str.startsWith(prefix);
+    } else {
+      Pattern regex;
+      try {
+        regex = makePatternFromWildcard(pattern);
+      } catch (PatternSyntaxException e) {
+        return str -> false;
+      }
+      matcher = str -> regex.matcher(str).matches();
+    }
+    // If a filename starts with '.', this char must be matched explicitly.
+    return str -> str.length() != 0 && (leadingDot || str.charAt(0) != '.') && matcher.test(str);
+  }
+
   /**
    * Returns whether {@code str} matches the glob pattern {@code pattern}. This method may use the
    * {@code patternCache} to speed up the matching process.
@@ -216,6 +250,7 @@ public final class UnixGlob {
     private boolean excludeDirectories;
     private Predicate<File> pathFilter;
     private ThreadPoolExecutor threadPool;
+    private FileAttributeProvider fileAttributeProvider;
 
     /** Creates a glob builder with the given base path. */
     public Builder(File base) {
@@ -289,6 +324,15 @@ public final class UnixGlob {
       return this;
     }
 
+    /**
+     * Sets the provider used for all file system checks and directory listings. If unset, the
+     * global {@link FileAttributeProvider} is used.
+     */
+    public Builder setFileAttributeProvider(FileAttributeProvider fileAttributeProvider) {
+      this.fileAttributeProvider = fileAttributeProvider;
+      return this;
+    }
+
     /**
      * If set, the given predicate is called for every directory encountered. If it returns false,
      * the corresponding item is not returned in the output and directories are not traversed
@@ -305,8 +349,14 @@ public final class UnixGlob {
      * @throws InterruptedException if the thread is interrupted.
      */
     public List<File> glob() throws IOException, InterruptedException {
-      Set<File> included = globInternal(base, patterns, excludeDirectories, pathFilter, threadPool);
-      Set<File> excluded = globInternal(base, excludes, excludeDirectories, pathFilter, threadPool);
+      FileAttributeProvider provider = fileAttributeProvider;
+      if (provider == null) {
+        provider = FileAttributeProvider.getInstance();
+      }
+      Set<File> included =
+          globInternal(base, patterns, excludeDirectories, pathFilter, threadPool, provider);
+      Set<File> excluded =
+          globInternal(base, excludes, excludeDirectories, pathFilter, threadPool, provider);
       included.removeAll(excluded);
       return Ordering.<File>natural().immutableSortedCopy(included);
     }
@@ -372,18 +422,16 @@ public final class UnixGlob {
     private final ThreadPoolExecutor executor;
     private final AtomicLong pendingOps = new AtomicLong(0);
     private final AtomicReference<IOException> failure = new AtomicReference<>();
-    private final FileAttributeProvider fileAttributeProvider = FileAttributeProvider.getInstance();
+    private final FileAttributeProvider fileAttributeProvider;
     private volatile boolean canceled = false;
 
-    private GlobVisitor(ThreadPoolExecutor executor) {
+    private GlobVisitor(
+        @Nullable ThreadPoolExecutor executor, FileAttributeProvider fileAttributeProvider) {
       this.executor = executor;
+      this.fileAttributeProvider = fileAttributeProvider;
       this.result = new GlobFuture(this);
     }
 
-    private GlobVisitor() {
-      this(null);
-    }
-
     /**
      * Performs wildcard globbing: returns the sorted list of filenames that match any of {@code
      * patterns} relative to {@code base}. Directories are traversed if and only if they match
@@ -607,7 +655,7 @@ public final class UnixGlob {
 
     @Nullable
     private File[] getChildren(File file) {
-      return FileAttributeProvider.getInstance().listFiles(file);
+      return fileAttributeProvider.listFiles(file);
     }
   }
 }
@@ -17,102 +17,61 @@ package com.google.idea.blaze.base.lang.buildfile.lexer;
 
 import com.google.idea.blaze.base.lang.buildfile.lexer.BuildLexerBase.LexerMode;
 import com.intellij.lexer.LexerBase;
-import java.util.Iterator;
-import java.util.List;
+import javax.annotation.Nullable;
 
-/** Implementation of LexerBase using BuildLexerBase to tokenize the input. */
+/**
+ * Implementation of LexerBase using BuildLexerBase to tokenize the input.
+ *
+ * <p>Tokens are produced lazily, so the editor can stop relexing as soon as the new tokens match
+ * the old ones.
+ */
 public class BuildLexer extends LexerBase {
 
-  private final LexerMode mode;
+  private final BuildLexerBase lexer;
 
   private int offsetEnd;
-  private int offsetStart;
   private CharSequence buffer;
-  private Iterator<Token> tokens;
-  private Token currentToken;
-  private int currentState;
 
   public BuildLexer(LexerMode mode) {
-    this.mode = mode;
+    this.lexer = new BuildLexerBase(mode);
   }
 
   @Override
   public void start(CharSequence charSequence, int startOffset, int endOffset, int initialState) {
     buffer = charSequence;
     this.offsetEnd = endOffset;
-    this.offsetStart = startOffset;
-
-    BuildLexerBase lexer =
-        new BuildLexerBase(charSequence.subSequence(startOffset, endOffset), initialState, mode);
-    checkNoCharactersMissing(
-        charSequence.subSequence(startOffset, endOffset).length(), lexer.getTokens());
-    tokens = lexer.getTokens().iterator();
-    currentToken = null;
-    if (tokens.hasNext()) {
-      currentToken = tokens.next();
-    }
-    currentState = lexer.getOpenParenStackDepth();
-  }
-
-  /** Temporary debugging code. We need to tokenize every character in the input string. */
-  private void checkNoCharactersMissing(int totalLength, List<Token> tokens) {
-    if (!tokens.isEmpty() && tokens.get(tokens.size() - 1).right != totalLength) {
-      String error =
-          String.format(
-              "Lengths don't match: %s instead of %s",
-              tokens.get(tokens.size() - 1).right, totalLength);
-      throw new RuntimeException(error);
-    }
-    int start = 0;
-    for (int i = 0; i < tokens.size(); i++) {
-      Token token = tokens.get(i);
-      if (token.left != start) {
-        throw new RuntimeException("Gap/inconsistency at: " + start);
-      }
-      start = token.right;
-    }
+    lexer.start(charSequence, startOffset, endOffset, initialState);
   }
 
   @Override
   public int getState() {
-    return currentState;
+    return lexer.getTokenState();
   }
 
+  @Nullable
   @Override
   public BuildToken getTokenType() {
-    if (currentToken != null) {
-      return BuildToken.fromKind(currentToken.kind);
-    }
-    return null;
+    TokenKind kind = lexer.getTokenKind();
+    return kind != null ? BuildToken.fromKind(kind) : null;
   }
 
   @Override
   public int getTokenStart() {
-    if (currentToken == null) {
-      return 0;
-    }
-    return currentToken.left + offsetStart;
+    return lexer.getTokenStart();
   }
 
   @Override
   public int getTokenEnd() {
-    if (currentToken == null) {
-      return 0;
-    }
-    return currentToken.right + offsetStart;
+    return lexer.getTokenEnd();
   }
 
   @Override
   public void advance() {
-    if (tokens.hasNext()) {
-      currentToken = tokens.next();
-    } else {
-      currentToken = null;
-    }
+    lexer.advance();
   }
 
   public TokenKind getTokenKind() {
-    return currentToken.kind;
+    return lexer.getTokenKind();
   }
 
   @Override
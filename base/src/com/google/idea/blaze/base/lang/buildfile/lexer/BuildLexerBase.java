@@ -15,11 +15,10 @@
  */
 package com.google.idea.blaze.base.lang.buildfile.lexer;
 
-import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.Stack;
 import javax.annotation.Nullable;
 
 /**
@@ -28,7 +27,11 @@ import javax.annotation.Nullable;
  * <p>Copied from blaze/bazel's lexer. The differences are: 1. Blaze's lexer isn't 'faithful', in
  * that it reorders characters, skips characters, and adds ghost characters. We can't do that,
  * because we need to match the editor's view of the document. 2. Blaze's lexer only lexes entire
- * files (it can't incrementally lex part of a file, starting from a given indent stack depth).
+ * files (it can't incrementally lex part of a file, starting from a given state).
+ *
+ * <p>Tokens are produced lazily, one lexing step at a time, directly from the input {@link
+ * CharSequence}. A single step can produce several tokens (e.g. NEWLINE, INDENT and DEDENT), which
+ * are queued until they're consumed.
  */
 public class BuildLexerBase {
 
@@ -41,53 +44,152 @@ public class BuildLexerBase {
     SyntaxHighlighting
   }
 
-  // Characters that can come immediately prior to an '=' character to generate
-  // a different token
-  private static final Map<Character, TokenKind> EQUAL_TOKENS =
-      ImmutableMap.<Character, TokenKind>builder()
-          .put('=', TokenKind.EQUALS_EQUALS)
-          .put('!', TokenKind.NOT_EQUALS)
-          .put('>', TokenKind.GREATER_EQUALS)
-          .put('<', TokenKind.LESS_EQUALS)
-          .put('+', TokenKind.PLUS_EQUALS)
-          .put('-', TokenKind.MINUS_EQUALS)
-          .put('*', TokenKind.STAR_EQUALS)
-          .put('/', TokenKind.SLASH_EQUALS)
-          .put('%', TokenKind.PERCENT_EQUALS)
-          .build();
+  /**
+   * The lexer state is only meaningful in parsing mode. It packs the open paren depth (low 16 bits)
+   * and the indentation depth (next 14 bits). Tokens which aren't the first produced by a lexing
+   * step also have this bit set, because lexing can't be restarted from them.
+   *
+   * <p>Lexing can only be restarted exactly from the initial state (0). Otherwise, only the paren
+   * depth is restored; indentation widths aren't part of the state.
+   */
+  private static final int CONTINUATION_STATE = 1 << 30;
+
+  private static final int PAREN_STATE_MASK = 0xffff;
+  private static final int MAX_INDENT_STATE = 0x3fff;
 
   private final LexerMode mode;
 
-  // Input buffer and position
-  private final char[] buffer;
-  private int pos;
+  // Whether to compute token values (identifier names, string contents, etc.). The IntelliJ lexer
+  // never reads them, so skips allocating them.
+  private final boolean computeValues;
 
+  // Only populated when constructed with the whole input.
   private final List<Token> tokens;
 
+  // Input buffer and position
+  private CharSequence buffer;
+  private int bufferEnd;
+  private int pos;
+
   // The number of unclosed open-parens ("(", '{', '[') at the current point in
   // the stream. Whitespace is handled differently when this is nonzero.
   private int openParenStackDepth = 0;
 
   // The stack of enclosing indentation levels; always contains '0' at the
   // bottom.
-  private final Stack<Integer> indentStack = new Stack<>();
+  private int[] indentStack = new int[16];
+  private int indentStackSize;
 
   private boolean containsErrors;
 
+  // Tokens produced by the current lexing step, not yet consumed.
+  private TokenKind[] queuedKinds = new TokenKind[8];
+  private int[] queuedLefts = new int[8];
+  private int[] queuedRights = new int[8];
+  private int[] queuedStates = new int[8];
+  private Object[] queuedValues = new Object[8];
+  private int queueHead;
+  private int queueSize;
+  private int stepState;
+
+  // The current token; tokenKind is null at the end of the input.
+  @Nullable private TokenKind tokenKind;
+  private int tokenStart;
+  private int tokenEnd;
+  private int tokenState;
+  @Nullable private Object tokenValue;
+
   /**
    * Constructs a lexer which tokenizes the contents of the specified InputBuffer. Any errors during
    * lexing are reported on "handler".
    */
   public BuildLexerBase(CharSequence input, int initialStackDepth, LexerMode mode) {
-    this.buffer = input.toString().toCharArray();
+    this.mode = mode;
+    this.computeValues = true;
     // Empirical measurements show roughly 1 token per 8 characters in buffer.
-    this.tokens = Lists.newArrayListWithExpectedSize(buffer.length / 8);
-    this.pos = 0;
-    this.openParenStackDepth = initialStackDepth;
+    this.tokens = Lists.newArrayListWithExpectedSize(input.length() / 8);
+    start(input, 0, input.length(), initialStackDepth);
+    while (tokenKind != null) {
+      tokens.add(new Token(tokenKind, tokenStart, tokenEnd, tokenValue));
+      advance();
+    }
+  }
+
+  /** Constructs a lexer which produces tokens lazily, after a call to {@link #start}. */
+  BuildLexerBase(LexerMode mode) {
     this.mode = mode;
+    this.computeValues = false;
+    this.tokens = ImmutableList.of();
+  }
+
+  /**
+   * Starts lexing the given range of the buffer, from a state previously returned by {@link
+   * #getTokenState}, and moves to the first token.
+   */
+  void start(CharSequence buffer, int startOffset, int endOffset, int initialState) {
+    this.buffer = buffer;
+    this.bufferEnd = endOffset;
+    this.pos = startOffset;
+    this.openParenStackDepth = initialState & PAREN_STATE_MASK;
+    this.indentStack[0] = 0;
+    this.indentStackSize = 1;
+    this.containsErrors = false;
+    Arrays.fill(queuedValues, 0, queueSize, null);
+    this.queueHead = 0;
+    this.queueSize = 0;
+    advance();
+  }
+
+  /** Moves to the next token. At the end of the input, {@link #getTokenKind} returns null. */
+  void advance() {
+    while (queueHead == queueSize) {
+      queueHead = 0;
+      queueSize = 0;
+      if (pos >= bufferEnd) {
+        tokenKind = null;
+        tokenStart = bufferEnd;
+        tokenEnd = bufferEnd;
+        tokenState = currentState();
+        tokenValue = null;
+        return;
+      }
+      stepState = currentState();
+      tokenizeStep();
+    }
+    int i = queueHead++;
+    tokenKind = queuedKinds[i];
+    tokenStart = queuedLefts[i];
+    tokenEnd = queuedRights[i];
+    tokenState = queuedStates[i];
+    tokenValue = queuedValues[i];
+    queuedValues[i] = null;
+  }
 
-    indentStack.push(0);
-    tokenize();
+  @Nullable
+  TokenKind getTokenKind() {
+    return tokenKind;
+  }
+
+  int getTokenStart() {
+    return tokenStart;
+  }
+
+  int getTokenEnd() {
+    return tokenEnd;
+  }
+
+  /** The lexer state at the start of the current token. Always 0 in syntax highlighting mode. */
+  int getTokenState() {
+    return tokenState;
+  }
+
+  private int currentState() {
+    if (mode != LexerMode.Parsing) {
+      return 0;
+    }
+    int parenState = Math.min(openParenStackDepth, PAREN_STATE_MASK);
+    int indentState = Math.min(indentStackSize - 1, MAX_INDENT_STATE);
+    return parenState | (indentState << 16);
   }
 
   /** The number of unclosed open-parens ("(", '{', '[') at the end of this string. */
@@ -104,7 +206,10 @@ public class BuildLexerBase {
     return containsErrors;
   }
 
-  /** Returns the (mutable) list of tokens generated by the BuildLexerBase. */
+  /**
+   * Returns the (mutable) list of tokens generated by the BuildLexerBase. Empty unless the lexer
+   * was constructed with the whole input.
+   */
   public List<Token> getTokens() {
     return tokens;
   }
@@ -131,7 +236,21 @@ public class BuildLexerBase {
   }
 
   private void addToken(TokenKind kind, int left, int right, @Nullable Object value) {
-    tokens.add(new Token(kind, left, right, value));
+    if (queueSize == queuedKinds.length) {
+      int capacity = queueSize * 2;
+      queuedKinds = Arrays.copyOf(queuedKinds, capacity);
+      queuedLefts = Arrays.copyOf(queuedLefts, capacity);
+      queuedRights = Arrays.copyOf(queuedRights, capacity);
+      queuedStates = Arrays.copyOf(queuedStates, capacity);
+      queuedValues = Arrays.copyOf(queuedValues, capacity);
+    }
+    queuedKinds[queueSize] = kind;
+    queuedLefts[queueSize] = left;
+    queuedRights[queueSize] = right;
+    queuedStates[queueSize] =
+        queueSize == 0 || mode != LexerMode.Parsing ? stepState : stepState | CONTINUATION_STATE;
+    queuedValues[queueSize] = value;
+    queueSize++;
   }
 
   /**
@@ -156,8 +275,8 @@ public class BuildLexerBase {
 
   private void newlineInsideExpression() {
     int oldPos = pos - 1;
-    while (pos < buffer.length) {
-      switch (buffer[pos]) {
+    while (pos < bufferEnd) {
+      switch (buffer.charAt(pos)) {
         case ' ':
         case '\t':
         case '\r':
@@ -188,8 +307,8 @@ public class BuildLexerBase {
 
     // we're in a stmt: suck up space at beginning of next line
     int indentLen = 0;
-    while (pos < buffer.length) {
-      char c = buffer[pos];
+    while (pos < bufferEnd) {
+      char c = buffer.charAt(pos);
       if (c == ' ') {
         indentLen++;
         pos++;
@@ -204,10 +323,10 @@ public class BuildLexerBase {
           addToken(TokenKind.WHITESPACE, oldPos, pos);
           oldPos = pos;
         }
-        while (pos < buffer.length && c != '\n') {
-          c = buffer[pos++];
+        while (pos < bufferEnd && c != '\n') {
+          c = buffer.charAt(pos++);
         }
-        addToken(TokenKind.COMMENT, oldPos, pos - 1, bufferSlice(oldPos, pos - 1));
+        addToken(TokenKind.COMMENT, oldPos, pos - 1, valueSlice(oldPos, pos - 1));
         oldPos = pos - 1;
         indentLen = 0;
       } else { // printing character
@@ -218,20 +337,20 @@ public class BuildLexerBase {
     if (oldPos != pos) {
       addToken(TokenKind.WHITESPACE, oldPos, pos);
     }
-    if (pos == buffer.length) {
+    if (pos == bufferEnd) {
       indentLen = 0;
     } // trailing space on last line
 
-    int peekedIndent = indentStack.peek();
+    int peekedIndent = indentStack[indentStackSize - 1];
     if (peekedIndent < indentLen) { // push a level
-      indentStack.push(indentLen);
+      pushIndent(indentLen);
       addToken(TokenKind.INDENT, pos, pos);
 
     } else if (peekedIndent > indentLen) { // pop one or more levels
       while (peekedIndent > indentLen) {
-        indentStack.pop();
+        indentStackSize--;
         addToken(TokenKind.DEDENT, pos, pos);
-        peekedIndent = indentStack.peek();
+        peekedIndent = indentStack[indentStackSize - 1];
       }
 
       if (peekedIndent < indentLen) {
@@ -240,22 +359,29 @@ public class BuildLexerBase {
     }
   }
 
+  private void pushIndent(int indentLen) {
+    if (indentStackSize == indentStack.length) {
+      indentStack = Arrays.copyOf(indentStack, indentStackSize * 2);
+    }
+    indentStack[indentStackSize++] = indentLen;
+  }
+
   /** Collapse adjacent whitespace characters into a single token */
   private void addWhitespace() {
     int oldPos = pos - 1;
-    while (pos < buffer.length) {
-      switch (buffer[pos]) {
+    while (pos < bufferEnd) {
+      switch (buffer.charAt(pos)) {
         case ' ':
         case '\t':
         case '\r':
           pos++;
           break;
         default:
-          addToken(TokenKind.WHITESPACE, oldPos, pos, bufferSlice(oldPos, pos));
+          addToken(TokenKind.WHITESPACE, oldPos, pos, valueSlice(oldPos, pos));
           return;
       }
     }
-    addToken(TokenKind.WHITESPACE, oldPos, pos, bufferSlice(oldPos, pos));
+    addToken(TokenKind.WHITESPACE, oldPos, pos, valueSlice(oldPos, pos));
   }
 
   /**
@@ -263,7 +389,7 @@ public class BuildLexerBase {
    * advances 'pos' by two if so.
    */
   private boolean skipTripleQuote(char quot) {
-    if (pos + 1 < buffer.length && buffer[pos] == quot && buffer[pos + 1] == quot) {
+    if (pos + 1 < bufferEnd && buffer.charAt(pos) == quot && buffer.charAt(pos + 1) == quot) {
       pos += 2;
       return true;
     } else {
@@ -282,58 +408,58 @@ public class BuildLexerBase {
     boolean inTripleQuote = skipTripleQuote(quot);
 
     // more expensive second choice that expands escaped into a buffer
-    StringBuilder literal = new StringBuilder();
-    while (pos < buffer.length) {
-      char c = buffer[pos];
+    StringBuilder literal = computeValues ? new StringBuilder() : null;
+    while (pos < bufferEnd) {
+      char c = buffer.charAt(pos);
       pos++;
       switch (c) {
         case '\n':
           if (inTripleQuote) {
-            literal.append(c);
+            append(literal, c);
             break;
           } else {
             error("unterminated string literal at eol", oldPos, pos);
-            addToken(TokenKind.STRING, oldPos, pos - 1, literal.toString());
+            addToken(TokenKind.STRING, oldPos, pos - 1, toValue(literal));
             newline();
             return;
           }
         case '\\':
-          if (pos == buffer.length) {
+          if (pos == bufferEnd) {
             error("unterminated string literal at eof", oldPos, pos);
-            addToken(TokenKind.STRING, oldPos, pos - 1, literal.toString());
+            addToken(TokenKind.STRING, oldPos, pos - 1, toValue(literal));
             return;
           }
           if (isRaw) {
             // Insert \ and the following character.
             // As in Python, it means that a raw string can never end with a single \.
-            literal.append('\\');
-            literal.append(buffer[pos]);
+            append(literal, '\\');
+            append(literal, buffer.charAt(pos));
             pos++;
             break;
           }
-          c = buffer[pos];
+          c = buffer.charAt(pos);
           pos++;
           switch (c) {
             case '\n':
               // ignore end of line character
               break;
             case 'n':
-              literal.append('\n');
+              append(literal, '\n');
               break;
             case 'r':
-              literal.append('\r');
+              append(literal, '\r');
               break;
             case 't':
-              literal.append('\t');
+              append(literal, '\t');
               break;
             case '\\':
-              literal.append('\\');
+              append(literal, '\\');
               break;
             case '\'':
-              literal.append('\'');
+              append(literal, '\'');
               break;
             case '"':
-              literal.append('"');
+              append(literal, '"');
               break;
             case '0':
             case '1':
@@ -345,13 +471,13 @@ public class BuildLexerBase {
             case '7':
               { // octal escape
                 int octal = c - '0';
-                if (pos < buffer.length) {
-                  c = buffer[pos];
+                if (pos < bufferEnd) {
+                  c = buffer.charAt(pos);
                   if (c >= '0' && c <= '7') {
                     pos++;
                     octal = (octal << 3) | (c - '0');
-                    if (pos < buffer.length) {
-                      c = buffer[pos];
+                    if (pos < bufferEnd) {
+                      c = buffer.charAt(pos);
                       if (c >= '0' && c <= '7') {
                         pos++;
                         octal = (octal << 3) | (c - '0');
@@ -359,7 +485,7 @@ public class BuildLexerBase {
                     }
                   }
                 }
-                literal.append((char) (octal & 0xff));
+                append(literal, (char) (octal & 0xff));
                 break;
               }
             case 'a':
@@ -375,8 +501,8 @@ public class BuildLexerBase {
               break;
             default:
               // unknown char escape => "\literal"
-              literal.append('\\');
-              literal.append(c);
+              append(literal, '\\');
+              append(literal, c);
               break;
           }
           break;
@@ -384,20 +510,31 @@ public class BuildLexerBase {
         case '"':
           if (c != quot || (inTripleQuote && !skipTripleQuote(quot))) {
             // Non-matching quote, treat it like a regular char.
-            literal.append(c);
+            append(literal, c);
           } else {
             // Matching close-delimiter, all done.
-            addToken(TokenKind.STRING, oldPos, pos, literal.toString());
+            addToken(TokenKind.STRING, oldPos, pos, toValue(literal));
             return;
           }
           break;
         default:
-          literal.append(c);
+          append(literal, c);
           break;
       }
     }
     error("unterminated string literal at eof", oldPos, pos);
-    addToken(TokenKind.STRING, oldPos, pos, literal.toString());
+    addToken(TokenKind.STRING, oldPos, pos, toValue(literal));
+  }
+
+  private static void append(@Nullable StringBuilder literal, char c) {
+    if (literal != null) {
+      literal.append(c);
+    }
+  }
+
+  @Nullable
+  private static String toValue(@Nullable StringBuilder literal) {
+    return literal != null ? literal.toString() : null;
   }
 
   /**
@@ -422,12 +559,12 @@ public class BuildLexerBase {
     }
 
     // first quick optimistic scan for a simple non-escaped string
-    while (pos < buffer.length) {
-      char c = buffer[pos++];
+    while (pos < bufferEnd) {
+      char c = buffer.charAt(pos++);
       switch (c) {
         case '\n':
           error("unterminated string literal at eol", oldPos, pos);
-          addToken(TokenKind.STRING, oldPos, pos - 1, bufferSlice(start, pos - 1));
+          addToken(TokenKind.STRING, oldPos, pos - 1, valueSlice(start, pos - 1));
           newline();
           return;
         case '\\':
@@ -444,35 +581,63 @@ public class BuildLexerBase {
         case '"':
           if (c == quot) {
             // close-quote, all done.
-            addToken(TokenKind.STRING, oldPos, pos, bufferSlice(start, pos - 1));
+            addToken(TokenKind.STRING, oldPos, pos, valueSlice(start, pos - 1));
             return;
           }
       }
     }
 
     error("unterminated string literal at eof", oldPos, pos);
-    addToken(TokenKind.STRING, oldPos, pos, bufferSlice(start, pos));
+    addToken(TokenKind.STRING, oldPos, pos, valueSlice(start, pos));
   }
 
-  private static final ImmutableMap<String, TokenKind> KEYWORD_MAP = createKeywordMap();
+  /** Keywords, indexed by length, so they can be matched without creating a string. */
+  private static final TokenKind[][] KEYWORDS_BY_LENGTH = createKeywordTable();
 
-  private static ImmutableMap<String, TokenKind> createKeywordMap() {
-    ImmutableMap.Builder<String, TokenKind> builder = ImmutableMap.builder();
+  private static TokenKind[][] createKeywordTable() {
+    int maxLength = 0;
+    for (TokenKind kind : TokenKind.KEYWORDS) {
+      maxLength = Math.max(maxLength, kind.toString().length());
+    }
+    List<List<TokenKind>> byLength = Lists.newArrayList();
+    for (int i = 0; i <= maxLength; i++) {
+      byLength.add(Lists.newArrayList());
+    }
     for (TokenKind kind : TokenKind.KEYWORDS) {
-      builder.put(kind.toString(), kind);
+      byLength.get(kind.toString().length()).add(kind);
+    }
+    TokenKind[][] table = new TokenKind[maxLength + 1][];
+    for (int i = 0; i <= maxLength; i++) {
+      table[i] = byLength.get(i).toArray(new TokenKind[0]);
     }
-    return builder.build();
+    return table;
   }
 
-  private TokenKind getTokenKindForIdentfier(String id) {
-    TokenKind kind = KEYWORD_MAP.get(id);
-    return kind == null ? TokenKind.IDENTIFIER : kind;
+  private TokenKind getTokenKindForIdentfier(int start, int end) {
+    int length = end - start;
+    if (length >= KEYWORDS_BY_LENGTH.length) {
+      return TokenKind.IDENTIFIER;
+    }
+    for (TokenKind keyword : KEYWORDS_BY_LENGTH[length]) {
+      if (regionMatches(start, keyword.toString())) {
+        return keyword;
+      }
+    }
+    return TokenKind.IDENTIFIER;
   }
 
-  private String scanIdentifier() {
-    int oldPos = pos - 1;
-    while (pos < buffer.length) {
-      switch (buffer[pos]) {
+  private boolean regionMatches(int start, String text) {
+    for (int i = 0; i < text.length(); i++) {
+      if (buffer.charAt(start + i) != text.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void scanIdentifier() {
+    while (pos < bufferEnd) {
+      switch (buffer.charAt(pos)) {
         case '_':
         case 'a':
         case 'b':
@@ -539,10 +704,9 @@ public class BuildLexerBase {
           pos++;
           break;
         default:
-          return bufferSlice(oldPos, pos);
+          return;
       }
     }
-    return bufferSlice(oldPos, pos);
   }
 
   /**
@@ -555,15 +719,14 @@ public class BuildLexerBase {
    */
   private void addIdentifierOrKeyword() {
     int oldPos = pos - 1;
-    String id = scanIdentifier();
-    TokenKind kind = getTokenKindForIdentfier(id);
-    addToken(kind, oldPos, pos, (kind == TokenKind.IDENTIFIER) ? id : null);
+    scanIdentifier();
+    TokenKind kind = getTokenKindForIdentfier(oldPos, pos);
+    addToken(kind, oldPos, pos, (kind == TokenKind.IDENTIFIER) ? valueSlice(oldPos, pos) : null);
   }
 
-  private String scanInteger() {
-    int oldPos = pos - 1;
-    while (pos < buffer.length) {
-      char c = buffer[pos];
+  private void scanInteger() {
+    while (pos < bufferEnd) {
+      char c = buffer.charAt(pos);
       switch (c) {
         case 'X':
         case 'x':
@@ -592,10 +755,9 @@ public class BuildLexerBase {
           pos++;
           break;
         default:
-          return bufferSlice(oldPos, pos);
+          return;
       }
     }
-    return bufferSlice(oldPos, pos);
   }
 
   /**
@@ -606,7 +768,12 @@ public class BuildLexerBase {
    */
   private void addInteger() {
     int oldPos = pos - 1;
-    String literal = scanInteger();
+    scanInteger();
+    if (!computeValues) {
+      addToken(TokenKind.INT, oldPos, pos);
+      return;
+    }
+    String literal = bufferSlice(oldPos, pos);
 
     final String substring;
     final int radix;
@@ -631,20 +798,47 @@ public class BuildLexerBase {
     addToken(TokenKind.INT, oldPos, pos, value);
   }
 
+  /** Returns the token kind for a two-character operator ending in '='. */
+  @Nullable
+  private static TokenKind getEqualsTokenKind(char c) {
+    switch (c) {
+      case '=':
+        return TokenKind.EQUALS_EQUALS;
+      case '!':
+        return TokenKind.NOT_EQUALS;
+      case '>':
+        return TokenKind.GREATER_EQUALS;
+      case '<':
+        return TokenKind.LESS_EQUALS;
+      case '+':
+        return TokenKind.PLUS_EQUALS;
+      case '-':
+        return TokenKind.MINUS_EQUALS;
+      case '*':
+        return TokenKind.STAR_EQUALS;
+      case '/':
+        return TokenKind.SLASH_EQUALS;
+      case '%':
+        return TokenKind.PERCENT_EQUALS;
+      default:
+        return null;
+    }
+  }
+
   /**
    * Tokenizes a two-char operator.
    *
    * @return true if it tokenized an operator
    */
   private boolean tokenizeTwoChars() {
-    if (pos + 2 >= buffer.length) {
+    if (pos + 2 >= bufferEnd) {
       return false;
     }
-    char c1 = buffer[pos];
-    char c2 = buffer[pos + 1];
+    char c1 = buffer.charAt(pos);
+    char c2 = buffer.charAt(pos + 1);
     TokenKind tok = null;
     if (c2 == '=') {
-      tok = EQUAL_TOKENS.get(c1);
+      tok = getEqualsTokenKind(c1);
     } else if (c2 == '*' && c1 == '*') {
       tok = TokenKind.STAR_STAR;
     }
@@ -655,185 +849,185 @@ public class BuildLexerBase {
     return true;
   }
 
-  /** Performs tokenization of the character buffer of file contents provided to the constructor. */
-  private void tokenize() {
-    while (pos < buffer.length) {
-      if (tokenizeTwoChars()) {
-        pos += 2;
-        continue;
-      }
-      char c = buffer[pos];
-      pos++;
-      switch (c) {
-        case '{':
-          {
-            addToken(TokenKind.LBRACE, pos - 1, pos);
-            openParenStackDepth++;
-            break;
-          }
-        case '}':
-          {
-            addToken(TokenKind.RBRACE, pos - 1, pos);
-            popParen();
-            break;
-          }
-        case '(':
-          {
-            addToken(TokenKind.LPAREN, pos - 1, pos);
-            openParenStackDepth++;
-            break;
-          }
-        case ')':
-          {
-            addToken(TokenKind.RPAREN, pos - 1, pos);
-            popParen();
-            break;
-          }
-        case '[':
-          {
-            addToken(TokenKind.LBRACKET, pos - 1, pos);
-            openParenStackDepth++;
-            break;
-          }
-        case ']':
-          {
-            addToken(TokenKind.RBRACKET, pos - 1, pos);
-            popParen();
-            break;
-          }
-        case '>':
-          {
-            addToken(TokenKind.GREATER, pos - 1, pos);
-            break;
-          }
-        case '<':
-          {
-            addToken(TokenKind.LESS, pos - 1, pos);
-            break;
-          }
-        case ':':
-          {
-            addToken(TokenKind.COLON, pos - 1, pos);
-            break;
-          }
-        case ',':
-          {
-            addToken(TokenKind.COMMA, pos - 1, pos);
-            break;
-          }
-        case '+':
-          {
-            addToken(TokenKind.PLUS, pos - 1, pos);
-            break;
-          }
-        case '-':
-          {
-            addToken(TokenKind.MINUS, pos - 1, pos);
-            break;
-          }
-        case '|':
-          {
-            addToken(TokenKind.PIPE, pos - 1, pos);
-            break;
-          }
-        case '=':
-          {
-            addToken(TokenKind.EQUALS, pos - 1, pos);
-            break;
-          }
-        case '%':
-          {
-            addToken(TokenKind.PERCENT, pos - 1, pos);
-            break;
-          }
-        case '/':
-          {
-            addToken(TokenKind.SLASH, pos - 1, pos);
-            break;
-          }
-        case ';':
-          {
-            addToken(TokenKind.SEMI, pos - 1, pos);
-            break;
-          }
-        case '.':
-          {
-            addToken(TokenKind.DOT, pos - 1, pos);
-            break;
-          }
-        case '*':
-          {
-            addToken(TokenKind.STAR, pos - 1, pos);
-            break;
-          }
-        case ' ':
-        case '\t':
-        case '\r':
-          {
-            addWhitespace();
-            break;
+  /** Performs a single tokenization step, adding one or more tokens. */
+  private void tokenizeStep() {
+    if (tokenizeTwoChars()) {
+      pos += 2;
+      return;
+    }
+    char c = buffer.charAt(pos);
+    pos++;
+    switch (c) {
+      case '{':
+        {
+          addToken(TokenKind.LBRACE, pos - 1, pos);
+          openParenStackDepth++;
+          break;
+        }
+      case '}':
+        {
+          addToken(TokenKind.RBRACE, pos - 1, pos);
+          popParen();
+          break;
+        }
+      case '(':
+        {
+          addToken(TokenKind.LPAREN, pos - 1, pos);
+          openParenStackDepth++;
+          break;
+        }
+      case ')':
+        {
+          addToken(TokenKind.RPAREN, pos - 1, pos);
+          popParen();
+          break;
+        }
+      case '[':
+        {
+          addToken(TokenKind.LBRACKET, pos - 1, pos);
+          openParenStackDepth++;
+          break;
+        }
+      case ']':
+        {
+          addToken(TokenKind.RBRACKET, pos - 1, pos);
+          popParen();
+          break;
+        }
+      case '>':
+        {
+          addToken(TokenKind.GREATER, pos - 1, pos);
+          break;
+        }
+      case '<':
+        {
+          addToken(TokenKind.LESS, pos - 1, pos);
+          break;
+        }
+      case ':':
+        {
+          addToken(TokenKind.COLON, pos - 1, pos);
+          break;
+        }
+      case ',':
+        {
+          addToken(TokenKind.COMMA, pos - 1, pos);
+          break;
+        }
+      case '+':
+        {
+          addToken(TokenKind.PLUS, pos - 1, pos);
+          break;
+        }
+      case '-':
+        {
+          addToken(TokenKind.MINUS, pos - 1, pos);
+          break;
+        }
+      case '|':
+        {
+          addToken(TokenKind.PIPE, pos - 1, pos);
+          break;
+        }
+      case '=':
+        {
+          addToken(TokenKind.EQUALS, pos - 1, pos);
+          break;
+        }
+      case '%':
+        {
+          addToken(TokenKind.PERCENT, pos - 1, pos);
+          break;
+        }
+      case '/':
+        {
+          addToken(TokenKind.SLASH, pos - 1, pos);
+          break;
+        }
+      case ';':
+        {
+          addToken(TokenKind.SEMI, pos - 1, pos);
+          break;
+        }
+      case '.':
+        {
+          addToken(TokenKind.DOT, pos - 1, pos);
+          break;
+        }
+      case '*':
+        {
+          addToken(TokenKind.STAR, pos - 1, pos);
+          break;
+        }
+      case ' ':
+      case '\t':
+      case '\r':
+        {
+          addWhitespace();
+          break;
+        }
+      case '\\':
+        {
+          // Backslash character is valid only at the end of a line (or in a string)
+          if (pos + 1 < bufferEnd && buffer.charAt(pos) == '\n') {
+            // treat end of line backslash and newline char as whitespace
+            // (they're ignored by the parser)
+            pos++;
+            addToken(TokenKind.WHITESPACE, pos - 2, pos, charValue(c));
+          } else {
+            addToken(TokenKind.ILLEGAL, pos - 1, pos, charValue(c));
           }
-        case '\\':
-          {
-            // Backslash character is valid only at the end of a line (or in a string)
-            if (pos + 1 < buffer.length && buffer[pos] == '\n') {
-              // treat end of line backslash and newline char as whitespace
-              // (they're ignored by the parser)
-              pos++;
-              addToken(TokenKind.WHITESPACE, pos - 2, pos, Character.toString(c));
+          break;
+        }
+      case '\n':
+        {
+          newline();
+          break;
+        }
+      case '#':
+        {
+          int oldPos = pos - 1;
+          while (pos < bufferEnd) {
+            c = buffer.charAt(pos);
+            if (c == '\n') {
+              break;
             } else {
-              addToken(TokenKind.ILLEGAL, pos - 1, pos, Character.toString(c));
-            }
-            break;
-          }
-        case '\n':
-          {
-            newline();
-            break;
-          }
-        case '#':
-          {
-            int oldPos = pos - 1;
-            while (pos < buffer.length) {
-              c = buffer[pos];
-              if (c == '\n') {
-                break;
-              } else {
-                pos++;
-              }
+              pos++;
             }
-            addToken(TokenKind.COMMENT, oldPos, pos, bufferSlice(oldPos, pos));
-            break;
           }
-        case '\'':
-        case '\"':
-          {
-            addStringLiteral(c, false);
+          addToken(TokenKind.COMMENT, oldPos, pos, valueSlice(oldPos, pos));
+          break;
+        }
+      case '\'':
+      case '\"':
+        {
+          addStringLiteral(c, false);
+          break;
+        }
+      default:
+        {
+          // detect raw strings, e.g. r"str"
+          if (c == 'r'
+              && pos < bufferEnd
+              && (buffer.charAt(pos) == '\'' || buffer.charAt(pos) == '\"')) {
+            c = buffer.charAt(pos);
+            pos++;
+            addStringLiteral(c, true);
             break;
           }
-        default:
-          {
-            // detect raw strings, e.g. r"str"
-            if (c == 'r' && pos < buffer.length && (buffer[pos] == '\'' || buffer[pos] == '\"')) {
-              c = buffer[pos];
-              pos++;
-              addStringLiteral(c, true);
-              break;
-            }
 
-            if (Character.isDigit(c)) {
-              addInteger();
-            } else if (Character.isJavaIdentifierStart(c) && c != '$') {
-              addIdentifierOrKeyword();
-            } else {
-              // Some characters in Python are not recognized in Blaze syntax (e.g. '!')
-              addToken(TokenKind.ILLEGAL, pos - 1, pos, Character.toString(c));
-              error("invalid character: '" + c + "'");
-            }
-            break;
-          } // default
-      } // switch
-    } // while
+          if (Character.isDigit(c)) {
+            addInteger();
+          } else if (Character.isJavaIdentifierStart(c) && c != '$') {
+            addIdentifierOrKeyword();
+          } else {
+            // Some characters in Python are not recognized in Blaze syntax (e.g. '!')
+            addToken(TokenKind.ILLEGAL, pos - 1, pos, charValue(c));
+            error("invalid character: '" + c + "'");
+          }
+          break;
+        } // default
+    } // switch
   }
 
   /**
@@ -844,6 +1038,17 @@ public class BuildLexerBase {
    * @return the text at offset start with length end - start
    */
   private String bufferSlice(int start, int end) {
-    return new String(this.buffer, start, end - start);
+    return buffer.subSequence(start, end).toString();
+  }
+
+  /** Like {@link #bufferSlice}, but returns null if token values aren't required. */
+  @Nullable
+  private String valueSlice(int start, int end) {
+    return computeValues ? bufferSlice(start, end) : null;
+  }
+
+  @Nullable
+  private String charValue(char c) {
+    return computeValues ? Character.toString(c) : null;
   }
 }
@@ -17,7 +17,6 @@ package com.google.idea.blaze.base.lang.buildfile.parser;
 
 import com.google.idea.blaze.base.lang.buildfile.lexer.BuildToken;
 import com.google.idea.blaze.base.lang.buildfile.lexer.TokenKind;
-import com.google.idea.blaze.base.lang.buildfile.psi.BuildElementType;
 import com.google.idea.blaze.base.lang.buildfile.psi.BuildElementTypes;
 import com.intellij.lang.PsiBuilder;
 import com.intellij.psi.tree.IElementType;
@@ -73,7 +72,7 @@ public abstract class Parsing {
     return true;
   }
 
-  protected void buildTokenElement(BuildElementType type) {
+  protected void buildTokenElement(IElementType type) {
     PsiBuilder.Marker marker = builder.mark();
     builder.advanceLexer();
     marker.done(type);
@@ -126,7 +126,17 @@ public abstract class BuildElementImpl extends ASTWrapperPsiElement implements B
   @Nullable
   @Override
   public PsiElement getReferencedElement() {
-    PsiReference[] refs = getReferences();
+    return resolveFirst(getReferences());
+  }
+
+  @Override
+  public ItemPresentation getPresentation() {
+    return createPresentation(this);
+  }
+
+  /** Returns the first element any of the given references resolves to. */
+  @Nullable
+  static PsiElement resolveFirst(PsiReference[] refs) {
     for (PsiReference ref : refs) {
       PsiElement element = ref.resolve();
       if (element != null) {
@@ -136,9 +146,7 @@ public abstract class BuildElementImpl extends ASTWrapperPsiElement implements B
     return null;
   }
 
-  @Override
-  public ItemPresentation getPresentation() {
-    final BuildElement element = this;
+  static ItemPresentation createPresentation(BuildElement element) {
     return new ItemPresentation() {
       @Override
       public String getPresentableText() {
@@ -15,14 +15,19 @@
  */
 package com.google.idea.blaze.base.lang.buildfile.psi;
 
-import com.google.idea.blaze.base.lang.buildfile.language.BuildFileType;
+import com.google.idea.blaze.base.lang.buildfile.stubs.BuildFileElementType;
+import com.google.idea.blaze.base.lang.buildfile.stubs.FuncallExpressionElementType;
+import com.google.idea.blaze.base.lang.buildfile.stubs.FunctionStatementElementType;
+import com.google.idea.blaze.base.lang.buildfile.stubs.LoadStatementElementType;
+import com.google.idea.blaze.base.lang.buildfile.stubs.LoadedSymbolElementType;
+import com.google.idea.blaze.base.lang.buildfile.stubs.TargetExpressionElementType;
 import com.intellij.psi.tree.IFileElementType;
 import com.intellij.psi.tree.TokenSet;
 
 /** Collects the types used by the PsiBuilder to construct the AST */
 public interface BuildElementTypes {
 
-  IFileElementType BUILD_FILE = new IFileElementType(BuildFileType.INSTANCE.getLanguage());
+  IFileElementType BUILD_FILE = new BuildFileElementType();
 
   // Statements
   BuildElementType RETURN_STATEMENT = new BuildElementType("return", ReturnStatement.class);
@@ -32,9 +37,8 @@ public interface BuildElementTypes {
   BuildElementType AUGMENTED_ASSIGNMENT =
       new BuildElementType("aug_assign", AugmentedAssignmentStatement.class);
   BuildElementType FLOW_STATEMENT = new BuildElementType("flow", FlowStatement.class);
-  BuildElementType LOAD_STATEMENT = new BuildElementType("load", LoadStatement.class);
-  BuildElementType FUNCTION_STATEMENT =
-      new BuildElementType("function_def", FunctionStatement.class);
+  LoadStatementElementType LOAD_STATEMENT = new LoadStatementElementType();
+  FunctionStatementElementType FUNCTION_STATEMENT = new FunctionStatementElementType();
   BuildElementType FOR_STATEMENT = new BuildElementType("for", ForStatement.class);
   BuildElementType IF_STATEMENT = new BuildElementType("if", IfStatement.class);
 
@@ -66,8 +70,7 @@ public interface BuildElementTypes {
       new BuildElementType("dict_entry", DictionaryEntryLiteral.class);
   BuildElementType BINARY_OP_EXPRESSION =
       new BuildElementType("binary_op", BinaryOpExpression.class);
-  BuildElementType FUNCALL_EXPRESSION =
-      new BuildElementType("function_call", FuncallExpression.class);
+  FuncallExpressionElementType FUNCALL_EXPRESSION = new FuncallExpressionElementType();
   BuildElementType DOT_EXPRESSION = new BuildElementType("dot_expr", DotExpression.class);
   BuildElementType STRING_LITERAL = new BuildElementType("string", StringLiteral.class);
   BuildElementType INTEGER_LITERAL = new BuildElementType("int", IntegerLiteral.class);
@@ -75,10 +78,10 @@ public interface BuildElementTypes {
   BuildElementType GLOB_EXPRESSION = new BuildElementType("glob", GlobExpression.class);
   BuildElementType REFERENCE_EXPRESSION =
       new BuildElementType("reference", ReferenceExpression.class);
-  BuildElementType TARGET_EXPRESSION = new BuildElementType("target", TargetExpression.class);
+  TargetExpressionElementType TARGET_EXPRESSION = new TargetExpressionElementType();
   BuildElementType LIST_COMPREHENSION_EXPR =
       new BuildElementType("list_comp", ListComprehensionExpression.class);
-  BuildElementType LOADED_SYMBOL = new BuildElementType("loaded_symbol", LoadedSymbol.class);
+  LoadedSymbolElementType LOADED_SYMBOL = new LoadedSymbolElementType();
   BuildElementType PARENTHESIZED_EXPRESSION =
       new BuildElementType("parens", ParenthesizedExpression.class);
   BuildElementType TUPLE_EXPRESSION = new BuildElementType("tuple", TupleExpression.class);
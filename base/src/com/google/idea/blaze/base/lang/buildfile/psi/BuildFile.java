@@ -27,6 +27,9 @@ import com.intellij.openapi.project.Project;
 import com.intellij.psi.FileViewProvider;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiNamedElement;
+import com.intellij.psi.stubs.IStubElementType;
+import com.intellij.psi.stubs.StubElement;
+import com.intellij.util.ArrayFactory;
 import com.intellij.util.PathUtil;
 import com.intellij.util.Processor;
 import icons.BlazeIcons;
@@ -131,7 +134,11 @@ public class BuildFile extends PsiFileBase implements BuildElement, DocStringOwn
   /** Finds a top-level rule with a "name" keyword argument with the given value. */
   @Nullable
   public FuncallExpression findRule(String name) {
-    for (FuncallExpression expr : findChildrenByClass(FuncallExpression.class)) {
+    for (FuncallExpression expr :
+        getTopLevelChildren(
+            BuildElementTypes.FUNCALL_EXPRESSION,
+            FuncallExpression.class,
+            FuncallExpression[]::new)) {
       String ruleName = expr.getNameArgumentValue();
       if (name.equals(ruleName)) {
         return expr;
@@ -152,7 +159,7 @@ public class BuildFile extends PsiFileBase implements BuildElement, DocStringOwn
 
   @Nullable
   public FunctionStatement findLoadedFunction(String name) {
-    for (LoadStatement loadStatement : findChildrenByClass(LoadStatement.class)) {
+    for (LoadStatement loadStatement : getLoadStatements()) {
       for (LoadedSymbol loadedSymbol : loadStatement.getImportedSymbolElements()) {
         if (name.equals(loadedSymbol.getSymbolString())) {
           PsiElement element = loadedSymbol.getLoadedElement();
@@ -188,6 +195,10 @@ public class BuildFile extends PsiFileBase implements BuildElement, DocStringOwn
    */
   public boolean searchSymbolsInScope(
       Processor<BuildElement> processor, @Nullable PsiElement stopAtElement) {
+    StubElement<?> stub = stopAtElement == null ? getStub() : null;
+    if (stub != null) {
+      return searchSymbolsInStubs(stub, processor);
+    }
     for (BuildElement child : findChildrenByClass(BuildElement.class)) {
       if (child == stopAtElement) {
         break;
@@ -219,6 +230,26 @@ public class BuildFile extends PsiFileBase implements BuildElement, DocStringOwn
     return true;
   }
 
+  /** Equivalent to {@link #searchSymbolsInScope}, but doesn't require the file to be parsed. */
+  private boolean searchSymbolsInStubs(StubElement<?> stub, Processor<BuildElement> processor) {
+    for (StubElement<?> child : stub.getChildrenStubs()) {
+      PsiElement psi = child.getPsi();
+      if (psi instanceof TargetExpression || psi instanceof FunctionStatement) {
+        if (!processor.process((BuildElement) psi)) {
+          return false;
+        }
+      }
+    }
+    for (LoadStatement load : getLoadStatements()) {
+      for (LoadedSymbol importedSymbol : load.getImportedSymbolElements()) {
+        if (!processor.process(importedSymbol)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
   /** Searches functions declared in this file, then loaded Skylark extensions, if relevant. */
   @Nullable
   public FunctionStatement findFunctionInScope(String name) {
@@ -230,7 +261,26 @@ public class BuildFile extends PsiFileBase implements BuildElement, DocStringOwn
   }
 
   public FunctionStatement[] getFunctionDeclarations() {
-    return findChildrenByClass(FunctionStatement.class);
+    return getTopLevelChildren(
+        BuildElementTypes.FUNCTION_STATEMENT, FunctionStatement.class, FunctionStatement[]::new);
+  }
+
+  private LoadStatement[] getLoadStatements() {
+    return getTopLevelChildren(
+        BuildElementTypes.LOAD_STATEMENT, LoadStatement.class, LoadStatement[]::new);
+  }
+
+  /**
+   * Returns the top-level children of the given type. These all have stubs, so they're read from
+   * the stub tree if the file hasn't been parsed.
+   */
+  private <T extends PsiElement> T[] getTopLevelChildren(
+      IStubElementType<?, ? extends T> type, Class<T> psiClass, ArrayFactory<T> arrayFactory) {
+    StubElement<?> stub = getStub();
+    if (stub != null) {
+      return stub.getChildrenByType(type, arrayFactory);
+    }
+    return findChildrenByClass(psiClass);
   }
 
   @Override
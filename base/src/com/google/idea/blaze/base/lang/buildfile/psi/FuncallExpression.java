@@ -19,11 +19,13 @@ import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile.BlazeFileType;
 import com.google.idea.blaze.base.lang.buildfile.psi.util.PsiUtils;
 import com.google.idea.blaze.base.lang.buildfile.references.FuncallReference;
 import com.google.idea.blaze.base.lang.buildfile.references.LabelUtils;
+import com.google.idea.blaze.base.lang.buildfile.stubs.FuncallExpressionStub;
 import com.google.idea.blaze.base.model.primitives.Label;
 import com.intellij.lang.ASTNode;
 import com.intellij.openapi.util.TextRange;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiNameIdentifierOwner;
+import com.intellij.psi.stubs.IStubElementType;
 import com.intellij.util.IncorrectOperationException;
 import com.intellij.util.Processor;
 import icons.BlazeIcons;
@@ -34,13 +36,17 @@ import javax.swing.Icon;
  * PSI element for an function call.<br>
  * Could be a top-level rule, Skylark function reference, or general some other python function call
  */
-public class FuncallExpression extends BuildElementImpl
+public class FuncallExpression extends StubBasedBuildElementImpl<FuncallExpressionStub>
     implements Expression, PsiNameIdentifierOwner {
 
   public FuncallExpression(ASTNode astNode) {
     super(astNode);
   }
 
+  public FuncallExpression(FuncallExpressionStub stub, IStubElementType<?, ?> nodeType) {
+    super(stub, nodeType);
+  }
+
   @Override
   protected void acceptVisitor(BuildElementVisitor visitor) {
     visitor.visitFuncallExpression(this);
@@ -49,6 +55,10 @@ public class FuncallExpression extends BuildElementImpl
   /** The name of the function being called. */
   @Nullable
   public String getFunctionName() {
+    FuncallExpressionStub stub = getStub();
+    if (stub != null) {
+      return stub.getFunctionName();
+    }
     ASTNode node = getFunctionNameNode();
     return node != null ? node.getText() : null;
   }
@@ -94,6 +104,9 @@ public class FuncallExpression extends BuildElementImpl
 
   /** Top-level funcalls are almost always BUILD rules. */
   public boolean isTopLevel() {
+    if (getStub() != null) {
+      return true;
+    }
     ASTNode parent = getNode().getTreeParent();
     return parent == null || parent.getElementType() == BuildElementTypes.BUILD_FILE;
   }
@@ -116,7 +129,7 @@ public class FuncallExpression extends BuildElementImpl
 
   @Nullable
   public ArgumentList getArgList() {
-    return findChildByType(BuildElementTypes.ARGUMENT_LIST);
+    return getPsiChild(BuildElementTypes.ARGUMENT_LIST, ArgumentList.class);
   }
 
   public Argument[] getArguments() {
@@ -150,6 +163,10 @@ public class FuncallExpression extends BuildElementImpl
   /** Value of keyword argument with name "name", if one is present. */
   @Nullable
   public String getNameArgumentValue() {
+    FuncallExpressionStub stub = getStub();
+    if (stub != null) {
+      return stub.getNameArgumentValue();
+    }
     StringLiteral node = getNameArgumentValueNode();
     return node != null ? node.getStringContents() : null;
   }
@@ -16,20 +16,26 @@
 package com.google.idea.blaze.base.lang.buildfile.psi;
 
 import com.google.idea.blaze.base.lang.buildfile.references.QuoteType;
+import com.google.idea.blaze.base.lang.buildfile.stubs.FunctionStatementStub;
 import com.intellij.lang.ASTNode;
 import com.intellij.psi.PsiElement;
+import com.intellij.psi.stubs.IStubElementType;
 import com.intellij.util.PlatformIcons;
 import javax.annotation.Nullable;
 import javax.swing.Icon;
 
 /** PSI element for a function definition statement. */
-public class FunctionStatement extends NamedBuildElement
+public class FunctionStatement extends NamedStubBasedBuildElement<FunctionStatementStub>
     implements Statement, StatementListContainer, DocStringOwner {
 
   public FunctionStatement(ASTNode astNode) {
     super(astNode);
   }
 
+  public FunctionStatement(FunctionStatementStub stub, IStubElementType<?, ?> nodeType) {
+    super(stub, nodeType);
+  }
+
   @Override
   protected void acceptVisitor(BuildElementVisitor visitor) {
     visitor.visitFunctionStatement(this);
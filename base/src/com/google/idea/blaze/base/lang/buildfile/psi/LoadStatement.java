@@ -16,19 +16,26 @@
 package com.google.idea.blaze.base.lang.buildfile.psi;
 
 import com.google.idea.blaze.base.lang.buildfile.references.LabelUtils;
+import com.google.idea.blaze.base.lang.buildfile.stubs.LoadStatementStub;
 import com.intellij.lang.ASTNode;
+import com.intellij.psi.stubs.IStubElementType;
 import com.intellij.util.PlatformIcons;
 import java.util.Arrays;
 import javax.annotation.Nullable;
 import javax.swing.Icon;
 
 /** PSI element for a load statement. */
-public class LoadStatement extends BuildElementImpl implements Statement {
+public class LoadStatement extends StubBasedBuildElementImpl<LoadStatementStub>
+    implements Statement {
 
   public LoadStatement(ASTNode astNode) {
     super(astNode);
   }
 
+  public LoadStatement(LoadStatementStub stub, IStubElementType<?, ?> nodeType) {
+    super(stub, nodeType);
+  }
+
   @Override
   protected void acceptVisitor(BuildElementVisitor visitor) {
     visitor.visitLoadStatement(this);
@@ -41,11 +48,15 @@ public class LoadStatement extends BuildElementImpl implements Statement {
 
   @Nullable
   public StringLiteral getImportPsiElement() {
-    return findChildByType(BuildElementTypes.STRING_LITERAL);
+    return getPsiChild(BuildElementTypes.STRING_LITERAL, StringLiteral.class);
   }
 
   @Nullable
   public String getImportedPath() {
+    LoadStatementStub stub = getStub();
+    if (stub != null) {
+      return stub.getImportedPath();
+    }
     ASTNode firstString = getImportNode();
     return firstString != null ? StringLiteral.stripQuotes(firstString.getText()) : null;
   }
@@ -66,10 +77,7 @@ public class LoadStatement extends BuildElementImpl implements Statement {
   }
 
   public LoadedSymbol[] getImportedSymbolElements() {
-    return Arrays.stream(getNode().getChildren(null))
-        .map(ASTNode::getPsi)
-        .filter(psiElement -> psiElement instanceof LoadedSymbol)
-        .toArray(LoadedSymbol[]::new);
+    return getStubOrPsiChildren(BuildElementTypes.LOADED_SYMBOL, LoadedSymbol[]::new);
   }
 
   /** Aliased symbol name, if alias is present. */
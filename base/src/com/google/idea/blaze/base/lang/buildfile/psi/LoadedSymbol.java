@@ -16,17 +16,24 @@
 package com.google.idea.blaze.base.lang.buildfile.psi;
 
 import com.google.idea.blaze.base.lang.buildfile.psi.util.PsiUtils;
+import com.google.idea.blaze.base.lang.buildfile.stubs.LoadedSymbolStub;
 import com.intellij.lang.ASTNode;
 import com.intellij.psi.PsiElement;
+import com.intellij.psi.stubs.IStubElementType;
 import javax.annotation.Nullable;
 
 /** PSI element for a loaded symbol within a load statement (either a StringLiteral or an alias). */
-public class LoadedSymbol extends BuildElementImpl implements Expression {
+public class LoadedSymbol extends StubBasedBuildElementImpl<LoadedSymbolStub>
+    implements Expression {
 
   public LoadedSymbol(ASTNode astNode) {
     super(astNode);
   }
 
+  public LoadedSymbol(LoadedSymbolStub stub, IStubElementType<?, ?> nodeType) {
+    super(stub, nodeType);
+  }
+
   @Override
   protected void acceptVisitor(BuildElementVisitor visitor) {
     visitor.visitLoadedSymbol(this);
@@ -34,6 +41,10 @@ public class LoadedSymbol extends BuildElementImpl implements Expression {
 
   @Nullable
   public String getSymbolString() {
+    LoadedSymbolStub stub = getStub();
+    if (stub != null) {
+      return stub.getSymbolString();
+    }
     PsiElement firstChild = getFirstChild();
     if (firstChild instanceof StringLiteral) {
       return ((StringLiteral) firstChild).getStringContents();
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.psi;
+
+import com.google.idea.blaze.base.lang.buildfile.search.BlazePackage;
+import com.intellij.extapi.psi.StubBasedPsiElementBase;
+import com.intellij.lang.ASTNode;
+import com.intellij.navigation.ItemPresentation;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiElementVisitor;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.StubBasedPsiElement;
+import com.intellij.psi.stubs.IStubElementType;
+import com.intellij.psi.stubs.StubElement;
+import com.intellij.psi.tree.IElementType;
+import javax.annotation.Nullable;
+
+/**
+ * Base PSI class for BUILD language elements which can be backed by a stub, rather than the AST.
+ *
+ * <p>Accessors for data held in the stub should read it from {@link #getStub()} when it's
+ * non-null, so that they don't force the file to be parsed.
+ */
+public abstract class StubBasedBuildElementImpl<T extends StubElement<?>>
+    extends StubBasedPsiElementBase<T> implements BuildElement, StubBasedPsiElement<T> {
+
+  public StubBasedBuildElementImpl(ASTNode astNode) {
+    super(astNode);
+  }
+
+  public StubBasedBuildElementImpl(T stub, IStubElementType<?, ?> nodeType) {
+    super(stub, nodeType);
+  }
+
+  @Nullable
+  public <P extends PsiElement> P getPsiChild(IElementType type, Class<P> psiClass) {
+    ASTNode childNode = getNode().findChildByType(type);
+    return childNode != null ? psiClass.cast(childNode.getPsi()) : null;
+  }
+
+  @Override
+  public <P extends PsiElement> P[] childrenOfClass(Class<P> psiClass) {
+    return findChildrenByClass(psiClass);
+  }
+
+  @Nullable
+  @Override
+  public <P extends PsiElement> P firstChildOfClass(Class<P> psiClass) {
+    return findChildByClass(psiClass);
+  }
+
+  public String nonNullName() {
+    String name = getName();
+    return name != null ? name : "<unnamed>";
+  }
+
+  @Override
+  public String getPresentableText() {
+    return nonNullName();
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "(" + getElementType() + "): " + getPresentableText();
+  }
+
+  @Override
+  public void accept(PsiElementVisitor visitor) {
+    if (visitor instanceof BuildElementVisitor) {
+      acceptVisitor(((BuildElementVisitor) visitor));
+    } else {
+      super.accept(visitor);
+    }
+  }
+
+  protected abstract void acceptVisitor(BuildElementVisitor visitor);
+
+  @Nullable
+  @Override
+  public PsiElement getReferencedElement() {
+    return BuildElementImpl.resolveFirst(getReferences());
+  }
+
+  @Override
+  public ItemPresentation getPresentation() {
+    return BuildElementImpl.createPresentation(this);
+  }
+
+  @Nullable
+  @Override
+  public BlazePackage getBlazePackage() {
+    PsiFile file = getContainingFile();
+    return file != null ? BlazePackage.getContainingPackage(file) : null;
+  }
+
+  @Nullable
+  @Override
+  public BuildFile getContainingFile() {
+    return (BuildFile) super.getContainingFile();
+  }
+}
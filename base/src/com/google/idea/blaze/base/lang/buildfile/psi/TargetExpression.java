@@ -16,19 +16,26 @@
 package com.google.idea.blaze.base.lang.buildfile.psi;
 
 import com.google.idea.blaze.base.lang.buildfile.references.TargetReference;
+import com.google.idea.blaze.base.lang.buildfile.stubs.TargetExpressionStub;
 import com.intellij.lang.ASTNode;
 import com.intellij.psi.PsiReference;
+import com.intellij.psi.stubs.IStubElementType;
 import com.intellij.util.PlatformIcons;
 import javax.annotation.Nullable;
 import javax.swing.Icon;
 
 /** References a PsiNamedElement */
-public class TargetExpression extends NamedBuildElement implements Expression {
+public class TargetExpression extends NamedStubBasedBuildElement<TargetExpressionStub>
+    implements Expression {
 
   public TargetExpression(ASTNode astNode) {
     super(astNode);
   }
 
+  public TargetExpression(TargetExpressionStub stub, IStubElementType<?, ?> nodeType) {
+    super(stub, nodeType);
+  }
+
   @Override
   protected void acceptVisitor(BuildElementVisitor visitor) {
     visitor.visitTargetExpression(this);
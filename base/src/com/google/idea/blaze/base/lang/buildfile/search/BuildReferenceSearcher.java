@@ -21,6 +21,7 @@ import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile;
 import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile.BlazeFileType;
 import com.google.idea.blaze.base.lang.buildfile.psi.FuncallExpression;
 import com.google.idea.blaze.base.lang.buildfile.psi.NamedBuildElement;
+import com.google.idea.blaze.base.lang.buildfile.psi.NamedStubBasedBuildElement;
 import com.google.idea.blaze.base.lang.buildfile.psi.util.PsiUtils;
 import com.google.idea.blaze.base.lang.buildfile.references.LabelUtils;
 import com.google.idea.blaze.base.model.primitives.Label;
@@ -28,6 +29,7 @@ import com.intellij.openapi.application.QueryExecutorBase;
 import com.intellij.psi.PsiDirectory;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiNamedElement;
 import com.intellij.psi.PsiReference;
 import com.intellij.psi.search.GlobalSearchScope;
 import com.intellij.psi.search.LocalSearchScope;
@@ -48,8 +50,8 @@ public class BuildReferenceSearcher extends QueryExecutorBase<PsiReference, Sear
   @Override
   public void processQuery(SearchParameters params, Processor<PsiReference> consumer) {
     PsiElement element = params.getElementToSearch();
-    if (element instanceof NamedBuildElement) {
-      String fnName = ((NamedBuildElement) element).getName();
+    if (element instanceof NamedBuildElement || element instanceof NamedStubBasedBuildElement) {
+      String fnName = ((PsiNamedElement) element).getName();
       if (fnName != null) {
         searchForString(params, element, fnName);
       }
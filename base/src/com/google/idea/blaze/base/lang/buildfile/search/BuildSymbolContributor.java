@@ -0,0 +1,60 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.search;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.idea.blaze.base.lang.buildfile.psi.FuncallExpression;
+import com.google.idea.blaze.base.lang.buildfile.psi.FunctionStatement;
+import com.google.idea.blaze.base.lang.buildfile.stubs.BuildRuleNameIndex;
+import com.google.idea.blaze.base.lang.buildfile.stubs.FunctionNameIndex;
+import com.intellij.navigation.ChooseByNameContributor;
+import com.intellij.navigation.NavigationItem;
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.stubs.StubIndex;
+import java.util.List;
+import java.util.Set;
+
+/** Adds top-level BUILD rules and Skylark function definitions to 'Go to symbol'. */
+public class BuildSymbolContributor implements ChooseByNameContributor {
+
+  @Override
+  public String[] getNames(Project project, boolean includeNonProjectItems) {
+    StubIndex index = StubIndex.getInstance();
+    Set<String> names = Sets.newHashSet();
+    names.addAll(index.getAllKeys(BuildRuleNameIndex.KEY, project));
+    names.addAll(index.getAllKeys(FunctionNameIndex.KEY, project));
+    return names.toArray(new String[0]);
+  }
+
+  @Override
+  public NavigationItem[] getItemsByName(
+      String name, String pattern, Project project, boolean includeNonProjectItems) {
+    GlobalSearchScope scope =
+        includeNonProjectItems
+            ? GlobalSearchScope.allScope(project)
+            : GlobalSearchScope.projectScope(project);
+    List<NavigationItem> items = Lists.newArrayList();
+    items.addAll(
+        StubIndex.getElements(
+            BuildRuleNameIndex.KEY, name, project, scope, FuncallExpression.class));
+    items.addAll(
+        StubIndex.getElements(
+            FunctionNameIndex.KEY, name, project, scope, FunctionStatement.class));
+    return items.toArray(new NavigationItem[0]);
+  }
+}
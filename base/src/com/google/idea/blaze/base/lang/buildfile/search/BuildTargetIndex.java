@@ -0,0 +1,169 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.search;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.idea.blaze.base.bazel.BuildSystemProvider;
+import com.google.idea.blaze.base.lang.buildfile.language.BuildFileType;
+import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile;
+import com.google.idea.blaze.base.lang.buildfile.psi.FuncallExpression;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.indexing.DataIndexer;
+import com.intellij.util.indexing.FileBasedIndex;
+import com.intellij.util.indexing.FileBasedIndexExtension;
+import com.intellij.util.indexing.FileContent;
+import com.intellij.util.indexing.ID;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.DataInputOutputUtil;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.IOUtil;
+import com.intellij.util.io.KeyDescriptor;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps each blaze package directory to the targets declared in its BUILD file, and their rule
+ * kinds.
+ *
+ * <p>Keys are package directory paths rather than workspace paths, because the workspace root
+ * isn't known at indexing time.
+ */
+public class BuildTargetIndex extends FileBasedIndexExtension<String, Map<String, String>> {
+
+  public static final ID<String, Map<String, String>> NAME = ID.create("BuildTargetIndex");
+
+  private static final int VERSION = 2;
+
+  /**
+   * Returns the targets declared in the given BUILD file, in declaration order, mapped to their
+   * rule kinds. Files which aren't indexed are parsed directly.
+   */
+  public static Map<String, String> getTargets(BuildFile file) {
+    Project project = file.getProject();
+    VirtualFile vf = file.getOriginalFile().getVirtualFile();
+    VirtualFile packageDir = vf != null ? vf.getParent() : null;
+    if (packageDir == null || DumbService.isDumb(project) || !isIndexed(project, vf)) {
+      return collectTargets(file);
+    }
+    List<Map<String, String>> values =
+        FileBasedIndex.getInstance()
+            .getValues(NAME, packageDir.getPath(), GlobalSearchScope.fileScope(project, vf));
+    return values.isEmpty() ? ImmutableMap.of() : values.get(0);
+  }
+
+  private static boolean isIndexed(Project project, VirtualFile file) {
+    return isBuildFile(file.getName())
+        && ProjectFileIndex.SERVICE.getInstance(project).isInContent(file);
+  }
+
+  /** The index is shared by all projects, so it includes the BUILD files of any build system. */
+  private static boolean isBuildFile(String fileName) {
+    for (BuildSystemProvider provider : BuildSystemProvider.EP_NAME.getExtensions()) {
+      if (provider.isBuildFile(fileName)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static Map<String, String> collectTargets(BuildFile file) {
+    Map<String, String> targets = Maps.newLinkedHashMap();
+    for (FuncallExpression rule : file.findChildrenByClass(FuncallExpression.class)) {
+      String name = rule.getName();
+      String kind = rule.getFunctionName();
+      if (name != null && kind != null) {
+        targets.putIfAbsent(name, kind);
+      }
+    }
+    return ImmutableMap.copyOf(targets);
+  }
+
+  @Override
+  public ID<String, Map<String, String>> getName() {
+    return NAME;
+  }
+
+  @Override
+  public DataIndexer<String, Map<String, String>, FileContent> getIndexer() {
+    return BuildTargetIndex::indexFile;
+  }
+
+  private static Map<String, Map<String, String>> indexFile(FileContent inputData) {
+    VirtualFile packageDir = inputData.getFile().getParent();
+    PsiFile file = inputData.getPsiFile();
+    if (packageDir == null || !(file instanceof BuildFile)) {
+      return ImmutableMap.of();
+    }
+    return ImmutableMap.of(packageDir.getPath(), collectTargets((BuildFile) file));
+  }
+
+  @Override
+  public KeyDescriptor<String> getKeyDescriptor() {
+    return EnumeratorStringDescriptor.INSTANCE;
+  }
+
+  @Override
+  public DataExternalizer<Map<String, String>> getValueExternalizer() {
+    return new TargetsExternalizer();
+  }
+
+  @Override
+  public FileBasedIndex.InputFilter getInputFilter() {
+    return file -> file.getFileType() == BuildFileType.INSTANCE && isBuildFile(file.getName());
+  }
+
+  @Override
+  public boolean dependsOnFileContent() {
+    return true;
+  }
+
+  @Override
+  public int getVersion() {
+    return VERSION;
+  }
+
+  private static class TargetsExternalizer implements DataExternalizer<Map<String, String>> {
+    @Override
+    public void save(DataOutput out, Map<String, String> targets) throws IOException {
+      DataInputOutputUtil.writeINT(out, targets.size());
+      for (Map.Entry<String, String> entry : targets.entrySet()) {
+        IOUtil.writeUTF(out, entry.getKey());
+        IOUtil.writeUTF(out, entry.getValue());
+      }
+    }
+
+    @Override
+    public Map<String, String> read(DataInput in) throws IOException {
+      int size = DataInputOutputUtil.readINT(in);
+      ImmutableMap.Builder<String, String> targets = ImmutableMap.builder();
+      for (int i = 0; i < size; i++) {
+        String name = IOUtil.readUTF(in);
+        String kind = IOUtil.readUTF(in);
+        targets.put(name, kind);
+      }
+      return targets.build();
+    }
+  }
+}
@@ -36,8 +36,10 @@ import org.jetbrains.annotations.NotNull;
  * Searches for references to a file in globs. These aren't picked up by a standard string search,
  * and are only evaluated on demand, so we can't just check a reference cache.
  *
- * <p>Unlike resolving a glob, this requires no file system calls (beyond finding the parent blaze
- * package), because we're only interested in a single file, which is already known to exist.
+ * <p>Unlike resolving a glob, this requires no directory listings, because we're only interested in
+ * a single file, which is already known to exist. The only file system calls are the BUILD file
+ * checks made while finding the parent blaze package. Glob patterns are matched using cached,
+ * precompiled matchers.
  *
  * <p>This is always a local search (as glob references can't cross package boundaries).
  */
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.stubs;
+
+import com.google.idea.blaze.base.lang.buildfile.language.BuildFileType;
+import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile;
+import com.intellij.psi.StubBuilder;
+import com.intellij.psi.stubs.PsiFileStub;
+import com.intellij.psi.tree.IStubFileElementType;
+
+/** The file element type for BUILD and Skylark files. */
+public class BuildFileElementType extends IStubFileElementType<PsiFileStub<BuildFile>> {
+
+  /** Increment whenever the stub format, or the set of elements with stubs, changes. */
+  private static final int STUB_VERSION = 1;
+
+  public BuildFileElementType() {
+    super(BuildFileType.INSTANCE.getLanguage());
+  }
+
+  @Override
+  public StubBuilder getBuilder() {
+    return new BuildFileStubBuilder();
+  }
+
+  @Override
+  public int getStubVersion() {
+    return STUB_VERSION;
+  }
+
+  @Override
+  public String getExternalId() {
+    return "BUILD.file";
+  }
+}
@@ -1,11 +1,11 @@
 /*
- * Copyright 2016 The Bazel Authors. All rights reserved.
+ * Copyright 2017 The Bazel Authors. All rights reserved.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
  * You may obtain a copy of the License at
  *
- * http://www.apache.org/licenses/LICENSE-2.0
+ *    http://www.apache.org/licenses/LICENSE-2.0
  *
  * Unless required by applicable law or agreed to in writing, software
  * distributed under the License is distributed on an "AS IS" BASIS,
@@ -15,29 +15,24 @@
  */
 package com.google.idea.blaze.base.lang.buildfile.stubs;
 
-import com.intellij.openapi.vfs.VirtualFile;
-import com.intellij.psi.stubs.BinaryFileStubBuilder;
-import com.intellij.psi.stubs.Stub;
-import com.intellij.util.indexing.FileContent;
-import javax.annotation.Nullable;
+import com.google.idea.blaze.base.lang.buildfile.psi.BuildElementTypes;
+import com.intellij.lang.ASTNode;
+import com.intellij.psi.stubs.DefaultStubBuilder;
+import com.intellij.psi.tree.IElementType;
 
-/** Empty stub builder to suppress errors when IntelliJ is looking for stubs. */
-public class BuildFileStubBuilder implements BinaryFileStubBuilder {
-  private static final int STUB_VERSION = 0;
-
-  @Override
-  public boolean acceptsFile(VirtualFile file) {
-    return false;
-  }
-
-  @Nullable
-  @Override
-  public Stub buildStubTree(FileContent fileContent) {
-    return null;
-  }
+/**
+ * Builds the stub tree for a BUILD or Skylark file.
+ *
+ * <p>Only top-level rules, function definitions, assignments and load statements have stubs, so
+ * there's no need to walk into any other statements.
+ */
+public class BuildFileStubBuilder extends DefaultStubBuilder {
 
   @Override
-  public int getStubVersion() {
-    return STUB_VERSION;
+  public boolean skipChildProcessingWhenBuildingStubs(ASTNode parent, ASTNode node) {
+    IElementType parentType = parent.getElementType();
+    return parentType != BuildElementTypes.BUILD_FILE
+        && parentType != BuildElementTypes.ASSIGNMENT_STATEMENT
+        && parentType != BuildElementTypes.LOAD_STATEMENT;
   }
 }
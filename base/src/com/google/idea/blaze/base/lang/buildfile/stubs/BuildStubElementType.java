@@ -0,0 +1,53 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.stubs;
+
+import com.google.idea.blaze.base.lang.buildfile.language.BuildFileType;
+import com.google.idea.blaze.base.lang.buildfile.psi.BuildElementTypes;
+import com.intellij.lang.ASTNode;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.stubs.IStubElementType;
+import com.intellij.psi.stubs.IndexSink;
+import com.intellij.psi.stubs.StubElement;
+
+/**
+ * Element types for BUILD PSI elements which can be backed by a stub. Like {@link
+ * com.google.idea.blaze.base.lang.buildfile.psi.BuildElementType}, they also create the PSI
+ * elements for AST nodes.
+ */
+public abstract class BuildStubElementType<S extends StubElement<P>, P extends PsiElement>
+    extends IStubElementType<S, P> {
+
+  BuildStubElementType(String debugName) {
+    super(debugName, BuildFileType.INSTANCE.getLanguage());
+  }
+
+  /** Creates the PSI element for an AST node of this type. */
+  public abstract P createElement(ASTNode node);
+
+  @Override
+  public String getExternalId() {
+    return "BUILD." + toString();
+  }
+
+  @Override
+  public void indexStub(S stub, IndexSink sink) {}
+
+  static boolean isTopLevel(ASTNode node) {
+    ASTNode parent = node.getTreeParent();
+    return parent != null && parent.getElementType() == BuildElementTypes.BUILD_FILE;
+  }
+}
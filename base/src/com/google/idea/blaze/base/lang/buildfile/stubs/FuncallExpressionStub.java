@@ -0,0 +1,49 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.stubs;
+
+import com.google.idea.blaze.base.lang.buildfile.psi.FuncallExpression;
+import com.intellij.psi.stubs.IStubElementType;
+import com.intellij.psi.stubs.StubBase;
+import com.intellij.psi.stubs.StubElement;
+import javax.annotation.Nullable;
+
+/** Stub for a top-level function call, which is almost always a BUILD rule. */
+public class FuncallExpressionStub extends StubBase<FuncallExpression> {
+  @Nullable private final String functionName;
+  @Nullable private final String nameArgumentValue;
+
+  FuncallExpressionStub(
+      StubElement<?> parent,
+      IStubElementType<?, ?> elementType,
+      @Nullable String functionName,
+      @Nullable String nameArgumentValue) {
+    super(parent, elementType);
+    this.functionName = functionName;
+    this.nameArgumentValue = nameArgumentValue;
+  }
+
+  @Nullable
+  public String getFunctionName() {
+    return functionName;
+  }
+
+  /** The value of the "name" keyword argument, if present. */
+  @Nullable
+  public String getNameArgumentValue() {
+    return nameArgumentValue;
+  }
+}
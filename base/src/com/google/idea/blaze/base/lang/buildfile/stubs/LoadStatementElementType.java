@@ -0,0 +1,64 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.stubs;
+
+import com.google.idea.blaze.base.lang.buildfile.psi.LoadStatement;
+import com.intellij.lang.ASTNode;
+import com.intellij.psi.stubs.StubElement;
+import com.intellij.psi.stubs.StubInputStream;
+import com.intellij.psi.stubs.StubOutputStream;
+import com.intellij.util.io.StringRef;
+import java.io.IOException;
+
+/** Load statements. Only top-level statements have stubs. */
+public class LoadStatementElementType
+    extends BuildStubElementType<LoadStatementStub, LoadStatement> {
+
+  public LoadStatementElementType() {
+    super("load");
+  }
+
+  @Override
+  public LoadStatement createElement(ASTNode node) {
+    return new LoadStatement(node);
+  }
+
+  @Override
+  public LoadStatement createPsi(LoadStatementStub stub) {
+    return new LoadStatement(stub, this);
+  }
+
+  @Override
+  public LoadStatementStub createStub(LoadStatement psi, StubElement parentStub) {
+    return new LoadStatementStub(parentStub, this, psi.getImportedPath());
+  }
+
+  @Override
+  public boolean shouldCreateStub(ASTNode node) {
+    return isTopLevel(node);
+  }
+
+  @Override
+  public void serialize(LoadStatementStub stub, StubOutputStream dataStream) throws IOException {
+    dataStream.writeName(stub.getImportedPath());
+  }
+
+  @Override
+  public LoadStatementStub deserialize(StubInputStream dataStream, StubElement parentStub)
+      throws IOException {
+    return new LoadStatementStub(parentStub, this, StringRef.toString(dataStream.readName()));
+  }
+}
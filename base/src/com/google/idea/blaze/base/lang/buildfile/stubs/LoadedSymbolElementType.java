@@ -0,0 +1,67 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.stubs;
+
+import com.google.idea.blaze.base.lang.buildfile.psi.BuildElementTypes;
+import com.google.idea.blaze.base.lang.buildfile.psi.LoadedSymbol;
+import com.intellij.lang.ASTNode;
+import com.intellij.psi.stubs.StubElement;
+import com.intellij.psi.stubs.StubInputStream;
+import com.intellij.psi.stubs.StubOutputStream;
+import com.intellij.util.io.StringRef;
+import java.io.IOException;
+
+/** Symbols within a load statement. Only symbols of top-level load statements have stubs. */
+public class LoadedSymbolElementType extends BuildStubElementType<LoadedSymbolStub, LoadedSymbol> {
+
+  public LoadedSymbolElementType() {
+    super("loaded_symbol");
+  }
+
+  @Override
+  public LoadedSymbol createElement(ASTNode node) {
+    return new LoadedSymbol(node);
+  }
+
+  @Override
+  public LoadedSymbol createPsi(LoadedSymbolStub stub) {
+    return new LoadedSymbol(stub, this);
+  }
+
+  @Override
+  public LoadedSymbolStub createStub(LoadedSymbol psi, StubElement parentStub) {
+    return new LoadedSymbolStub(parentStub, this, psi.getSymbolString());
+  }
+
+  @Override
+  public boolean shouldCreateStub(ASTNode node) {
+    ASTNode parent = node.getTreeParent();
+    return parent != null
+        && parent.getElementType() == BuildElementTypes.LOAD_STATEMENT
+        && isTopLevel(parent);
+  }
+
+  @Override
+  public void serialize(LoadedSymbolStub stub, StubOutputStream dataStream) throws IOException {
+    dataStream.writeName(stub.getSymbolString());
+  }
+
+  @Override
+  public LoadedSymbolStub deserialize(StubInputStream dataStream, StubElement parentStub)
+      throws IOException {
+    return new LoadedSymbolStub(parentStub, this, StringRef.toString(dataStream.readName()));
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.stubs;
+
+import com.google.idea.blaze.base.lang.buildfile.psi.BuildElementTypes;
+import com.google.idea.blaze.base.lang.buildfile.psi.TargetExpression;
+import com.intellij.lang.ASTNode;
+import com.intellij.psi.stubs.StubElement;
+import com.intellij.psi.stubs.StubInputStream;
+import com.intellij.psi.stubs.StubOutputStream;
+import com.intellij.util.io.StringRef;
+import java.io.IOException;
+
+/**
+ * Assignment targets. Only the left-hand side of top-level assignment statements has a stub, with
+ * the file stub as its parent.
+ */
+public class TargetExpressionElementType
+    extends BuildStubElementType<TargetExpressionStub, TargetExpression> {
+
+  public TargetExpressionElementType() {
+    super("target");
+  }
+
+  @Override
+  public TargetExpression createElement(ASTNode node) {
+    return new TargetExpression(node);
+  }
+
+  @Override
+  public TargetExpression createPsi(TargetExpressionStub stub) {
+    return new TargetExpression(stub, this);
+  }
+
+  @Override
+  public TargetExpressionStub createStub(TargetExpression psi, StubElement parentStub) {
+    return new TargetExpressionStub(parentStub, this, psi.getName());
+  }
+
+  @Override
+  public boolean shouldCreateStub(ASTNode node) {
+    ASTNode parent = node.getTreeParent();
+    return parent != null
+        && parent.getElementType() == BuildElementTypes.ASSIGNMENT_STATEMENT
+        && isTopLevel(parent)
+        && parent.findChildByType(BuildElementTypes.TARGET_EXPRESSION) == node;
+  }
+
+  @Override
+  public void serialize(TargetExpressionStub stub, StubOutputStream dataStream)
+      throws IOException {
+    dataStream.writeName(stub.getName());
+  }
+
+  @Override
+  public TargetExpressionStub deserialize(StubInputStream dataStream, StubElement parentStub)
+      throws IOException {
+    return new TargetExpressionStub(parentStub, this, StringRef.toString(dataStream.readName()));
+  }
+}
@@ -17,9 +17,9 @@ package com.google.idea.blaze.base.model;
 
 import com.google.common.base.Objects;
 import com.google.idea.blaze.base.io.VirtualFileSystemProvider;
+import com.google.idea.blaze.base.sync.libraries.LibraryRoots;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.roots.libraries.Library;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.io.FileUtilRt;
 import com.intellij.openapi.vfs.StandardFileSystems;
@@ -63,10 +63,11 @@ public abstract class BlazeLibrary implements Serializable {
     return Objects.equal(key, that.key);
   }
 
-  public abstract void modifyLibraryModel(
+  /** Adds the roots the IntelliJ library should have. */
+  public abstract void addRoots(
       Project project,
       ArtifactLocationDecoder artifactLocationDecoder,
-      Library.ModifiableModel libraryModel);
+      LibraryRoots.Builder libraryRoots);
 
   protected static String pathToUrl(File path) {
     String name = path.getName();
@@ -15,20 +15,19 @@
  */
 package com.google.idea.blaze.base.model;
 
-import com.google.common.collect.ImmutableMultimap;
 import com.google.idea.blaze.base.command.info.BlazeInfo;
-import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.ideinfo.TargetMap;
 import com.google.idea.blaze.base.sync.projectview.WorkspaceLanguageSettings;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
 import com.google.idea.blaze.base.sync.workspace.WorkspacePathResolver;
+import com.google.idea.blaze.base.targetmaps.TargetGraph;
 import java.io.Serializable;
 import javax.annotation.concurrent.Immutable;
 
 /** The top-level object serialized to cache. */
 @Immutable
 public class BlazeProjectData implements Serializable {
-  private static final long serialVersionUID = 28L;
+  private static final long serialVersionUID = 29L;
 
   public final long syncTime;
   public final TargetMap targetMap;
@@ -38,7 +37,7 @@ public class BlazeProjectData implements Serializable {
   public final ArtifactLocationDecoder artifactLocationDecoder;
   public final WorkspaceLanguageSettings workspaceLanguageSettings;
   public final SyncState syncState;
-  public final ImmutableMultimap<TargetKey, TargetKey> reverseDependencies;
+  public final TargetGraph targetGraph;
 
   public BlazeProjectData(
       long syncTime,
@@ -49,7 +48,7 @@ public class BlazeProjectData implements Serializable {
       ArtifactLocationDecoder artifactLocationDecoder,
       WorkspaceLanguageSettings workspaceLanguageSettings,
       SyncState syncState,
-      ImmutableMultimap<TargetKey, TargetKey> reverseDependencies) {
+      TargetGraph targetGraph) {
     this.syncTime = syncTime;
     this.targetMap = targetMap;
     this.blazeInfo = blazeInfo;
@@ -58,6 +57,6 @@ public class BlazeProjectData implements Serializable {
     this.artifactLocationDecoder = artifactLocationDecoder;
     this.workspaceLanguageSettings = workspaceLanguageSettings;
     this.syncState = syncState;
-    this.reverseDependencies = reverseDependencies;
+    this.targetGraph = targetGraph;
   }
 }
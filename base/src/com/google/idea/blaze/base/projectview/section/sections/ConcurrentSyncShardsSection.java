@@ -0,0 +1,70 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.projectview.section.sections;
+
+import com.google.common.primitives.Ints;
+import com.google.idea.blaze.base.projectview.parser.ParseContext;
+import com.google.idea.blaze.base.projectview.parser.ProjectViewParser;
+import com.google.idea.blaze.base.projectview.section.ScalarSection;
+import com.google.idea.blaze.base.projectview.section.ScalarSectionParser;
+import com.google.idea.blaze.base.projectview.section.SectionKey;
+import com.google.idea.blaze.base.projectview.section.SectionParser;
+import javax.annotation.Nullable;
+
+/**
+ * The number of sharded blaze builds to run concurrently during blaze sync, each against its own
+ * output base. Only applies if 'shard_sync' is enabled.
+ */
+public class ConcurrentSyncShardsSection {
+  public static final SectionKey<Integer, ScalarSection<Integer>> KEY =
+      SectionKey.of("sync_concurrent_shards");
+  public static final SectionParser PARSER = new ConcurrentSyncShardsSectionParser();
+
+  private static class ConcurrentSyncShardsSectionParser extends ScalarSectionParser<Integer> {
+    ConcurrentSyncShardsSectionParser() {
+      super(KEY, ':');
+    }
+
+    @Override
+    @Nullable
+    protected Integer parseItem(ProjectViewParser parser, ParseContext parseContext, String text) {
+      Integer value = Ints.tryParse(text);
+      if (value == null || value < 1) {
+        parseContext.addError(
+            "'sync_concurrent_shards' must be a positive integer "
+                + "(e.g. 'sync_concurrent_shards: 2')");
+        return null;
+      }
+      return value;
+    }
+
+    @Override
+    protected void printItem(StringBuilder sb, Integer item) {
+      sb.append(item);
+    }
+
+    @Override
+    public ItemType getItemType() {
+      return ItemType.Other;
+    }
+
+    @Override
+    public String quickDocs() {
+      return "The number of sharded builds to run concurrently when syncing, each with its own "
+          + "output base. Requires 'shard_sync: true'.";
+    }
+  }
+}
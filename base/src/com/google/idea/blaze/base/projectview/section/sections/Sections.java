@@ -37,7 +37,8 @@ public class Sections {
           ExcludeTargetSection.PARSER,
           ExcludedSourceSection.PARSER,
           RunConfigurationsSection.PARSER,
-          ShardBlazeBuildsSection.PARSER);
+          ShardBlazeBuildsSection.PARSER,
+          ConcurrentSyncShardsSection.PARSER);
 
   public static List<SectionParser> getParsers() {
     List<SectionParser> parsers = Lists.newArrayList(PARSERS);
@@ -18,10 +18,8 @@ package com.google.idea.blaze.base.run.testmap;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
-import com.google.common.collect.Queues;
 import com.google.common.collect.Sets;
 import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
 import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
@@ -31,11 +29,11 @@ import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.model.primitives.Label;
 import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
+import com.google.idea.blaze.base.targetmaps.TargetGraph;
 import com.intellij.openapi.project.Project;
 import java.io.File;
 import java.util.Collection;
 import java.util.List;
-import java.util.Queue;
 import java.util.Set;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -63,15 +61,14 @@ public class FilteredTargetMap {
     BlazeProjectData blazeProjectData =
         BlazeProjectDataManager.getInstance(project).getBlazeProjectData();
     if (blazeProjectData != null) {
-      return targetsForSourceFileImpl(blazeProjectData.reverseDependencies, sourceFile);
+      return targetsForSourceFileImpl(blazeProjectData.targetGraph, sourceFile);
     }
     return ImmutableList.of();
   }
 
   @VisibleForTesting
-  Collection<Label> targetsForSourceFile(
-      ImmutableMultimap<TargetKey, TargetKey> rdepsMap, File sourceFile) {
-    return targetsForSourceFileImpl(rdepsMap, sourceFile)
+  Collection<Label> targetsForSourceFile(TargetGraph targetGraph, File sourceFile) {
+    return targetsForSourceFileImpl(targetGraph, sourceFile)
         .stream()
         .filter(TargetIdeInfo::isPlainTarget)
         .map(target -> target.key.label)
@@ -79,28 +76,17 @@ public class FilteredTargetMap {
   }
 
   private Collection<TargetIdeInfo> targetsForSourceFileImpl(
-      ImmutableMultimap<TargetKey, TargetKey> rdepsMap, File sourceFile) {
-    List<TargetIdeInfo> result = Lists.newArrayList();
+      TargetGraph targetGraph, File sourceFile) {
     Collection<TargetKey> roots = rootsMap.get(sourceFile);
+    Set<TargetKey> targetKeys = Sets.newLinkedHashSet(roots);
+    targetKeys.addAll(targetGraph.getTransitiveReverseDependencies(roots));
 
-    Queue<TargetKey> todo = Queues.newArrayDeque();
-    for (TargetKey label : roots) {
-      todo.add(label);
-    }
-    Set<TargetKey> seen = Sets.newHashSet();
-    while (!todo.isEmpty()) {
-      TargetKey targetKey = todo.remove();
-      if (!seen.add(targetKey)) {
-        continue;
-      }
-
+    List<TargetIdeInfo> result = Lists.newArrayList();
+    for (TargetKey targetKey : targetKeys) {
       TargetIdeInfo target = targetMap.get(targetKey);
       if (filter.test(target)) {
         result.add(target);
       }
-      for (TargetKey rdep : rdepsMap.get(targetKey)) {
-        todo.add(rdep);
-      }
     }
     return result;
   }
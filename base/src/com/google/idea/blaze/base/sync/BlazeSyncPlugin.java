@@ -132,7 +132,12 @@ public interface BlazeSyncPlugin {
   @Nullable
   SourceFolderProvider getSourceFolderProvider(BlazeProjectData projectData);
 
-  /** Modifies the IDE project structure in accordance with the sync data. */
+  /**
+   * Modifies the IDE project structure in accordance with the sync data.
+   *
+   * <p>The targets changed since the previous sync are available cheaply via {@link
+   * TargetMap#diff}.
+   */
   void updateProjectStructure(
       Project project,
       BlazeContext context,
@@ -16,7 +16,6 @@
 package com.google.idea.blaze.base.sync;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
@@ -29,7 +28,6 @@ import com.google.idea.blaze.base.command.info.BlazeInfo;
 import com.google.idea.blaze.base.command.info.BlazeInfoRunner;
 import com.google.idea.blaze.base.experiments.ExperimentScope;
 import com.google.idea.blaze.base.filecache.FileCaches;
-import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.ideinfo.TargetMap;
 import com.google.idea.blaze.base.io.FileAttributeProvider;
 import com.google.idea.blaze.base.io.VirtualFileSystemProvider;
@@ -81,6 +79,8 @@ import com.google.idea.blaze.base.sync.projectview.LanguageSupport;
 import com.google.idea.blaze.base.sync.projectview.WorkspaceLanguageSettings;
 import com.google.idea.blaze.base.sync.sharding.BlazeBuildTargetSharder;
 import com.google.idea.blaze.base.sync.sharding.BlazeBuildTargetSharder.ShardedTargetsResult;
+import com.google.idea.blaze.base.sync.sharding.ShardOutputBases;
+import com.google.idea.blaze.base.sync.sharding.ShardStatistics;
 import com.google.idea.blaze.base.sync.sharding.ShardedTargetList;
 import com.google.idea.blaze.base.sync.sharding.SuggestEnablingShardingNotification;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
@@ -88,7 +88,7 @@ import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoderImpl;
 import com.google.idea.blaze.base.sync.workspace.WorkingSet;
 import com.google.idea.blaze.base.sync.workspace.WorkspacePathResolver;
 import com.google.idea.blaze.base.sync.workspace.WorkspacePathResolverImpl;
-import com.google.idea.blaze.base.targetmaps.ReverseDependencyMap;
+import com.google.idea.blaze.base.targetmaps.TargetGraph;
 import com.google.idea.blaze.base.util.SaveUtil;
 import com.google.idea.blaze.base.vcs.BlazeVcsHandler;
 import com.google.idea.sdkcompat.transactions.Transactions;
@@ -268,7 +268,13 @@ final class BlazeSyncTask implements Progressive {
     WorkspacePathResolver workspacePathResolver =
         workspacePathResolverAndProjectView.workspacePathResolver;
     ArtifactLocationDecoder artifactLocationDecoder =
-        new ArtifactLocationDecoderImpl(blazeInfo, workspacePathResolver);
+        new ArtifactLocationDecoderImpl(
+            blazeInfo,
+            workspacePathResolver,
+            ShardOutputBases.getAdditionalOutputBases(project, projectViewSet)
+                .stream()
+                .map(base -> ShardOutputBases.getExecutionRoot(base, blazeInfo.getExecutionRoot()))
+                .collect(Collectors.toList()));
 
     WorkspaceLanguageSettings workspaceLanguageSettings =
         LanguageSupport.createWorkspaceLanguageSettings(projectViewSet);
@@ -332,7 +338,13 @@ final class BlazeSyncTask implements Progressive {
 
     ShardedTargetsResult shardedTargetsResult =
         BlazeBuildTargetSharder.expandAndShardTargets(
-            project, context, workspaceRoot, projectViewSet, workspacePathResolver, targets);
+            project,
+            context,
+            workspaceRoot,
+            projectViewSet,
+            workspacePathResolver,
+            targets,
+            ShardStatistics.getPrevious(project, previousSyncState));
     if (shardedTargetsResult.buildResult.status == BuildResult.Status.FATAL_ERROR) {
       return SyncResult.FAILURE;
     }
@@ -366,8 +378,14 @@ final class BlazeSyncTask implements Progressive {
     TargetMap targetMap = ideQueryResult.targetMap;
     BuildResult ideInfoResult = ideQueryResult.buildResult;
 
-    ListenableFuture<ImmutableMultimap<TargetKey, TargetKey>> reverseDependenciesFuture =
-        BlazeExecutor.getInstance().submit(() -> ReverseDependencyMap.createRdepsMap(targetMap));
+    ListenableFuture<TargetGraph> targetGraphFuture =
+        BlazeExecutor.getInstance()
+            .submit(
+                () ->
+                    oldBlazeProjectData != null
+                        ? oldBlazeProjectData.targetGraph.update(
+                            oldBlazeProjectData.targetMap, targetMap)
+                        : TargetGraph.create(targetMap));
 
     BuildResult ideResolveResult =
         resolveIdeArtifacts(
@@ -383,6 +401,13 @@ final class BlazeSyncTask implements Progressive {
       return SyncResult.CANCELLED;
     }
 
+    ListenableFuture<DirectoryStructure> directoryStructureFuture =
+        DirectoryStructure.getRootDirectoryStructure(
+            project,
+            workspaceRoot,
+            projectViewSet,
+            previousSyncState != null ? previousSyncState.get(DirectoryStructure.class) : null);
+
     Scope.push(
         context,
         (childContext) -> {
@@ -404,16 +429,28 @@ final class BlazeSyncTask implements Progressive {
           }
         });
 
-    ImmutableMultimap<TargetKey, TargetKey> reverseDependencies =
-        FutureUtil.waitForFuture(context, reverseDependenciesFuture)
-            .timed("ReverseDependencies")
-            .onError("Failed to compute reverse dependency map")
+    TargetGraph targetGraph =
+        FutureUtil.waitForFuture(context, targetGraphFuture)
+            .timed("TargetGraph")
+            .onError("Failed to compute target dependency graph")
             .run()
             .result();
-    if (reverseDependencies == null) {
+    if (targetGraph == null) {
       return SyncResult.FAILURE;
     }
 
+    DirectoryStructure directoryStructure =
+        FutureUtil.waitForFuture(context, directoryStructureFuture)
+            .withProgressMessage("Computing directory structure...")
+            .timed("DirectoryStructure")
+            .onError("Directory structure computation failed")
+            .run()
+            .result();
+    if (directoryStructure == null) {
+      return SyncResult.FAILURE;
+    }
+    syncStateBuilder.put(DirectoryStructure.class, directoryStructure);
+
     newBlazeProjectData =
         new BlazeProjectData(
             syncStartTime,
@@ -424,7 +461,7 @@ final class BlazeSyncTask implements Progressive {
             artifactLocationDecoder,
             workspaceLanguageSettings,
             syncStateBuilder.build(),
-            reverseDependencies);
+            targetGraph);
 
     FileCaches.onSync(project, context, projectViewSet, newBlazeProjectData, syncMode);
     ListenableFuture<?> prefetch =
@@ -436,22 +473,8 @@ final class BlazeSyncTask implements Progressive {
         .onError("Prefetch failed")
         .run();
 
-    ListenableFuture<DirectoryStructure> directoryStructureFuture =
-        DirectoryStructure.getRootDirectoryStructure(project, workspaceRoot, projectViewSet);
-
     refreshVirtualFileSystem(context, newBlazeProjectData);
 
-    DirectoryStructure directoryStructure =
-        FutureUtil.waitForFuture(context, directoryStructureFuture)
-            .withProgressMessage("Computing directory structure...")
-            .timed("DirectoryStructure")
-            .onError("Directory structure computation failed")
-            .run()
-            .result();
-    if (directoryStructure == null) {
-      return SyncResult.FAILURE;
-    }
-
     boolean success =
         updateProject(
             context,
@@ -769,7 +792,8 @@ final class BlazeSyncTask implements Progressive {
     }
 
     Module workspaceModule =
-        moduleEditor.createModule(BlazeDataStorage.WORKSPACE_MODULE_NAME, workspaceModuleType);
+        moduleEditor.createModuleRetainingContentEntries(
+            BlazeDataStorage.WORKSPACE_MODULE_NAME, workspaceModuleType);
     ModifiableRootModel workspaceModifiableModel = moduleEditor.editModule(workspaceModule);
 
     ContentEntryEditor.createContentEntries(
@@ -777,6 +801,7 @@ final class BlazeSyncTask implements Progressive {
         workspaceRoot,
         projectViewSet,
         newBlazeProjectData,
+        oldBlazeProjectData,
         directoryStructure,
         workspaceModifiableModel);
 
@@ -39,4 +39,9 @@ public class GenericSourceFolderProvider implements SourceFolderProvider {
       ContentEntry contentEntry, SourceFolder parentFolder, File file, boolean isTestSource) {
     return contentEntry.addSourceFolder(UrlUtil.fileToIdeaUrl(file), isTestSource);
   }
+
+  @Override
+  public Object getSourceFolderInputs(File contentRoot) {
+    return contentRoot;
+  }
 }
@@ -20,6 +20,7 @@ import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.intellij.openapi.roots.ContentEntry;
 import com.intellij.openapi.roots.SourceFolder;
 import java.io.File;
+import javax.annotation.Nullable;
 
 /** Provides source folders for each content entry during sync. */
 public interface SourceFolderProvider {
@@ -49,4 +50,14 @@ public interface SourceFolderProvider {
    */
   SourceFolder setSourceFolderForLocation(
       ContentEntry contentEntry, SourceFolder parentFolder, File file, boolean isTestSource);
+
+  /**
+   * Returns the data the source folders of the given content root are derived from, or null if it
+   * isn't known. Content entries whose source folder inputs haven't changed since the previous sync
+   * are left as they are.
+   */
+  @Nullable
+  default Object getSourceFolderInputs(File contentRoot) {
+    return null;
+  }
 }
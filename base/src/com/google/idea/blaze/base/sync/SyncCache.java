@@ -16,7 +16,11 @@
 package com.google.idea.blaze.base.sync;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.collect.Maps;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.idea.blaze.base.async.executor.BlazeExecutor;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.projectview.ProjectViewSet;
 import com.google.idea.blaze.base.scope.BlazeContext;
@@ -24,19 +28,50 @@ import com.google.idea.blaze.base.settings.BlazeImportSettings;
 import com.google.idea.blaze.base.sync.BlazeSyncParams.SyncMode;
 import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
 import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.project.Project;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import javax.annotation.Nullable;
 
-/** Computes a cache on the project data. */
+/**
+ * Computes a cache on the project data.
+ *
+ * <p>Values are computed at most once per key and sync, by the first caller asking for them. Other
+ * callers asking for the same key wait for that computation; callers asking for other keys aren't
+ * blocked. Every entry requested since the project was opened is recomputed on a background thread
+ * after each sync, so that it's usually ready by the time it's next needed.
+ *
+ * <p>A computation may request other keys. If it requests its own key (directly or indirectly), the
+ * nested request is computed inline and isn't cached, rather than waiting on itself. Computations
+ * on different threads mustn't request each other's keys in a cycle, as they'd wait on each other.
+ */
 public class SyncCache {
+  private static final Logger logger = Logger.getInstance(SyncCache.class);
+
   /** Computes a value based on the sync project data. */
   public interface SyncCacheComputable<T> {
     T compute(Project project, BlazeProjectData projectData);
   }
 
   private final Project project;
-  private final Map<Object, Object> cache = Maps.newHashMap();
+  private final Map<Object, SyncCacheComputable<?>> registeredEntries = new ConcurrentHashMap<>();
+  private volatile ConcurrentMap<Object, SettableFuture<Object>> cache = new ConcurrentHashMap<>();
+  /** The keys being computed on the current thread, to detect recursive requests. */
+  private final ThreadLocal<Set<Object>> computingKeys = ThreadLocal.withInitial(HashSet::new);
+
+  private final LongAdder hitCount = new LongAdder();
+  private final LongAdder missCount = new LongAdder();
+  private final LongAdder computeSuccessCount = new LongAdder();
+  private final LongAdder computeExceptionCount = new LongAdder();
+  private final LongAdder totalComputeTimeNanos = new LongAdder();
 
   public SyncCache(Project project) {
     this.project = project;
@@ -49,22 +84,111 @@ public class SyncCache {
   /** Computes a value derived from the sync project data and caches it until the next sync. */
   @Nullable
   @SuppressWarnings("unchecked")
-  public synchronized <T> T get(Object key, SyncCacheComputable<T> computable) {
-    T value = (T) cache.get(key);
-    if (value == null) {
+  public <T> T get(Object key, SyncCacheComputable<T> computable) {
+    registeredEntries.putIfAbsent(key, computable);
+    Set<Object> computing = computingKeys.get();
+    if (computing.contains(key)) {
+      // the pending future would never complete, so compute it again without caching
       BlazeProjectData blazeProjectData =
           BlazeProjectDataManager.getInstance(project).getBlazeProjectData();
-      if (blazeProjectData != null) {
-        value = computable.compute(project, blazeProjectData);
-        cache.put(key, value);
+      return blazeProjectData != null ? computable.compute(project, blazeProjectData) : null;
+    }
+    ConcurrentMap<Object, SettableFuture<Object>> cache = this.cache;
+    SettableFuture<Object> future = cache.get(key);
+    if (future != null) {
+      hitCount.increment();
+      return (T) getValue(future);
+    }
+    BlazeProjectData blazeProjectData =
+        BlazeProjectDataManager.getInstance(project).getBlazeProjectData();
+    if (blazeProjectData == null) {
+      return null;
+    }
+    SettableFuture<Object> newFuture = SettableFuture.create();
+    future = cache.putIfAbsent(key, newFuture);
+    if (future != null) {
+      hitCount.increment();
+      return (T) getValue(future);
+    }
+    missCount.increment();
+    long start = System.nanoTime();
+    computing.add(key);
+    try {
+      T value = computable.compute(project, blazeProjectData);
+      computeSuccessCount.increment();
+      newFuture.set(value);
+      if (value == null) {
+        cache.remove(key, newFuture);
       }
+      return value;
+    } catch (RuntimeException | Error e) {
+      computeExceptionCount.increment();
+      // Don't cache failures; waiting callers see the exception, later callers try again.
+      cache.remove(key, newFuture);
+      newFuture.setException(e);
+      throw e;
+    } finally {
+      computing.remove(key);
+      totalComputeTimeNanos.add(System.nanoTime() - start);
     }
-    return value;
+  }
+
+  @Nullable
+  private static Object getValue(SettableFuture<Object> future) {
+    try {
+      return Uninterruptibles.getUninterruptibly(future);
+    } catch (ExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+   * Returns hit, miss and compute time statistics for this cache, accumulated since the project was
+   * opened. Callers waiting for another caller's computation count as hits.
+   */
+  public CacheStats getStats() {
+    return new CacheStats(
+        hitCount.sum(),
+        missCount.sum(),
+        computeSuccessCount.sum(),
+        computeExceptionCount.sum(),
+        totalComputeTimeNanos.sum(),
+        /* evictionCount */ 0);
   }
 
   @VisibleForTesting
-  public synchronized void clear() {
-    cache.clear();
+  public void clear() {
+    // Computations still running against the previous project data complete into the old map.
+    cache = new ConcurrentHashMap<>();
+  }
+
+  /** Recomputes all registered entries on a background thread. */
+  private void warmUp() {
+    if (registeredEntries.isEmpty()) {
+      return;
+    }
+    BlazeExecutor.getInstance()
+        .submit(
+            () -> {
+              long start = System.nanoTime();
+              for (Map.Entry<Object, SyncCacheComputable<?>> entry :
+                  registeredEntries.entrySet()) {
+                try {
+                  get(entry.getKey(), entry.getValue());
+                } catch (ProcessCanceledException e) {
+                  return null;
+                } catch (RuntimeException e) {
+                  logger.warn("Failed to compute sync cache entry for " + entry.getKey(), e);
+                }
+              }
+              logger.info(
+                  String.format(
+                      "Warmed up %d sync cache entries in %d ms",
+                      registeredEntries.size(),
+                      TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+              return null;
+            });
   }
 
   static class ClearSyncCache extends SyncListener.Adapter {
@@ -79,6 +203,7 @@ public class SyncCache {
         SyncResult syncResult) {
       SyncCache syncCache = getInstance(project);
       syncCache.clear();
+      syncCache.warmUp();
     }
   }
 }
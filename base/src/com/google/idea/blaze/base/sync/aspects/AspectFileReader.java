@@ -0,0 +1,208 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.aspects;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import com.google.common.io.ByteStreams;
+import com.google.idea.blaze.base.ideinfo.IdeInfoInterner;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.model.primitives.LanguageClass;
+import com.google.idea.blaze.base.plugin.Version;
+import com.google.idea.blaze.base.sync.aspects.strategy.AspectStrategy;
+import com.google.idea.blaze.base.sync.projectview.WorkspaceLanguageSettings;
+import com.google.repackaged.devtools.intellij.ideinfo.IntellijIdeInfo;
+import com.intellij.openapi.util.io.FileUtil;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import javax.annotation.Nullable;
+
+/**
+ * Reads aspect output files, converting them to {@link TargetIdeInfo} and filtering out targets in
+ * inactive languages. A single reader is used for all aspect files read during a sync.
+ *
+ * <p>Thread-safe.
+ */
+final class AspectFileReader {
+  private final WorkspaceLanguageSettings languageSettings;
+  private final Set<Label> nonWildcardProjectTargets;
+  private final AspectStrategy aspectStrategy;
+  private final IdeInfoInterner interner = new IdeInfoInterner();
+  private final ImmutableList<File> additionalOutputBases;
+  @Nullable private final Supplier<AspectOutputCache> cache;
+
+  private final Set<LanguageClass> ignoredLanguages = Sets.newConcurrentHashSet();
+  private final AtomicLong totalSizeLoaded = new AtomicLong(0);
+  private volatile boolean cacheUsed = false;
+
+  /**
+   * @param additionalOutputBases the output bases used in addition to the default one to build
+   *     sync shards concurrently. Generated artifacts are marked with the output base their aspect
+   *     file was built against.
+   * @param cacheDirectory the directory holding the {@link AspectOutputCache}, or null if aspect
+   *     output shouldn't be cached. The cache is kept across full syncs.
+   */
+  AspectFileReader(
+      WorkspaceLanguageSettings languageSettings,
+      Set<Label> nonWildcardProjectTargets,
+      AspectStrategy aspectStrategy,
+      List<File> additionalOutputBases,
+      @Nullable File cacheDirectory) {
+    this(
+        languageSettings,
+        nonWildcardProjectTargets,
+        aspectStrategy,
+        additionalOutputBases,
+        cacheDirectory,
+        Version.getSyncPluginInfo().version);
+  }
+
+  @VisibleForTesting
+  AspectFileReader(
+      WorkspaceLanguageSettings languageSettings,
+      Set<Label> nonWildcardProjectTargets,
+      AspectStrategy aspectStrategy,
+      List<File> additionalOutputBases,
+      @Nullable File cacheDirectory,
+      String pluginVersion) {
+    this.languageSettings = languageSettings;
+    this.nonWildcardProjectTargets = nonWildcardProjectTargets;
+    this.aspectStrategy = aspectStrategy;
+    this.additionalOutputBases = ImmutableList.copyOf(additionalOutputBases);
+    this.cache =
+        cacheDirectory != null
+            ? Suppliers.memoize(
+                () ->
+                    AspectOutputCache.load(
+                        cacheDirectory,
+                        AspectOutputCache.formatVersion(aspectStrategy.getName(), pluginVersion),
+                        interner))
+            : null;
+  }
+
+  /** Returns the target in the given aspect file, or null if it should be ignored. */
+  @Nullable
+  TargetIdeInfo read(File file) throws IOException {
+    totalSizeLoaded.addAndGet(file.length());
+    int outputBaseIndex = getOutputBaseIndex(file);
+    if (cache == null) {
+      try (InputStream inputStream = getAspectInputStream(file)) {
+        return protoToTarget(aspectStrategy.readAspectFile(inputStream), outputBaseIndex);
+      }
+    }
+    cacheUsed = true;
+    byte[] contents;
+    try (InputStream inputStream = getAspectInputStream(file)) {
+      contents = ByteStreams.toByteArray(inputStream);
+    }
+    HashCode digest = AspectOutputCache.digest(contents, outputBaseIndex);
+    TargetIdeInfo target = cache.get().get(digest);
+    if (target == null) {
+      // targets in inactive languages are cached too, so they aren't parsed again next time
+      target =
+          IdeInfoFromProtobuf.makeTargetIdeInfo(
+              aspectStrategy.readAspectFile(new ByteArrayInputStream(contents)),
+              interner.forOutputBase(outputBaseIndex));
+      if (target == null) {
+        return null;
+      }
+      cache.get().put(digest, target);
+    }
+    return filterTarget(target);
+  }
+
+  /** Returns the cache, if it was used while reading aspect files. */
+  @Nullable
+  AspectOutputCache getCacheIfUsed() {
+    return cacheUsed ? cache.get() : null;
+  }
+
+  /** The languages of project targets which were ignored because their language is inactive. */
+  ImmutableSet<LanguageClass> getIgnoredLanguages() {
+    return ImmutableSet.copyOf(ignoredLanguages);
+  }
+
+  long getTotalSizeLoaded() {
+    return totalSizeLoaded.get();
+  }
+
+  /** Applies the language filter to a previously converted target. */
+  @Nullable
+  private TargetIdeInfo filterTarget(TargetIdeInfo target) {
+    if (target.kind == null) {
+      return null;
+    }
+    LanguageClass languageClass = target.kind.getLanguageClass();
+    if (languageSettings.isLanguageActive(languageClass)) {
+      return target;
+    }
+    if (nonWildcardProjectTargets.contains(target.key.label)) {
+      ignoredLanguages.add(languageClass);
+    }
+    return null;
+  }
+
+  /**
+   * Returns the output base the given aspect file was built against: 0 for the default output base,
+   * or i for the i'th additional output base.
+   */
+  private int getOutputBaseIndex(File aspectFile) {
+    for (int i = 0; i < additionalOutputBases.size(); i++) {
+      if (FileUtil.isAncestor(additionalOutputBases.get(i), aspectFile, true)) {
+        return i + 1;
+      }
+    }
+    return 0;
+  }
+
+  @Nullable
+  private TargetIdeInfo protoToTarget(IntellijIdeInfo.TargetIdeInfo message, int outputBaseIndex) {
+    Kind kind = IdeInfoFromProtobuf.getKind(message);
+    if (kind == null) {
+      return null;
+    }
+    if (languageSettings.isLanguageActive(kind.getLanguageClass())) {
+      return IdeInfoFromProtobuf.makeTargetIdeInfo(
+          message, interner.forOutputBase(outputBaseIndex));
+    }
+    if (nonWildcardProjectTargets.contains(IdeInfoFromProtobuf.getKey(message, interner).label)) {
+      ignoredLanguages.add(kind.getLanguageClass());
+    }
+    return null;
+  }
+
+  private static InputStream getAspectInputStream(File file) throws IOException {
+    InputStream inputStream = new FileInputStream(file);
+    if (file.getName().endsWith(".gz")) {
+      inputStream = new GZIPInputStream(inputStream);
+    }
+    return inputStream;
+  }
+}
@@ -0,0 +1,521 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.aspects;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.idea.blaze.base.ideinfo.IdeInfoInterner;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.sync.data.TargetMapSerializer;
+import com.intellij.openapi.diagnostic.Logger;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+/**
+ * A persistent cache of converted aspect output, keyed by a digest of each aspect file's contents.
+ * An aspect file whose contents haven't changed never needs to be parsed again, even if its
+ * modified time has.
+ *
+ * <p>Converted targets are appended to a data file. An index file maps each digest to its record:
+ * a sorted region, searched on disk, followed by a short unsorted tail of recent additions. Loading
+ * the cache only reads the header and the tail; targets are decoded when they're looked up. Saving
+ * only appends the targets converted during this sync, occasionally merging the tail into the
+ * sorted region.
+ *
+ * <p>The cache is kept across full syncs. It's only discarded when the aspect strategy, the plugin
+ * version or the target encoding change, and when it holds many more entries than there are aspect
+ * files.
+ *
+ * <p>Targets in inactive languages are cached too, so the cache doesn't depend on the language
+ * filter.
+ */
+final class AspectOutputCache {
+  private static final Logger logger = Logger.getInstance(AspectOutputCache.class);
+
+  private static final String INDEX_FILE_NAME = "aspect_output_cache.idx";
+  private static final String DATA_FILE_NAME = "aspect_output_cache.log";
+  /** The previous, single-file format. */
+  private static final String LEGACY_FILE_NAME = "aspect_output_cache.dat";
+
+  private static final int MAGIC = 0x424c5a41; // "BLZA"
+  private static final int SCHEMA_VERSION = 2;
+
+  // Header: magic, schema version, sorted record count, tail record count, format version string.
+  private static final int SORTED_COUNT_OFFSET = 8;
+  private static final int TAIL_COUNT_OFFSET = 12;
+  private static final int FIXED_HEADER_SIZE = 16;
+
+  /** An index record: the digest (two longs), the data offset and the data length. */
+  private static final int RECORD_SIZE = 28;
+
+  /** The tail is merged into the sorted region when it grows beyond this fraction of it. */
+  private static final int MAX_TAIL_FRACTION = 4;
+  private static final int MIN_MERGE_TAIL_SIZE = 1024;
+  /** The cache is rebuilt when it holds this many times more entries than there are files. */
+  private static final int MAX_ENTRIES_PER_FILE = 2;
+  private static final int MIN_ENTRIES_BEFORE_REBUILD = 4096;
+
+  private static final HashFunction DIGEST_FUNCTION = Hashing.murmur3_128();
+
+  /**
+   * Only one cache may be written at a time, and a cache isn't loaded while another is being
+   * written.
+   */
+  private static final Object saveLock = new Object();
+
+  /** The last save started in the background, which may still be running. */
+  @Nullable private static volatile Future<?> pendingSave;
+
+  private final File indexFile;
+  private final File dataFile;
+  private final String formatVersion;
+
+  @Nullable private FileChannel index;
+  @Nullable private FileChannel data;
+  private final int headerSize;
+  private final int sortedCount;
+  private final Map<HashCode, Location> tail;
+
+  private final TargetMapSerializer.Reader reader;
+  /** Targets converted during this sync, not yet in the cache. */
+  private final Map<HashCode, TargetIdeInfo> added = new ConcurrentHashMap<>();
+  /** All targets used during this sync, retained if the cache is rebuilt. */
+  private final Map<HashCode, TargetIdeInfo> used = new ConcurrentHashMap<>();
+
+  private final AtomicInteger hits = new AtomicInteger();
+  private final AtomicInteger misses = new AtomicInteger();
+
+  private AspectOutputCache(
+      File cacheDirectory,
+      String formatVersion,
+      @Nullable FileChannel index,
+      @Nullable FileChannel data,
+      int headerSize,
+      int sortedCount,
+      Map<HashCode, Location> tail,
+      IdeInfoInterner interner) {
+    this.indexFile = new File(cacheDirectory, INDEX_FILE_NAME);
+    this.dataFile = new File(cacheDirectory, DATA_FILE_NAME);
+    this.formatVersion = formatVersion;
+    this.index = index;
+    this.data = data;
+    this.headerSize = headerSize;
+    this.sortedCount = sortedCount;
+    this.tail = tail;
+    this.reader = new TargetMapSerializer.Reader(interner);
+  }
+
+  private static AspectOutputCache empty(
+      File cacheDirectory, String formatVersion, IdeInfoInterner interner) {
+    return new AspectOutputCache(
+        cacheDirectory, formatVersion, null, null, 0, 0, Maps.newHashMap(), interner);
+  }
+
+  /**
+   * Returns the version string identifying compatible caches. Entries written by another aspect
+   * strategy, plugin version or target encoding are ignored, since the same aspect file may be
+   * converted differently.
+   */
+  static String formatVersion(String aspectStrategyName, String pluginVersion) {
+    return aspectStrategyName
+        + ':'
+        + pluginVersion
+        + ':'
+        + TargetMapSerializer.ENCODING_VERSION;
+  }
+
+  /**
+   * Opens the cache in the given directory. Only the index header and tail are read. Waits for any
+   * cache still being saved by the previous sync.
+   *
+   * @param interner the interner shared with targets converted from aspect output during this
+   *     sync, used when decoding cached targets
+   */
+  static AspectOutputCache load(
+      File cacheDirectory, String formatVersion, IdeInfoInterner interner) {
+    Future<?> save = pendingSave;
+    if (save != null) {
+      try {
+        save.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        // the save may still be writing, so don't read the files
+        return empty(cacheDirectory, formatVersion, interner);
+      } catch (ExecutionException e) {
+        // already logged by the save
+      }
+    }
+    synchronized (saveLock) {
+      return doLoad(cacheDirectory, formatVersion, interner);
+    }
+  }
+
+  private static AspectOutputCache doLoad(
+      File cacheDirectory, String formatVersion, IdeInfoInterner interner) {
+    new File(cacheDirectory, LEGACY_FILE_NAME).delete();
+    File indexFile = new File(cacheDirectory, INDEX_FILE_NAME);
+    File dataFile = new File(cacheDirectory, DATA_FILE_NAME);
+    if (!indexFile.exists() || !dataFile.exists()) {
+      delete(indexFile, dataFile);
+      return empty(cacheDirectory, formatVersion, interner);
+    }
+    FileChannel index = null;
+    FileChannel data = null;
+    try {
+      index = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ);
+      ByteBuffer header = readFully(index, 0, FIXED_HEADER_SIZE + 2);
+      if (header.getInt() != MAGIC || header.getInt() != SCHEMA_VERSION) {
+        throw new IOException("Unrecognized aspect output cache");
+      }
+      int sortedCount = header.getInt();
+      int tailCount = header.getInt();
+      int versionLength = header.getShort() & 0xffff;
+      int headerSize = FIXED_HEADER_SIZE + 2 + versionLength;
+      String version =
+          StandardCharsets.UTF_8
+              .decode(readFully(index, FIXED_HEADER_SIZE + 2, versionLength))
+              .toString();
+      if (!version.equals(formatVersion)) {
+        index.close();
+        delete(indexFile, dataFile);
+        return empty(cacheDirectory, formatVersion, interner);
+      }
+      ByteBuffer tailRecords =
+          readFully(index, headerSize + (long) sortedCount * RECORD_SIZE, tailCount * RECORD_SIZE);
+      Map<HashCode, Location> tail = Maps.newHashMapWithExpectedSize(tailCount);
+      for (int i = 0; i < tailCount; i++) {
+        Location location = readRecord(tailRecords);
+        tail.put(location.digest(), location);
+      }
+      data = FileChannel.open(dataFile.toPath(), StandardOpenOption.READ);
+      return new AspectOutputCache(
+          cacheDirectory, formatVersion, index, data, headerSize, sortedCount, tail, interner);
+    } catch (IOException | RuntimeException e) {
+      logger.warn("Could not read aspect output cache, discarding it", e);
+      closeQuietly(index);
+      closeQuietly(data);
+      delete(indexFile, dataFile);
+      return empty(cacheDirectory, formatVersion, interner);
+    }
+  }
+
+  /**
+   * The cache key of an aspect file. Identical aspect output built against different output bases
+   * is converted to different targets, so the output base is part of the key.
+   */
+  static HashCode digest(byte[] contents, int outputBaseIndex) {
+    return DIGEST_FUNCTION.newHasher().putInt(outputBaseIndex).putBytes(contents).hash();
+  }
+
+  /**
+   * Returns the target previously converted from an aspect file with the given digest, or null if
+   * there's no such target.
+   */
+  @Nullable
+  TargetIdeInfo get(HashCode digest) {
+    TargetIdeInfo target = used.get(digest);
+    if (target == null) {
+      target = read(digest);
+    }
+    if (target == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+    hits.incrementAndGet();
+    used.put(digest, target);
+    return target;
+  }
+
+  void put(HashCode digest, TargetIdeInfo target) {
+    added.put(digest, target);
+    used.put(digest, target);
+  }
+
+  /** The number of aspect files which didn't need to be parsed. */
+  int getHitCount() {
+    return hits.get();
+  }
+
+  /** The number of aspect files which weren't found in the cache. */
+  int getMissCount() {
+    return misses.get();
+  }
+
+  @Nullable
+  private TargetIdeInfo read(HashCode digest) {
+    FileChannel index = this.index;
+    FileChannel data = this.data;
+    if (index == null || data == null) {
+      return null;
+    }
+    try {
+      Location location = tail.get(digest);
+      if (location == null) {
+        location = search(index, digest);
+      }
+      if (location == null) {
+        return null;
+      }
+      return reader.decodeTarget(readFully(data, location.offset, location.length));
+    } catch (IOException | RuntimeException e) {
+      logger.warn("Could not read aspect output cache entry", e);
+      return null;
+    }
+  }
+
+  /** Binary searches the sorted region of the index. */
+  @Nullable
+  private Location search(FileChannel index, HashCode digest) throws IOException {
+    ByteBuffer key = ByteBuffer.wrap(digest.asBytes());
+    long high = key.getLong();
+    long low = key.getLong();
+    int min = 0;
+    int max = sortedCount - 1;
+    while (min <= max) {
+      int mid = (min + max) >>> 1;
+      Location location =
+          readRecord(readFully(index, headerSize + (long) mid * RECORD_SIZE, RECORD_SIZE));
+      int comparison = compare(location.high, location.low, high, low);
+      if (comparison == 0) {
+        return location;
+      } else if (comparison < 0) {
+        min = mid + 1;
+      } else {
+        max = mid - 1;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Writes the targets converted during this sync back to disk on the given executor. The next
+   * {@link #load} waits for it to finish.
+   */
+  void saveInBackground(ExecutorService executor, int aspectFileCount) {
+    synchronized (saveLock) {
+      pendingSave =
+          executor.submit(
+              () -> {
+                try {
+                  save(aspectFileCount);
+                } catch (IOException e) {
+                  logger.warn("Could not save aspect output cache", e);
+                }
+              });
+    }
+  }
+
+  /**
+   * Writes the targets converted during this sync back to disk.
+   *
+   * @param aspectFileCount the number of aspect files in the project, used to decide when the cache
+   *     holds too many stale entries and should be rebuilt
+   */
+  void save(int aspectFileCount) throws IOException {
+    synchronized (saveLock) {
+      int tailCount = tail.size();
+      closeQuietly(index);
+      closeQuietly(data);
+      index = null;
+      data = null;
+
+      int total = sortedCount + tailCount + added.size();
+      int maxEntries = Math.max(MAX_ENTRIES_PER_FILE * aspectFileCount, MIN_ENTRIES_BEFORE_REBUILD);
+      if (headerSize == 0 || total > maxEntries) {
+        rebuild();
+        return;
+      }
+      if (added.isEmpty()) {
+        return;
+      }
+      List<Location> appended = appendData(added);
+      int newTailCount = tailCount + appended.size();
+      if (newTailCount > Math.max(sortedCount / MAX_TAIL_FRACTION, MIN_MERGE_TAIL_SIZE)) {
+        List<Location> records = readAllRecords(sortedCount + tailCount);
+        records.addAll(appended);
+        writeIndex(records);
+        return;
+      }
+      try (FileChannel channel =
+          FileChannel.open(indexFile.toPath(), StandardOpenOption.WRITE)) {
+        ByteBuffer buffer = ByteBuffer.allocate(appended.size() * RECORD_SIZE);
+        for (Location location : appended) {
+          writeRecord(buffer, location);
+        }
+        buffer.flip();
+        writeFully(channel, headerSize + (long) (sortedCount + tailCount) * RECORD_SIZE, buffer);
+        // Only publish the new records once they're written.
+        ByteBuffer count = ByteBuffer.allocate(4).putInt(0, newTailCount);
+        writeFully(channel, TAIL_COUNT_OFFSET, count);
+      }
+    }
+  }
+
+  /** Starts a new cache, holding only the targets used during this sync. */
+  private void rebuild() throws IOException {
+    delete(indexFile, dataFile);
+    writeIndex(appendData(used));
+  }
+
+  /** Appends the given targets to the data file, returning their index records. */
+  private List<Location> appendData(Map<HashCode, TargetIdeInfo> targets) throws IOException {
+    List<Location> locations = Lists.newArrayListWithCapacity(targets.size());
+    try (FileChannel channel =
+        FileChannel.open(
+            dataFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+      long offset = channel.size();
+      for (Map.Entry<HashCode, TargetIdeInfo> entry : targets.entrySet()) {
+        byte[] encoded = TargetMapSerializer.encodeTarget(entry.getValue());
+        writeFully(channel, offset, ByteBuffer.wrap(encoded));
+        ByteBuffer digest = ByteBuffer.wrap(entry.getKey().asBytes());
+        locations.add(new Location(digest.getLong(), digest.getLong(), offset, encoded.length));
+        offset += encoded.length;
+      }
+    }
+    return locations;
+  }
+
+  private List<Location> readAllRecords(int count) throws IOException {
+    List<Location> records = Lists.newArrayListWithCapacity(count);
+    try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+      ByteBuffer buffer = readFully(channel, headerSize, count * RECORD_SIZE);
+      for (int i = 0; i < count; i++) {
+        records.add(readRecord(buffer));
+      }
+    }
+    return records;
+  }
+
+  /** Writes a new index, with all the given records in its sorted region. */
+  private void writeIndex(List<Location> records) throws IOException {
+    records.sort(Location.DIGEST_ORDER);
+    byte[] version = formatVersion.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer buffer =
+        ByteBuffer.allocate(FIXED_HEADER_SIZE + 2 + version.length + records.size() * RECORD_SIZE);
+    buffer.putInt(MAGIC);
+    buffer.putInt(SCHEMA_VERSION);
+    buffer.putInt(records.size());
+    buffer.putInt(0);
+    buffer.putShort((short) version.length);
+    buffer.put(version);
+    for (Location record : records) {
+      writeRecord(buffer, record);
+    }
+    buffer.flip();
+    File tempFile = new File(indexFile.getPath() + ".tmp");
+    try (FileChannel channel =
+        FileChannel.open(
+            tempFile.toPath(),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      writeFully(channel, 0, buffer);
+    }
+    Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private static Location readRecord(ByteBuffer buffer) {
+    return new Location(buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getInt());
+  }
+
+  private static void writeRecord(ByteBuffer buffer, Location location) {
+    buffer.putLong(location.high);
+    buffer.putLong(location.low);
+    buffer.putLong(location.offset);
+    buffer.putInt(location.length);
+  }
+
+  private static int compare(long high1, long low1, long high2, long low2) {
+    int comparison = Long.compareUnsigned(high1, high2);
+    return comparison != 0 ? comparison : Long.compareUnsigned(low1, low2);
+  }
+
+  private static ByteBuffer readFully(FileChannel channel, long position, int length)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Unexpected end of aspect output cache");
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  private static void writeFully(FileChannel channel, long position, ByteBuffer buffer)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer, position + buffer.position());
+    }
+  }
+
+  private static void closeQuietly(@Nullable FileChannel channel) {
+    if (channel == null) {
+      return;
+    }
+    try {
+      channel.close();
+    } catch (IOException e) {
+      // ignored
+    }
+  }
+
+  private static void delete(File... files) {
+    for (File file : files) {
+      file.delete();
+    }
+  }
+
+  /** The location of an encoded target in the data file. */
+  private static class Location {
+    static final Comparator<Location> DIGEST_ORDER =
+        (a, b) -> compare(a.high, a.low, b.high, b.low);
+
+    final long high;
+    final long low;
+    final long offset;
+    final int length;
+
+    Location(long high, long low, long offset, int length) {
+      this.high = high;
+      this.low = low;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    HashCode digest() {
+      return HashCode.fromBytes(ByteBuffer.allocate(16).putLong(high).putLong(low).array());
+    }
+  }
+}
@@ -16,12 +16,10 @@
 package com.google.idea.blaze.base.sync.aspects;
 
 import com.google.common.base.Joiner;
-import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
-import com.google.common.collect.Sets;
-import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.idea.blaze.base.async.FutureUtil;
@@ -34,14 +32,14 @@ import com.google.idea.blaze.base.command.BlazeCommandName;
 import com.google.idea.blaze.base.command.BlazeFlags;
 import com.google.idea.blaze.base.command.buildresult.BuildResultHelper;
 import com.google.idea.blaze.base.filecache.FileDiffer;
-import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.filecache.FileState;
 import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.io.FileAttributeProvider;
 import com.google.idea.blaze.base.issueparser.IssueOutputLineProcessor;
 import com.google.idea.blaze.base.lang.AdditionalLanguagesHelper;
 import com.google.idea.blaze.base.model.BlazeVersionData;
 import com.google.idea.blaze.base.model.SyncState;
-import com.google.idea.blaze.base.model.primitives.Kind;
 import com.google.idea.blaze.base.model.primitives.Label;
 import com.google.idea.blaze.base.model.primitives.LanguageClass;
 import com.google.idea.blaze.base.model.primitives.TargetExpression;
@@ -59,35 +57,39 @@ import com.google.idea.blaze.base.scope.output.PrintOutput;
 import com.google.idea.blaze.base.scope.scopes.TimingScope;
 import com.google.idea.blaze.base.settings.Blaze;
 import com.google.idea.blaze.base.settings.Blaze.BuildSystem;
+import com.google.idea.blaze.base.settings.BlazeImportSettings;
+import com.google.idea.blaze.base.settings.BlazeImportSettingsManager;
 import com.google.idea.blaze.base.sync.aspects.strategy.AspectStrategy;
 import com.google.idea.blaze.base.sync.aspects.strategy.AspectStrategyProvider;
+import com.google.idea.blaze.base.sync.data.BlazeDataStorage;
 import com.google.idea.blaze.base.sync.projectview.WorkspaceLanguageSettings;
+import com.google.idea.blaze.base.sync.sharding.ShardOutputBases;
+import com.google.idea.blaze.base.sync.sharding.ShardStatistics;
 import com.google.idea.blaze.base.sync.sharding.ShardedTargetList;
 import com.google.idea.blaze.base.sync.sharding.WildcardTargetPattern;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
-import com.google.repackaged.devtools.intellij.ideinfo.IntellijIdeInfo;
+import com.google.idea.common.experiments.BoolExperiment;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
 import com.intellij.pom.NavigatableAdapter;
 import com.intellij.util.PathUtil;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
-import java.util.zip.GZIPInputStream;
 import javax.annotation.Nullable;
 
 /** Implementation of BlazeIdeInterface based on aspects. */
@@ -95,10 +97,20 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
 
   private static final Logger logger = Logger.getInstance(BlazeIdeInterfaceAspectsImpl.class);
 
+  /** The maximum number of aspect files being parsed at any one time. */
+  private static final int MAX_ASPECT_FILES_IN_FLIGHT = 256;
+
+  /**
+   * Whether to process the aspect output of each build shard while the next shard builds, rather
+   * than after the whole build.
+   */
+  private static final BoolExperiment pipelineShardedBuilds =
+      new BoolExperiment("blaze.sync.pipeline.sharded.builds", false);
+
   static class State implements Serializable {
-    private static final long serialVersionUID = 14L;
+    private static final long serialVersionUID = 15L;
     TargetMap targetMap;
-    ImmutableMap<File, Long> fileState = null;
+    FileState fileState = null;
     Map<File, TargetKey> fileToTargetMapKey = Maps.newHashMap();
     WorkspaceLanguageSettings workspaceLanguageSettings;
     String aspectStrategyName;
@@ -132,9 +144,63 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
       prevState = null;
     }
 
+    BlazeImportSettings importSettings =
+        BlazeImportSettingsManager.getInstance(project).getImportSettings();
+    File aspectCacheDirectory =
+        importSettings != null
+            ? BlazeDataStorage.getProjectCacheDir(project, importSettings)
+            : null;
+    List<File> additionalOutputBases =
+        ShardOutputBases.getAdditionalOutputBases(project, projectViewSet);
+    AspectFileReader reader =
+        new AspectFileReader(
+            workspaceLanguageSettings,
+            getNonWildcardProjectViewTargets(projectViewSet),
+            aspectStrategy,
+            additionalOutputBases,
+            aspectCacheDirectory);
+    TargetMapMerger merger = new TargetMapMerger(prevState);
+
+    // the pipeline processes the output of one shard at a time, so isn't used for concurrent builds
+    PipelinedAspectOutputReader pipeline =
+        pipelineShardedBuilds.getValue()
+                && shardedTargets.shardedTargets.size() > 1
+                && additionalOutputBases.isEmpty()
+            ? new PipelinedAspectOutputReader(
+                project,
+                BlazeExecutor.getInstance().getExecutor(),
+                prevState != null ? prevState.fileState : null,
+                reader,
+                merger)
+            : null;
+
+    ShardStatistics previousShardStatistics =
+        ShardStatistics.getPrevious(project, previousSyncState);
+    ShardStatistics.Recorder shardStatistics =
+        shardedTargets.shardedTargets.size() > 1 ? new ShardStatistics.Recorder() : null;
+
     IdeInfoResult ideInfoResult =
-        getIdeInfo(project, context, workspaceRoot, projectViewSet, shardedTargets, aspectStrategy);
+        getIdeInfo(
+            project,
+            context,
+            workspaceRoot,
+            projectViewSet,
+            shardedTargets,
+            aspectStrategy,
+            additionalOutputBases,
+            pipeline,
+            shardStatistics);
+    ShardStatistics nextShardStatistics =
+        shardStatistics != null
+            ? shardStatistics.build(previousShardStatistics)
+            : previousShardStatistics;
+    if (nextShardStatistics != null) {
+      syncStateBuilder.put(ShardStatistics.class, nextShardStatistics);
+    }
     if (ideInfoResult.buildResult.status == BuildResult.Status.FATAL_ERROR) {
+      if (pipeline != null) {
+        pipeline.cancel();
+      }
       return new IdeResult(
           prevState != null ? prevState.targetMap : null, ideInfoResult.buildResult);
     }
@@ -147,12 +213,25 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
     Collection<File> fileList = ideInfoResult.files;
     List<File> updatedFiles = Lists.newArrayList();
     List<File> removedFiles = Lists.newArrayList();
-    ImmutableMap<File, Long> fileState =
-        FileDiffer.updateFiles(
-            prevState != null ? prevState.fileState : null, fileList, updatedFiles, removedFiles);
+    FileState fileState =
+        pipeline != null
+            ? finishPipeline(context, pipeline)
+            : FileDiffer.updateFiles(
+                prevState != null ? prevState.fileState : null,
+                fileList,
+                updatedFiles,
+                removedFiles);
     if (fileState == null) {
       return new IdeResult(prevState != null ? prevState.targetMap : null, BuildResult.FATAL_ERROR);
     }
+    if (pipeline != null) {
+      FileDiffer.diffState(
+          prevState != null ? prevState.fileState : null,
+          fileState,
+          fileList,
+          updatedFiles,
+          removedFiles);
+    }
 
     context.output(
         PrintOutput.log(
@@ -160,18 +239,20 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
                 "Total rules: %d, new/changed: %d, removed: %d",
                 fileList.size(), updatedFiles.size(), removedFiles.size())));
 
-    ListenableFuture<?> prefetchFuture =
-        PrefetchService.getInstance().prefetchFiles(project, updatedFiles);
-    if (!FutureUtil.waitForFuture(context, prefetchFuture)
-        .timed("FetchAspectOutput")
-        .withProgressMessage("Reading IDE info result...")
-        .run()
-        .success()) {
-      return new IdeResult(prevState != null ? prevState.targetMap : null, BuildResult.FATAL_ERROR);
+    // In pipelined mode, changed files have already been prefetched
+    if (pipeline == null) {
+      ListenableFuture<?> prefetchFuture =
+          PrefetchService.getInstance().prefetchFiles(project, updatedFiles);
+      if (!FutureUtil.waitForFuture(context, prefetchFuture)
+          .timed("FetchAspectOutput")
+          .withProgressMessage("Reading IDE info result...")
+          .run()
+          .success()) {
+        return new IdeResult(
+            prevState != null ? prevState.targetMap : null, BuildResult.FATAL_ERROR);
+      }
     }
 
-    Set<Label> targets = getNonWildcardProjectViewTargets(projectViewSet);
-
     State state =
         updateState(
             project,
@@ -179,18 +260,46 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
             prevState,
             fileState,
             workspaceLanguageSettings,
-            targets,
             aspectStrategy,
-            updatedFiles,
+            reader,
+            merger,
+            pipeline != null ? pipeline.getUnparsedFiles(updatedFiles) : updatedFiles,
+            pipeline != null ? pipeline.getFileCount() : 0,
             removedFiles,
             mergeWithOldState);
     if (state == null) {
       return new IdeResult(prevState != null ? prevState.targetMap : null, BuildResult.FATAL_ERROR);
     }
     syncStateBuilder.put(State.class, state);
+    if (nextShardStatistics != null) {
+      syncStateBuilder.put(
+          ShardStatistics.class, nextShardStatistics.retainPackagesIn(state.targetMap));
+    }
     return new IdeResult(state.targetMap, ideInfoResult.buildResult);
   }
 
+  /** Waits for the pipeline's background work, returning the combined file state. */
+  @Nullable
+  private static FileState finishPipeline(
+      BlazeContext parentContext, PipelinedAspectOutputReader pipeline) {
+    return Scope.push(
+        parentContext,
+        context -> {
+          context.push(new TimingScope("FinishPipelinedAspectOutput"));
+          try {
+            return pipeline.finish();
+          } catch (InterruptedException e) {
+            pipeline.cancel();
+            Thread.currentThread().interrupt();
+            return null;
+          } catch (ExecutionException e) {
+            pipeline.cancel();
+            logger.error(e);
+            return null;
+          }
+        });
+  }
+
   private static Set<Label> getNonWildcardProjectViewTargets(ProjectViewSet projectViewSet) {
     return projectViewSet
         .listItems(TargetSection.KEY)
@@ -234,32 +343,81 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
       WorkspaceRoot workspaceRoot,
       ProjectViewSet projectViewSet,
       ShardedTargetList shardedTargets,
-      AspectStrategy aspectStrategy) {
+      AspectStrategy aspectStrategy,
+      List<File> additionalOutputBases,
+      @Nullable PipelinedAspectOutputReader pipeline,
+      @Nullable ShardStatistics.Recorder shardStatistics) {
     return Scope.push(
         parentContext,
         context -> {
           context.push(
               new TimingScope(String.format("Execute%sCommand", Blaze.buildSystemName(project))));
-          Set<File> ideInfoFiles = new LinkedHashSet<>();
+          // shards may complete out of order, so their output files are combined in shard order
+          int shardCount = shardedTargets.shardedTargets.size();
+          List<Collection<File>> shardFiles =
+              Collections.synchronizedList(
+                  new ArrayList<>(Collections.nCopies(shardCount, ImmutableList.of())));
           Function<Integer, String> progressMessage =
               count ->
                   String.format(
                       "Building IDE info files for shard %s of %s...",
                       count, shardedTargets.shardedTargets.size());
-          Function<List<TargetExpression>, BuildResult> invocation =
-              targets -> {
+          ShardedTargetList.ShardInvocation invocation =
+              (shardIndex, targets, outputBase) -> {
+                long startTime = System.currentTimeMillis();
                 IdeInfoResult result =
                     getIdeInfoForTargets(
-                        project, context, workspaceRoot, projectViewSet, targets, aspectStrategy);
-                ideInfoFiles.addAll(result.files);
+                        project,
+                        context,
+                        workspaceRoot,
+                        projectViewSet,
+                        targets,
+                        aspectStrategy,
+                        outputBase);
+                shardFiles.set(shardIndex, result.files);
+                if (shardStatistics != null) {
+                  shardStatistics.recordShard(
+                      targets,
+                      System.currentTimeMillis() - startTime,
+                      getTotalSize(result.files),
+                      result.buildResult.outOfMemory());
+                }
+                if (pipeline != null
+                    && result.buildResult.status != BuildResult.Status.FATAL_ERROR) {
+                  try {
+                    pipeline.onShardBuilt(result.files);
+                  } catch (Exception e) {
+                    logger.warn("Failed to process aspect output of build shard", e);
+                    return BuildResult.FATAL_ERROR;
+                  }
+                }
                 return result.buildResult;
               };
           BuildResult result =
-              shardedTargets.runShardedCommand(project, context, progressMessage, invocation);
+              shardedTargets.runShardedCommand(
+                  project, context, progressMessage, additionalOutputBases, invocation);
+          Set<File> ideInfoFiles = new LinkedHashSet<>();
+          shardFiles.forEach(ideInfoFiles::addAll);
           return new IdeInfoResult(ideInfoFiles, result);
         });
   }
 
+  /** Sums the sizes of the given files, reading them one directory at a time. */
+  private static long getTotalSize(Collection<File> files) {
+    FileAttributeProvider provider = FileAttributeProvider.getInstance();
+    Map<File, List<File>> filesByDirectory = Maps.newHashMap();
+    for (File file : files) {
+      filesByDirectory.computeIfAbsent(file.getParentFile(), dir -> new ArrayList<>()).add(file);
+    }
+    long total = 0;
+    for (Map.Entry<File, List<File>> entry : filesByDirectory.entrySet()) {
+      for (long size : provider.getFileSizes(entry.getKey(), entry.getValue())) {
+        total += size;
+      }
+    }
+    return total;
+  }
+
   /** Runs blaze build with the aspect's ide-info output group for a given set of targets */
   private static IdeInfoResult getIdeInfoForTargets(
       Project project,
@@ -267,7 +425,8 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
       WorkspaceRoot workspaceRoot,
       ProjectViewSet projectViewSet,
       List<TargetExpression> targets,
-      AspectStrategy aspectStrategy) {
+      AspectStrategy aspectStrategy,
+      @Nullable File outputBase) {
     String fileExtension = aspectStrategy.getAspectOutputFileExtension();
     String gzFileExtension = fileExtension + ".gz";
     Predicate<String> fileFilter =
@@ -280,6 +439,9 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
             .addBlazeFlags(BlazeFlags.KEEP_GOING)
             .addBlazeFlags(buildResultHelper.getBuildFlags())
             .addBlazeFlags(BlazeFlags.buildFlags(project, projectViewSet));
+    if (outputBase != null) {
+      builder.addStartupFlags(ShardOutputBases.outputBaseFlag(outputBase));
+    }
 
     aspectStrategy.modifyIdeInfoCommand(builder);
 
@@ -297,26 +459,18 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
     return new IdeInfoResult(buildResultHelper.getBuildArtifacts(), buildResult);
   }
 
-  private static class TargetFilePair {
-    private final File file;
-    private final TargetIdeInfo target;
-
-    TargetFilePair(File file, TargetIdeInfo target) {
-      this.file = file;
-      this.target = target;
-    }
-  }
-
   @Nullable
   static State updateState(
       Project project,
       BlazeContext parentContext,
       @Nullable State prevState,
-      ImmutableMap<File, Long> fileState,
+      FileState fileState,
       WorkspaceLanguageSettings workspaceLanguageSettings,
-      Set<Label> nonWildcardProjectTargets,
       AspectStrategy aspectStrategy,
+      AspectFileReader reader,
+      TargetMapMerger merger,
       List<File> newFiles,
+      int firstNewFileIndex,
       List<File> removedFiles,
       boolean mergeWithOldState) {
     Result<State> result =
@@ -328,16 +482,9 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
 
                   // If we're not removing we have to merge the old state
                   // into the new one or we'll miss file removes next time
-                  ImmutableMap<File, Long> nextFileState = fileState;
+                  FileState nextFileState = fileState;
                   if (mergeWithOldState && prevState != null) {
-                    ImmutableMap.Builder<File, Long> fileStateBuilder =
-                        ImmutableMap.<File, Long>builder().putAll(fileState);
-                    for (Map.Entry<File, Long> entry : prevState.fileState.entrySet()) {
-                      if (!fileState.containsKey(entry.getKey())) {
-                        fileStateBuilder.put(entry);
-                      }
-                    }
-                    nextFileState = fileStateBuilder.build();
+                    nextFileState = fileState.merge(prevState.fileState);
                   }
 
                   State state = new State();
@@ -345,78 +492,46 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
                   state.workspaceLanguageSettings = workspaceLanguageSettings;
                   state.aspectStrategyName = aspectStrategy.getName();
 
-                  Map<TargetKey, TargetIdeInfo> targetMap = Maps.newHashMap();
-                  Map<TargetKey, TargetIdeInfo> updatedTargets = Maps.newHashMap();
-                  if (prevState != null) {
-                    targetMap.putAll(prevState.targetMap.map());
-                    state.fileToTargetMapKey.putAll(prevState.fileToTargetMapKey);
-                  }
-
                   // Update removed unless we're merging with the old state
                   if (!mergeWithOldState) {
                     for (File removedFile : removedFiles) {
-                      TargetKey key = state.fileToTargetMapKey.remove(removedFile);
-                      if (key != null) {
-                        targetMap.remove(key);
-                      }
+                      merger.removeFile(removedFile);
                     }
                   }
 
-                  AtomicLong totalSizeLoaded = new AtomicLong(0);
-                  Set<LanguageClass> ignoredLanguages = Sets.newConcurrentHashSet();
-
                   ListeningExecutorService executor = BlazeExecutor.getInstance().getExecutor();
 
-                  // Read protos from any new files
-                  List<ListenableFuture<TargetFilePair>> futures = Lists.newArrayList();
-                  for (File file : newFiles) {
-                    futures.add(
-                        executor.submit(
-                            () -> {
-                              totalSizeLoaded.addAndGet(file.length());
-                              try (InputStream inputStream = getAspectInputStream(file)) {
-                                IntellijIdeInfo.TargetIdeInfo message =
-                                    aspectStrategy.readAspectFile(inputStream);
-                                TargetIdeInfo target =
-                                    protoToTarget(
-                                        workspaceLanguageSettings,
-                                        nonWildcardProjectTargets,
-                                        message,
-                                        ignoredLanguages);
-                                return new TargetFilePair(file, target);
-                              }
-                            }));
-                  }
-
-                  // Update state with result from proto files
-                  int duplicateTargetLabels = 0;
+                  // Read protos from any new files, merging them into the target map as they're
+                  // parsed
                   try {
-                    for (TargetFilePair targetFilePairs : Futures.allAsList(futures).get()) {
-                      if (targetFilePairs.target != null) {
-                        File file = targetFilePairs.file;
-                        TargetKey key = targetFilePairs.target.key;
-                        TargetIdeInfo previousTarget =
-                            updatedTargets.putIfAbsent(key, targetFilePairs.target);
-                        if (previousTarget == null) {
-                          state.fileToTargetMapKey.put(file, key);
-                        } else {
-                          duplicateTargetLabels++;
-                        }
-                      }
-                    }
+                    parseAndMergeAspectFiles(executor, newFiles, firstNewFileIndex, reader, merger);
                   } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
                     return Result.error(null);
                   } catch (ExecutionException e) {
                     return Result.error(e);
                   }
-                  targetMap.putAll(updatedTargets);
 
                   context.output(
                       PrintOutput.log(
                           String.format(
                               "Loaded %d aspect files, total size %dkB",
-                              newFiles.size(), totalSizeLoaded.get() / 1024)));
+                              merger.getMergedFileCount(),
+                              reader.getTotalSizeLoaded() / 1024)));
+                  AspectOutputCache cache = reader.getCacheIfUsed();
+                  if (cache != null) {
+                    context.output(
+                        PrintOutput.log(
+                            String.format(
+                                "Reused %d unchanged aspect files, parsed %d",
+                                cache.getHitCount(), cache.getMissCount())));
+                    cache.saveInBackground(executor, nextFileState.getFiles().size());
+                  }
+
+                  state.targetMap = merger.build();
+                  state.fileToTargetMapKey = merger.getFileToTargetMapKey();
+
+                  int duplicateTargetLabels = merger.getDuplicateTargetLabels();
                   if (duplicateTargetLabels > 0) {
                     context.output(
                         new PerformanceWarning(
@@ -425,12 +540,10 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
                                     + "You may be including multiple configurations in your build. "
                                     + "Your IDE sync is slowed down by ~%d%%.",
                                 duplicateTargetLabels,
-                                (100 * duplicateTargetLabels / targetMap.size()))));
+                                (100 * duplicateTargetLabels / state.targetMap.size()))));
                   }
 
-                  warnIgnoredLanguages(project, context, ignoredLanguages);
-
-                  state.targetMap = new TargetMap(ImmutableMap.copyOf(targetMap));
+                  warnIgnoredLanguages(project, context, reader.getIgnoredLanguages());
                   return Result.of(state);
                 });
 
@@ -441,23 +554,48 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
     return result.result;
   }
 
-  @Nullable
-  private static TargetIdeInfo protoToTarget(
-      WorkspaceLanguageSettings languageSettings,
-      Set<Label> nonWildcardProjectTargets,
-      IntellijIdeInfo.TargetIdeInfo message,
-      Set<LanguageClass> ignoredLanguages) {
-    Kind kind = IdeInfoFromProtobuf.getKind(message);
-    if (kind == null) {
-      return null;
-    }
-    if (languageSettings.isLanguageActive(kind.getLanguageClass())) {
-      return IdeInfoFromProtobuf.makeTargetIdeInfo(message);
-    }
-    if (nonWildcardProjectTargets.contains(IdeInfoFromProtobuf.getKey(message).label)) {
-      ignoredLanguages.add(kind.getLanguageClass());
+  /**
+   * Parses the given aspect files in parallel, merging each target into the target map as soon as
+   * it's available.
+   *
+   * <p>At most {@link #MAX_ASPECT_FILES_IN_FLIGHT} files are being parsed at any one time; new
+   * parse tasks are only submitted as earlier ones complete. Peak memory therefore doesn't grow
+   * with the number of aspect files.
+   *
+   * @param firstIndex the merge index of the first file; later files in {@code files} have
+   *     successively higher indices
+   */
+  private static void parseAndMergeAspectFiles(
+      ListeningExecutorService executor,
+      List<File> files,
+      int firstIndex,
+      AspectFileReader reader,
+      TargetMapMerger merger)
+      throws InterruptedException, ExecutionException {
+    CompletionService<Void> completionService = new ExecutorCompletionService<>(executor);
+    List<Future<Void>> inFlight = Lists.newArrayList();
+    int submitted = 0;
+    try {
+      for (int completed = 0; completed < files.size(); completed++) {
+        while (submitted < files.size() && submitted - completed < MAX_ASPECT_FILES_IN_FLIGHT) {
+          int index = submitted++;
+          File file = files.get(index);
+          inFlight.add(
+              completionService.submit(
+                  () -> {
+                    merger.merge(firstIndex + index, file, reader.read(file));
+                    return null;
+                  }));
+        }
+        Future<Void> future = completionService.take();
+        inFlight.remove(future);
+        future.get();
+      }
+    } finally {
+      for (Future<Void> future : inFlight) {
+        future.cancel(true);
+      }
     }
-    return null;
   }
 
   private static void warnIgnoredLanguages(
@@ -483,14 +621,6 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
         .submit(context);
   }
 
-  private static InputStream getAspectInputStream(File file) throws IOException {
-    InputStream inputStream = new FileInputStream(file);
-    if (file.getName().endsWith(".gz")) {
-      inputStream = new GZIPInputStream(inputStream);
-    }
-    return inputStream;
-  }
-
   @Override
   public BuildResult resolveIdeArtifacts(
       Project project,
@@ -541,8 +671,10 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
             String.format(
                 "Building IDE resolve files for shard %s of %s...",
                 count, shardedTargets.shardedTargets.size());
-    Function<List<TargetExpression>, BuildResult> invocation =
-        targets ->
+    // shards are assigned to output bases as in the aspect build, so each shard reuses the
+    // analysis cache of the blaze server which built its IDE info
+    ShardedTargetList.ShardInvocation invocation =
+        (shardIndex, targets, outputBase) ->
             doResolveIdeArtifacts(
                 project,
                 context,
@@ -550,8 +682,14 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
                 projectViewSet,
                 blazeVersionData,
                 targets,
-                useIdeCompileOutputGroup);
-    return shardedTargets.runShardedCommand(project, context, progressMessage, invocation);
+                useIdeCompileOutputGroup,
+                outputBase);
+    return shardedTargets.runShardedCommand(
+        project,
+        context,
+        progressMessage,
+        ShardOutputBases.getAdditionalOutputBases(project, projectViewSet),
+        invocation);
   }
 
   private static BuildResult doResolveIdeArtifacts(
@@ -561,7 +699,8 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
       ProjectViewSet projectViewSet,
       BlazeVersionData blazeVersionData,
       List<TargetExpression> targets,
-      boolean useIdeCompileOutputGroup) {
+      boolean useIdeCompileOutputGroup,
+      @Nullable File outputBase) {
     AspectStrategy aspectStrategy = getAspectStrategy(project, blazeVersionData);
 
     BlazeCommand.Builder blazeCommandBuilder =
@@ -570,6 +709,9 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
             .addBlazeFlags()
             .addBlazeFlags(BlazeFlags.KEEP_GOING)
             .addBlazeFlags(BlazeFlags.buildFlags(project, projectViewSet));
+    if (outputBase != null) {
+      blazeCommandBuilder.addStartupFlags(ShardOutputBases.outputBaseFlag(outputBase));
+    }
 
     if (useIdeCompileOutputGroup) {
       aspectStrategy.modifyIdeCompileCommand(blazeCommandBuilder);
@@ -18,7 +18,6 @@ package com.google.idea.blaze.base.sync.aspects;
 
 import static java.util.stream.Collectors.toList;
 
-import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
@@ -30,6 +29,7 @@ import com.google.idea.blaze.base.ideinfo.CIdeInfo;
 import com.google.idea.blaze.base.ideinfo.CToolchainIdeInfo;
 import com.google.idea.blaze.base.ideinfo.Dependency;
 import com.google.idea.blaze.base.ideinfo.Dependency.DependencyType;
+import com.google.idea.blaze.base.ideinfo.IdeInfoInterner;
 import com.google.idea.blaze.base.ideinfo.JavaIdeInfo;
 import com.google.idea.blaze.base.ideinfo.JavaToolchainIdeInfo;
 import com.google.idea.blaze.base.ideinfo.LibraryArtifact;
@@ -40,7 +40,6 @@ import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.ideinfo.TestIdeInfo;
 import com.google.idea.blaze.base.model.primitives.ExecutionRootPath;
 import com.google.idea.blaze.base.model.primitives.Kind;
-import com.google.idea.blaze.base.model.primitives.Label;
 import com.google.repackaged.devtools.intellij.ideinfo.IntellijIdeInfo;
 import com.intellij.openapi.util.text.StringUtil;
 import java.util.Collection;
@@ -50,60 +49,70 @@ import javax.annotation.Nullable;
 /** Conversion functions from new aspect-style Bazel IDE info to ASWB internal classes. */
 public class IdeInfoFromProtobuf {
 
+  /**
+   * Converts the given aspect output. Labels, paths and artifacts are deduplicated via the given
+   * interner, which should be shared by all targets converted during a sync.
+   */
   @Nullable
-  public static TargetIdeInfo makeTargetIdeInfo(IntellijIdeInfo.TargetIdeInfo message) {
+  public static TargetIdeInfo makeTargetIdeInfo(
+      IntellijIdeInfo.TargetIdeInfo message, IdeInfoInterner interner) {
     Kind kind = getKind(message);
     if (kind == null) {
       return null;
     }
-    TargetKey key = getKey(message);
-    ArtifactLocation buildFile = getBuildFile(message);
+    TargetKey key = getKey(message, interner);
+    ArtifactLocation buildFile = getBuildFile(message, interner);
 
     final Collection<Dependency> dependencies;
     if (message.getDepsCount() > 0) {
       dependencies =
-          message.getDepsList().stream().map(IdeInfoFromProtobuf::makeDependency).collect(toList());
+          message
+              .getDepsList()
+              .stream()
+              .map(dep -> makeDependency(dep, interner))
+              .collect(toList());
     } else {
       dependencies =
           Lists.newArrayListWithCapacity(
               message.getDependenciesCount() + message.getRuntimeDepsCount());
       dependencies.addAll(
           makeDependencyListFromLabelList(
-              message.getDependenciesList(), DependencyType.COMPILE_TIME));
+              message.getDependenciesList(), DependencyType.COMPILE_TIME, interner));
       dependencies.addAll(
-          makeDependencyListFromLabelList(message.getRuntimeDepsList(), DependencyType.RUNTIME));
+          makeDependencyListFromLabelList(
+              message.getRuntimeDepsList(), DependencyType.RUNTIME, interner));
     }
 
-    Collection<String> tags = ImmutableList.copyOf(message.getTagsList());
+    Collection<String> tags = interner.intern(message.getTagsList());
 
     Collection<ArtifactLocation> sources = Lists.newArrayList();
     CIdeInfo cIdeInfo = null;
     if (message.hasCIdeInfo()) {
-      cIdeInfo = makeCIdeInfo(message.getCIdeInfo());
+      cIdeInfo = makeCIdeInfo(message.getCIdeInfo(), interner);
       sources.addAll(cIdeInfo.sources);
     }
     CToolchainIdeInfo cToolchainIdeInfo = null;
     if (message.hasCToolchainIdeInfo()) {
-      cToolchainIdeInfo = makeCToolchainIdeInfo(message.getCToolchainIdeInfo());
+      cToolchainIdeInfo = makeCToolchainIdeInfo(message.getCToolchainIdeInfo(), interner);
     }
     JavaIdeInfo javaIdeInfo = null;
     if (message.hasJavaIdeInfo()) {
-      javaIdeInfo = makeJavaIdeInfo(message.getJavaIdeInfo());
+      javaIdeInfo = makeJavaIdeInfo(message.getJavaIdeInfo(), interner);
       Collection<ArtifactLocation> javaSources =
-          makeArtifactLocationList(message.getJavaIdeInfo().getSourcesList());
+          makeArtifactLocationList(message.getJavaIdeInfo().getSourcesList(), interner);
       sources.addAll(javaSources);
     }
     AndroidIdeInfo androidIdeInfo = null;
     if (message.hasAndroidIdeInfo()) {
-      androidIdeInfo = makeAndroidIdeInfo(message.getAndroidIdeInfo());
+      androidIdeInfo = makeAndroidIdeInfo(message.getAndroidIdeInfo(), interner);
     }
     AndroidSdkIdeInfo androidSdkIdeInfo = null;
     if (message.hasAndroidSdkIdeInfo()) {
-      androidSdkIdeInfo = makeAndroidSdkIdeInfo(message.getAndroidSdkIdeInfo());
+      androidSdkIdeInfo = makeAndroidSdkIdeInfo(message.getAndroidSdkIdeInfo(), interner);
     }
     PyIdeInfo pyIdeInfo = null;
     if (message.hasPyIdeInfo()) {
-      pyIdeInfo = makePyIdeInfo(message.getPyIdeInfo());
+      pyIdeInfo = makePyIdeInfo(message.getPyIdeInfo(), interner);
       sources.addAll(pyIdeInfo.sources);
     }
     TestIdeInfo testIdeInfo = null;
@@ -113,7 +122,7 @@ public class IdeInfoFromProtobuf {
     ProtoLibraryLegacyInfo protoLibraryLegacyInfo = null;
     if (message.hasProtoLibraryLegacyJavaIdeInfo()) {
       protoLibraryLegacyInfo =
-          makeProtoLibraryLegacyInfo(message.getProtoLibraryLegacyJavaIdeInfo());
+          makeProtoLibraryLegacyInfo(message.getProtoLibraryLegacyJavaIdeInfo(), interner);
     }
     JavaToolchainIdeInfo javaToolchainIdeInfo = null;
     if (message.hasJavaToolchainIdeInfo()) {
@@ -139,20 +148,23 @@ public class IdeInfoFromProtobuf {
   }
 
   private static Collection<Dependency> makeDependencyListFromLabelList(
-      List<String> dependencyList, Dependency.DependencyType dependencyType) {
+      List<String> dependencyList,
+      Dependency.DependencyType dependencyType,
+      IdeInfoInterner interner) {
     return dependencyList
         .stream()
-        .map(dep -> new Dependency(TargetKey.forPlainTarget(Label.create(dep)), dependencyType))
+        .map(dep -> new Dependency(interner.targetKey(dep, ImmutableList.of()), dependencyType))
         .collect(toList());
   }
 
-  private static TargetKey makeTargetKey(IntellijIdeInfo.TargetKey key) {
-    return TargetKey.forGeneralTarget(Label.create(key.getLabel()), key.getAspectIdsList());
+  private static TargetKey makeTargetKey(IntellijIdeInfo.TargetKey key, IdeInfoInterner interner) {
+    return interner.targetKey(key.getLabel(), key.getAspectIdsList());
   }
 
-  private static Dependency makeDependency(IntellijIdeInfo.Dependency dep) {
+  private static Dependency makeDependency(
+      IntellijIdeInfo.Dependency dep, IdeInfoInterner interner) {
     return new Dependency(
-        makeTargetKey(dep.getTarget()), makeDependencyType(dep.getDependencyType()));
+        makeTargetKey(dep.getTarget(), interner), makeDependencyType(dep.getDependencyType()));
   }
 
   private static Dependency.DependencyType makeDependencyType(
@@ -168,21 +180,23 @@ public class IdeInfoFromProtobuf {
   }
 
   @Nullable
-  private static ArtifactLocation getBuildFile(IntellijIdeInfo.TargetIdeInfo message) {
+  private static ArtifactLocation getBuildFile(
+      IntellijIdeInfo.TargetIdeInfo message, IdeInfoInterner interner) {
     if (message.hasBuildFileArtifactLocation()) {
-      return makeArtifactLocation(message.getBuildFileArtifactLocation());
+      return makeArtifactLocation(message.getBuildFileArtifactLocation(), interner);
     }
     return null;
   }
 
-  private static CIdeInfo makeCIdeInfo(IntellijIdeInfo.CIdeInfo cIdeInfo) {
-    List<ArtifactLocation> sources = makeArtifactLocationList(cIdeInfo.getSourceList());
+  private static CIdeInfo makeCIdeInfo(
+      IntellijIdeInfo.CIdeInfo cIdeInfo, IdeInfoInterner interner) {
+    List<ArtifactLocation> sources = makeArtifactLocationList(cIdeInfo.getSourceList(), interner);
     List<ExecutionRootPath> transitiveIncludeDirectories =
-        makeExecutionRootPathList(cIdeInfo.getTransitiveIncludeDirectoryList());
+        makeExecutionRootPathList(cIdeInfo.getTransitiveIncludeDirectoryList(), interner);
     List<ExecutionRootPath> transitiveQuoteIncludeDirectories =
-        makeExecutionRootPathList(cIdeInfo.getTransitiveQuoteIncludeDirectoryList());
+        makeExecutionRootPathList(cIdeInfo.getTransitiveQuoteIncludeDirectoryList(), interner);
     List<ExecutionRootPath> transitiveSystemIncludeDirectories =
-        makeExecutionRootPathList(cIdeInfo.getTransitiveSystemIncludeDirectoryList());
+        makeExecutionRootPathList(cIdeInfo.getTransitiveSystemIncludeDirectoryList(), interner);
     List<String> coptDefines;
     List<ExecutionRootPath> coptIncludeDirectories;
     if (cIdeInfo.getTargetCoptList().isEmpty()) {
@@ -194,9 +208,9 @@ public class IdeInfoFromProtobuf {
               .registerSingleOrSplitOption("-D")
               .registerSingleOrSplitOption("-I")
               .build(cIdeInfo.getTargetCoptList());
-      coptDefines = compilerOptions.getExtractedOptionValues("-D");
+      coptDefines = interner.intern(compilerOptions.getExtractedOptionValues("-D"));
       coptIncludeDirectories =
-          makeExecutionRootPathList(compilerOptions.getExtractedOptionValues("-I"));
+          makeExecutionRootPathList(compilerOptions.getExtractedOptionValues("-I"), interner);
     }
 
     CIdeInfo.Builder builder =
@@ -206,27 +220,29 @@ public class IdeInfoFromProtobuf {
             .addLocalIncludeDirectories(coptIncludeDirectories)
             .addTransitiveIncludeDirectories(transitiveIncludeDirectories)
             .addTransitiveQuoteIncludeDirectories(transitiveQuoteIncludeDirectories)
-            .addTransitiveDefines(cIdeInfo.getTransitiveDefineList())
+            .addTransitiveDefines(interner.intern(cIdeInfo.getTransitiveDefineList()))
             .addTransitiveSystemIncludeDirectories(transitiveSystemIncludeDirectories);
 
     return builder.build();
   }
 
-  private static List<ExecutionRootPath> makeExecutionRootPathList(Iterable<String> relativePaths) {
+  private static List<ExecutionRootPath> makeExecutionRootPathList(
+      Iterable<String> relativePaths, IdeInfoInterner interner) {
     List<ExecutionRootPath> workspacePaths = Lists.newArrayList();
     for (String relativePath : relativePaths) {
-      workspacePaths.add(new ExecutionRootPath(relativePath));
+      workspacePaths.add(interner.executionRootPath(relativePath));
     }
     return workspacePaths;
   }
 
   private static CToolchainIdeInfo makeCToolchainIdeInfo(
-      IntellijIdeInfo.CToolchainIdeInfo cToolchainIdeInfo) {
+      IntellijIdeInfo.CToolchainIdeInfo cToolchainIdeInfo, IdeInfoInterner interner) {
     Collection<ExecutionRootPath> builtInIncludeDirectories =
-        makeExecutionRootPathList(cToolchainIdeInfo.getBuiltInIncludeDirectoryList());
-    ExecutionRootPath cppExecutable = new ExecutionRootPath(cToolchainIdeInfo.getCppExecutable());
+        makeExecutionRootPathList(cToolchainIdeInfo.getBuiltInIncludeDirectoryList(), interner);
+    ExecutionRootPath cppExecutable =
+        interner.executionRootPath(cToolchainIdeInfo.getCppExecutable());
     ExecutionRootPath preprocessorExecutable =
-        new ExecutionRootPath(cToolchainIdeInfo.getPreprocessorExecutable());
+        interner.executionRootPath(cToolchainIdeInfo.getPreprocessorExecutable());
 
     UnfilteredCompilerOptions compilerOptions =
         UnfilteredCompilerOptions.builder()
@@ -245,48 +261,58 @@ public class IdeInfoFromProtobuf {
             .setTargetName(cToolchainIdeInfo.getTargetName())
             .addUnfilteredCompilerOptions(compilerOptions.getUninterpretedOptions())
             .addUnfilteredToolchainSystemIncludes(
-                makeExecutionRootPathList(compilerOptions.getExtractedOptionValues("-isystem")));
+                makeExecutionRootPathList(
+                    compilerOptions.getExtractedOptionValues("-isystem"), interner));
 
     return builder.build();
   }
 
-  private static JavaIdeInfo makeJavaIdeInfo(IntellijIdeInfo.JavaIdeInfo javaIdeInfo) {
+  private static JavaIdeInfo makeJavaIdeInfo(
+      IntellijIdeInfo.JavaIdeInfo javaIdeInfo, IdeInfoInterner interner) {
     return new JavaIdeInfo(
-        makeLibraryArtifactList(javaIdeInfo.getJarsList()),
-        makeLibraryArtifactList(javaIdeInfo.getGeneratedJarsList()),
+        makeLibraryArtifactList(javaIdeInfo.getJarsList(), interner),
+        makeLibraryArtifactList(javaIdeInfo.getGeneratedJarsList(), interner),
         javaIdeInfo.hasFilteredGenJar()
-            ? makeLibraryArtifact(javaIdeInfo.getFilteredGenJar())
+            ? makeLibraryArtifact(javaIdeInfo.getFilteredGenJar(), interner)
             : null,
         javaIdeInfo.hasPackageManifest()
-            ? makeArtifactLocation(javaIdeInfo.getPackageManifest())
+            ? makeArtifactLocation(javaIdeInfo.getPackageManifest(), interner)
             : null,
-        javaIdeInfo.hasJdeps() ? makeArtifactLocation(javaIdeInfo.getJdeps()) : null,
+        javaIdeInfo.hasJdeps() ? makeArtifactLocation(javaIdeInfo.getJdeps(), interner) : null,
         Strings.emptyToNull(javaIdeInfo.getMainClass()));
   }
 
-  private static AndroidIdeInfo makeAndroidIdeInfo(IntellijIdeInfo.AndroidIdeInfo androidIdeInfo) {
+  private static AndroidIdeInfo makeAndroidIdeInfo(
+      IntellijIdeInfo.AndroidIdeInfo androidIdeInfo, IdeInfoInterner interner) {
     return new AndroidIdeInfo(
-        makeArtifactLocationList(androidIdeInfo.getResourcesList()),
-        androidIdeInfo.getJavaPackage(),
+        makeArtifactLocationList(androidIdeInfo.getResourcesList(), interner),
+        interner.intern(androidIdeInfo.getJavaPackage()),
         androidIdeInfo.getGenerateResourceClass(),
-        androidIdeInfo.hasManifest() ? makeArtifactLocation(androidIdeInfo.getManifest()) : null,
-        androidIdeInfo.hasIdlJar() ? makeLibraryArtifact(androidIdeInfo.getIdlJar()) : null,
+        androidIdeInfo.hasManifest()
+            ? makeArtifactLocation(androidIdeInfo.getManifest(), interner)
+            : null,
+        androidIdeInfo.hasIdlJar()
+            ? makeLibraryArtifact(androidIdeInfo.getIdlJar(), interner)
+            : null,
         androidIdeInfo.hasResourceJar()
-            ? makeLibraryArtifact(androidIdeInfo.getResourceJar())
+            ? makeLibraryArtifact(androidIdeInfo.getResourceJar(), interner)
             : null,
         androidIdeInfo.getHasIdlSources(),
         !Strings.isNullOrEmpty(androidIdeInfo.getLegacyResources())
-            ? Label.create(androidIdeInfo.getLegacyResources())
+            ? interner.label(androidIdeInfo.getLegacyResources())
             : null);
   }
 
   private static AndroidSdkIdeInfo makeAndroidSdkIdeInfo(
-      IntellijIdeInfo.AndroidSdkIdeInfo androidSdkIdeInfo) {
-    return new AndroidSdkIdeInfo(makeArtifactLocation(androidSdkIdeInfo.getAndroidJar()));
+      IntellijIdeInfo.AndroidSdkIdeInfo androidSdkIdeInfo, IdeInfoInterner interner) {
+    return new AndroidSdkIdeInfo(
+        makeArtifactLocation(androidSdkIdeInfo.getAndroidJar(), interner));
   }
 
-  private static PyIdeInfo makePyIdeInfo(IntellijIdeInfo.PyIdeInfo info) {
-    return PyIdeInfo.builder().addSources(makeArtifactLocationList(info.getSourcesList())).build();
+  private static PyIdeInfo makePyIdeInfo(IntellijIdeInfo.PyIdeInfo info, IdeInfoInterner interner) {
+    return PyIdeInfo.builder()
+        .addSources(makeArtifactLocationList(info.getSourcesList(), interner))
+        .build();
   }
 
   private static TestIdeInfo makeTestIdeInfo(IntellijIdeInfo.TestInfo testInfo) {
@@ -314,7 +340,8 @@ public class IdeInfoFromProtobuf {
   }
 
   private static ProtoLibraryLegacyInfo makeProtoLibraryLegacyInfo(
-      IntellijIdeInfo.ProtoLibraryLegacyJavaIdeInfo protoLibraryLegacyJavaIdeInfo) {
+      IntellijIdeInfo.ProtoLibraryLegacyJavaIdeInfo protoLibraryLegacyJavaIdeInfo,
+      IdeInfoInterner interner) {
     final ProtoLibraryLegacyInfo.ApiFlavor apiFlavor;
     if (protoLibraryLegacyJavaIdeInfo.getApiVersion() == 1) {
       apiFlavor = ProtoLibraryLegacyInfo.ApiFlavor.VERSION_1;
@@ -336,9 +363,9 @@ public class IdeInfoFromProtobuf {
     }
     return new ProtoLibraryLegacyInfo(
         apiFlavor,
-        makeLibraryArtifactList(protoLibraryLegacyJavaIdeInfo.getJars1List()),
-        makeLibraryArtifactList(protoLibraryLegacyJavaIdeInfo.getJarsMutableList()),
-        makeLibraryArtifactList(protoLibraryLegacyJavaIdeInfo.getJarsImmutableList()));
+        makeLibraryArtifactList(protoLibraryLegacyJavaIdeInfo.getJars1List(), interner),
+        makeLibraryArtifactList(protoLibraryLegacyJavaIdeInfo.getJarsMutableList(), interner),
+        makeLibraryArtifactList(protoLibraryLegacyJavaIdeInfo.getJarsImmutableList(), interner));
   }
 
   private static JavaToolchainIdeInfo makeJavaToolchainIdeInfo(
@@ -348,10 +375,10 @@ public class IdeInfoFromProtobuf {
   }
 
   private static Collection<LibraryArtifact> makeLibraryArtifactList(
-      List<IntellijIdeInfo.LibraryArtifact> jarsList) {
+      List<IntellijIdeInfo.LibraryArtifact> jarsList, IdeInfoInterner interner) {
     ImmutableList.Builder<LibraryArtifact> builder = ImmutableList.builder();
     for (IntellijIdeInfo.LibraryArtifact libraryArtifact : jarsList) {
-      LibraryArtifact lib = makeLibraryArtifact(libraryArtifact);
+      LibraryArtifact lib = makeLibraryArtifact(libraryArtifact, interner);
       if (lib != null) {
         builder.add(lib);
       }
@@ -361,16 +388,18 @@ public class IdeInfoFromProtobuf {
 
   @Nullable
   private static LibraryArtifact makeLibraryArtifact(
-      IntellijIdeInfo.LibraryArtifact libraryArtifact) {
+      IntellijIdeInfo.LibraryArtifact libraryArtifact, IdeInfoInterner interner) {
     ArtifactLocation classJar =
-        libraryArtifact.hasJar() ? makeArtifactLocation(libraryArtifact.getJar()) : null;
+        libraryArtifact.hasJar()
+            ? makeArtifactLocation(libraryArtifact.getJar(), interner)
+            : null;
     ArtifactLocation iJar =
         libraryArtifact.hasInterfaceJar()
-            ? makeArtifactLocation(libraryArtifact.getInterfaceJar())
+            ? makeArtifactLocation(libraryArtifact.getInterfaceJar(), interner)
             : null;
     ArtifactLocation sourceJar =
         libraryArtifact.hasSourceJar()
-            ? makeArtifactLocation(libraryArtifact.getSourceJar())
+            ? makeArtifactLocation(libraryArtifact.getSourceJar(), interner)
             : null;
     if (iJar == null && classJar == null) {
       // Failed to find ArtifactLocation file --
@@ -381,10 +410,10 @@ public class IdeInfoFromProtobuf {
   }
 
   private static List<ArtifactLocation> makeArtifactLocationList(
-      List<IntellijIdeInfo.ArtifactLocation> sourcesList) {
+      List<IntellijIdeInfo.ArtifactLocation> sourcesList, IdeInfoInterner interner) {
     ImmutableList.Builder<ArtifactLocation> builder = ImmutableList.builder();
     for (IntellijIdeInfo.ArtifactLocation pbArtifactLocation : sourcesList) {
-      ArtifactLocation loc = makeArtifactLocation(pbArtifactLocation);
+      ArtifactLocation loc = makeArtifactLocation(pbArtifactLocation, interner);
       if (loc != null) {
         builder.add(loc);
       }
@@ -392,10 +421,9 @@ public class IdeInfoFromProtobuf {
     return builder.build();
   }
 
-  @VisibleForTesting
   @Nullable
   public static ArtifactLocation makeArtifactLocation(
-      @Nullable IntellijIdeInfo.ArtifactLocation location) {
+      @Nullable IntellijIdeInfo.ArtifactLocation location, IdeInfoInterner interner) {
     if (location == null) {
       return null;
     }
@@ -417,7 +445,7 @@ public class IdeInfoFromProtobuf {
         .setRelativePath(relativePath)
         .setIsSource(location.getIsSource())
         .setIsExternal(location.getIsExternal())
-        .build();
+        .build(interner);
   }
 
   @Nullable
@@ -429,9 +457,9 @@ public class IdeInfoFromProtobuf {
     return null;
   }
 
-  static TargetKey getKey(IntellijIdeInfo.TargetIdeInfo message) {
+  static TargetKey getKey(IntellijIdeInfo.TargetIdeInfo message, IdeInfoInterner interner) {
     return message.hasKey()
-        ? makeTargetKey(message.getKey())
-        : TargetKey.forPlainTarget(Label.create(message.getLabel()));
+        ? makeTargetKey(message.getKey(), interner)
+        : interner.targetKey(message.getLabel(), ImmutableList.of());
   }
 }
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.aspects;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.idea.blaze.base.filecache.FileState;
+import com.google.idea.blaze.base.io.ModifiedTimeScanner;
+import com.google.idea.blaze.base.prefetch.PrefetchService;
+import com.intellij.openapi.project.Project;
+import java.io.File;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+import javax.annotation.Nullable;
+
+/**
+ * Processes the aspect output of a sharded build one shard at a time, as soon as each shard is
+ * built. Changed aspect files are prefetched and parsed in the background while the next shard
+ * builds, and each target is merged into the target map as soon as it's parsed.
+ *
+ * <p>Each aspect file's merge index is the order in which it was first seen, so duplicate targets
+ * are resolved the same way regardless of the order in which background work completes. The
+ * combined file state is assembled once all shards are built.
+ */
+final class PipelinedAspectOutputReader {
+  /**
+   * The maximum number of background tasks parsing each shard's aspect files. Each task parses a
+   * contiguous slice of the shard's changed files.
+   */
+  private static final int MAX_PARSE_TASKS_PER_SHARD =
+      Math.max(1, Runtime.getRuntime().availableProcessors());
+
+  private final Project project;
+  private final ListeningExecutorService executor;
+  private final FileState previousFileState;
+  private final AspectFileReader reader;
+  private final TargetMapMerger merger;
+
+  // Only accessed from the sync thread
+  private final Set<File> seenFiles = Sets.newHashSet();
+  private final List<FileState> shardFileStates = Lists.newArrayList();
+  private final List<ListenableFuture<?>> shardFutures = Lists.newArrayList();
+
+  private final Set<File> parsedFiles = Sets.newConcurrentHashSet();
+
+  PipelinedAspectOutputReader(
+      Project project,
+      ListeningExecutorService executor,
+      @Nullable FileState previousFileState,
+      AspectFileReader reader,
+      TargetMapMerger merger) {
+    this.project = project;
+    this.executor = executor;
+    this.previousFileState = previousFileState != null ? previousFileState : FileState.EMPTY;
+    this.reader = reader;
+    this.merger = merger;
+  }
+
+  /**
+   * Called on the sync thread once a shard has been built, with that shard's aspect output. Reads
+   * the files' timestamps, then prefetches, parses and merges any changed files in the background.
+   */
+  void onShardBuilt(Collection<File> files) throws Exception {
+    int firstIndex = seenFiles.size();
+    List<File> newFiles = Lists.newArrayList();
+    for (File file : files) {
+      if (seenFiles.add(file)) {
+        newFiles.add(file);
+      }
+    }
+    long[] modifiedTimes = ModifiedTimeScanner.readModifiedTimes(newFiles);
+    shardFileStates.add(FileState.of(newFiles, modifiedTimes));
+
+    List<File> updatedFiles = Lists.newArrayList();
+    List<Integer> updatedIndices = Lists.newArrayList();
+    for (int i = 0; i < modifiedTimes.length; i++) {
+      File file = newFiles.get(i);
+      if (modifiedTimes[i] != 0 && previousFileState.getModifiedTime(file) != modifiedTimes[i]) {
+        updatedFiles.add(file);
+        updatedIndices.add(firstIndex + i);
+      }
+    }
+    if (updatedFiles.isEmpty()) {
+      return;
+    }
+    ListenableFuture<?> prefetchFuture =
+        PrefetchService.getInstance().prefetchFiles(project, updatedFiles);
+    shardFutures.add(
+        Futures.transformAsync(
+            prefetchFuture, unused -> parse(updatedFiles, updatedIndices), executor));
+  }
+
+  private ListenableFuture<List<Void>> parse(List<File> files, List<Integer> indices) {
+    int sliceSize = (files.size() + MAX_PARSE_TASKS_PER_SHARD - 1) / MAX_PARSE_TASKS_PER_SHARD;
+    List<ListenableFuture<Void>> futures = Lists.newArrayList();
+    for (int start = 0; start < files.size(); start += sliceSize) {
+      int sliceStart = start;
+      int sliceEnd = Math.min(start + sliceSize, files.size());
+      futures.add(
+          executor.submit(
+              () -> {
+                for (int i = sliceStart; i < sliceEnd; i++) {
+                  if (Thread.currentThread().isInterrupted()) {
+                    return null;
+                  }
+                  File file = files.get(i);
+                  merger.merge(indices.get(i), file, reader.read(file));
+                  parsedFiles.add(file);
+                }
+                return null;
+              }));
+    }
+    return Futures.allAsList(futures);
+  }
+
+  /** Waits for all background work to complete, and returns the file state of all aspect output. */
+  FileState finish() throws InterruptedException, ExecutionException {
+    Futures.allAsList(shardFutures).get();
+    FileState.Builder fileState = FileState.builder();
+    for (FileState shardFileState : shardFileStates) {
+      shardFileState.forEach(fileState::put);
+    }
+    return fileState.build();
+  }
+
+  /** Cancels any outstanding background work. */
+  void cancel() {
+    for (ListenableFuture<?> future : shardFutures) {
+      future.cancel(true);
+    }
+  }
+
+  /**
+   * The number of distinct aspect files seen. Files merged after the pipeline has finished should
+   * be given higher indices.
+   */
+  int getFileCount() {
+    return seenFiles.size();
+  }
+
+  /** Returns those of the given files which weren't parsed in the background. */
+  List<File> getUnparsedFiles(List<File> files) {
+    return files.stream().filter(file -> !parsedFiles.contains(file)).collect(Collectors.toList());
+  }
+}
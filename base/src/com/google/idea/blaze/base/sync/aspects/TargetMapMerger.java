@@ -0,0 +1,111 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.aspects;
+
+import com.google.common.collect.Maps;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.sync.aspects.BlazeIdeInterfaceAspectsImpl.State;
+import java.io.File;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Merges newly parsed targets into the previous target map as they become available.
+ *
+ * <p>Each aspect file is given an index when it's read. If several files contain the same target,
+ * the one with the lowest index wins, regardless of the order in which targets are merged.
+ *
+ * <p>Thread-safe.
+ */
+final class TargetMapMerger {
+  private final TargetMap.Builder targetMap;
+  private final Map<File, TargetKey> fileToTargetMapKey = Maps.newHashMap();
+  private final Map<TargetKey, Source> updatedTargets = Maps.newHashMap();
+  private int mergedFileCount = 0;
+  private int duplicateTargetLabels = 0;
+
+  /** Unchanged targets are shared with the previous target map, rather than copied. */
+  TargetMapMerger(@Nullable State prevState) {
+    targetMap = prevState != null ? prevState.targetMap.toBuilder() : TargetMap.builder();
+    if (prevState != null) {
+      fileToTargetMapKey.putAll(prevState.fileToTargetMapKey);
+    }
+  }
+
+  /** Merges the target read from the given aspect file, if any. */
+  synchronized void merge(int index, File file, @Nullable TargetIdeInfo target) {
+    mergedFileCount++;
+    if (target == null) {
+      return;
+    }
+    TargetKey key = target.key;
+    Source previous = updatedTargets.get(key);
+    if (previous != null) {
+      duplicateTargetLabels++;
+      if (previous.index < index) {
+        return;
+      }
+    }
+    updatedTargets.put(key, new Source(index, file));
+    targetMap.put(key, target);
+  }
+
+  /**
+   * Removes the target previously read from an aspect file which no longer exists, unless that
+   * target has since been read from another file.
+   */
+  synchronized void removeFile(File file) {
+    TargetKey key = fileToTargetMapKey.remove(file);
+    if (key != null && !updatedTargets.containsKey(key)) {
+      targetMap.remove(key);
+    }
+  }
+
+  /** The number of aspect files merged so far. */
+  synchronized int getMergedFileCount() {
+    return mergedFileCount;
+  }
+
+  /** The number of targets ignored because an aspect file with a lower index contained them. */
+  synchronized int getDuplicateTargetLabels() {
+    return duplicateTargetLabels;
+  }
+
+  /** Builds the merged target map, recording the aspect file each updated target came from. */
+  synchronized TargetMap build() {
+    for (Map.Entry<TargetKey, Source> entry : updatedTargets.entrySet()) {
+      fileToTargetMapKey.put(entry.getValue().file, entry.getKey());
+    }
+    return targetMap.build();
+  }
+
+  /** The aspect file each target was read from. Only valid after {@link #build}. */
+  synchronized Map<File, TargetKey> getFileToTargetMapKey() {
+    return fileToTargetMapKey;
+  }
+
+  private static class Source {
+    final int index;
+    final File file;
+
+    Source(int index, File file) {
+      this.index = index;
+      this.file = file;
+    }
+  }
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.data;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.command.info.BlazeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.model.BlazeVersionData;
+import com.google.idea.blaze.base.model.SyncState;
+import com.google.idea.blaze.base.sync.projectview.WorkspaceLanguageSettings;
+import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
+import com.google.idea.blaze.base.sync.workspace.WorkspacePathResolver;
+import com.google.idea.blaze.base.targetmaps.TargetGraph;
+import com.google.idea.blaze.base.util.HashTrieMap;
+import com.google.idea.blaze.base.util.SerializationUtil.ClassLoaderObjectInputStream;
+import com.intellij.openapi.diagnostic.Logger;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import javax.annotation.Nullable;
+
+/**
+ * Reads and writes {@link BlazeProjectData} as a {@link ProjectDataFile}.
+ *
+ * <p>The target map and its dependency graph are stored in a compact custom encoding, and only
+ * decoded the first time they're accessed. The remaining, comparatively small, values are
+ * java-serialized into their own sections.
+ */
+final class BlazeProjectDataFormat {
+  private static final Logger logger = Logger.getInstance(BlazeProjectDataFormat.class);
+
+  /** Bump whenever the encoding of any section changes. */
+  static final int SCHEMA_VERSION = 3;
+
+  private static final String HEADER = "header";
+  private static final String TARGET_MAP = "targetMap";
+  private static final String ENVIRONMENT = "environment";
+  private static final String SYNC_STATE = "syncState";
+  private static final String TARGET_GRAPH = "targetGraph";
+
+  private static final ImmutableList<String> SECTIONS =
+      ImmutableList.of(HEADER, TARGET_MAP, ENVIRONMENT, SYNC_STATE, TARGET_GRAPH);
+
+  private BlazeProjectDataFormat() {}
+
+  /**
+   * Writes the project data to a new generation file, then points {@code file} at it.
+   *
+   * <p>Earlier generations may still be memory-mapped by lazily-loaded project data, so they're
+   * never written to or replaced. They're deleted once they're no longer current, where the
+   * platform allows it (on Windows, mapped files can't be deleted, so they're retried on the next
+   * write).
+   */
+  static synchronized void write(File file, BlazeProjectData projectData) throws IOException {
+    String current = readPointer(file);
+    File dataFile = new File(file.getParentFile(), nextGenerationName(file, current));
+    try (ProjectDataFile.Writer writer =
+        ProjectDataFile.newWriter(dataFile, SCHEMA_VERSION, SECTIONS)) {
+      TargetMap targetMap = projectData.targetMap;
+      writer.writeSection(HEADER, out -> out.writeLong(projectData.syncTime));
+      writer.writeSection(TARGET_MAP, out -> TargetMapSerializer.write(out, targetMap));
+      writer.writeSection(
+          ENVIRONMENT,
+          out ->
+              writeObjects(
+                  out.stream(),
+                  targetMap,
+                  projectData.blazeInfo,
+                  projectData.blazeVersionData,
+                  projectData.workspacePathResolver,
+                  projectData.artifactLocationDecoder,
+                  projectData.workspaceLanguageSettings));
+      writer.writeSection(
+          SYNC_STATE, out -> writeObjects(out.stream(), targetMap, projectData.syncState));
+      writer.writeSection(
+          TARGET_GRAPH,
+          out -> projectData.targetGraph.write(out, TargetMapSerializer::writeTargetKey));
+      writer.finish();
+    }
+    writePointer(file, dataFile.getName());
+    deleteStaleGenerations(file, dataFile.getName());
+  }
+
+  /** Returns the name of the current generation file, or null if there is none. */
+  @Nullable
+  private static String readPointer(File file) {
+    if (!file.exists()) {
+      return null;
+    }
+    try {
+      String name = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim();
+      return isGenerationName(file, name) ? name : null;
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  private static void writePointer(File file, String generationName) throws IOException {
+    File tempFile = new File(file.getPath() + ".tmp");
+    Files.write(tempFile.toPath(), generationName.getBytes(StandardCharsets.UTF_8));
+    try {
+      Files.move(
+          tempFile.toPath(),
+          file.toPath(),
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  private static String nextGenerationName(File file, @Nullable String current) {
+    long generation = 0;
+    if (current != null) {
+      generation = Long.parseLong(current.substring(file.getName().length() + 1)) + 1;
+    }
+    return file.getName() + "." + generation;
+  }
+
+  private static boolean isGenerationName(File file, String name) {
+    String prefix = file.getName() + ".";
+    if (!name.startsWith(prefix) || name.length() == prefix.length()) {
+      return false;
+    }
+    for (int i = prefix.length(); i < name.length(); i++) {
+      if (!Character.isDigit(name.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void deleteStaleGenerations(File file, String currentName) {
+    File[] siblings = file.getParentFile().listFiles();
+    if (siblings == null) {
+      return;
+    }
+    for (File sibling : siblings) {
+      String name = sibling.getName();
+      if (!name.equals(currentName) && isGenerationName(file, name)) {
+        // Fails harmlessly while the file is still mapped on Windows.
+        sibling.delete();
+      }
+    }
+  }
+
+  /**
+   * Reads the project data from disk. Returns as soon as the index and the small sections are
+   * read; the target map is decoded on first access.
+   *
+   * @param onTargetMapUnreadable called if the target map turns out to be unreadable when it's
+   *     decoded. The project data then has an empty target map, and must be resynced.
+   * @return null if there's no project data file
+   * @throws IOException if the file can't be read, or was written with another schema version
+   */
+  @Nullable
+  static BlazeProjectData read(
+      File file, Iterable<ClassLoader> classLoaders, Runnable onTargetMapUnreadable)
+      throws IOException {
+    String generationName = readPointer(file);
+    if (generationName == null) {
+      return null;
+    }
+    File generationFile = new File(file.getParentFile(), generationName);
+    if (!generationFile.exists()) {
+      return null;
+    }
+    ProjectDataFile dataFile = ProjectDataFile.open(generationFile, SCHEMA_VERSION);
+    long syncTime = dataFile.section(HEADER).readLong();
+    // shared by the target map and graph, so both hold the same target key instances
+    TargetMapSerializer.Reader reader = new TargetMapSerializer.Reader();
+    TargetMap targetMap =
+        TargetMap.lazy(
+            () -> readTargetMap(dataFile, generationFile, reader, onTargetMapUnreadable));
+    try (ObjectInputStream in =
+        new TargetMapResolvingInputStream(dataFile, ENVIRONMENT, targetMap, classLoaders)) {
+      BlazeInfo blazeInfo = (BlazeInfo) in.readObject();
+      BlazeVersionData blazeVersionData = (BlazeVersionData) in.readObject();
+      WorkspacePathResolver workspacePathResolver = (WorkspacePathResolver) in.readObject();
+      ArtifactLocationDecoder artifactLocationDecoder = (ArtifactLocationDecoder) in.readObject();
+      WorkspaceLanguageSettings languageSettings = (WorkspaceLanguageSettings) in.readObject();
+      SyncState syncState = (SyncState) readObject(dataFile, SYNC_STATE, targetMap, classLoaders);
+      TargetGraph targetGraph =
+          TargetGraph.lazy(() -> readTargetGraph(dataFile, generationFile, reader, targetMap));
+      return new BlazeProjectData(
+          syncTime,
+          targetMap,
+          blazeInfo,
+          blazeVersionData,
+          workspacePathResolver,
+          artifactLocationDecoder,
+          languageSettings,
+          syncState,
+          targetGraph);
+    } catch (ClassNotFoundException | ClassCastException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private static HashTrieMap<TargetKey, TargetIdeInfo> readTargetMap(
+      ProjectDataFile dataFile,
+      File file,
+      TargetMapSerializer.Reader reader,
+      Runnable onTargetMapUnreadable) {
+    try {
+      return TargetMapSerializer.read(dataFile.section(TARGET_MAP), reader);
+    } catch (IOException | RuntimeException e) {
+      logger.warn("Could not read target map from " + file + ". Resyncing project.", e);
+      onTargetMapUnreadable.run();
+      return HashTrieMap.of();
+    }
+  }
+
+  /**
+   * Decodes the target graph. The target map is decoded first, so the reader isn't used by both at
+   * once, and the graph's keys are the instances already interned by the map.
+   */
+  private static TargetGraph readTargetGraph(
+      ProjectDataFile dataFile,
+      File file,
+      TargetMapSerializer.Reader reader,
+      TargetMap targetMap) {
+    targetMap.size();
+    try {
+      return TargetGraph.read(dataFile.section(TARGET_GRAPH), reader::readTargetKey);
+    } catch (IOException | RuntimeException e) {
+      logger.warn("Could not read target graph from " + file + ". Rebuilding it.", e);
+      return TargetGraph.create(targetMap);
+    }
+  }
+
+  private static void writeObjects(OutputStream stream, TargetMap targetMap, Object... objects)
+      throws IOException {
+    ObjectOutputStream out = new TargetMapReplacingOutputStream(stream, targetMap);
+    for (Object object : objects) {
+      out.writeObject(object);
+    }
+    out.flush();
+  }
+
+  private static Object readObject(
+      ProjectDataFile dataFile,
+      String section,
+      TargetMap targetMap,
+      Iterable<ClassLoader> classLoaders)
+      throws IOException, ClassNotFoundException {
+    try (ObjectInputStream in =
+        new TargetMapResolvingInputStream(dataFile, section, targetMap, classLoaders)) {
+      return in.readObject();
+    }
+  }
+
+  /**
+   * Stands in for the target map within java-serialized sections (e.g. in sync state), so it's
+   * only stored once, in its own section.
+   */
+  private enum TargetMapReference {
+    INSTANCE
+  }
+
+  private static class TargetMapReplacingOutputStream extends ObjectOutputStream {
+    private final TargetMap targetMap;
+
+    TargetMapReplacingOutputStream(OutputStream out, TargetMap targetMap) throws IOException {
+      super(out);
+      this.targetMap = targetMap;
+      enableReplaceObject(true);
+    }
+
+    @Override
+    protected Object replaceObject(Object obj) {
+      return obj == targetMap ? TargetMapReference.INSTANCE : obj;
+    }
+  }
+
+  private static class TargetMapResolvingInputStream extends ClassLoaderObjectInputStream {
+    private final TargetMap targetMap;
+
+    TargetMapResolvingInputStream(
+        ProjectDataFile dataFile,
+        String section,
+        TargetMap targetMap,
+        Iterable<ClassLoader> classLoaders)
+        throws IOException {
+      super(dataFile.section(section).stream(), classLoaders);
+      this.targetMap = targetMap;
+      enableResolveObject(true);
+    }
+
+    @Override
+    protected Object resolveObject(Object obj) {
+      return obj == TargetMapReference.INSTANCE ? targetMap : obj;
+    }
+  }
+}
@@ -19,14 +19,16 @@ import com.google.common.collect.Lists;
 import com.google.idea.blaze.base.async.executor.BlazeExecutor;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.settings.BlazeImportSettings;
+import com.google.idea.blaze.base.sync.BlazeSyncManager;
 import com.google.idea.blaze.base.sync.BlazeSyncPlugin;
-import com.google.idea.blaze.base.util.SerializationUtil;
+import com.google.idea.sdkcompat.transactions.Transactions;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.project.Project;
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.annotation.Nullable;
 
 /** Stores a cache of blaze project data and issues any side effects when that data is updated. */
@@ -79,10 +81,33 @@ public class BlazeProjectDataManagerImpl implements BlazeProjectDataManager {
     classLoaders.add(getClass().getClassLoader());
     classLoaders.add(Thread.currentThread().getContextClassLoader());
 
-    blazeProjectData = (BlazeProjectData) SerializationUtil.loadFromDisk(file, classLoaders);
+    AtomicBoolean resyncRequested = new AtomicBoolean();
+    blazeProjectData =
+        BlazeProjectDataFormat.read(
+            file,
+            classLoaders,
+            () -> {
+              if (resyncRequested.compareAndSet(false, true)) {
+                requestFullSync();
+              }
+            });
     return blazeProjectData;
   }
 
+  /**
+   * The target map is decoded lazily, possibly on the EDT or in a read action, so the resync is
+   * posted rather than started by the thread which found the data unreadable.
+   */
+  private void requestFullSync() {
+    Transactions.submitTransaction(
+        project,
+        () -> {
+          if (!project.isDisposed()) {
+            BlazeSyncManager.getInstance(project).fullProjectSync();
+          }
+        });
+  }
+
   public void saveProject(
       final BlazeImportSettings importSettings, final BlazeProjectData blazeProjectData) {
     this.blazeProjectData = blazeProjectData;
@@ -95,7 +120,7 @@ public class BlazeProjectDataManagerImpl implements BlazeProjectDataManager {
           (ProgressIndicator indicator) -> {
             try {
               File file = getCacheFile(project, importSettings);
-              SerializationUtil.saveToDisk(file, blazeProjectData);
+              BlazeProjectDataFormat.write(file, blazeProjectData);
             } catch (IOException e) {
               logger.error(
                   "Could not save cache data file to disk. Please resync project. Error: "
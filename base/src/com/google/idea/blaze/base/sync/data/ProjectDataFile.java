@@ -0,0 +1,262 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.data;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.idea.blaze.base.util.SerializationUtil;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A versioned, sectioned binary file.
+ *
+ * <p>The file starts with a fixed-size header (magic number, schema version and an index of named
+ * sections with their offsets), followed by the section contents. All strings referenced from
+ * sections are stored once, in a shared string table.
+ *
+ * <p>The file is memory-mapped when read. Opening it only decodes the header and index; sections
+ * are decoded when they're first requested.
+ */
+public final class ProjectDataFile {
+  private static final int MAGIC = 0x424c5a50; // "BLZP"
+  private static final String STRINGS_SECTION = "strings";
+
+  private final ByteBuffer buffer;
+  private final ImmutableMap<String, SectionLocation> sections;
+  private volatile StringTable stringTable;
+
+  private ProjectDataFile(ByteBuffer buffer, ImmutableMap<String, SectionLocation> sections) {
+    this.buffer = buffer;
+    this.sections = sections;
+  }
+
+  /**
+   * Maps the given file and reads its index.
+   *
+   * @throws IOException if the file isn't a project data file, or was written with a different
+   *     schema version.
+   */
+  public static ProjectDataFile open(File file, int schemaVersion) throws IOException {
+    MappedByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("Project data file too large: " + file);
+      }
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+    buffer.order(ByteOrder.BIG_ENDIAN);
+    if (buffer.remaining() < 12 || buffer.getInt() != MAGIC) {
+      throw new IOException("Not a project data file: " + file);
+    }
+    int version = buffer.getInt();
+    if (version != schemaVersion) {
+      throw new IOException(
+          String.format(
+              "Project data file has schema version %d, expected %d", version, schemaVersion));
+    }
+    int sectionCount = buffer.getInt();
+    ImmutableMap.Builder<String, SectionLocation> sections = ImmutableMap.builder();
+    for (int i = 0; i < sectionCount; i++) {
+      byte[] name = new byte[buffer.getShort()];
+      buffer.get(name);
+      long offset = buffer.getLong();
+      long length = buffer.getLong();
+      if (offset < 0 || length < 0 || offset + length > buffer.capacity()) {
+        throw new IOException("Corrupt project data file: " + file);
+      }
+      sections.put(
+          new String(name, StandardCharsets.UTF_8), new SectionLocation(offset, length));
+    }
+    return new ProjectDataFile(buffer, sections.build());
+  }
+
+  public boolean hasSection(String name) {
+    return sections.containsKey(name);
+  }
+
+  /** Returns a new reader positioned at the start of the given section. */
+  public SectionInput section(String name) throws IOException {
+    return new SectionInput(slice(name), getStringTable());
+  }
+
+  private ByteBuffer slice(String name) throws IOException {
+    SectionLocation location = sections.get(name);
+    if (location == null) {
+      throw new IOException("Missing section in project data file: " + name);
+    }
+    ByteBuffer slice = buffer.duplicate();
+    slice.position(location.offset);
+    slice.limit(location.offset + location.length);
+    return slice.slice();
+  }
+
+  private StringTable getStringTable() throws IOException {
+    StringTable table = stringTable;
+    if (table == null) {
+      table = new StringTable(slice(STRINGS_SECTION));
+      stringTable = table;
+    }
+    return table;
+  }
+
+  /**
+   * Creates a writer for a new project data file. Every section must be written, in the order
+   * given, before calling {@link Writer#finish}.
+   */
+  public static Writer newWriter(File file, int schemaVersion, List<String> sectionNames)
+      throws IOException {
+    return new Writer(file, schemaVersion, sectionNames);
+  }
+
+  /** Writes the sections of a project data file. */
+  public static final class Writer implements Closeable {
+    private final int schemaVersion;
+    private final ImmutableList<String> sectionNames;
+    private final Map<String, SectionLocation> written = Maps.newHashMap();
+    private final FileChannel channel;
+    private final DataOutputStream out;
+    private final SectionOutput.StringTableBuilder strings = new SectionOutput.StringTableBuilder();
+
+    private Writer(File file, int schemaVersion, List<String> sectionNames) throws IOException {
+      this.schemaVersion = schemaVersion;
+      this.sectionNames =
+          ImmutableList.<String>builder().addAll(sectionNames).add(STRINGS_SECTION).build();
+      SerializationUtil.ensureExists(file.getParentFile());
+      this.channel =
+          FileChannel.open(
+              file.toPath(),
+              StandardOpenOption.CREATE,
+              StandardOpenOption.WRITE,
+              StandardOpenOption.TRUNCATE_EXISTING);
+      channel.position(headerSize(this.sectionNames));
+      this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+    }
+
+    /** Writes the named section. */
+    public void writeSection(String name, SectionContents contents) throws IOException {
+      Preconditions.checkArgument(
+          sectionNames.indexOf(name) == written.size(), "Unexpected section: %s", name);
+      long start = channel.position();
+      contents.write(new SectionOutput(out, strings));
+      out.flush();
+      long end = channel.position();
+      written.put(name, new SectionLocation(start, end - start));
+    }
+
+    /** Writes the string table and the index. */
+    public void finish() throws IOException {
+      writeSection(STRINGS_SECTION, strings::writeTo);
+      ByteBuffer header = ByteBuffer.allocate(headerSize(sectionNames));
+      header.putInt(MAGIC);
+      header.putInt(schemaVersion);
+      header.putInt(sectionNames.size());
+      for (String name : sectionNames) {
+        SectionLocation location = written.get(name);
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        header.putShort((short) nameBytes.length);
+        header.put(nameBytes);
+        header.putLong(location.offset);
+        header.putLong(location.length);
+      }
+      header.flip();
+      channel.position(0);
+      while (header.hasRemaining()) {
+        channel.write(header);
+      }
+      channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+    }
+
+    private static int headerSize(List<String> sectionNames) {
+      int size = 12;
+      for (String name : sectionNames) {
+        size += 2 + name.getBytes(StandardCharsets.UTF_8).length + 16;
+      }
+      return size;
+    }
+  }
+
+  /** Writes the contents of a single section. */
+  @FunctionalInterface
+  public interface SectionContents {
+    void write(SectionOutput out) throws IOException;
+  }
+
+  private static class SectionLocation {
+    final int offset;
+    final int length;
+
+    SectionLocation(long offset, long length) {
+      this.offset = (int) offset;
+      this.length = (int) length;
+    }
+  }
+
+  /**
+   * The shared string table, stored as a count, an offset per string and the UTF-8 encoded string
+   * data. Strings are only decoded on first use, and each is decoded at most once.
+   */
+  static final class StringTable {
+    private final ByteBuffer buffer;
+    private final int count;
+    private final String[] decoded;
+
+    StringTable(ByteBuffer buffer) {
+      this.buffer = buffer;
+      this.count = buffer.getInt(0);
+      this.decoded = new String[count];
+    }
+
+    String get(int index) throws IOException {
+      if (index < 0 || index >= count) {
+        throw new IOException("Invalid string table index: " + index);
+      }
+      String value = decoded[index];
+      if (value == null) {
+        int dataStart = 4 + 4 * count;
+        int start = buffer.getInt(4 + 4 * index);
+        int end =
+            index + 1 < count ? buffer.getInt(4 + 4 * (index + 1)) : buffer.limit() - dataStart;
+        ByteBuffer bytes = buffer.duplicate();
+        bytes.position(dataStart + start);
+        bytes.limit(dataStart + end);
+        value = StandardCharsets.UTF_8.decode(bytes).toString();
+        decoded[index] = value;
+      }
+      return value;
+    }
+  }
+}
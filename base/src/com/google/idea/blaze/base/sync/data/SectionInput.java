@@ -0,0 +1,113 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.data;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.sync.data.ProjectDataFile.StringTable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import javax.annotation.Nullable;
+
+/** Reads values from a single section of a {@link ProjectDataFile}. */
+public final class SectionInput {
+
+  /** Reads a single element of a list. */
+  @FunctionalInterface
+  public interface ElementReader<T> {
+    T read(SectionInput in) throws IOException;
+  }
+
+  private final ByteBuffer buffer;
+  private final StringTable strings;
+
+  SectionInput(ByteBuffer buffer, StringTable strings) {
+    this.buffer = buffer;
+    this.strings = strings;
+  }
+
+  public int readInt() {
+    return buffer.getInt();
+  }
+
+  public long readLong() {
+    return buffer.getLong();
+  }
+
+  public boolean readBoolean() {
+    return buffer.get() != 0;
+  }
+
+  /** Reads an int written with {@link SectionOutput#writeVarInt}. */
+  public int readVarInt() throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      byte b = buffer.get();
+      value |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed varint");
+  }
+
+  /**
+   * Reads a string written with {@link SectionOutput#writeString}. Equal strings read from the same
+   * file are the same instance.
+   */
+  @Nullable
+  public String readString() throws IOException {
+    int id = readVarInt();
+    return id != 0 ? strings.get(id - 1) : null;
+  }
+
+  public <T> ImmutableList<T> readList(ElementReader<T> reader) throws IOException {
+    int size = readVarInt();
+    ImmutableList.Builder<T> builder = ImmutableList.builder();
+    for (int i = 0; i < size; i++) {
+      builder.add(reader.read(this));
+    }
+    return builder.build();
+  }
+
+  /** Returns a stream over the remaining bytes of this section. */
+  public InputStream stream() {
+    return new InputStream() {
+      @Override
+      public int read() {
+        return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+          return 0;
+        }
+        if (!buffer.hasRemaining()) {
+          return -1;
+        }
+        len = Math.min(len, buffer.remaining());
+        buffer.get(b, off, len);
+        return len;
+      }
+
+      @Override
+      public int available() {
+        return buffer.remaining();
+      }
+    };
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.data;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/** Writes values to a single section of a {@link ProjectDataFile}. */
+public final class SectionOutput {
+
+  /** Writes a single element of a list. */
+  @FunctionalInterface
+  public interface ElementWriter<T> {
+    void write(SectionOutput out, T value) throws IOException;
+  }
+
+  private final DataOutputStream out;
+  private final StringTableBuilder strings;
+
+  SectionOutput(DataOutputStream out, StringTableBuilder strings) {
+    this.out = out;
+    this.strings = strings;
+  }
+
+  public void writeInt(int value) throws IOException {
+    out.writeInt(value);
+  }
+
+  public void writeLong(long value) throws IOException {
+    out.writeLong(value);
+  }
+
+  public void writeBoolean(boolean value) throws IOException {
+    out.writeBoolean(value);
+  }
+
+  /** Writes an unsigned LEB128-encoded int. Small non-negative values take a single byte. */
+  public void writeVarInt(int value) throws IOException {
+    while ((value & ~0x7f) != 0) {
+      out.writeByte((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  /** Writes a (possibly null) string, as a reference into the file's shared string table. */
+  public void writeString(@Nullable String value) throws IOException {
+    writeVarInt(value != null ? strings.intern(value) + 1 : 0);
+  }
+
+  public <T> void writeList(Collection<T> values, ElementWriter<T> writer) throws IOException {
+    writeVarInt(values.size());
+    for (T value : values) {
+      writer.write(this, value);
+    }
+  }
+
+  /**
+   * Returns a stream writing raw bytes into this section, e.g. for java-serialized values. Closing
+   * the returned stream only flushes it.
+   */
+  public OutputStream stream() {
+    return new FilterOutputStream(out) {
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+      }
+
+      @Override
+      public void close() throws IOException {
+        flush();
+      }
+    };
+  }
+
+  /** Accumulates the strings referenced by a file's sections. */
+  static final class StringTableBuilder {
+    private final Map<String, Integer> ids = Maps.newHashMap();
+    private final List<String> strings = Lists.newArrayList();
+
+    int intern(String value) {
+      Integer id = ids.get(value);
+      if (id == null) {
+        id = strings.size();
+        ids.put(value, id);
+        strings.add(value);
+      }
+      return id;
+    }
+
+    /** Writes the string count, the offset of each string, then the UTF-8 encoded strings. */
+    void writeTo(SectionOutput output) throws IOException {
+      List<byte[]> encoded = Lists.newArrayListWithCapacity(strings.size());
+      for (String value : strings) {
+        encoded.add(value.getBytes(StandardCharsets.UTF_8));
+      }
+      output.writeInt(encoded.size());
+      int offset = 0;
+      for (byte[] bytes : encoded) {
+        output.writeInt(offset);
+        offset += bytes.length;
+      }
+      for (byte[] bytes : encoded) {
+        output.out.write(bytes);
+      }
+    }
+  }
+}
@@ -0,0 +1,416 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.data;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.ideinfo.AndroidIdeInfo;
+import com.google.idea.blaze.base.ideinfo.AndroidSdkIdeInfo;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.CIdeInfo;
+import com.google.idea.blaze.base.ideinfo.CToolchainIdeInfo;
+import com.google.idea.blaze.base.ideinfo.Dependency;
+import com.google.idea.blaze.base.ideinfo.IdeInfoInterner;
+import com.google.idea.blaze.base.ideinfo.JavaIdeInfo;
+import com.google.idea.blaze.base.ideinfo.JavaToolchainIdeInfo;
+import com.google.idea.blaze.base.ideinfo.LibraryArtifact;
+import com.google.idea.blaze.base.ideinfo.ProtoLibraryLegacyInfo;
+import com.google.idea.blaze.base.ideinfo.PyIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.ideinfo.TestIdeInfo;
+import com.google.idea.blaze.base.model.primitives.ExecutionRootPath;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.util.HashTrieMap;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import javax.annotation.Nullable;
+
+/**
+ * Encodes a {@link TargetMap} as a {@link ProjectDataFile} section.
+ *
+ * <p>Unlike java serialization, the encoding doesn't depend on the serialVersionUIDs of the ide
+ * info classes. Any change to the encoding must be accompanied by a bump of {@link
+ * #ENCODING_VERSION} and {@link BlazeProjectDataFormat#SCHEMA_VERSION}.
+ */
+public final class TargetMapSerializer {
+  private TargetMapSerializer() {}
+
+  /**
+   * The version of the target encoding. Files storing targets via {@link #writeTarget} or {@link
+   * #encodeTarget} must be discarded when it changes.
+   */
+  public static final int ENCODING_VERSION = 2;
+
+  private static final int NULL = 0;
+  private static final int PRESENT = 1;
+
+  static void write(SectionOutput out, TargetMap targetMap) throws IOException {
+    out.writeList(targetMap.targets(), TargetMapSerializer::writeTarget);
+  }
+
+  static HashTrieMap<TargetKey, TargetIdeInfo> read(SectionInput in) throws IOException {
+    return read(in, new Reader());
+  }
+
+  /** Reads a target map, interning its labels, target keys and artifacts with the given reader. */
+  static HashTrieMap<TargetKey, TargetIdeInfo> read(SectionInput in, Reader reader)
+      throws IOException {
+    int count = in.readVarInt();
+    HashTrieMap.Builder<TargetKey, TargetIdeInfo> targets =
+        HashTrieMap.<TargetKey, TargetIdeInfo>of().toBuilder();
+    for (int i = 0; i < count; i++) {
+      TargetIdeInfo target = reader.readTarget(in);
+      targets.put(target.key, target);
+    }
+    return targets.build();
+  }
+
+  /**
+   * Encodes a single target together with the strings it references, so it can be stored and
+   * decoded on its own. Decode it with {@link Reader#decodeTarget}.
+   */
+  public static byte[] encodeTarget(TargetIdeInfo target) throws IOException {
+    SectionOutput.StringTableBuilder strings = new SectionOutput.StringTableBuilder();
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    DataOutputStream bodyOut = new DataOutputStream(body);
+    writeTarget(new SectionOutput(bodyOut, strings), target);
+    bodyOut.flush();
+
+    ByteArrayOutputStream table = new ByteArrayOutputStream();
+    DataOutputStream tableOut = new DataOutputStream(table);
+    strings.writeTo(new SectionOutput(tableOut, strings));
+    tableOut.flush();
+
+    ByteArrayOutputStream encoded = new ByteArrayOutputStream(4 + table.size() + body.size());
+    DataOutputStream out = new DataOutputStream(encoded);
+    out.writeInt(table.size());
+    table.writeTo(out);
+    body.writeTo(out);
+    out.flush();
+    return encoded.toByteArray();
+  }
+
+  /** Writes a single target. Read it back with {@link Reader#readTarget}. */
+  public static void writeTarget(SectionOutput out, TargetIdeInfo target) throws IOException {
+    writeTargetKey(out, target.key);
+    out.writeString(target.kind != null ? target.kind.toString() : null);
+    writeNullable(out, target.buildFile, TargetMapSerializer::writeArtifact);
+    out.writeList(target.dependencies, TargetMapSerializer::writeDependency);
+    out.writeList(target.tags, SectionOutput::writeString);
+    out.writeList(target.sources, TargetMapSerializer::writeArtifact);
+    writeNullable(out, target.cIdeInfo, TargetMapSerializer::writeCIdeInfo);
+    writeNullable(out, target.cToolchainIdeInfo, TargetMapSerializer::writeCToolchainIdeInfo);
+    writeNullable(out, target.javaIdeInfo, TargetMapSerializer::writeJavaIdeInfo);
+    writeNullable(out, target.androidIdeInfo, TargetMapSerializer::writeAndroidIdeInfo);
+    writeNullable(out, target.androidSdkIdeInfo, (o, info) -> writeArtifact(o, info.androidJar));
+    writeNullable(
+        out,
+        target.pyIdeInfo,
+        (o, info) -> o.writeList(info.sources, TargetMapSerializer::writeArtifact));
+    writeNullable(out, target.testIdeInfo, (o, info) -> o.writeVarInt(info.testSize.ordinal()));
+    writeNullable(out, target.protoLibraryLegacyInfo, TargetMapSerializer::writeProtoLegacyInfo);
+    writeNullable(out, target.javaToolchainIdeInfo, TargetMapSerializer::writeJavaToolchain);
+  }
+
+  private static <T> void writeNullable(
+      SectionOutput out, @Nullable T value, SectionOutput.ElementWriter<T> writer)
+      throws IOException {
+    if (value == null) {
+      out.writeVarInt(NULL);
+      return;
+    }
+    out.writeVarInt(PRESENT);
+    writer.write(out, value);
+  }
+
+  static void writeTargetKey(SectionOutput out, TargetKey key) throws IOException {
+    out.writeString(key.label.toString());
+    out.writeList(key.getAspectIds(), SectionOutput::writeString);
+  }
+
+  private static void writeDependency(SectionOutput out, Dependency dependency)
+      throws IOException {
+    writeTargetKey(out, dependency.targetKey);
+    out.writeVarInt(dependency.dependencyType.ordinal());
+  }
+
+  private static void writeArtifact(SectionOutput out, ArtifactLocation artifact)
+      throws IOException {
+    out.writeString(artifact.getRootExecutionPathFragment());
+    out.writeString(artifact.getRelativePath());
+    out.writeVarInt(
+        (artifact.isSource ? 1 : 0)
+            | (artifact.isExternal ? 2 : 0)
+            | (artifact.getOutputBaseIndex() << 2));
+  }
+
+  private static void writeExecutionRootPath(SectionOutput out, ExecutionRootPath path)
+      throws IOException {
+    out.writeString(path.getAbsoluteOrRelativeFile().getPath());
+  }
+
+  private static void writeLibrary(SectionOutput out, LibraryArtifact library)
+      throws IOException {
+    writeNullable(out, library.interfaceJar, TargetMapSerializer::writeArtifact);
+    writeNullable(out, library.classJar, TargetMapSerializer::writeArtifact);
+    writeNullable(out, library.sourceJar, TargetMapSerializer::writeArtifact);
+  }
+
+  private static void writeCIdeInfo(SectionOutput out, CIdeInfo info) throws IOException {
+    out.writeList(info.sources, TargetMapSerializer::writeArtifact);
+    out.writeList(info.localDefines, SectionOutput::writeString);
+    out.writeList(info.localIncludeDirectories, TargetMapSerializer::writeExecutionRootPath);
+    out.writeList(info.transitiveIncludeDirectories, TargetMapSerializer::writeExecutionRootPath);
+    out.writeList(
+        info.transitiveQuoteIncludeDirectories, TargetMapSerializer::writeExecutionRootPath);
+    out.writeList(info.transitiveDefines, SectionOutput::writeString);
+    out.writeList(
+        info.transitiveSystemIncludeDirectories, TargetMapSerializer::writeExecutionRootPath);
+  }
+
+  private static void writeCToolchainIdeInfo(SectionOutput out, CToolchainIdeInfo info)
+      throws IOException {
+    out.writeList(info.baseCompilerOptions, SectionOutput::writeString);
+    out.writeList(info.cCompilerOptions, SectionOutput::writeString);
+    out.writeList(info.cppCompilerOptions, SectionOutput::writeString);
+    out.writeList(info.linkOptions, SectionOutput::writeString);
+    out.writeList(info.builtInIncludeDirectories, TargetMapSerializer::writeExecutionRootPath);
+    writeNullable(out, info.cppExecutable, TargetMapSerializer::writeExecutionRootPath);
+    writeNullable(out, info.preprocessorExecutable, TargetMapSerializer::writeExecutionRootPath);
+    out.writeString(info.targetName);
+    out.writeList(info.unfilteredCompilerOptions, SectionOutput::writeString);
+    out.writeList(
+        info.unfilteredToolchainSystemIncludes, TargetMapSerializer::writeExecutionRootPath);
+  }
+
+  private static void writeJavaIdeInfo(SectionOutput out, JavaIdeInfo info) throws IOException {
+    out.writeList(info.jars, TargetMapSerializer::writeLibrary);
+    out.writeList(info.generatedJars, TargetMapSerializer::writeLibrary);
+    writeNullable(out, info.filteredGenJar, TargetMapSerializer::writeLibrary);
+    writeNullable(out, info.packageManifest, TargetMapSerializer::writeArtifact);
+    writeNullable(out, info.jdepsFile, TargetMapSerializer::writeArtifact);
+    out.writeString(info.javaBinaryMainClass);
+  }
+
+  private static void writeAndroidIdeInfo(SectionOutput out, AndroidIdeInfo info)
+      throws IOException {
+    out.writeList(info.resources, TargetMapSerializer::writeArtifact);
+    out.writeString(info.resourceJavaPackage);
+    out.writeBoolean(info.generateResourceClass);
+    writeNullable(out, info.manifest, TargetMapSerializer::writeArtifact);
+    writeNullable(out, info.idlJar, TargetMapSerializer::writeLibrary);
+    writeNullable(out, info.resourceJar, TargetMapSerializer::writeLibrary);
+    out.writeBoolean(info.hasIdlSources);
+    out.writeString(info.legacyResources != null ? info.legacyResources.toString() : null);
+  }
+
+  private static void writeProtoLegacyInfo(SectionOutput out, ProtoLibraryLegacyInfo info)
+      throws IOException {
+    out.writeVarInt(info.apiFlavor.ordinal());
+    out.writeList(info.jarsV1, TargetMapSerializer::writeLibrary);
+    out.writeList(info.jarsMutable, TargetMapSerializer::writeLibrary);
+    out.writeList(info.jarsImmutable, TargetMapSerializer::writeLibrary);
+  }
+
+  private static void writeJavaToolchain(SectionOutput out, JavaToolchainIdeInfo info)
+      throws IOException {
+    out.writeString(info.sourceVersion);
+    out.writeString(info.targetVersion);
+  }
+
+  /**
+   * Decodes targets, sharing a single instance of each distinct label, target key, artifact and
+   * path across all targets it reads.
+   *
+   * <p>Thread-safe.
+   */
+  public static final class Reader {
+    private final IdeInfoInterner interner;
+
+    public Reader() {
+      this(new IdeInfoInterner());
+    }
+
+    /** Decodes targets sharing the values of the given interner, e.g. with freshly parsed ones. */
+    public Reader(IdeInfoInterner interner) {
+      this.interner = interner;
+    }
+
+    /** Decodes a target encoded with {@link TargetMapSerializer#encodeTarget}. */
+    public TargetIdeInfo decodeTarget(ByteBuffer encoded) throws IOException {
+      ByteBuffer buffer = encoded.duplicate();
+      int tableSize = buffer.getInt();
+      ByteBuffer table = buffer.slice();
+      table.limit(tableSize);
+      buffer.position(buffer.position() + tableSize);
+      return readTarget(new SectionInput(buffer.slice(), new ProjectDataFile.StringTable(table)));
+    }
+
+    public TargetIdeInfo readTarget(SectionInput in) throws IOException {
+      TargetKey key = readTargetKey(in);
+      String kindString = in.readString();
+      Kind kind = kindString != null ? Kind.fromString(kindString) : null;
+      ArtifactLocation buildFile = readNullable(in, this::readArtifact);
+      ImmutableList<Dependency> dependencies = in.readList(this::readDependency);
+      ImmutableList<String> tags = interner.intern(in.readList(SectionInput::readString));
+      ImmutableList<ArtifactLocation> sources = in.readList(this::readArtifact);
+      CIdeInfo cIdeInfo = readNullable(in, this::readCIdeInfo);
+      CToolchainIdeInfo cToolchainIdeInfo = readNullable(in, this::readCToolchainIdeInfo);
+      JavaIdeInfo javaIdeInfo = readNullable(in, this::readJavaIdeInfo);
+      AndroidIdeInfo androidIdeInfo = readNullable(in, this::readAndroidIdeInfo);
+      AndroidSdkIdeInfo androidSdkIdeInfo =
+          readNullable(in, i -> new AndroidSdkIdeInfo(readArtifact(i)));
+      PyIdeInfo pyIdeInfo = readNullable(in, i -> new PyIdeInfo(i.readList(this::readArtifact)));
+      TestIdeInfo testIdeInfo =
+          readNullable(in, i -> new TestIdeInfo(TestIdeInfo.TestSize.values()[i.readVarInt()]));
+      ProtoLibraryLegacyInfo protoLibraryLegacyInfo = readNullable(in, this::readProtoLegacyInfo);
+      JavaToolchainIdeInfo javaToolchainIdeInfo =
+          readNullable(in, i -> new JavaToolchainIdeInfo(i.readString(), i.readString()));
+      return new TargetIdeInfo(
+          key,
+          kind,
+          buildFile,
+          dependencies,
+          tags,
+          sources,
+          cIdeInfo,
+          cToolchainIdeInfo,
+          javaIdeInfo,
+          androidIdeInfo,
+          androidSdkIdeInfo,
+          pyIdeInfo,
+          testIdeInfo,
+          protoLibraryLegacyInfo,
+          javaToolchainIdeInfo);
+    }
+
+    @Nullable
+    private static <T> T readNullable(SectionInput in, SectionInput.ElementReader<T> reader)
+        throws IOException {
+      return in.readVarInt() == NULL ? null : reader.read(in);
+    }
+
+    private Label readLabel(SectionInput in) throws IOException {
+      return interner.label(in.readString());
+    }
+
+    TargetKey readTargetKey(SectionInput in) throws IOException {
+      Label label = readLabel(in);
+      ImmutableList<String> aspectIds = in.readList(SectionInput::readString);
+      return interner.targetKey(label, aspectIds);
+    }
+
+    private Dependency readDependency(SectionInput in) throws IOException {
+      TargetKey key = readTargetKey(in);
+      return new Dependency(key, Dependency.DependencyType.values()[in.readVarInt()]);
+    }
+
+    private ArtifactLocation readArtifact(SectionInput in) throws IOException {
+      String rootExecutionPathFragment = in.readString();
+      String relativePath = in.readString();
+      int flags = in.readVarInt();
+      int outputBaseIndex = flags >>> 2;
+      return interner
+          .forOutputBase(outputBaseIndex)
+          .intern(
+              ArtifactLocation.builder()
+                  .setRootExecutionPathFragment(rootExecutionPathFragment)
+                  .setRelativePath(relativePath)
+                  .setIsSource((flags & 1) != 0)
+                  .setIsExternal((flags & 2) != 0)
+                  .setOutputBaseIndex(outputBaseIndex)
+                  .build());
+    }
+
+    private ExecutionRootPath readExecutionRootPath(SectionInput in) throws IOException {
+      return interner.executionRootPath(in.readString());
+    }
+
+    private LibraryArtifact readLibrary(SectionInput in) throws IOException {
+      ArtifactLocation interfaceJar = readNullable(in, this::readArtifact);
+      ArtifactLocation classJar = readNullable(in, this::readArtifact);
+      ArtifactLocation sourceJar = readNullable(in, this::readArtifact);
+      return new LibraryArtifact(interfaceJar, classJar, sourceJar);
+    }
+
+    private CIdeInfo readCIdeInfo(SectionInput in) throws IOException {
+      return new CIdeInfo(
+          in.readList(this::readArtifact),
+          in.readList(SectionInput::readString),
+          in.readList(this::readExecutionRootPath),
+          in.readList(this::readExecutionRootPath),
+          in.readList(this::readExecutionRootPath),
+          in.readList(SectionInput::readString),
+          in.readList(this::readExecutionRootPath));
+    }
+
+    private CToolchainIdeInfo readCToolchainIdeInfo(SectionInput in) throws IOException {
+      return new CToolchainIdeInfo(
+          in.readList(SectionInput::readString),
+          in.readList(SectionInput::readString),
+          in.readList(SectionInput::readString),
+          in.readList(SectionInput::readString),
+          in.readList(this::readExecutionRootPath),
+          readNullable(in, this::readExecutionRootPath),
+          readNullable(in, this::readExecutionRootPath),
+          in.readString(),
+          in.readList(SectionInput::readString),
+          in.readList(this::readExecutionRootPath));
+    }
+
+    private JavaIdeInfo readJavaIdeInfo(SectionInput in) throws IOException {
+      return new JavaIdeInfo(
+          in.readList(this::readLibrary),
+          in.readList(this::readLibrary),
+          readNullable(in, this::readLibrary),
+          readNullable(in, this::readArtifact),
+          readNullable(in, this::readArtifact),
+          in.readString());
+    }
+
+    private AndroidIdeInfo readAndroidIdeInfo(SectionInput in) throws IOException {
+      ImmutableList<ArtifactLocation> resources = in.readList(this::readArtifact);
+      String resourceJavaPackage = in.readString();
+      boolean generateResourceClass = in.readBoolean();
+      ArtifactLocation manifest = readNullable(in, this::readArtifact);
+      LibraryArtifact idlJar = readNullable(in, this::readLibrary);
+      LibraryArtifact resourceJar = readNullable(in, this::readLibrary);
+      boolean hasIdlSources = in.readBoolean();
+      String legacyResources = in.readString();
+      return new AndroidIdeInfo(
+          resources,
+          resourceJavaPackage,
+          generateResourceClass,
+          manifest,
+          idlJar,
+          resourceJar,
+          hasIdlSources,
+          legacyResources != null ? Label.create(legacyResources) : null);
+    }
+
+    private ProtoLibraryLegacyInfo readProtoLegacyInfo(SectionInput in) throws IOException {
+      return new ProtoLibraryLegacyInfo(
+          ProtoLibraryLegacyInfo.ApiFlavor.values()[in.readVarInt()],
+          in.readList(this::readLibrary),
+          in.readList(this::readLibrary),
+          in.readList(this::readLibrary));
+    }
+  }
+}
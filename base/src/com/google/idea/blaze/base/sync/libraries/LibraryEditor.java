@@ -60,14 +60,24 @@ public class LibraryEditor {
 
     LibraryTable libraryTable = ProjectLibraryTable.getInstance(project);
     LibraryTable.ModifiableModel libraryTableModel = libraryTable.getModifiableModel();
+    int addedCount = 0;
+    int changedCount = 0;
+    int removedCount = 0;
     try {
       for (BlazeLibrary library : libraries) {
-        updateLibrary(
-            project,
-            blazeProjectData.artifactLocationDecoder,
-            libraryTable,
-            libraryTableModel,
-            library);
+        boolean libraryExists = intelliJLibraryState.contains(library.key);
+        boolean modified =
+            updateLibrary(
+                project,
+                blazeProjectData.artifactLocationDecoder,
+                libraryTable,
+                libraryTableModel,
+                library);
+        if (!libraryExists) {
+          addedCount++;
+        } else if (modified) {
+          changedCount++;
+        }
       }
 
       // Garbage collect unused libraries
@@ -95,6 +105,7 @@ public class LibraryEditor {
           if (!gcRetentionFilter.test(library)) {
             if (library != null) {
               libraryTableModel.removeLibrary(library);
+              removedCount++;
             }
           }
         }
@@ -102,35 +113,56 @@ public class LibraryEditor {
     } finally {
       libraryTableModel.commit();
     }
+    context.output(
+        PrintOutput.log(
+            String.format(
+                "Libraries: %d added, %d changed, %d removed",
+                addedCount, changedCount, removedCount)));
   }
 
-  public static void updateLibrary(
+  /**
+   * Creates the library if it doesn't exist yet, and updates its roots. Libraries which already
+   * have the expected roots aren't modified.
+   *
+   * @return true if the library was created or modified.
+   */
+  public static boolean updateLibrary(
       Project project,
       ArtifactLocationDecoder artifactLocationDecoder,
       LibraryTable libraryTable,
       LibraryTable.ModifiableModel libraryTableModel,
       BlazeLibrary blazeLibrary) {
     String libraryName = blazeLibrary.key.getIntelliJLibraryName();
+    LibraryRoots.Builder rootsBuilder = LibraryRoots.builder();
+    blazeLibrary.addRoots(project, artifactLocationDecoder, rootsBuilder);
+    LibraryRoots roots = rootsBuilder.build();
 
-    Library library = libraryTable.getLibraryByName(libraryName);
-    boolean libraryExists = library != null;
-    if (!libraryExists) {
-      library = libraryTableModel.createLibrary(libraryName);
-    }
-    Library.ModifiableModel libraryModel = library.getModifiableModel();
-    if (libraryExists) {
-      for (String url : libraryModel.getUrls(OrderRootType.CLASSES)) {
-        libraryModel.removeRoot(url, OrderRootType.CLASSES);
-      }
-      for (String url : libraryModel.getUrls(OrderRootType.SOURCES)) {
-        libraryModel.removeRoot(url, OrderRootType.SOURCES);
+    Set<OrderRootType> rootTypes = Sets.newLinkedHashSet(LibraryRoots.ROOT_TYPES);
+    rootTypes.addAll(roots.getRootTypes());
+    Library existingLibrary = libraryTable.getLibraryByName(libraryName);
+    if (existingLibrary != null) {
+      // only root types whose roots differ are updated
+      rootTypes.removeIf(rootType -> roots.matches(existingLibrary, rootType));
+      if (rootTypes.isEmpty()) {
+        return false;
       }
     }
+    Library library =
+        existingLibrary != null ? existingLibrary : libraryTableModel.createLibrary(libraryName);
+    Library.ModifiableModel libraryModel = library.getModifiableModel();
     try {
-      blazeLibrary.modifyLibraryModel(project, artifactLocationDecoder, libraryModel);
+      for (OrderRootType rootType : rootTypes) {
+        for (String url : libraryModel.getUrls(rootType)) {
+          libraryModel.removeRoot(url, rootType);
+        }
+        for (String url : roots.getUrls(rootType)) {
+          libraryModel.addRoot(url, rootType);
+        }
+      }
     } finally {
       libraryModel.commit();
     }
+    return true;
   }
 
   public static void configureDependencies(
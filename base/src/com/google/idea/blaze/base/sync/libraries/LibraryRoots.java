@@ -0,0 +1,71 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.libraries;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.intellij.openapi.roots.OrderRootType;
+import com.intellij.openapi.roots.libraries.Library;
+import java.util.Arrays;
+
+/** The roots an IntelliJ library should have, by root type. */
+public final class LibraryRoots {
+  /**
+   * The root types which are always kept in sync. Roots of other types are only updated if the
+   * blaze library has some.
+   */
+  static final ImmutableSet<OrderRootType> ROOT_TYPES =
+      ImmutableSet.of(OrderRootType.CLASSES, OrderRootType.SOURCES);
+
+  private final ImmutableListMultimap<OrderRootType, String> roots;
+
+  private LibraryRoots(ImmutableListMultimap<OrderRootType, String> roots) {
+    this.roots = roots;
+  }
+
+  ImmutableSet<OrderRootType> getRootTypes() {
+    return roots.keySet();
+  }
+
+  public ImmutableList<String> getUrls(OrderRootType rootType) {
+    return roots.get(rootType);
+  }
+
+  /** Returns true if the existing library has exactly these roots of the given type, in order. */
+  boolean matches(Library library, OrderRootType rootType) {
+    return Arrays.asList(library.getUrls(rootType)).equals(roots.get(rootType));
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /** Builder for library roots */
+  public static class Builder {
+    private final ImmutableListMultimap.Builder<OrderRootType, String> roots =
+        ImmutableListMultimap.builder();
+
+    public Builder addRoot(String url, OrderRootType rootType) {
+      roots.put(rootType, url);
+      return this;
+    }
+
+    public LibraryRoots build() {
+      return new LibraryRoots(roots.build());
+    }
+  }
+}
@@ -15,9 +15,11 @@
  */
 package com.google.idea.blaze.base.sync.projectstructure;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Lists;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.model.primitives.WorkspacePath;
@@ -26,70 +28,121 @@ import com.google.idea.blaze.base.projectview.ProjectViewSet;
 import com.google.idea.blaze.base.settings.Blaze;
 import com.google.idea.blaze.base.sync.SourceFolderProvider;
 import com.google.idea.blaze.base.sync.projectview.ImportRoots;
-import com.google.idea.blaze.base.sync.projectview.SourceTestConfig;
 import com.google.idea.blaze.base.util.UrlUtil;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.roots.ContentEntry;
 import com.intellij.openapi.roots.ModifiableRootModel;
 import com.intellij.openapi.roots.SourceFolder;
 import java.io.File;
 import java.util.Collection;
-import java.util.List;
 import java.util.Map;
+import javax.annotation.Nullable;
 
 /** Modifies content entries based on project data. */
 public class ContentEntryEditor {
+  private static final Logger logger = Logger.getInstance(ContentEntryEditor.class);
 
+  /**
+   * Updates the content entries of the given module. Existing content entries are left as they
+   * are if neither their directory structure nor their source folders have changed since the
+   * previous sync.
+   */
   public static void createContentEntries(
       Project project,
       WorkspaceRoot workspaceRoot,
       ProjectViewSet projectViewSet,
       BlazeProjectData blazeProjectData,
+      @Nullable BlazeProjectData oldBlazeProjectData,
       DirectoryStructure rootDirectoryStructure,
       ModifiableRootModel modifiableRootModel) {
     ImportRoots importRoots =
         ImportRoots.builder(workspaceRoot, Blaze.getBuildSystem(project))
             .add(projectViewSet)
             .build();
+    SourceFolderProvider provider = SourceFolderProvider.getSourceFolderProvider(blazeProjectData);
+    updateContentEntries(
+        workspaceRoot,
+        importRoots,
+        provider,
+        PreviousSync.create(oldBlazeProjectData, provider),
+        rootDirectoryStructure,
+        modifiableRootModel);
+  }
+
+  @VisibleForTesting
+  static void updateContentEntries(
+      WorkspaceRoot workspaceRoot,
+      ImportRoots importRoots,
+      SourceFolderProvider provider,
+      @Nullable PreviousSync previousSync,
+      DirectoryStructure rootDirectoryStructure,
+      ModifiableRootModel modifiableRootModel) {
     Collection<WorkspacePath> rootDirectories = importRoots.rootDirectories();
-    Collection<WorkspacePath> excludeDirectories = importRoots.excludeDirectories();
     Multimap<WorkspacePath, WorkspacePath> excludesByRootDirectory =
-        sortExcludesByRootDirectory(rootDirectories, excludeDirectories);
+        sortExcludesByRootDirectory(importRoots);
 
-    SourceTestConfig testConfig = new SourceTestConfig(projectViewSet);
-    SourceFolderProvider provider = SourceFolderProvider.getSourceFolderProvider(blazeProjectData);
+    Map<String, ContentEntry> existingContentEntries = Maps.newHashMap();
+    for (ContentEntry contentEntry : modifiableRootModel.getContentEntries()) {
+      existingContentEntries.put(contentEntry.getUrl(), contentEntry);
+    }
 
-    List<ContentEntry> contentEntries = Lists.newArrayList();
+    int unchangedCount = 0;
     for (WorkspacePath rootDirectory : rootDirectories) {
       File rootFile = workspaceRoot.fileForPath(rootDirectory);
-      ContentEntry contentEntry =
-          modifiableRootModel.addContentEntry(UrlUtil.pathToUrl(rootFile.getPath()));
-      contentEntries.add(contentEntry);
-
+      String url = UrlUtil.pathToUrl(rootFile.getPath());
+      DirectoryStructure directoryStructure =
+          rootDirectoryStructure.directories.get(rootDirectory);
+      ImmutableSet.Builder<String> excludeUrlsBuilder = ImmutableSet.builder();
       for (WorkspacePath exclude : excludesByRootDirectory.get(rootDirectory)) {
-        File excludeFolder = workspaceRoot.fileForPath(exclude);
-        contentEntry.addExcludeFolder(UrlUtil.fileToIdeaUrl(excludeFolder));
+        excludeUrlsBuilder.add(UrlUtil.fileToIdeaUrl(workspaceRoot.fileForPath(exclude)));
+      }
+      ImmutableSet<String> excludeUrls = excludeUrlsBuilder.build();
+
+      ContentEntry existingContentEntry = existingContentEntries.remove(url);
+      if (existingContentEntry != null) {
+        if (previousSync != null
+            && previousSync.isUnchanged(rootDirectory, rootFile, directoryStructure)
+            && excludeUrls.equals(
+                ImmutableSet.copyOf(existingContentEntry.getExcludeFolderUrls()))) {
+          unchangedCount++;
+          continue;
+        }
+        modifiableRootModel.removeContentEntry(existingContentEntry);
+      }
+
+      ContentEntry contentEntry = modifiableRootModel.addContentEntry(url);
+      for (String excludeUrl : excludeUrls) {
+        contentEntry.addExcludeFolder(excludeUrl);
       }
 
       ImmutableMap<File, SourceFolder> sourceFolders =
           provider.initializeSourceFolders(contentEntry);
       SourceFolder rootSource = sourceFolders.get(rootFile);
+      if (directoryStructure == null) {
+        continue;
+      }
       walkFileSystem(
           workspaceRoot,
-          testConfig,
           excludesByRootDirectory.get(rootDirectory),
           contentEntry,
           provider,
           sourceFolders,
           rootSource,
           rootDirectory,
-          rootDirectoryStructure.directories.get(rootDirectory));
+          directoryStructure);
+    }
+    for (ContentEntry staleContentEntry : existingContentEntries.values()) {
+      modifiableRootModel.removeContentEntry(staleContentEntry);
     }
+    logger.info(
+        String.format(
+            "Content entries: %d unchanged, %d updated",
+            unchangedCount, rootDirectories.size() - unchangedCount));
   }
 
   private static void walkFileSystem(
       WorkspaceRoot workspaceRoot,
-      SourceTestConfig testConfig,
       Collection<WorkspacePath> excludedDirectories,
       ContentEntry contentEntry,
       SourceFolderProvider provider,
@@ -101,7 +154,7 @@ public class ContentEntryEditor {
       return;
     }
     File file = workspaceRoot.fileForPath(workspacePath);
-    boolean isTest = testConfig.isTestSource(workspacePath.relativePath());
+    boolean isTest = directoryStructure.isTestSource;
     SourceFolder current = sourceFolders.get(new File(file.getPath()));
     SourceFolder currentOrParent = current != null ? current : parent;
     if (isTest != currentOrParent.isTestSource()) {
@@ -115,7 +168,6 @@ public class ContentEntryEditor {
         directoryStructure.directories.entrySet()) {
       walkFileSystem(
           workspaceRoot,
-          testConfig,
           excludedDirectories,
           contentEntry,
           provider,
@@ -126,31 +178,68 @@ public class ContentEntryEditor {
     }
   }
 
-  private static Multimap<WorkspacePath, WorkspacePath> sortExcludesByRootDirectory(
-      Collection<WorkspacePath> rootDirectories, Collection<WorkspacePath> excludedDirectories) {
+  /** The inputs to the content entries created by the previous sync. */
+  @VisibleForTesting
+  static class PreviousSync {
+    final DirectoryStructure directoryStructure;
+    final SourceFolderProvider provider;
+    final SourceFolderProvider previousProvider;
+
+    @VisibleForTesting
+    PreviousSync(
+        DirectoryStructure directoryStructure,
+        SourceFolderProvider provider,
+        SourceFolderProvider previousProvider) {
+      this.directoryStructure = directoryStructure;
+      this.provider = provider;
+      this.previousProvider = previousProvider;
+    }
+
+    @Nullable
+    static PreviousSync create(
+        @Nullable BlazeProjectData oldBlazeProjectData, SourceFolderProvider provider) {
+      if (oldBlazeProjectData == null) {
+        return null;
+      }
+      DirectoryStructure directoryStructure =
+          oldBlazeProjectData.syncState.get(DirectoryStructure.class);
+      if (directoryStructure == null) {
+        return null;
+      }
+      SourceFolderProvider previousProvider =
+          SourceFolderProvider.getSourceFolderProvider(oldBlazeProjectData);
+      if (previousProvider.getClass() != provider.getClass()) {
+        return null;
+      }
+      return new PreviousSync(directoryStructure, provider, previousProvider);
+    }
 
+    /**
+     * The directory structure is shared with the previous sync wherever it's unchanged, so it's
+     * enough to compare subtrees by identity.
+     */
+    boolean isUnchanged(
+        WorkspacePath rootDirectory,
+        File rootFile,
+        @Nullable DirectoryStructure rootDirectoryStructure) {
+      if (rootDirectoryStructure == null
+          || rootDirectoryStructure != directoryStructure.directories.get(rootDirectory)) {
+        return false;
+      }
+      Object inputs = provider.getSourceFolderInputs(rootFile);
+      return inputs != null && inputs.equals(previousProvider.getSourceFolderInputs(rootFile));
+    }
+  }
+
+  private static Multimap<WorkspacePath, WorkspacePath> sortExcludesByRootDirectory(
+      ImportRoots importRoots) {
     Multimap<WorkspacePath, WorkspacePath> result = ArrayListMultimap.create();
-    for (WorkspacePath exclude : excludedDirectories) {
-      WorkspacePath foundWorkspacePath =
-          rootDirectories
-              .stream()
-              .filter(rootDirectory -> isUnderRootDirectory(rootDirectory, exclude.relativePath()))
-              .findFirst()
-              .orElse(null);
+    for (WorkspacePath exclude : importRoots.excludeDirectories()) {
+      WorkspacePath foundWorkspacePath = importRoots.findRootDirectory(exclude);
       if (foundWorkspacePath != null) {
         result.put(foundWorkspacePath, exclude);
       }
     }
     return result;
   }
-
-  private static boolean isUnderRootDirectory(WorkspacePath rootDirectory, String relativePath) {
-    if (rootDirectory.isWorkspaceRoot()) {
-      return true;
-    }
-    String rootDirectoryString = rootDirectory.toString();
-    return relativePath.startsWith(rootDirectoryString)
-        && (relativePath.length() == rootDirectoryString.length()
-            || (relativePath.charAt(rootDirectoryString.length()) == '/'));
-  }
 }
@@ -15,7 +15,9 @@
  */
 package com.google.idea.blaze.base.sync.projectstructure;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.idea.blaze.base.io.FileAttributeProvider;
 import com.google.idea.blaze.base.model.primitives.WorkspacePath;
@@ -24,66 +26,198 @@ import com.google.idea.blaze.base.prefetch.FetchExecutor;
 import com.google.idea.blaze.base.projectview.ProjectViewSet;
 import com.google.idea.blaze.base.settings.Blaze;
 import com.google.idea.blaze.base.sync.projectview.ImportRoots;
+import com.google.idea.blaze.base.sync.projectview.SourceTestConfig;
 import com.intellij.openapi.project.Project;
 import java.io.File;
+import java.io.Serializable;
 import java.util.Collection;
+import java.util.Map;
+import javax.annotation.Nullable;
 
 /**
  * Directory structure representation used by {@link ContentEntryEditor}.
  *
  * <p>The purpose of this class is to pull out all file system operations out of the project
  * structure commit step, as this step locks the UI.
+ *
+ * <p>The structure is kept in the sync state, and each sync only re-lists directories whose
+ * modification time has changed since they were last listed. Subtrees which haven't changed at all
+ * are shared with the previous structure, so {@link ContentEntryEditor} can tell which content
+ * entries are unaffected by comparing them by identity.
  */
-public class DirectoryStructure {
+public final class DirectoryStructure implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Directories modified this recently before they're listed are listed again on the next sync, as
+   * later modifications may not change their timestamp.
+   */
+  @VisibleForTesting static final long RACY_MODIFICATION_WINDOW_MILLIS = 2000;
 
   final ImmutableMap<WorkspacePath, DirectoryStructure> directories;
+  final boolean isTestSource;
+  // 0 if the directory has to be listed again on the next sync.
+  private final long modifiedTime;
+  // The directories left out of the structure. Only set on the root structure.
+  private final ImmutableSet<WorkspacePath> excludedDirectories;
+
+  private DirectoryStructure(
+      ImmutableMap<WorkspacePath, DirectoryStructure> directories,
+      boolean isTestSource,
+      long modifiedTime) {
+    this(directories, isTestSource, modifiedTime, ImmutableSet.of());
+  }
 
-  private DirectoryStructure(ImmutableMap<WorkspacePath, DirectoryStructure> directories) {
+  private DirectoryStructure(
+      ImmutableMap<WorkspacePath, DirectoryStructure> directories,
+      boolean isTestSource,
+      long modifiedTime,
+      ImmutableSet<WorkspacePath> excludedDirectories) {
     this.directories = directories;
+    this.isTestSource = isTestSource;
+    this.modifiedTime = modifiedTime;
+    this.excludedDirectories = excludedDirectories;
   }
 
   public static ListenableFuture<DirectoryStructure> getRootDirectoryStructure(
-      Project project, WorkspaceRoot workspaceRoot, ProjectViewSet projectViewSet) {
+      Project project,
+      WorkspaceRoot workspaceRoot,
+      ProjectViewSet projectViewSet,
+      @Nullable DirectoryStructure previousStructure) {
     return FetchExecutor.EXECUTOR.submit(
-        () -> computeRootDirectoryStructure(project, workspaceRoot, projectViewSet));
+        () ->
+            computeRootDirectoryStructure(
+                project, workspaceRoot, projectViewSet, previousStructure));
   }
 
   private static DirectoryStructure computeRootDirectoryStructure(
-      Project project, WorkspaceRoot workspaceRoot, ProjectViewSet projectViewSet) {
+      Project project,
+      WorkspaceRoot workspaceRoot,
+      ProjectViewSet projectViewSet,
+      @Nullable DirectoryStructure previousStructure) {
     ImportRoots importRoots =
         ImportRoots.builder(workspaceRoot, Blaze.getBuildSystem(project))
             .add(projectViewSet)
             .build();
+    return computeRootDirectoryStructure(
+        workspaceRoot,
+        importRoots,
+        new SourceTestConfig(projectViewSet),
+        System.currentTimeMillis(),
+        previousStructure);
+  }
+
+  @VisibleForTesting
+  static DirectoryStructure computeRootDirectoryStructure(
+      WorkspaceRoot workspaceRoot,
+      ImportRoots importRoots,
+      SourceTestConfig testConfig,
+      long currentTimeMillis,
+      @Nullable DirectoryStructure previousStructure) {
     Collection<WorkspacePath> rootDirectories = importRoots.rootDirectories();
+    ImmutableSet<WorkspacePath> excludedDirectories =
+        ImmutableSet.copyOf(importRoots.excludeDirectories());
+    if (previousStructure != null
+        && !previousStructure.excludedDirectories.equals(excludedDirectories)) {
+      // previously excluded directories are missing from the structure, so re-list everything
+      previousStructure = null;
+    }
+    Walker walker =
+        new Walker(
+            workspaceRoot,
+            excludedDirectories,
+            testConfig,
+            currentTimeMillis - RACY_MODIFICATION_WINDOW_MILLIS);
     ImmutableMap.Builder<WorkspacePath, DirectoryStructure> result = ImmutableMap.builder();
     for (WorkspacePath rootDirectory : rootDirectories) {
-      walkDirectoryStructure(workspaceRoot, result, rootDirectory);
+      DirectoryStructure previous =
+          previousStructure != null ? previousStructure.directories.get(rootDirectory) : null;
+      DirectoryStructure directoryStructure = walker.walk(rootDirectory, previous);
+      if (directoryStructure != null) {
+        result.put(rootDirectory, directoryStructure);
+      }
     }
-    return new DirectoryStructure(result.build());
+    return new DirectoryStructure(result.build(), false, 0, excludedDirectories);
   }
 
-  private static void walkDirectoryStructure(
-      WorkspaceRoot workspaceRoot,
-      ImmutableMap.Builder<WorkspacePath, DirectoryStructure> parent,
-      WorkspacePath workspacePath) {
-    File file = workspaceRoot.fileForPath(workspacePath);
-    if (!FileAttributeProvider.getInstance().isDirectory(file)) {
-      return;
+  private static class Walker {
+    final WorkspaceRoot workspaceRoot;
+    final ImmutableSet<WorkspacePath> excludedDirectories;
+    final SourceTestConfig testConfig;
+    final long racyModificationTime;
+    final FileAttributeProvider fileAttributeProvider = FileAttributeProvider.getInstance();
+
+    Walker(
+        WorkspaceRoot workspaceRoot,
+        ImmutableSet<WorkspacePath> excludedDirectories,
+        SourceTestConfig testConfig,
+        long racyModificationTime) {
+      this.workspaceRoot = workspaceRoot;
+      this.excludedDirectories = excludedDirectories;
+      this.testConfig = testConfig;
+      this.racyModificationTime = racyModificationTime;
     }
-    ImmutableMap.Builder<WorkspacePath, DirectoryStructure> result = ImmutableMap.builder();
-    File[] children = FileAttributeProvider.getInstance().listFiles(file);
-    if (children != null) {
-      for (File child : children) {
-        WorkspacePath childWorkspacePath;
-        try {
-          childWorkspacePath = workspaceRoot.workspacePathFor(child);
-        } catch (IllegalArgumentException e) {
-          // stop at directories with unhandled characters.
-          continue;
+
+    /**
+     * Returns the structure of the given directory, or null if it's excluded or isn't a directory.
+     * Returns the previous structure itself if nothing in the subtree has changed.
+     */
+    @Nullable
+    DirectoryStructure walk(WorkspacePath workspacePath, @Nullable DirectoryStructure previous) {
+      if (excludedDirectories.contains(workspacePath)) {
+        return null;
+      }
+      File file = workspaceRoot.fileForPath(workspacePath);
+      boolean isTestSource = testConfig.isTestSource(workspacePath.relativePath());
+      long modifiedTime = fileAttributeProvider.getFileModifiedTime(file);
+      if (previous != null
+          && modifiedTime != 0
+          && modifiedTime == previous.modifiedTime
+          && isTestSource == previous.isTestSource) {
+        // the directory's entries are unchanged, so only its subdirectories need to be checked
+        return walkSubdirectories(previous, modifiedTime, isTestSource);
+      }
+      if (!fileAttributeProvider.isDirectory(file)) {
+        return null;
+      }
+      ImmutableMap.Builder<WorkspacePath, DirectoryStructure> result = ImmutableMap.builder();
+      File[] children = fileAttributeProvider.listFiles(file);
+      if (children != null) {
+        for (File child : children) {
+          WorkspacePath childWorkspacePath;
+          try {
+            childWorkspacePath = workspaceRoot.workspacePathFor(child);
+          } catch (IllegalArgumentException e) {
+            // stop at directories with unhandled characters.
+            continue;
+          }
+          DirectoryStructure childStructure =
+              walk(
+                  childWorkspacePath,
+                  previous != null ? previous.directories.get(childWorkspacePath) : null);
+          if (childStructure != null) {
+            result.put(childWorkspacePath, childStructure);
+          }
+        }
+      }
+      return new DirectoryStructure(
+          result.build(), isTestSource, modifiedTime < racyModificationTime ? modifiedTime : 0);
+    }
+
+    private DirectoryStructure walkSubdirectories(
+        DirectoryStructure previous, long modifiedTime, boolean isTestSource) {
+      boolean changed = false;
+      ImmutableMap.Builder<WorkspacePath, DirectoryStructure> result = ImmutableMap.builder();
+      for (Map.Entry<WorkspacePath, DirectoryStructure> entry : previous.directories.entrySet()) {
+        DirectoryStructure childStructure = walk(entry.getKey(), entry.getValue());
+        if (childStructure != null) {
+          result.put(entry.getKey(), childStructure);
         }
-        walkDirectoryStructure(workspaceRoot, result, childWorkspacePath);
+        changed |= childStructure != entry.getValue();
       }
+      return changed
+          ? new DirectoryStructure(result.build(), isTestSource, modifiedTime)
+          : previous;
     }
-    parent.put(workspacePath, new DirectoryStructure(result.build()));
   }
 }
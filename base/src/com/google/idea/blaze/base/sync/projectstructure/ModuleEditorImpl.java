@@ -35,6 +35,8 @@ import com.intellij.openapi.project.Project;
 import com.intellij.openapi.roots.CompilerModuleExtension;
 import com.intellij.openapi.roots.ModifiableRootModel;
 import com.intellij.openapi.roots.ModuleRootManager;
+import com.intellij.openapi.roots.ModuleSourceOrderEntry;
+import com.intellij.openapi.roots.OrderEntry;
 import com.intellij.openapi.roots.impl.ModifiableModelCommitter;
 import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
@@ -69,6 +71,19 @@ public class ModuleEditorImpl implements BlazeSyncPlugin.ModuleEditor {
 
   @Override
   public Module createModule(String moduleName, ModuleType moduleType) {
+    return createModule(moduleName, moduleType, false);
+  }
+
+  /**
+   * Creates a module as {@link #createModule(String, ModuleType)} does, but leaves the module's
+   * existing content entries in place. The caller is responsible for updating them.
+   */
+  public Module createModuleRetainingContentEntries(String moduleName, ModuleType moduleType) {
+    return createModule(moduleName, moduleType, true);
+  }
+
+  private Module createModule(
+      String moduleName, ModuleType moduleType, boolean retainContentEntries) {
     Module module = moduleModel.findModuleByName(moduleName);
     if (module == null) {
       File imlFile = new File(imlDirectory, moduleName + ModuleFileType.DOT_DEFAULT_EXTENSION);
@@ -81,7 +96,11 @@ public class ModuleEditorImpl implements BlazeSyncPlugin.ModuleEditor {
     ModifiableRootModel modifiableModel =
         ModuleRootManager.getInstance(module).getModifiableModel();
     modules.put(module.getName(), modifiableModel);
-    modifiableModel.clear();
+    if (retainContentEntries) {
+      removeOrderEntries(modifiableModel);
+    } else {
+      modifiableModel.clear();
+    }
     modifiableModel.inheritSdk();
     CompilerModuleExtension compilerSettings =
         modifiableModel.getModuleExtension(CompilerModuleExtension.class);
@@ -92,6 +111,19 @@ public class ModuleEditorImpl implements BlazeSyncPlugin.ModuleEditor {
     return module;
   }
 
+  /**
+   * Removes everything but the module source from the module's dependencies, leaving its content
+   * entries in place.
+   */
+  @VisibleForTesting
+  static void removeOrderEntries(ModifiableRootModel modifiableModel) {
+    for (OrderEntry orderEntry : modifiableModel.getOrderEntries()) {
+      if (!(orderEntry instanceof ModuleSourceOrderEntry)) {
+        modifiableModel.removeOrderEntry(orderEntry);
+      }
+    }
+  }
+
   @Override
   public ModifiableRootModel editModule(Module module) {
     return modules.get(module.getName());
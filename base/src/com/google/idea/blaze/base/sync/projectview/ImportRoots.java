@@ -29,10 +29,9 @@ import com.google.idea.blaze.base.projectview.section.sections.DirectoryEntry;
 import com.google.idea.blaze.base.projectview.section.sections.DirectorySection;
 import com.google.idea.blaze.base.settings.Blaze;
 import com.google.idea.blaze.base.settings.Blaze.BuildSystem;
+import com.google.idea.blaze.base.util.WorkspacePathTrie;
 import com.google.idea.blaze.base.util.WorkspacePathUtil;
 import com.intellij.openapi.project.Project;
-import java.nio.file.FileSystems;
-import java.nio.file.Path;
 import java.util.Collection;
 import java.util.Set;
 import javax.annotation.Nullable;
@@ -115,6 +114,8 @@ public final class ImportRoots {
 
   private final ImmutableCollection<WorkspacePath> rootDirectories;
   private final ImmutableSet<WorkspacePath> excludeDirectories;
+  private final WorkspacePathTrie rootDirectoryTrie;
+  private final WorkspacePathTrie excludeDirectoryTrie;
 
   public static Builder builder(WorkspaceRoot workspaceRoot, BuildSystem buildSystem) {
     return new Builder(workspaceRoot, buildSystem);
@@ -125,6 +126,8 @@ public final class ImportRoots {
       ImmutableSet<WorkspacePath> excludeDirectories) {
     this.rootDirectories = rootDirectories;
     this.excludeDirectories = excludeDirectories;
+    this.rootDirectoryTrie = new WorkspacePathTrie(rootDirectories);
+    this.excludeDirectoryTrie = new WorkspacePathTrie(excludeDirectories);
   }
 
   public Collection<WorkspacePath> rootDirectories() {
@@ -145,23 +148,16 @@ public final class ImportRoots {
   }
 
   public boolean containsWorkspacePath(WorkspacePath workspacePath) {
-    boolean included = false;
-    boolean excluded = false;
-    for (WorkspacePath rootDirectory : rootDirectories()) {
-      included = included || isSubdirectory(rootDirectory, workspacePath);
-    }
-    for (WorkspacePath excludeDirectory : excludeDirectories()) {
-      excluded = excluded || isSubdirectory(excludeDirectory, workspacePath);
-    }
-    return included && !excluded;
+    return rootDirectoryTrie.containsAncestor(workspacePath)
+        && !excludeDirectoryTrie.containsAncestor(workspacePath);
   }
 
-  private static boolean isSubdirectory(WorkspacePath ancestor, WorkspacePath descendant) {
-    if (ancestor.isWorkspaceRoot()) {
-      return true;
-    }
-    Path ancestorPath = FileSystems.getDefault().getPath(ancestor.relativePath());
-    Path descendantPath = FileSystems.getDefault().getPath(descendant.relativePath());
-    return descendantPath.startsWith(ancestorPath);
+  /**
+   * Returns the root directory containing the given path, or null if it's outside all root
+   * directories. Excluded directories aren't taken into account.
+   */
+  @Nullable
+  public WorkspacePath findRootDirectory(WorkspacePath workspacePath) {
+    return rootDirectoryTrie.findAncestor(workspacePath);
   }
 }
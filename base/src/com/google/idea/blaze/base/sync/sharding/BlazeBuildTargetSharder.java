@@ -20,6 +20,7 @@ import com.google.idea.blaze.base.model.primitives.TargetExpression;
 import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
 import com.google.idea.blaze.base.projectview.ProjectViewManager;
 import com.google.idea.blaze.base.projectview.ProjectViewSet;
+import com.google.idea.blaze.base.projectview.section.sections.ConcurrentSyncShardsSection;
 import com.google.idea.blaze.base.projectview.section.sections.ShardBlazeBuildsSection;
 import com.google.idea.blaze.base.scope.BlazeContext;
 import com.google.idea.blaze.base.sync.aspects.BuildResult;
@@ -32,6 +33,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.stream.Collectors;
+import javax.annotation.Nullable;
 
 /** Utility methods for sharding blaze build invocations. */
 public class BlazeBuildTargetSharder {
@@ -45,6 +47,9 @@ public class BlazeBuildTargetSharder {
   // number of individual targets per blaze build shard
   private static final int TARGET_SHARD_SIZE = 1000;
 
+  // when balancing shards by measured cost, the maximum shard size relative to TARGET_SHARD_SIZE
+  private static final int MAX_BALANCED_SHARD_SIZE_FACTOR = 2;
+
   /** Result of expanding then sharding wildcard target patterns */
   public static class ShardedTargetsResult {
     public final ShardedTargetList shardedTargets;
@@ -72,14 +77,30 @@ public class BlazeBuildTargetSharder {
     return projectViewSet.getScalarValue(ShardBlazeBuildsSection.KEY, false);
   }
 
-  /** Expand wildcard target patterns and partition the resulting target list. */
+  /**
+   * Returns the number of shards to build concurrently, each against its own output base. Always 1
+   * if sharding isn't enabled.
+   */
+  public static int getConcurrentShardCount(ProjectViewSet projectViewSet) {
+    if (!shardingEnabled(projectViewSet)) {
+      return 1;
+    }
+    return Math.max(1, projectViewSet.getScalarValue(ConcurrentSyncShardsSection.KEY, 1));
+  }
+
+  /**
+   * Expand wildcard target patterns and partition the resulting target list.
+   *
+   * @param statistics the shard costs measured during previous syncs, used to balance the shards
+   */
   public static ShardedTargetsResult expandAndShardTargets(
       Project project,
       BlazeContext context,
       WorkspaceRoot workspaceRoot,
       ProjectViewSet projectViewSet,
       WorkspacePathResolver pathResolver,
-      List<TargetExpression> targets) {
+      List<TargetExpression> targets,
+      @Nullable ShardStatistics statistics) {
     if (!shardingEnabled(projectViewSet)) {
       return new ShardedTargetsResult(
           new ShardedTargetList(ImmutableList.of(targets)), BuildResult.SUCCESS);
@@ -98,7 +119,7 @@ public class BlazeBuildTargetSharder {
           new ShardedTargetList(ImmutableList.of()), expandedTargets.buildResult);
     }
     return new ShardedTargetsResult(
-        shardTargets(expandedTargets.singleTargets, TARGET_SHARD_SIZE),
+        shardTargets(expandedTargets.singleTargets, TARGET_SHARD_SIZE, statistics),
         expandedTargets.buildResult);
   }
 
@@ -149,19 +170,103 @@ public class BlazeBuildTargetSharder {
     List<List<TargetExpression>> output = new ArrayList<>();
     for (int index = 0; index < targets.size(); index += shardSize) {
       int endIndex = Math.min(targets.size(), index + shardSize);
-      List<TargetExpression> shard = new ArrayList<>(targets.subList(index, endIndex));
-      List<TargetExpression> remainingExcludes =
-          targets
-              .subList(endIndex, targets.size())
-              .stream()
-              .filter(TargetExpression::isExcluded)
-              .collect(Collectors.toList());
-      shard.addAll(remainingExcludes);
-      output.add(shard);
+      output.add(getShard(targets, index, endIndex));
     }
     return new ShardedTargetList(output);
   }
 
+  /**
+   * Partition targets list into shards of similar estimated cost, based on the costs measured
+   * during previous syncs. Targets in expensive packages are spread over more shards, and those in
+   * cheap packages grouped together. Falls back to fixed-size shards if nothing was measured.
+   */
+  static ShardedTargetList shardTargets(
+      List<TargetExpression> targets, int shardSize, @Nullable ShardStatistics statistics) {
+    if (statistics == null || statistics.isEmpty()) {
+      return shardTargets(targets, shardSize);
+    }
+    double[] millis = new double[targets.size()];
+    double[] bytes = new double[targets.size()];
+    double totalMillis = 0;
+    double totalBytes = 0;
+    int includedCount = 0;
+    for (int i = 0; i < targets.size(); i++) {
+      TargetExpression target = targets.get(i);
+      if (target.isExcluded()) {
+        continue;
+      }
+      millis[i] = statistics.estimateMillis(target);
+      bytes[i] = statistics.estimateBytes(target);
+      totalMillis += millis[i];
+      totalBytes += bytes[i];
+      includedCount++;
+    }
+    int maxShardSize = shardSize * MAX_BALANCED_SHARD_SIZE_FACTOR;
+    if (statistics.getMaxShardTargets() > 0) {
+      maxShardSize = Math.min(maxShardSize, statistics.getMaxShardTargets());
+    }
+    long maxShardBytes = statistics.getMaxShardBytes();
+    int shardCount = divideRoundingUp(includedCount, shardSize);
+    shardCount = Math.max(shardCount, divideRoundingUp(includedCount, maxShardSize));
+    if (maxShardBytes > 0) {
+      shardCount = Math.max(shardCount, (int) Math.ceil(totalBytes / maxShardBytes));
+    }
+    if (shardCount <= 1) {
+      return new ShardedTargetList(ImmutableList.of(targets));
+    }
+
+    // close each shard once the cumulative cost reaches its share of the total, so rounding errors
+    // don't accumulate in the last shard
+    double millisPerShard = totalMillis / shardCount;
+    List<List<TargetExpression>> output = new ArrayList<>();
+    int shardStart = 0;
+    int shardTargetCount = 0;
+    double shardBytes = 0;
+    double cumulativeMillis = 0;
+    for (int i = 0; i < targets.size(); i++) {
+      if (targets.get(i).isExcluded()) {
+        continue;
+      }
+      boolean full =
+          shardTargetCount > 0
+              && (shardTargetCount >= maxShardSize
+                  || (maxShardBytes > 0 && shardBytes + bytes[i] > maxShardBytes)
+                  || cumulativeMillis >= millisPerShard * (output.size() + 1));
+      if (full) {
+        output.add(getShard(targets, shardStart, i));
+        shardStart = i;
+        shardTargetCount = 0;
+        shardBytes = 0;
+      }
+      shardTargetCount++;
+      shardBytes += bytes[i];
+      cumulativeMillis += millis[i];
+    }
+    output.add(getShard(targets, shardStart, targets.size()));
+    return new ShardedTargetList(output);
+  }
+
+  /**
+   * Returns the targets in the given range. Because order is important with respect to excluded
+   * targets, all subsequent excluded targets are appended to it.
+   */
+  private static List<TargetExpression> getShard(
+      List<TargetExpression> targets, int startIndex, int endIndex) {
+    List<TargetExpression> shard = new ArrayList<>(targets.subList(startIndex, endIndex));
+    List<TargetExpression> remainingExcludes =
+        targets
+            .subList(endIndex, targets.size())
+            .stream()
+            .filter(TargetExpression::isExcluded)
+            .collect(Collectors.toList());
+    shard.addAll(remainingExcludes);
+    return shard;
+  }
+
+  private static int divideRoundingUp(int dividend, int divisor) {
+    return (dividend + divisor - 1) / divisor;
+  }
+
   /** Returns the wildcard target patterns, ignoring exclude patterns (those starting with '-') */
   private static List<WildcardTargetPattern> getWildcardPatterns(List<TargetExpression> targets) {
     return targets
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.sharding;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.projectview.ProjectViewSet;
+import com.google.idea.blaze.base.settings.BlazeImportSettings;
+import com.google.idea.blaze.base.settings.BlazeImportSettingsManager;
+import com.google.idea.blaze.base.sync.data.BlazeDataStorage;
+import com.intellij.openapi.project.Project;
+import java.io.File;
+
+/**
+ * The additional output bases used to build sync shards concurrently. Each concurrent build runs
+ * against its own blaze server, so needs its own output base.
+ */
+public final class ShardOutputBases {
+  private static final String OUTPUT_BASES_DIRECTORY = "shard_output_bases";
+
+  private ShardOutputBases() {}
+
+  /**
+   * Returns the output bases used in addition to the default one, or an empty list if shards aren't
+   * built concurrently.
+   */
+  public static ImmutableList<File> getAdditionalOutputBases(
+      Project project, ProjectViewSet projectViewSet) {
+    int concurrentShards = BlazeBuildTargetSharder.getConcurrentShardCount(projectViewSet);
+    if (concurrentShards <= 1) {
+      return ImmutableList.of();
+    }
+    BlazeImportSettings importSettings =
+        BlazeImportSettingsManager.getInstance(project).getImportSettings();
+    if (importSettings == null) {
+      return ImmutableList.of();
+    }
+    File directory =
+        new File(BlazeDataStorage.getProjectDataDir(importSettings), OUTPUT_BASES_DIRECTORY);
+    ImmutableList.Builder<File> outputBases = ImmutableList.builder();
+    for (int i = 1; i < concurrentShards; i++) {
+      outputBases.add(new File(directory, Integer.toString(i)));
+    }
+    return outputBases.build();
+  }
+
+  /**
+   * Returns the execution root within the given output base, for a workspace whose default
+   * execution root is given.
+   */
+  public static File getExecutionRoot(File outputBase, File defaultExecutionRoot) {
+    return new File(new File(outputBase, "execroot"), defaultExecutionRoot.getName());
+  }
+
+  /** The startup flag selecting the given output base. */
+  public static String outputBaseFlag(File outputBase) {
+    return "--output_base=" + outputBase.getPath();
+  }
+}
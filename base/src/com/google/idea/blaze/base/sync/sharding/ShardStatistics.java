@@ -0,0 +1,316 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.sharding;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.model.SyncState;
+import com.google.idea.blaze.base.model.primitives.TargetExpression;
+import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
+import com.intellij.openapi.project.Project;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Build costs measured for each package during previous syncs, used to partition the targets of
+ * the next sync into shards of similar cost.
+ *
+ * <p>Costs are attributed evenly to the targets of each shard, so repeated syncs with different
+ * shard boundaries gradually separate expensive packages from cheap ones.
+ *
+ * <p>Shard size limits derived from out-of-memory failures are gradually relaxed again by syncs
+ * which don't run out of memory, so a one-off failure doesn't shrink shards forever.
+ */
+public final class ShardStatistics implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  // the weight given to the latest measurement of a package, relative to its previous estimate
+  private static final double NEW_MEASUREMENT_WEIGHT = 0.5;
+
+  // how much smaller than a shard which ran out of memory future shards should be
+  private static final double OUT_OF_MEMORY_SCALE_FACTOR = 0.75;
+
+  // how much the shard size limits grow after each sync in which no shard ran out of memory
+  private static final double LIMIT_RELAXATION_FACTOR = 1.1;
+
+  private final ImmutableMap<String, PackageCost> packageCosts;
+  private final PackageCost defaultCost;
+  private final long maxShardBytes;
+  private final int maxShardTargets;
+
+  private ShardStatistics(
+      ImmutableMap<String, PackageCost> packageCosts, long maxShardBytes, int maxShardTargets) {
+    this.packageCosts = packageCosts;
+    this.defaultCost = averageCost(packageCosts.values());
+    this.maxShardBytes = maxShardBytes;
+    this.maxShardTargets = maxShardTargets;
+  }
+
+  /**
+   * Returns the statistics recorded by the previous sync. Unlike the rest of the sync state, these
+   * are retained across full syncs: they describe the cost of building targets, not the state of
+   * the project.
+   */
+  @Nullable
+  public static ShardStatistics getPrevious(
+      Project project, @Nullable SyncState previousSyncState) {
+    SyncState syncState = previousSyncState;
+    if (syncState == null) {
+      BlazeProjectData projectData =
+          BlazeProjectDataManager.getInstance(project).getBlazeProjectData();
+      syncState = projectData != null ? projectData.syncState : null;
+    }
+    return syncState != null ? syncState.get(ShardStatistics.class) : null;
+  }
+
+  /** Returns true if there's no measured cost or limit to take into account. */
+  public boolean isEmpty() {
+    return packageCosts.isEmpty() && maxShardBytes == 0 && maxShardTargets == 0;
+  }
+
+  /** The estimated blaze wall time, in milliseconds, taken to build the given target. */
+  double estimateMillis(TargetExpression target) {
+    return getCost(target).millisPerTarget;
+  }
+
+  /** The estimated size, in bytes, of the aspect output for the given target. */
+  double estimateBytes(TargetExpression target) {
+    return getCost(target).bytesPerTarget;
+  }
+
+  /**
+   * The estimated aspect output size above which shards have previously run out of memory, or 0 if
+   * there's no such limit.
+   */
+  long getMaxShardBytes() {
+    return maxShardBytes;
+  }
+
+  /**
+   * The number of targets above which shards have previously run out of memory, or 0 if there's no
+   * such limit.
+   */
+  int getMaxShardTargets() {
+    return maxShardTargets;
+  }
+
+  /**
+   * Returns a copy without the costs of packages which no longer contain any target in the given
+   * target map.
+   */
+  public ShardStatistics retainPackagesIn(TargetMap targetMap) {
+    Set<String> packages = Sets.newHashSet();
+    for (TargetKey key : targetMap.map().keySet()) {
+      packages.add(packageOf(key.label));
+    }
+    if (packages.containsAll(packageCosts.keySet())) {
+      return this;
+    }
+    ImmutableMap.Builder<String, PackageCost> retained = ImmutableMap.builder();
+    for (Map.Entry<String, PackageCost> entry : packageCosts.entrySet()) {
+      if (packages.contains(entry.getKey())) {
+        retained.put(entry);
+      }
+    }
+    return new ShardStatistics(retained.build(), maxShardBytes, maxShardTargets);
+  }
+
+  private PackageCost getCost(TargetExpression target) {
+    PackageCost cost = packageCosts.get(packageOf(target));
+    return cost != null ? cost : defaultCost;
+  }
+
+  /** The blaze package of a single target, or the expression itself for other target patterns. */
+  static String packageOf(TargetExpression target) {
+    String expression = target.toString();
+    int colonIndex = expression.indexOf(':');
+    return colonIndex >= 0 ? expression.substring(0, colonIndex) : expression;
+  }
+
+  private static PackageCost averageCost(Iterable<PackageCost> costs) {
+    double millis = 0;
+    double bytes = 0;
+    int count = 0;
+    for (PackageCost cost : costs) {
+      millis += cost.millisPerTarget;
+      bytes += cost.bytesPerTarget;
+      count++;
+    }
+    return count == 0 ? new PackageCost(1, 0) : new PackageCost(millis / count, bytes / count);
+  }
+
+  /** The average cost of building a single target in a given package. */
+  private static final class PackageCost implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final double millisPerTarget;
+    final double bytesPerTarget;
+
+    PackageCost(double millisPerTarget, double bytesPerTarget) {
+      this.millisPerTarget = millisPerTarget;
+      this.bytesPerTarget = bytesPerTarget;
+    }
+
+    PackageCost mergeWith(@Nullable PackageCost previous) {
+      if (previous == null) {
+        return this;
+      }
+      return new PackageCost(
+          weightedAverage(millisPerTarget, previous.millisPerTarget),
+          weightedAverage(bytesPerTarget, previous.bytesPerTarget));
+    }
+
+    private static double weightedAverage(double latest, double previous) {
+      return NEW_MEASUREMENT_WEIGHT * latest + (1 - NEW_MEASUREMENT_WEIGHT) * previous;
+    }
+  }
+
+  /** Records the cost of each shard built during a sync. Thread-safe. */
+  public static final class Recorder {
+    private final List<ShardMeasurement> measurements =
+        Collections.synchronizedList(Lists.newArrayList());
+
+    /**
+     * Records a single blaze invocation.
+     *
+     * @param wallTimeMillis the time taken by the blaze invocation
+     * @param outputBytes the total size of the aspect output files
+     * @param outOfMemory whether the blaze server ran out of memory
+     */
+    public void recordShard(
+        List<TargetExpression> targets,
+        long wallTimeMillis,
+        long outputBytes,
+        boolean outOfMemory) {
+      measurements.add(new ShardMeasurement(targets, wallTimeMillis, outputBytes, outOfMemory));
+    }
+
+    /** Combines the recorded shards with the statistics from previous syncs. */
+    public ShardStatistics build(@Nullable ShardStatistics previous) {
+      Map<String, double[]> totals = Maps.newHashMap();
+      List<ShardMeasurement> outOfMemoryShards = Lists.newArrayList();
+      boolean anySuccessfulShard = false;
+      synchronized (measurements) {
+        for (ShardMeasurement shard : measurements) {
+          if (shard.outOfMemory) {
+            outOfMemoryShards.add(shard);
+            continue;
+          }
+          anySuccessfulShard = true;
+          List<TargetExpression> included = includedTargets(shard.targets);
+          if (included.isEmpty()) {
+            continue;
+          }
+          double millisPerTarget = (double) shard.wallTimeMillis / included.size();
+          double bytesPerTarget = (double) shard.outputBytes / included.size();
+          for (TargetExpression target : included) {
+            // [total millis, total bytes, target count]
+            double[] total = totals.computeIfAbsent(packageOf(target), p -> new double[3]);
+            total[0] += millisPerTarget;
+            total[1] += bytesPerTarget;
+            total[2]++;
+          }
+        }
+      }
+      Map<String, PackageCost> costs = Maps.newHashMap();
+      if (previous != null) {
+        costs.putAll(previous.packageCosts);
+      }
+      for (Map.Entry<String, double[]> entry : totals.entrySet()) {
+        double[] total = entry.getValue();
+        PackageCost latest = new PackageCost(total[0] / total[2], total[1] / total[2]);
+        costs.put(entry.getKey(), latest.mergeWith(costs.get(entry.getKey())));
+      }
+      ShardStatistics merged =
+          new ShardStatistics(
+              ImmutableMap.copyOf(costs),
+              previous != null ? previous.maxShardBytes : 0,
+              previous != null ? previous.maxShardTargets : 0);
+      if (!outOfMemoryShards.isEmpty()) {
+        return merged.withLimits(outOfMemoryShards);
+      }
+      return anySuccessfulShard ? merged.withRelaxedLimits() : merged;
+    }
+  }
+
+  /** Returns a copy with the shard size limits lowered below each shard which ran out of memory. */
+  private ShardStatistics withLimits(List<ShardMeasurement> outOfMemoryShards) {
+    long maxBytes = maxShardBytes;
+    int maxTargets = maxShardTargets;
+    for (ShardMeasurement shard : outOfMemoryShards) {
+      List<TargetExpression> included = includedTargets(shard.targets);
+      double bytes = included.stream().mapToDouble(this::estimateBytes).sum();
+      long bytesLimit = (long) (bytes * OUT_OF_MEMORY_SCALE_FACTOR);
+      if (bytesLimit > 0) {
+        maxBytes = maxBytes == 0 ? bytesLimit : Math.min(maxBytes, bytesLimit);
+      }
+      int targetsLimit = Math.max(1, (int) (included.size() * OUT_OF_MEMORY_SCALE_FACTOR));
+      maxTargets = maxTargets == 0 ? targetsLimit : Math.min(maxTargets, targetsLimit);
+    }
+    return new ShardStatistics(packageCosts, maxBytes, maxTargets);
+  }
+
+  /**
+   * Returns a copy with the shard size limits raised, following a sync in which no shard ran out of
+   * memory.
+   */
+  private ShardStatistics withRelaxedLimits() {
+    if (maxShardBytes == 0 && maxShardTargets == 0) {
+      return this;
+    }
+    return new ShardStatistics(
+        packageCosts,
+        (long) Math.ceil(maxShardBytes * LIMIT_RELAXATION_FACTOR),
+        (int) Math.ceil(maxShardTargets * LIMIT_RELAXATION_FACTOR));
+  }
+
+  private static List<TargetExpression> includedTargets(List<TargetExpression> targets) {
+    List<TargetExpression> included = Lists.newArrayList();
+    for (TargetExpression target : targets) {
+      if (!target.isExcluded()) {
+        included.add(target);
+      }
+    }
+    return included;
+  }
+
+  private static final class ShardMeasurement {
+    final List<TargetExpression> targets;
+    final long wallTimeMillis;
+    final long outputBytes;
+    final boolean outOfMemory;
+
+    ShardMeasurement(
+        List<TargetExpression> targets,
+        long wallTimeMillis,
+        long outputBytes,
+        boolean outOfMemory) {
+      this.targets = targets;
+      this.wallTimeMillis = wallTimeMillis;
+      this.outputBytes = outputBytes;
+      this.outOfMemory = outOfMemory;
+    }
+  }
+}
@@ -15,18 +15,31 @@
  */
 package com.google.idea.blaze.base.sync.sharding;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.idea.blaze.base.async.executor.BlazeExecutor;
 import com.google.idea.blaze.base.model.primitives.TargetExpression;
 import com.google.idea.blaze.base.scope.BlazeContext;
 import com.google.idea.blaze.base.scope.output.IssueOutput;
 import com.google.idea.blaze.base.scope.output.StatusOutput;
 import com.google.idea.blaze.base.settings.Blaze;
 import com.google.idea.blaze.base.sync.aspects.BuildResult;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
+import java.io.File;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
+import javax.annotation.Nullable;
 
 /** Partitioned list of blaze targets. */
 public class ShardedTargetList {
+  private static final Logger logger = Logger.getInstance(ShardedTargetList.class);
 
   public final List<List<TargetExpression>> shardedTargets;
 
@@ -48,29 +61,127 @@ public class ShardedTargetList {
       BlazeContext context,
       Function<Integer, String> progressMessage,
       Function<List<TargetExpression>, BuildResult> invocation) {
+    return runShardedCommand(
+        project,
+        context,
+        progressMessage,
+        ImmutableList.of(),
+        (shardIndex, targets, outputBase) -> invocation.apply(targets));
+  }
+
+  /**
+   * Runs the provided blaze invocation on each target list shard, returning the combined {@link
+   * BuildResult}.
+   *
+   * <p>If additional output bases are provided, up to one shard is built at a time against each
+   * output base (including the default one), each by a separate blaze server. Shards are assigned
+   * to output bases round-robin, so a given shard is always built against the same output base.
+   * The combined result doesn't depend on the order in which the shards complete.
+   */
+  public BuildResult runShardedCommand(
+      Project project,
+      BlazeContext context,
+      Function<Integer, String> progressMessage,
+      List<File> additionalOutputBases,
+      ShardInvocation invocation) {
     if (isEmpty()) {
       return BuildResult.SUCCESS;
     }
     if (shardedTargets.size() == 1) {
-      return invocation.apply(shardedTargets.get(0));
+      return invocation.build(0, shardedTargets.get(0), null);
+    }
+    int concurrentBuilds = Math.min(shardedTargets.size(), additionalOutputBases.size() + 1);
+    if (concurrentBuilds == 1) {
+      return buildShards(
+              project, context, progressMessage, invocation, 0, 1, null, new AtomicBoolean())
+          .values()
+          .stream()
+          .reduce(BuildResult::combine)
+          .orElse(BuildResult.SUCCESS);
+    }
+
+    AtomicBoolean cancelled = new AtomicBoolean();
+    List<ListenableFuture<Map<Integer, BuildResult>>> futures = Lists.newArrayList();
+    for (int i = 0; i < concurrentBuilds; i++) {
+      int firstShard = i;
+      File outputBase = i == 0 ? null : additionalOutputBases.get(i - 1);
+      futures.add(
+          BlazeExecutor.getInstance()
+              .submit(
+                  () ->
+                      buildShards(
+                          project,
+                          context,
+                          progressMessage,
+                          invocation,
+                          firstShard,
+                          concurrentBuilds,
+                          outputBase,
+                          cancelled)));
     }
+    Map<Integer, BuildResult> results = Maps.newTreeMap();
+    try {
+      for (Map<Integer, BuildResult> workerResults : Futures.allAsList(futures).get()) {
+        results.putAll(workerResults);
+      }
+    } catch (InterruptedException e) {
+      futures.forEach(future -> future.cancel(true));
+      Thread.currentThread().interrupt();
+      return BuildResult.FATAL_ERROR;
+    } catch (ExecutionException e) {
+      futures.forEach(future -> future.cancel(true));
+      logger.error(e);
+      return BuildResult.FATAL_ERROR;
+    }
+    // combine in shard order
+    return results.values().stream().reduce(BuildResult::combine).orElse(BuildResult.SUCCESS);
+  }
+
+  /**
+   * Builds every {@code stride}'th shard, starting from {@code firstShard}, against the given
+   * output base. Stops early if any concurrent build fails fatally.
+   *
+   * @return the results of the shards built, by shard index
+   */
+  private Map<Integer, BuildResult> buildShards(
+      Project project,
+      BlazeContext context,
+      Function<Integer, String> progressMessage,
+      ShardInvocation invocation,
+      int firstShard,
+      int stride,
+      @Nullable File outputBase,
+      AtomicBoolean cancelled) {
+    Map<Integer, BuildResult> results = Maps.newTreeMap();
     int progress = 0;
-    BuildResult output = null;
-    for (int i = 0; i < shardedTargets.size(); i++, progress++) {
+    for (int i = firstShard;
+        i < shardedTargets.size() && !cancelled.get();
+        i += stride, progress++) {
       context.output(new StatusOutput(progressMessage.apply(i + 1)));
-      BuildResult result = invocation.apply(shardedTargets.get(i));
+      BuildResult result = invocation.build(i, shardedTargets.get(i), outputBase);
       if (result.outOfMemory() && progress > 0) {
         // re-try now that blaze server has restarted
         progress = 0;
         IssueOutput.warn(retryOnOomMessage(project, i)).submit(context);
-        result = invocation.apply(shardedTargets.get(i));
+        result = invocation.build(i, shardedTargets.get(i), outputBase);
       }
-      output = output == null ? result : BuildResult.combine(output, result);
-      if (output.status == BuildResult.Status.FATAL_ERROR) {
-        return output;
+      results.put(i, result);
+      if (result.status == BuildResult.Status.FATAL_ERROR) {
+        // stop all concurrent builds from starting further shards
+        cancelled.set(true);
+        break;
       }
     }
-    return output;
+    return results;
+  }
+
+  /** A blaze invocation on a single target list shard. */
+  public interface ShardInvocation {
+    /**
+     * @param shardIndex the index of the shard being built
+     * @param outputBase the output base to build against, or null for the default one
+     */
+    BuildResult build(int shardIndex, List<TargetExpression> targets, @Nullable File outputBase);
   }
 
   private String retryOnOomMessage(Project project, int shardIndex) {
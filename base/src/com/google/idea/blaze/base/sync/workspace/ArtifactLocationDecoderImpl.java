@@ -15,22 +15,38 @@
  */
 package com.google.idea.blaze.base.sync.workspace;
 
+import com.google.common.collect.ImmutableList;
 import com.google.idea.blaze.base.command.info.BlazeInfo;
 import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
 import com.intellij.openapi.util.io.FileUtil;
 import java.io.File;
 import java.nio.file.Paths;
+import java.util.List;
 
 /** Decodes intellij_ide_info.proto ArtifactLocation file paths */
 public class ArtifactLocationDecoderImpl implements ArtifactLocationDecoder {
-  private static final long serialVersionUID = 1L;
+  private static final long serialVersionUID = 2L;
 
   private final BlazeInfo blazeInfo;
   private final WorkspacePathResolver pathResolver;
+  private final ImmutableList<File> additionalExecutionRoots;
 
   public ArtifactLocationDecoderImpl(BlazeInfo blazeInfo, WorkspacePathResolver pathResolver) {
+    this(blazeInfo, pathResolver, ImmutableList.of());
+  }
+
+  /**
+   * @param additionalExecutionRoots execution roots of any additional output bases used to build
+   *     sync shards concurrently. Generated artifacts are resolved against the execution root of
+   *     the output base they were built in (see {@link ArtifactLocation#getOutputBaseIndex()}).
+   */
+  public ArtifactLocationDecoderImpl(
+      BlazeInfo blazeInfo,
+      WorkspacePathResolver pathResolver,
+      List<File> additionalExecutionRoots) {
     this.blazeInfo = blazeInfo;
     this.pathResolver = pathResolver;
+    this.additionalExecutionRoots = ImmutableList.copyOf(additionalExecutionRoots);
   }
 
   @Override
@@ -38,10 +54,23 @@ public class ArtifactLocationDecoderImpl implements ArtifactLocationDecoder {
     if (artifactLocation.isSource && !artifactLocation.isExternal) {
       return pathResolver.resolveToFile(artifactLocation.relativePath);
     }
+    return decode(getExecutionRoot(artifactLocation), artifactLocation);
+  }
+
+  private File getExecutionRoot(ArtifactLocation artifactLocation) {
+    int outputBaseIndex = artifactLocation.getOutputBaseIndex();
+    // the output base may no longer be in use, in which case the artifact is stale anyway
+    if (artifactLocation.isGenerated()
+        && outputBaseIndex > 0
+        && outputBaseIndex <= additionalExecutionRoots.size()) {
+      return additionalExecutionRoots.get(outputBaseIndex - 1);
+    }
+    return blazeInfo.getExecutionRoot();
+  }
+
+  private static File decode(File executionRoot, ArtifactLocation artifactLocation) {
     String path =
-        Paths.get(
-                blazeInfo.getExecutionRoot().getPath(),
-                artifactLocation.getExecutionRootRelativePath())
+        Paths.get(executionRoot.getPath(), artifactLocation.getExecutionRootRelativePath())
             .toString();
     // doesn't require file-system operations -- no attempt to resolve symlinks.
     return new File(FileUtil.toCanonicalPath(path));
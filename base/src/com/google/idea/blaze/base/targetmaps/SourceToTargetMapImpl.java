@@ -69,7 +69,7 @@ public class SourceToTargetMapImpl implements SourceToTargetMap {
   }
 
   @Nullable
-  private synchronized ImmutableMultimap<File, TargetKey> getSourceToTargetMap() {
+  private ImmutableMultimap<File, TargetKey> getSourceToTargetMap() {
     return SyncCache.getInstance(project)
         .get(SourceToTargetMapImpl.class, SourceToTargetMapImpl::computeSourceToTargetMap);
   }
@@ -0,0 +1,445 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.targetmaps;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.idea.blaze.base.ideinfo.Dependency;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.ideinfo.TargetMapDiff;
+import com.google.idea.blaze.base.sync.data.SectionInput;
+import com.google.idea.blaze.base.sync.data.SectionOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+
+/**
+ * The dependency graph of a target map.
+ *
+ * <p>Each target key is assigned a dense int id. Dependencies and reverse dependencies are stored
+ * as compressed sparse rows: the edges of node i are {@code edges[offsets[i]]} to {@code
+ * edges[offsets[i + 1] - 1]}. Traversals track visited nodes in a {@link BitSet}.
+ *
+ * <p>Dependencies on targets missing from the target map are included, so the graph can be updated
+ * incrementally when those targets are added later.
+ */
+public final class TargetGraph implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  // above this proportion of changed targets, the graph is rebuilt rather than updated
+  private static final int MAX_INCREMENTAL_UPDATE_PERCENTAGE = 25;
+
+  public static final TargetGraph EMPTY = new Builder().build();
+
+  private transient volatile Graph graph;
+
+  /** Decodes the graph on first access, for graphs loaded from disk. */
+  @Nullable private transient Supplier<TargetGraph> loader;
+
+  private TargetGraph(Graph graph) {
+    this.graph = graph;
+  }
+
+  private TargetGraph(Supplier<TargetGraph> loader) {
+    this.loader = loader;
+  }
+
+  /** Returns a graph whose contents are only computed the first time they're accessed. */
+  public static TargetGraph lazy(Supplier<TargetGraph> loader) {
+    return new TargetGraph(loader);
+  }
+
+  /** Builds the dependency graph of all targets in the target map. */
+  public static TargetGraph create(TargetMap targetMap) {
+    Builder builder = new Builder();
+    for (TargetIdeInfo target : targetMap.targets()) {
+      builder.addDependencies(target);
+    }
+    return builder.build();
+  }
+
+  /**
+   * Returns the graph of the given target map, assuming this is the graph of the previous target
+   * map. Only the dependencies of the targets which changed since are visited.
+   *
+   * <p>Nodes of removed targets, and of missing dependencies nothing depends on any more, are
+   * dropped, so surviving nodes may be assigned new ids.
+   */
+  public TargetGraph update(TargetMap previousTargetMap, TargetMap targetMap) {
+    TargetMapDiff diff = targetMap.diff(previousTargetMap);
+    if (diff.isEmpty()) {
+      return this;
+    }
+    if (diff.size() * 100 > targetMap.size() * MAX_INCREMENTAL_UPDATE_PERCENTAGE) {
+      return create(targetMap);
+    }
+    Graph previous = graph();
+    Set<TargetKey> updated = Sets.newHashSet(diff.removed);
+    updated.addAll(diff.changed);
+    Builder builder = new Builder(previous.keys);
+    for (int node = 0; node < previous.keys.size(); node++) {
+      if (!updated.contains(previous.keys.get(node))) {
+        for (int i = previous.dependencyOffsets[node];
+            i < previous.dependencyOffsets[node + 1];
+            i++) {
+          builder.addEdge(node, previous.dependencies[i]);
+        }
+      }
+    }
+    for (TargetKey key : diff.changed) {
+      builder.addDependencies(targetMap.get(key));
+    }
+    for (TargetKey key : diff.added) {
+      builder.addDependencies(targetMap.get(key));
+    }
+    builder.removeUnreferencedNodes(targetMap);
+    return builder.build();
+  }
+
+  /**
+   * Returns the number of targets in the graph: the targets in the map, plus any dependencies
+   * missing from it.
+   */
+  public int size() {
+    return graph().keys.size();
+  }
+
+  /** Returns the direct dependencies of the given target. */
+  public ImmutableList<TargetKey> getDependencies(TargetKey key) {
+    Graph graph = graph();
+    return graph.adjacent(key, graph.dependencyOffsets, graph.dependencies);
+  }
+
+  /** Returns the targets which directly depend on the given target. */
+  public ImmutableList<TargetKey> getReverseDependencies(TargetKey key) {
+    Graph graph = graph();
+    return graph.adjacent(key, graph.reverseDependencyOffsets, graph.reverseDependencies);
+  }
+
+  /**
+   * Returns the targets the given targets transitively depend on, in breadth-first order. The given
+   * targets are only included if they're reachable from one another.
+   */
+  public ImmutableList<TargetKey> getTransitiveDependencies(Collection<TargetKey> keys) {
+    Graph graph = graph();
+    return graph.traverse(keys, graph.dependencyOffsets, graph.dependencies);
+  }
+
+  /**
+   * Returns the targets which transitively depend on the given targets, in breadth-first order. The
+   * given targets are only included if they're reachable from one another.
+   */
+  public ImmutableList<TargetKey> getTransitiveReverseDependencies(Collection<TargetKey> keys) {
+    Graph graph = graph();
+    return graph.traverse(keys, graph.reverseDependencyOffsets, graph.reverseDependencies);
+  }
+
+  /** Returns the id of the given target, or -1 if it isn't in the graph. */
+  int idOf(TargetKey key) {
+    Integer id = graph().ids.get(key);
+    return id != null ? id : -1;
+  }
+
+  TargetKey keyOf(int id) {
+    return graph().keys.get(id);
+  }
+
+  /** The start of each node's dependencies in {@link #dependencyEdges}. Must not be modified. */
+  int[] dependencyOffsets() {
+    return graph().dependencyOffsets;
+  }
+
+  /** The dependencies of all nodes, by node. Must not be modified. */
+  int[] dependencyEdges() {
+    return graph().dependencies;
+  }
+
+  /** Writes the graph. Read it back with {@link #read}. */
+  public void write(SectionOutput out, SectionOutput.ElementWriter<TargetKey> keyWriter)
+      throws IOException {
+    Graph graph = graph();
+    out.writeList(graph.keys, keyWriter);
+    for (int node = 0; node < graph.keys.size(); node++) {
+      int start = graph.dependencyOffsets[node];
+      int end = graph.dependencyOffsets[node + 1];
+      out.writeVarInt(end - start);
+      for (int i = start; i < end; i++) {
+        out.writeVarInt(graph.dependencies[i]);
+      }
+    }
+  }
+
+  /** Reads a graph written by {@link #write}. */
+  public static TargetGraph read(SectionInput in, SectionInput.ElementReader<TargetKey> keyReader)
+      throws IOException {
+    Builder builder = new Builder(in.readList(keyReader));
+    int nodeCount = builder.keys.size();
+    for (int node = 0; node < nodeCount; node++) {
+      int degree = in.readVarInt();
+      for (int i = 0; i < degree; i++) {
+        int dependency = in.readVarInt();
+        if (dependency < 0 || dependency >= nodeCount) {
+          throw new IOException("Invalid target graph node: " + dependency);
+        }
+        builder.addEdge(node, dependency);
+      }
+    }
+    return builder.build();
+  }
+
+  private Graph graph() {
+    Graph graph = this.graph;
+    if (graph == null) {
+      synchronized (this) {
+        graph = this.graph;
+        if (graph == null) {
+          graph = loader.get().graph();
+          this.graph = graph;
+          loader = null;
+        }
+      }
+    }
+    return graph;
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    out.writeObject(graph());
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    graph = (Graph) in.readObject();
+  }
+
+  /** The ids and edges of the graph. Reverse edges are derived when the graph is read. */
+  private static final class Graph implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final ImmutableList<TargetKey> keys;
+    final int[] dependencyOffsets;
+    final int[] dependencies;
+    transient Map<TargetKey, Integer> ids;
+    transient int[] reverseDependencyOffsets;
+    transient int[] reverseDependencies;
+
+    Graph(
+        ImmutableList<TargetKey> keys,
+        Map<TargetKey, Integer> ids,
+        int[] dependencyOffsets,
+        int[] dependencies) {
+      this.keys = keys;
+      this.dependencyOffsets = dependencyOffsets;
+      this.dependencies = dependencies;
+      this.ids = ids;
+      invert();
+    }
+
+    /** Derives the reverse edges from the forward edges, ordered by dependent. */
+    private void invert() {
+      int nodeCount = keys.size();
+      reverseDependencyOffsets = new int[nodeCount + 1];
+      for (int dependency : dependencies) {
+        reverseDependencyOffsets[dependency + 1]++;
+      }
+      for (int node = 0; node < nodeCount; node++) {
+        reverseDependencyOffsets[node + 1] += reverseDependencyOffsets[node];
+      }
+      int[] next = Arrays.copyOf(reverseDependencyOffsets, nodeCount);
+      reverseDependencies = new int[dependencies.length];
+      for (int node = 0; node < nodeCount; node++) {
+        for (int i = dependencyOffsets[node]; i < dependencyOffsets[node + 1]; i++) {
+          reverseDependencies[next[dependencies[i]]++] = node;
+        }
+      }
+    }
+
+    ImmutableList<TargetKey> adjacent(TargetKey key, int[] offsets, int[] edges) {
+      Integer node = ids.get(key);
+      if (node == null) {
+        return ImmutableList.of();
+      }
+      ImmutableList.Builder<TargetKey> result = ImmutableList.builder();
+      for (int i = offsets[node]; i < offsets[node + 1]; i++) {
+        result.add(keys.get(edges[i]));
+      }
+      return result.build();
+    }
+
+    /** Breadth-first search from the given targets, returning the nodes visited in order. */
+    ImmutableList<TargetKey> traverse(Collection<TargetKey> roots, int[] offsets, int[] edges) {
+      BitSet visited = new BitSet(keys.size());
+      int[] queue = new int[keys.size()];
+      int head = 0;
+      int tail = 0;
+      for (TargetKey key : roots) {
+        Integer root = ids.get(key);
+        if (root == null) {
+          continue;
+        }
+        for (int i = offsets[root]; i < offsets[root + 1]; i++) {
+          int node = edges[i];
+          if (!visited.get(node)) {
+            visited.set(node);
+            queue[tail++] = node;
+          }
+        }
+      }
+      while (head < tail) {
+        int current = queue[head++];
+        for (int i = offsets[current]; i < offsets[current + 1]; i++) {
+          int node = edges[i];
+          if (!visited.get(node)) {
+            visited.set(node);
+            queue[tail++] = node;
+          }
+        }
+      }
+      ImmutableList.Builder<TargetKey> result = ImmutableList.builder();
+      for (int i = 0; i < tail; i++) {
+        result.add(keys.get(queue[i]));
+      }
+      return result.build();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+      in.defaultReadObject();
+      ids = Builder.indexKeys(keys);
+      invert();
+    }
+  }
+
+  /** Assigns ids to target keys and collects edges, then sorts them into rows. */
+  private static final class Builder {
+    private final List<TargetKey> keys;
+    private final Map<TargetKey, Integer> ids;
+    private int[] edgeSources = new int[16];
+    private int[] edgeTargets = new int[16];
+    private int edgeCount = 0;
+
+    Builder() {
+      this(ImmutableList.of());
+    }
+
+    /** Starts with the given nodes, in order, but no edges. */
+    Builder(List<TargetKey> keys) {
+      this.keys = Lists.newArrayList(keys);
+      this.ids = indexKeys(keys);
+    }
+
+    static Map<TargetKey, Integer> indexKeys(List<TargetKey> keys) {
+      Map<TargetKey, Integer> ids = Maps.newHashMapWithExpectedSize(keys.size());
+      for (int i = 0; i < keys.size(); i++) {
+        ids.put(keys.get(i), i);
+      }
+      return ids;
+    }
+
+    void addDependencies(TargetIdeInfo target) {
+      int node = idOf(target.key);
+      for (Dependency dependency : target.dependencies) {
+        addEdge(node, idOf(dependency.targetKey));
+      }
+    }
+
+    void addEdge(int source, int target) {
+      if (edgeCount == edgeSources.length) {
+        edgeSources = Arrays.copyOf(edgeSources, edgeCount * 2);
+        edgeTargets = Arrays.copyOf(edgeTargets, edgeCount * 2);
+      }
+      edgeSources[edgeCount] = source;
+      edgeTargets[edgeCount] = target;
+      edgeCount++;
+    }
+
+    /**
+     * Removes the nodes which are neither in the target map nor a dependency of another node,
+     * renumbering the remaining nodes in order.
+     */
+    void removeUnreferencedNodes(TargetMap targetMap) {
+      int nodeCount = keys.size();
+      BitSet live = new BitSet(nodeCount);
+      for (int i = 0; i < edgeCount; i++) {
+        live.set(edgeTargets[i]);
+      }
+      for (int node = 0; node < nodeCount; node++) {
+        if (!live.get(node) && targetMap.contains(keys.get(node))) {
+          live.set(node);
+        }
+      }
+      if (live.cardinality() == nodeCount) {
+        return;
+      }
+      // edges only start at targets in the map, so every edge is between live nodes
+      int[] newIds = new int[nodeCount];
+      List<TargetKey> liveKeys = Lists.newArrayListWithCapacity(live.cardinality());
+      for (int node = 0; node < nodeCount; node++) {
+        if (live.get(node)) {
+          newIds[node] = liveKeys.size();
+          liveKeys.add(keys.get(node));
+        }
+      }
+      for (int i = 0; i < edgeCount; i++) {
+        edgeSources[i] = newIds[edgeSources[i]];
+        edgeTargets[i] = newIds[edgeTargets[i]];
+      }
+      keys.clear();
+      keys.addAll(liveKeys);
+      ids.clear();
+      ids.putAll(indexKeys(liveKeys));
+    }
+
+    private int idOf(TargetKey key) {
+      Integer id = ids.get(key);
+      if (id == null) {
+        id = keys.size();
+        keys.add(key);
+        ids.put(key, id);
+      }
+      return id;
+    }
+
+    TargetGraph build() {
+      int nodeCount = keys.size();
+      int[] offsets = new int[nodeCount + 1];
+      for (int i = 0; i < edgeCount; i++) {
+        offsets[edgeSources[i] + 1]++;
+      }
+      for (int node = 0; node < nodeCount; node++) {
+        offsets[node + 1] += offsets[node];
+      }
+      int[] next = Arrays.copyOf(offsets, nodeCount);
+      int[] edges = new int[edgeCount];
+      for (int i = 0; i < edgeCount; i++) {
+        edges[next[edgeSources[i]]++] = edgeTargets[i];
+      }
+      return new TargetGraph(new Graph(ImmutableList.copyOf(keys), ids, offsets, edges));
+    }
+  }
+}
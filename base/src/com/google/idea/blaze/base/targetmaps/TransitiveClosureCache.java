@@ -0,0 +1,407 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.targetmaps;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nullable;
+
+/**
+ * Memoized transitive dependencies of a {@link TargetGraph}.
+ *
+ * <p>The graph is condensed into its strongly connected components, which form a DAG. Closures of
+ * components with more than one dependent are cached and reused by every closure reaching them, so
+ * shared sub-closures are only computed once. Closures are stored as compressed bit sets of
+ * component ids, and the cache is bounded by their total size.
+ *
+ * <p>As in the target map based lookup of {@link TransitiveDependencyMap}, dependencies are
+ * resolved to their plain target before their own dependencies are followed. The dependencies of
+ * targets with aspects are only visited when such a target is queried directly.
+ *
+ * <p>Safe for concurrent use. Concurrent callers may occasionally compute the same closure twice.
+ */
+final class TransitiveClosureCache {
+  private static final long MAX_CACHE_SIZE_BYTES = 32L * 1024 * 1024;
+
+  private final TargetGraph graph;
+  /** The node of each node's plain target, or the node itself if that isn't in the graph. */
+  private final int[] plainNodeOf;
+  /** The component of each node. Components are numbered in reverse topological order. */
+  private final int[] componentOf;
+  /** The nodes of each component, as compressed sparse rows. */
+  private final int[] memberOffsets;
+  private final int[] members;
+  /** The edges between components, as compressed sparse rows. */
+  private final int[] successorOffsets;
+  private final int[] successors;
+  /** Components containing a cycle, which are therefore part of their own closure. */
+  private final BitSet cyclic = new BitSet();
+  /** Components with more than one dependent component. */
+  private final BitSet shared = new BitSet();
+
+  private final Cache<Integer, ComponentSet> closures =
+      CacheBuilder.newBuilder()
+          .maximumWeight(MAX_CACHE_SIZE_BYTES)
+          .weigher((Integer component, ComponentSet closure) -> closure.sizeInBytes())
+          .build();
+
+  /** Scratch space left by the last traversal, or null while it's in use. */
+  private final AtomicReference<Scratch> spareScratch = new AtomicReference<>();
+
+  TransitiveClosureCache(TargetGraph graph) {
+    this.graph = graph;
+    int nodeCount = graph.dependencyOffsets().length - 1;
+    plainNodeOf = findPlainNodes(graph, nodeCount);
+    int[] offsets = new int[nodeCount + 1];
+    int[] edges = findPlainDependencies(graph, plainNodeOf, offsets);
+    componentOf = findComponents(nodeCount, offsets, edges);
+    int componentCount = 0;
+    for (int component : componentOf) {
+      componentCount = Math.max(componentCount, component + 1);
+    }
+
+    memberOffsets = new int[componentCount + 1];
+    for (int node = 0; node < nodeCount; node++) {
+      memberOffsets[componentOf[node] + 1]++;
+    }
+    for (int component = 0; component < componentCount; component++) {
+      memberOffsets[component + 1] += memberOffsets[component];
+    }
+    members = new int[nodeCount];
+    int[] next = Arrays.copyOf(memberOffsets, componentCount);
+    for (int node = 0; node < nodeCount; node++) {
+      members[next[componentOf[node]]++] = node;
+    }
+
+    successorOffsets = new int[componentCount + 1];
+    int[] condensedEdges = new int[edges.length];
+    int edgeCount = 0;
+    int[] lastSource = new int[componentCount];
+    Arrays.fill(lastSource, -1);
+    int[] dependentCount = new int[componentCount];
+    for (int component = 0; component < componentCount; component++) {
+      for (int i = memberOffsets[component]; i < memberOffsets[component + 1]; i++) {
+        int node = members[i];
+        for (int j = offsets[node]; j < offsets[node + 1]; j++) {
+          int successor = componentOf[edges[j]];
+          if (successor == component) {
+            cyclic.set(component);
+          } else if (lastSource[successor] != component) {
+            lastSource[successor] = component;
+            condensedEdges[edgeCount++] = successor;
+            dependentCount[successor]++;
+          }
+        }
+      }
+      successorOffsets[component + 1] = edgeCount;
+    }
+    successors = Arrays.copyOf(condensedEdges, edgeCount);
+    for (int component = 0; component < componentCount; component++) {
+      if (dependentCount[component] > 1) {
+        shared.set(component);
+      }
+    }
+  }
+
+  /** Whether this cache was built for the given graph. */
+  boolean isFor(TargetGraph graph) {
+    return this.graph == graph;
+  }
+
+  /**
+   * Returns the targets the given target transitively depends on. The target itself is only
+   * included if it's part of a dependency cycle.
+   */
+  ImmutableList<TargetKey> getTransitiveDependencies(TargetKey key) {
+    int node = graph.idOf(key);
+    if (node < 0) {
+      return ImmutableList.of();
+    }
+    ImmutableList.Builder<TargetKey> result = ImmutableList.builder();
+    BitSet closure = new BitSet();
+    if (key.isPlainTarget()) {
+      getClosure(componentOf[node]).addTo(closure);
+    } else {
+      // only the plain targets of its dependencies are part of the condensed graph
+      int[] offsets = graph.dependencyOffsets();
+      int[] edges = graph.dependencyEdges();
+      for (int i = offsets[node]; i < offsets[node + 1]; i++) {
+        int dependency = componentOf[plainNodeOf[edges[i]]];
+        closure.set(dependency);
+        getClosure(dependency).addTo(closure);
+      }
+    }
+    for (int component = closure.nextSetBit(0);
+        component >= 0;
+        component = closure.nextSetBit(component + 1)) {
+      for (int i = memberOffsets[component]; i < memberOffsets[component + 1]; i++) {
+        result.add(graph.keyOf(members[i]));
+      }
+    }
+    return result.build();
+  }
+
+  private ComponentSet getClosure(int root) {
+    ComponentSet cached = closures.getIfPresent(root);
+    if (cached != null) {
+      return cached;
+    }
+    Scratch scratch = spareScratch.getAndSet(null);
+    if (scratch == null) {
+      scratch = new Scratch(successorOffsets.length - 1);
+    }
+    try {
+      // Successors always have lower ids than their dependents, so computing the uncached shared
+      // closures in increasing order means each one only reaches closures which are already known.
+      Map<Integer, ComponentSet> computed = Maps.newHashMap();
+      BitSet pending = findUncachedSharedComponents(root, scratch);
+      for (int component = pending.nextSetBit(0);
+          component >= 0;
+          component = pending.nextSetBit(component + 1)) {
+        ComponentSet closure = computeClosure(component, computed, scratch);
+        computed.put(component, closure);
+        closures.put(component, closure);
+      }
+      ComponentSet closure = computeClosure(root, computed, scratch);
+      closures.put(root, closure);
+      return closure;
+    } finally {
+      spareScratch.set(scratch);
+    }
+  }
+
+  /**
+   * Finds the shared components reachable from the root whose closures aren't cached. The result
+   * is {@link Scratch#pending}.
+   */
+  private BitSet findUncachedSharedComponents(int root, Scratch scratch) {
+    BitSet visited = scratch.visited;
+    BitSet result = scratch.pending;
+    visited.clear();
+    result.clear();
+    int[] queue = scratch.queue;
+    int head = 0;
+    int tail = 0;
+    queue[tail++] = root;
+    visited.set(root);
+    while (head < tail) {
+      int component = queue[head++];
+      for (int i = successorOffsets[component]; i < successorOffsets[component + 1]; i++) {
+        int successor = successors[i];
+        if (visited.get(successor)) {
+          continue;
+        }
+        visited.set(successor);
+        if (shared.get(successor)) {
+          if (closures.getIfPresent(successor) != null) {
+            continue;
+          }
+          result.set(successor);
+        }
+        queue[tail++] = successor;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Computes the closure of a component, reusing the closures of any shared components it reaches
+   * rather than traversing them again.
+   */
+  private ComponentSet computeClosure(
+      int root, Map<Integer, ComponentSet> computed, Scratch scratch) {
+    BitSet closure = scratch.visited;
+    closure.clear();
+    if (cyclic.get(root)) {
+      closure.set(root);
+    }
+    int[] queue = scratch.queue;
+    int head = 0;
+    int tail = 0;
+    queue[tail++] = root;
+    while (head < tail) {
+      int component = queue[head++];
+      for (int i = successorOffsets[component]; i < successorOffsets[component + 1]; i++) {
+        int successor = successors[i];
+        if (closure.get(successor)) {
+          continue;
+        }
+        closure.set(successor);
+        ComponentSet known = shared.get(successor) ? getKnownClosure(successor, computed) : null;
+        if (known != null) {
+          known.addTo(closure);
+        } else {
+          queue[tail++] = successor;
+        }
+      }
+    }
+    return ComponentSet.of(closure);
+  }
+
+  @Nullable
+  private ComponentSet getKnownClosure(int component, Map<Integer, ComponentSet> computed) {
+    ComponentSet closure = computed.get(component);
+    return closure != null ? closure : closures.getIfPresent(component);
+  }
+
+  private static int[] findPlainNodes(TargetGraph graph, int nodeCount) {
+    int[] plainNodeOf = new int[nodeCount];
+    for (int node = 0; node < nodeCount; node++) {
+      TargetKey key = graph.keyOf(node);
+      int plainNode = key.isPlainTarget() ? node : graph.idOf(TargetKey.forPlainTarget(key.label));
+      plainNodeOf[node] = plainNode >= 0 ? plainNode : node;
+    }
+    return plainNodeOf;
+  }
+
+  /**
+   * Returns the dependency edges followed by queries, filling in their row offsets: those of plain
+   * targets, resolved to the plain target of each dependency.
+   */
+  private static int[] findPlainDependencies(TargetGraph graph, int[] plainNodeOf, int[] offsets) {
+    int[] graphOffsets = graph.dependencyOffsets();
+    int[] graphEdges = graph.dependencyEdges();
+    int[] edges = new int[graphEdges.length];
+    int edgeCount = 0;
+    for (int node = 0; node < plainNodeOf.length; node++) {
+      if (graph.keyOf(node).isPlainTarget()) {
+        for (int i = graphOffsets[node]; i < graphOffsets[node + 1]; i++) {
+          edges[edgeCount++] = plainNodeOf[graphEdges[i]];
+        }
+      }
+      offsets[node + 1] = edgeCount;
+    }
+    return Arrays.copyOf(edges, edgeCount);
+  }
+
+  /**
+   * Iterative version of Tarjan's algorithm. Components are numbered in the order they're
+   * completed, which is a reverse topological order.
+   */
+  private static int[] findComponents(int nodeCount, int[] offsets, int[] edges) {
+    int[] componentOf = new int[nodeCount];
+    int[] index = new int[nodeCount];
+    Arrays.fill(index, -1);
+    int[] lowLink = new int[nodeCount];
+    BitSet onStack = new BitSet(nodeCount);
+    int[] stack = new int[nodeCount];
+    int stackSize = 0;
+    int[] callStack = new int[nodeCount];
+    int[] nextEdge = new int[nodeCount];
+    int callStackSize = 0;
+    int nextIndex = 0;
+    int componentCount = 0;
+
+    for (int start = 0; start < nodeCount; start++) {
+      if (index[start] >= 0) {
+        continue;
+      }
+      index[start] = lowLink[start] = nextIndex++;
+      stack[stackSize++] = start;
+      onStack.set(start);
+      callStack[callStackSize++] = start;
+      nextEdge[start] = offsets[start];
+
+      while (callStackSize > 0) {
+        int node = callStack[callStackSize - 1];
+        if (nextEdge[node] < offsets[node + 1]) {
+          int successor = edges[nextEdge[node]++];
+          if (index[successor] < 0) {
+            index[successor] = lowLink[successor] = nextIndex++;
+            stack[stackSize++] = successor;
+            onStack.set(successor);
+            callStack[callStackSize++] = successor;
+            nextEdge[successor] = offsets[successor];
+          } else if (onStack.get(successor)) {
+            lowLink[node] = Math.min(lowLink[node], index[successor]);
+          }
+          continue;
+        }
+        callStackSize--;
+        if (callStackSize > 0) {
+          int caller = callStack[callStackSize - 1];
+          lowLink[caller] = Math.min(lowLink[caller], lowLink[node]);
+        }
+        if (lowLink[node] == index[node]) {
+          int member;
+          do {
+            member = stack[--stackSize];
+            onStack.clear(member);
+            componentOf[member] = componentCount;
+          } while (member != node);
+          componentCount++;
+        }
+      }
+    }
+    return componentOf;
+  }
+
+  /** Buffers reused across traversals, sized for every component. */
+  private static final class Scratch {
+    final int[] queue;
+    final BitSet visited;
+    final BitSet pending;
+
+    Scratch(int componentCount) {
+      queue = new int[componentCount];
+      visited = new BitSet(componentCount);
+      pending = new BitSet(componentCount);
+    }
+  }
+
+  /**
+   * An immutable set of component ids. Stored as a sorted array of ids when sparse, and as the
+   * words of a bit set otherwise.
+   */
+  private static final class ComponentSet {
+    @Nullable private final int[] ids;
+    @Nullable private final long[] words;
+
+    private ComponentSet(@Nullable int[] ids, @Nullable long[] words) {
+      this.ids = ids;
+      this.words = words;
+    }
+
+    static ComponentSet of(BitSet bits) {
+      long[] words = bits.toLongArray();
+      if ((long) bits.cardinality() * Integer.BYTES < (long) words.length * Long.BYTES) {
+        return new ComponentSet(bits.stream().toArray(), null);
+      }
+      return new ComponentSet(null, words);
+    }
+
+    void addTo(BitSet bits) {
+      if (ids != null) {
+        for (int id : ids) {
+          bits.set(id);
+        }
+      } else {
+        bits.or(BitSet.valueOf(words));
+      }
+    }
+
+    int sizeInBytes() {
+      return ids != null ? ids.length * Integer.BYTES : words.length * Long.BYTES;
+    }
+  }
+}
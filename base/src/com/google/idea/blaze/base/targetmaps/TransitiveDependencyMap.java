@@ -32,10 +32,14 @@ import java.util.List;
 import java.util.Queue;
 import java.util.Set;
 import java.util.stream.Collectors;
+import javax.annotation.Nullable;
 
 /** Handy class to find all transitive dependencies of a given target */
 public class TransitiveDependencyMap {
   private final Project project;
+  private final Object closureCacheLock = new Object();
+  /** Closures of the current target graph. Replaced on the first use after each sync. */
+  @Nullable private volatile TransitiveClosureCache closureCache;
 
   public static TransitiveDependencyMap getInstance(Project project) {
     return ServiceManager.getService(project, TransitiveDependencyMap.class);
@@ -51,8 +55,31 @@ public class TransitiveDependencyMap {
     if (blazeProjectData == null) {
       return ImmutableSet.of();
     }
-    // TODO: see if we need caching.
-    return getTransitiveDependencies(targetKey, blazeProjectData.targetMap);
+    TransitiveClosureCache closureCache = getClosureCache(blazeProjectData.targetGraph);
+    return toPlainTargets(closureCache.getTransitiveDependencies(targetKey));
+  }
+
+  private TransitiveClosureCache getClosureCache(TargetGraph targetGraph) {
+    TransitiveClosureCache closureCache = this.closureCache;
+    if (closureCache != null && closureCache.isFor(targetGraph)) {
+      return closureCache;
+    }
+    synchronized (closureCacheLock) {
+      closureCache = this.closureCache;
+      if (closureCache == null || !closureCache.isFor(targetGraph)) {
+        closureCache = new TransitiveClosureCache(targetGraph);
+        this.closureCache = closureCache;
+      }
+      return closureCache;
+    }
+  }
+
+  private static ImmutableCollection<TargetKey> toPlainTargets(Collection<TargetKey> targetKeys) {
+    ImmutableSet.Builder<TargetKey> plainTargets = ImmutableSet.builder();
+    for (TargetKey key : targetKeys) {
+      plainTargets.add(key.isPlainTarget() ? key : TargetKey.forPlainTarget(key.label));
+    }
+    return plainTargets.build();
   }
 
   public static ImmutableCollection<TargetKey> getTransitiveDependencies(
@@ -0,0 +1,586 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.util;
+
+import com.google.common.base.Preconditions;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import javax.annotation.Nullable;
+
+/**
+ * An immutable hash map, stored as a hash array mapped trie.
+ *
+ * <p>Updating the map (via a {@link Builder}) copies only the trie nodes along the paths to the
+ * changed entries; the rest are shared with the original. Two maps derived from one another can
+ * then be compared in time proportional to the number of changed entries, via {@link #diff}.
+ *
+ * <p>Null keys and values aren't supported.
+ */
+public final class HashTrieMap<K, V> {
+  private static final int BITS_PER_LEVEL = 5;
+  private static final int LEVEL_MASK = (1 << BITS_PER_LEVEL) - 1;
+  // the last level consuming hash bits; hashes colliding beyond it are stored in collision nodes
+  private static final int MAX_SHIFT = 30;
+
+  private static final HashTrieMap<?, ?> EMPTY = new HashTrieMap<>(null, 0);
+
+  @Nullable private final Node root;
+  private final int size;
+
+  private HashTrieMap(@Nullable Node root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  @SuppressWarnings("unchecked")
+  public static <K, V> HashTrieMap<K, V> of() {
+    return (HashTrieMap<K, V>) EMPTY;
+  }
+
+  public static <K, V> HashTrieMap<K, V> copyOf(Map<? extends K, ? extends V> map) {
+    Builder<K, V> builder = HashTrieMap.<K, V>of().toBuilder();
+    map.forEach(builder::put);
+    return builder.build();
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  @Nullable
+  @SuppressWarnings("unchecked")
+  public V get(Object key) {
+    Leaf leaf = root != null ? root.find(hash(key), key, 0) : null;
+    return leaf != null ? (V) leaf.value : null;
+  }
+
+  public boolean containsKey(Object key) {
+    return root != null && root.find(hash(key), key, 0) != null;
+  }
+
+  @SuppressWarnings("unchecked")
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    if (root != null) {
+      root.forEach((BiConsumer<Object, Object>) action);
+    }
+  }
+
+  /** Returns an unmodifiable {@link Map} view of this map. */
+  public Map<K, V> asMap() {
+    return new MapView<>(this);
+  }
+
+  /** Returns a builder initially containing the entries of this map. */
+  public Builder<K, V> toBuilder() {
+    return new Builder<>(root, size);
+  }
+
+  /**
+   * Reports the differences between two maps to the given visitor. Entries are only compared if
+   * they aren't stored in a trie node shared by both maps, so comparing a map with one derived
+   * from it takes time proportional to the number of updated entries.
+   *
+   * <p>Values are compared with {@link Object#equals}.
+   */
+  @SuppressWarnings("unchecked")
+  public static <K, V> void diff(
+      HashTrieMap<K, V> before, HashTrieMap<K, V> after, DiffVisitor<K, V> visitor) {
+    diff(before.root, after.root, 0, (DiffVisitor<Object, Object>) visitor);
+  }
+
+  /** Receives the differences between two maps. */
+  public interface DiffVisitor<K, V> {
+    void added(K key, V value);
+
+    void removed(K key, V value);
+
+    void changed(K key, V before, V after);
+  }
+
+  /**
+   * Builds a new map. Trie nodes created by a builder are updated in place until {@link #build} is
+   * called, so bulk updates don't copy every node on every update. Not thread-safe.
+   */
+  public static final class Builder<K, V> {
+    @Nullable private Node root;
+    private int size;
+    private Object edit = new Object();
+
+    private Builder(@Nullable Node root, int size) {
+      this.root = root;
+      this.size = size;
+    }
+
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+      Leaf leaf = root != null ? root.find(hash(key), key, 0) : null;
+      return leaf != null ? (V) leaf.value : null;
+    }
+
+    public boolean containsKey(Object key) {
+      return root != null && root.find(hash(key), key, 0) != null;
+    }
+
+    public int size() {
+      return size;
+    }
+
+    /** Adds or replaces an entry, returning the previous value, if any. */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public V put(K key, V value) {
+      Preconditions.checkNotNull(key);
+      Preconditions.checkNotNull(value);
+      Leaf leaf = new Leaf(hash(key), key, value);
+      if (root == null) {
+        root = new Node(edit, 0, new Object[0]);
+      }
+      Object[] previous = new Object[1];
+      root = root.put(edit, leaf, 0, previous);
+      if (previous[0] == null) {
+        size++;
+      }
+      return (V) previous[0];
+    }
+
+    /** Removes an entry, returning its value, if any. */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+      if (root == null) {
+        return null;
+      }
+      Object[] previous = new Object[1];
+      root = root.remove(edit, hash(key), key, 0, previous);
+      if (previous[0] != null) {
+        size--;
+      }
+      return (V) previous[0];
+    }
+
+    public HashTrieMap<K, V> build() {
+      // nodes owned by this builder are now shared with the map, so mustn't be mutated further
+      edit = new Object();
+      return size == 0 ? of() : new HashTrieMap<>(root, size);
+    }
+  }
+
+  private static int hash(Object key) {
+    int hash = key.hashCode();
+    return hash ^ (hash >>> 16);
+  }
+
+  private static int bit(int hash, int shift) {
+    return 1 << ((hash >>> shift) & LEVEL_MASK);
+  }
+
+  /** A single key-value entry. */
+  private static final class Leaf implements Map.Entry<Object, Object> {
+    final int hash;
+    final Object key;
+    final Object value;
+
+    Leaf(int hash, Object key, Object value) {
+      this.hash = hash;
+      this.key = key;
+      this.value = value;
+    }
+
+    @Override
+    public Object getKey() {
+      return key;
+    }
+
+    @Override
+    public Object getValue() {
+      return value;
+    }
+
+    @Override
+    public Object setValue(Object value) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Map.Entry)) {
+        return false;
+      }
+      Map.Entry<?, ?> that = (Map.Entry<?, ?>) o;
+      return key.equals(that.getKey()) && value.equals(that.getValue());
+    }
+
+    @Override
+    public int hashCode() {
+      return key.hashCode() ^ value.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return key + "=" + value;
+    }
+  }
+
+  /**
+   * A trie node. Each slot is either a {@link Leaf} or a child node. Regular nodes store a slot
+   * for each bit set in the bitmap; collision nodes (below {@link #MAX_SHIFT}) store leaves whose
+   * keys have identical hashes.
+   */
+  private static final class Node {
+    // the builder allowed to update this node in place, if any
+    @Nullable final Object edit;
+    int bitmap;
+    Object[] slots;
+
+    Node(@Nullable Object edit, int bitmap, Object[] slots) {
+      this.edit = edit;
+      this.bitmap = bitmap;
+      this.slots = slots;
+    }
+
+    static boolean isCollisionNode(int shift) {
+      return shift > MAX_SHIFT;
+    }
+
+    @Nullable
+    Leaf find(int hash, Object key, int shift) {
+      Node node = this;
+      while (true) {
+        if (isCollisionNode(shift)) {
+          for (Object slot : node.slots) {
+            if (((Leaf) slot).key.equals(key)) {
+              return (Leaf) slot;
+            }
+          }
+          return null;
+        }
+        int bit = bit(hash, shift);
+        if ((node.bitmap & bit) == 0) {
+          return null;
+        }
+        Object slot = node.slots[Integer.bitCount(node.bitmap & (bit - 1))];
+        if (slot instanceof Leaf) {
+          Leaf leaf = (Leaf) slot;
+          return leaf.hash == hash && leaf.key.equals(key) ? leaf : null;
+        }
+        node = (Node) slot;
+        shift += BITS_PER_LEVEL;
+      }
+    }
+
+    Node put(Object edit, Leaf leaf, int shift, Object[] previous) {
+      if (isCollisionNode(shift)) {
+        for (int i = 0; i < slots.length; i++) {
+          if (((Leaf) slots[i]).key.equals(leaf.key)) {
+            previous[0] = ((Leaf) slots[i]).value;
+            return withSlot(edit, i, leaf);
+          }
+        }
+        return withInsertedSlot(edit, 0, slots.length, leaf);
+      }
+      int bit = bit(leaf.hash, shift);
+      int index = Integer.bitCount(bitmap & (bit - 1));
+      if ((bitmap & bit) == 0) {
+        return withInsertedSlot(edit, bit, index, leaf);
+      }
+      Object slot = slots[index];
+      if (slot instanceof Node) {
+        Node child = (Node) slot;
+        Node newChild = child.put(edit, leaf, shift + BITS_PER_LEVEL, previous);
+        return newChild == child ? this : withSlot(edit, index, newChild);
+      }
+      Leaf existing = (Leaf) slot;
+      if (existing.hash == leaf.hash && existing.key.equals(leaf.key)) {
+        previous[0] = existing.value;
+        return withSlot(edit, index, leaf);
+      }
+      return withSlot(edit, index, merge(edit, existing, leaf, shift + BITS_PER_LEVEL));
+    }
+
+    /** Creates a node containing two leaves whose hashes are equal up to the given shift. */
+    private static Node merge(Object edit, Leaf first, Leaf second, int shift) {
+      if (isCollisionNode(shift)) {
+        return new Node(edit, 0, new Object[] {first, second});
+      }
+      int firstBit = bit(first.hash, shift);
+      int secondBit = bit(second.hash, shift);
+      if (firstBit == secondBit) {
+        return new Node(
+            edit, firstBit, new Object[] {merge(edit, first, second, shift + BITS_PER_LEVEL)});
+      }
+      Object[] slots =
+          Integer.compareUnsigned(firstBit, secondBit) < 0
+              ? new Object[] {first, second}
+              : new Object[] {second, first};
+      return new Node(edit, firstBit | secondBit, slots);
+    }
+
+    @Nullable
+    Node remove(Object edit, int hash, Object key, int shift, Object[] previous) {
+      if (isCollisionNode(shift)) {
+        for (int i = 0; i < slots.length; i++) {
+          if (((Leaf) slots[i]).key.equals(key)) {
+            previous[0] = ((Leaf) slots[i]).value;
+            return slots.length == 1 ? null : withRemovedSlot(edit, 0, i);
+          }
+        }
+        return this;
+      }
+      int bit = bit(hash, shift);
+      if ((bitmap & bit) == 0) {
+        return this;
+      }
+      int index = Integer.bitCount(bitmap & (bit - 1));
+      Object slot = slots[index];
+      if (slot instanceof Node) {
+        Node child = (Node) slot;
+        Node newChild = child.remove(edit, hash, key, shift + BITS_PER_LEVEL, previous);
+        if (newChild == child) {
+          return this;
+        }
+        if (newChild != null) {
+          return withSlot(edit, index, newChild);
+        }
+      } else {
+        Leaf leaf = (Leaf) slot;
+        if (leaf.hash != hash || !leaf.key.equals(key)) {
+          return this;
+        }
+        previous[0] = leaf.value;
+      }
+      return slots.length == 1 ? null : withRemovedSlot(edit, bit, index);
+    }
+
+    private Node withSlot(Object edit, int index, Object value) {
+      if (this.edit == edit) {
+        slots[index] = value;
+        return this;
+      }
+      Object[] newSlots = slots.clone();
+      newSlots[index] = value;
+      return new Node(edit, bitmap, newSlots);
+    }
+
+    private Node withInsertedSlot(Object edit, int bit, int index, Object value) {
+      Object[] newSlots = new Object[slots.length + 1];
+      System.arraycopy(slots, 0, newSlots, 0, index);
+      newSlots[index] = value;
+      System.arraycopy(slots, index, newSlots, index + 1, slots.length - index);
+      if (this.edit == edit) {
+        bitmap |= bit;
+        slots = newSlots;
+        return this;
+      }
+      return new Node(edit, bitmap | bit, newSlots);
+    }
+
+    private Node withRemovedSlot(Object edit, int bit, int index) {
+      Object[] newSlots = new Object[slots.length - 1];
+      System.arraycopy(slots, 0, newSlots, 0, index);
+      System.arraycopy(slots, index + 1, newSlots, index, slots.length - index - 1);
+      if (this.edit == edit) {
+        bitmap &= ~bit;
+        slots = newSlots;
+        return this;
+      }
+      return new Node(edit, bitmap & ~bit, newSlots);
+    }
+
+    void forEach(BiConsumer<Object, Object> action) {
+      for (Object slot : slots) {
+        if (slot instanceof Leaf) {
+          action.accept(((Leaf) slot).key, ((Leaf) slot).value);
+        } else {
+          ((Node) slot).forEach(action);
+        }
+      }
+    }
+  }
+
+  private static void diff(
+      @Nullable Object before,
+      @Nullable Object after,
+      int shift,
+      DiffVisitor<Object, Object> visitor) {
+    if (before == after) {
+      return;
+    }
+    if (before == null || after == null || !(before instanceof Node && after instanceof Node)) {
+      diffEntries(before, after, visitor);
+      return;
+    }
+    Node beforeNode = (Node) before;
+    Node afterNode = (Node) after;
+    if (Node.isCollisionNode(shift)) {
+      diffEntries(before, after, visitor);
+      return;
+    }
+    int bits = beforeNode.bitmap | afterNode.bitmap;
+    while (bits != 0) {
+      int bit = Integer.lowestOneBit(bits);
+      bits &= ~bit;
+      Object beforeSlot =
+          (beforeNode.bitmap & bit) != 0
+              ? beforeNode.slots[Integer.bitCount(beforeNode.bitmap & (bit - 1))]
+              : null;
+      Object afterSlot =
+          (afterNode.bitmap & bit) != 0
+              ? afterNode.slots[Integer.bitCount(afterNode.bitmap & (bit - 1))]
+              : null;
+      diff(beforeSlot, afterSlot, shift + BITS_PER_LEVEL, visitor);
+    }
+  }
+
+  /** Compares the entries of two subtries (or leaves) without relying on their structure. */
+  private static void diffEntries(
+      @Nullable Object before, @Nullable Object after, DiffVisitor<Object, Object> visitor) {
+    Map<Object, Object> beforeEntries = new LinkedHashMap<>();
+    collect(before, beforeEntries);
+    Map<Object, Object> afterEntries = new LinkedHashMap<>();
+    collect(after, afterEntries);
+    beforeEntries.forEach(
+        (key, value) -> {
+          Object afterValue = afterEntries.get(key);
+          if (afterValue == null) {
+            visitor.removed(key, value);
+          } else if (!Objects.equals(value, afterValue)) {
+            visitor.changed(key, value, afterValue);
+          }
+        });
+    afterEntries.forEach(
+        (key, value) -> {
+          if (!beforeEntries.containsKey(key)) {
+            visitor.added(key, value);
+          }
+        });
+  }
+
+  private static void collect(@Nullable Object slot, Map<Object, Object> entries) {
+    if (slot instanceof Leaf) {
+      entries.put(((Leaf) slot).key, ((Leaf) slot).value);
+    } else if (slot != null) {
+      ((Node) slot).forEach(entries::put);
+    }
+  }
+
+  /** Iterates over the leaves of a trie, depth first. */
+  private static final class LeafIterator implements Iterator<Map.Entry<Object, Object>> {
+    private final Deque<Node> nodes = new ArrayDeque<>();
+    private final Deque<Integer> positions = new ArrayDeque<>();
+    @Nullable private Leaf next;
+
+    LeafIterator(@Nullable Node root) {
+      if (root != null) {
+        nodes.push(root);
+        positions.push(0);
+      }
+      advance();
+    }
+
+    private void advance() {
+      next = null;
+      while (!nodes.isEmpty()) {
+        Node node = nodes.peek();
+        int position = positions.pop();
+        if (position == node.slots.length) {
+          nodes.pop();
+          continue;
+        }
+        positions.push(position + 1);
+        Object slot = node.slots[position];
+        if (slot instanceof Leaf) {
+          next = (Leaf) slot;
+          return;
+        }
+        nodes.push((Node) slot);
+        positions.push(0);
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public Map.Entry<Object, Object> next() {
+      if (next == null) {
+        throw new NoSuchElementException();
+      }
+      Leaf leaf = next;
+      advance();
+      return leaf;
+    }
+  }
+
+  private static final class MapView<K, V> extends AbstractMap<K, V> {
+    private final HashTrieMap<K, V> map;
+
+    MapView(HashTrieMap<K, V> map) {
+      this.map = map;
+    }
+
+    @Override
+    public V get(Object key) {
+      return key != null ? map.get(key) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return key != null && map.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+      return map.size;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+      map.forEach(action);
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+      return new AbstractSet<Entry<K, V>>() {
+        @Override
+        @SuppressWarnings("unchecked")
+        public Iterator<Entry<K, V>> iterator() {
+          return (Iterator<Entry<K, V>>) (Iterator<?>) new LeafIterator(map.root);
+        }
+
+        @Override
+        public int size() {
+          return map.size;
+        }
+      };
+    }
+  }
+}
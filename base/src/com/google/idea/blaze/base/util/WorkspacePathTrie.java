@@ -0,0 +1,99 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.util;
+
+import com.google.common.collect.Maps;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import java.util.Collection;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * A set of workspace directories, indexed by path segment.
+ *
+ * <p>Finding which of the directories contains a given path takes time proportional to the depth
+ * of that path, independent of the number of directories.
+ */
+public final class WorkspacePathTrie {
+  private static final char SEPARATOR = '/';
+
+  private final Node root = new Node();
+
+  public WorkspacePathTrie(Collection<WorkspacePath> directories) {
+    for (WorkspacePath directory : directories) {
+      Node node = root;
+      if (!directory.isWorkspaceRoot()) {
+        String path = directory.relativePath();
+        int start = 0;
+        while (start <= path.length()) {
+          int end = segmentEnd(path, start);
+          node = node.children.computeIfAbsent(path.substring(start, end), segment -> new Node());
+          start = end + 1;
+        }
+      }
+      if (node.directory == null) {
+        node.directory = directory;
+      }
+    }
+  }
+
+  /**
+   * Returns the deepest directory in this set which is either the given path or one of its
+   * ancestors, or null if there's none.
+   */
+  @Nullable
+  public WorkspacePath findAncestor(WorkspacePath path) {
+    return path.isWorkspaceRoot() ? root.directory : findAncestor(path.relativePath());
+  }
+
+  /**
+   * Returns the deepest directory in this set which is either the given workspace-relative path or
+   * one of its ancestors, or null if there's none.
+   */
+  @Nullable
+  public WorkspacePath findAncestor(String relativePath) {
+    Node node = root;
+    WorkspacePath deepest = root.directory;
+    int start = 0;
+    while (start <= relativePath.length() && !node.children.isEmpty()) {
+      int end = segmentEnd(relativePath, start);
+      node = node.children.get(relativePath.substring(start, end));
+      if (node == null) {
+        break;
+      }
+      if (node.directory != null) {
+        deepest = node.directory;
+      }
+      start = end + 1;
+    }
+    return deepest;
+  }
+
+  /** Returns true if any directory in this set is the given path or one of its ancestors. */
+  public boolean containsAncestor(WorkspacePath path) {
+    return findAncestor(path) != null;
+  }
+
+  private static int segmentEnd(String path, int start) {
+    int end = path.indexOf(SEPARATOR, start);
+    return end < 0 ? path.length() : end;
+  }
+
+  private static final class Node {
+    final Map<String, Node> children = Maps.newHashMap();
+    @Nullable WorkspacePath directory;
+  }
+}
@@ -86,6 +86,21 @@ public class GlobReferenceTest extends BuildFileIntegrationTestCase {
     assertThat(references).containsExactly(ref1, ref2);
   }
 
+  @Test
+  public void testResolvesFilesCreatedAfterFirstResolve() {
+    PsiFile ref1 = workspace.createPsiFile(new WorkspacePath("java/com/google/Test.java"));
+    BuildFile file =
+        createBuildFile(new WorkspacePath("java/com/google/BUILD"), "glob(['**/*.java'])");
+
+    GlobExpression glob = PsiUtils.findFirstChildOfClassRecursive(file, GlobExpression.class);
+    assertThat(multiResolve(glob)).containsExactly(ref1);
+
+    PsiFile ref2 = workspace.createPsiFile(new WorkspacePath("java/com/google/sub/Foo.java"));
+    workspace.createPsiFile(new WorkspacePath("java/com/google/other/BUILD"));
+    workspace.createPsiFile(new WorkspacePath("java/com/google/other/Bar.java"));
+    assertThat(multiResolve(glob)).containsExactly(ref1, ref2);
+  }
+
   @Test
   public void testFindsSubDirectories() {
     PsiFile ref1 = workspace.createPsiFile(new WorkspacePath("java/com/google/test/Test.java"));
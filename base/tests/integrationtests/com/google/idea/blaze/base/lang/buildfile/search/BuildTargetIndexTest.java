@@ -0,0 +1,66 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.search;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.idea.blaze.base.lang.buildfile.BuildFileIntegrationTestCase;
+import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link BuildTargetIndex}. */
+@RunWith(JUnit4.class)
+public class BuildTargetIndexTest extends BuildFileIntegrationTestCase {
+
+  @Test
+  public void testTopLevelTargetsIndexedWithKinds() {
+    BuildFile file =
+        createBuildFile(
+            new WorkspacePath("java/com/google/BUILD"),
+            "java_library(name = 'lib')",
+            "java_test(name = 'test', deps = [':lib'])",
+            "def fn():",
+            "  java_library(name = 'nested')");
+
+    assertThat(BuildTargetIndex.getTargets(file))
+        .containsExactly("lib", "java_library", "test", "java_test")
+        .inOrder();
+  }
+
+  @Test
+  public void testUnnamedRulesIgnored() {
+    BuildFile file =
+        createBuildFile(
+            new WorkspacePath("java/com/google/BUILD"),
+            "package(default_visibility = ['//visibility:public'])",
+            "java_library(name = 'lib')");
+
+    assertThat(BuildTargetIndex.getTargets(file)).containsExactly("lib", "java_library");
+  }
+
+  @Test
+  public void testFilesOutsideIndexAreParsedDirectly() {
+    BuildFile file =
+        createBuildFile(
+            new WorkspacePath("java/com/google/build_defs.bzl"),
+            "java_library(name = 'lib')");
+
+    assertThat(BuildTargetIndex.getTargets(file)).containsExactly("lib", "java_library");
+  }
+}
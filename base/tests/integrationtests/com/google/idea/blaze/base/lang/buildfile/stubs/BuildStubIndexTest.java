@@ -0,0 +1,80 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.stubs;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.idea.blaze.base.lang.buildfile.BuildFileIntegrationTestCase;
+import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile;
+import com.google.idea.blaze.base.lang.buildfile.psi.FuncallExpression;
+import com.google.idea.blaze.base.lang.buildfile.psi.FunctionStatement;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.stubs.StubIndex;
+import java.util.Collection;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for the BUILD file stub indices. */
+@RunWith(JUnit4.class)
+public class BuildStubIndexTest extends BuildFileIntegrationTestCase {
+
+  @Test
+  public void testTopLevelRulesIndexed() {
+    BuildFile file =
+        createBuildFile(
+            new WorkspacePath("java/com/google/BUILD"),
+            "java_library(name = 'lib')",
+            "def fn():",
+            "  java_library(name = 'nested')");
+
+    Collection<FuncallExpression> rules =
+        StubIndex.getElements(
+            BuildRuleNameIndex.KEY,
+            "lib",
+            getProject(),
+            GlobalSearchScope.allScope(getProject()),
+            FuncallExpression.class);
+    assertThat(rules).containsExactly(file.findRule("lib"));
+    assertThat(
+            StubIndex.getElements(
+                BuildRuleNameIndex.KEY,
+                "nested",
+                getProject(),
+                GlobalSearchScope.allScope(getProject()),
+                FuncallExpression.class))
+        .isEmpty();
+  }
+
+  @Test
+  public void testFunctionDefinitionsIndexed() {
+    BuildFile file =
+        createBuildFile(
+            new WorkspacePath("java/com/google/build_defs.bzl"),
+            "def function(name, deps):",
+            "  return");
+
+    Collection<FunctionStatement> functions =
+        StubIndex.getElements(
+            FunctionNameIndex.KEY,
+            "function",
+            getProject(),
+            GlobalSearchScope.allScope(getProject()),
+            FunctionStatement.class);
+    assertThat(functions).containsExactly(file.findDeclaredFunction("function"));
+  }
+}
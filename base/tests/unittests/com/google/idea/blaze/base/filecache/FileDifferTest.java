@@ -18,7 +18,6 @@ package com.google.idea.blaze.base.filecache;
 import static com.google.common.truth.Truth.assertThat;
 
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.idea.blaze.base.BlazeTestCase;
 import com.google.idea.blaze.base.async.executor.BlazeExecutor;
@@ -66,8 +65,8 @@ public class FileDifferTest extends BlazeTestCase {
 
   @Test
   public void testDiffWithDiffMethodTimestamp() throws Exception {
-    ImmutableMap<File, Long> oldState =
-        ImmutableMap.<File, Long>builder()
+    FileState oldState =
+        FileState.builder()
             .put(new File("file1"), 13L)
             .put(new File("file2"), 17L)
             .put(new File("file3"), 21L)
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.filecache;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link FileState}. */
+@RunWith(JUnit4.class)
+public class FileStateTest {
+
+  @Test
+  public void testDiffReportsUpdatedAndRemovedFiles() {
+    FileState oldState =
+        FileState.builder()
+            .put(new File("/out/a/unchanged"), 1)
+            .put(new File("/out/a/changed"), 2)
+            .put(new File("/out/b/removed"), 3)
+            .put(new File("relative"), 4)
+            .build();
+    FileState newState =
+        FileState.builder()
+            .put(new File("/out/c/added"), 5)
+            .put(new File("/out/a/changed"), 6)
+            .put(new File("/out/a/unchanged"), 1)
+            .put(new File("relative"), 4)
+            .build();
+
+    List<File> updated = Lists.newArrayList();
+    List<File> removed = Lists.newArrayList();
+    FileState.diff(oldState, newState, updated::add, removed::add);
+
+    assertThat(updated).containsExactly(new File("/out/a/changed"), new File("/out/c/added"));
+    assertThat(removed).containsExactly(new File("/out/b/removed"));
+  }
+
+  @Test
+  public void testMergeKeepsModifiedTimesFromFirstState() {
+    FileState first =
+        FileState.builder().put(new File("/a/x"), 1).put(new File("/b/y"), 2).build();
+    FileState second =
+        FileState.builder().put(new File("/a/x"), 3).put(new File("/a/z"), 4).build();
+
+    FileState merged = first.merge(second);
+
+    assertThat(merged.getFiles())
+        .containsExactly(new File("/a/x"), new File("/a/z"), new File("/b/y"))
+        .inOrder();
+    assertThat(merged.getModifiedTime(new File("/a/x"))).isEqualTo(1);
+    assertThat(merged.getModifiedTime(new File("/a/z"))).isEqualTo(4);
+    assertThat(merged.getModifiedTime(new File("/b/x"))).isEqualTo(0);
+  }
+
+  @Test
+  public void testOfIgnoresMissingFiles() {
+    FileState state =
+        FileState.of(
+            ImmutableList.of(new File("/a/present"), new File("/a/missing")), new long[] {7, 0});
+    assertThat(state.size()).isEqualTo(1);
+    assertThat(state.contains(new File("/a/missing"))).isFalse();
+  }
+
+  @Test
+  public void testSerializationRoundTrip() throws Exception {
+    FileState state =
+        FileState.builder().put(new File("/a/x"), 1).put(new File("/b/y"), 2).build();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(state);
+    }
+    try (ObjectInputStream in =
+        new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      assertThat(in.readObject()).isEqualTo(state);
+    }
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.io;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.idea.blaze.base.async.executor.MockBlazeExecutor;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link FileAttributeScanner}. */
+@RunWith(JUnit4.class)
+public class FileAttributeScannerTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testLargeDirectoryMatchesSingleFileReads() throws Exception {
+    List<File> files = Lists.newArrayList();
+    for (int i = 0; i < 100; i++) {
+      File file = new File(folder.getRoot(), "file" + i);
+      if (i % 3 != 0) {
+        Files.write(file.toPath(), new byte[i]);
+        assertThat(file.setLastModified(1000L * (i + 1))).isTrue();
+      }
+      files.add(file);
+    }
+    files.add(new File(folder.newFolder("small"), "missing"));
+
+    FileAttributeProvider provider = new FileAttributeProvider();
+    long[] times =
+        FileAttributeScanner.readAttributeValues(
+            files, provider::getFileModifiedTimes, new MockBlazeExecutor());
+    long[] sizes =
+        FileAttributeScanner.readAttributeValues(
+            files, provider::getFileSizes, new MockBlazeExecutor());
+    for (int i = 0; i < files.size(); i++) {
+      assertThat(times[i]).isEqualTo(provider.getFileModifiedTime(files.get(i)));
+      assertThat(sizes[i]).isEqualTo(files.get(i).length());
+    }
+  }
+
+  @Test
+  public void testSubSecondModifiedTimesMatchBetweenSingleAndBatchReads() throws Exception {
+    List<File> files = Lists.newArrayList();
+    for (int i = 0; i < 100; i++) {
+      File file = folder.newFile("file" + i);
+      Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(1000L * (i + 1) + 1 + i));
+      files.add(file);
+    }
+    FileAttributeProvider provider = new FileAttributeProvider();
+    long[] batchTimes = provider.getFileModifiedTimes(folder.getRoot(), files);
+    for (int i = 0; i < files.size(); i++) {
+      long expected = Files.getLastModifiedTime(files.get(i).toPath()).toMillis();
+      assertThat(provider.getFileModifiedTime(files.get(i))).isEqualTo(expected);
+      assertThat(batchTimes[i]).isEqualTo(expected);
+    }
+    // small batches are read one file at a time, and must agree with large ones
+    assertThat(provider.getFileModifiedTimes(folder.getRoot(), files.subList(0, 2)))
+        .isEqualTo(new long[] {batchTimes[0], batchTimes[1]});
+  }
+
+  @Test
+  public void testLargeBatchesUseOverriddenSingleFileReads() throws Exception {
+    List<File> files = Lists.newArrayList();
+    for (int i = 0; i < 100; i++) {
+      files.add(folder.newFile("file" + i));
+    }
+    FileAttributeProvider provider =
+        new FileAttributeProvider() {
+          @Override
+          public long getFileModifiedTime(File file) {
+            return 42L;
+          }
+
+          @Override
+          public long getFileSize(File file) {
+            return 7L;
+          }
+        };
+    for (long time : provider.getFileModifiedTimes(folder.getRoot(), files)) {
+      assertThat(time).isEqualTo(42L);
+    }
+    for (long size : provider.getFileSizes(folder.getRoot(), files)) {
+      assertThat(size).isEqualTo(7L);
+    }
+  }
+
+  @Test
+  public void testDirectoryOnlyListedWhenMostFilesAreRequested() throws Exception {
+    List<File> files = Lists.newArrayList();
+    for (int i = 0; i < 300; i++) {
+      files.add(folder.newFile("file" + i));
+    }
+    FileAttributeProvider provider = new FileAttributeProvider();
+    assertThat(provider.useDirectoryListing(folder.getRoot(), files)).isTrue();
+    assertThat(provider.useDirectoryListing(folder.getRoot(), files.subList(0, 100))).isFalse();
+    assertThat(provider.useDirectoryListing(folder.getRoot(), files.subList(0, 10))).isFalse();
+  }
+
+  @Test
+  public void testMissingFileHasZeroModifiedTime() {
+    FileAttributeProvider provider = new FileAttributeProvider();
+    assertThat(provider.getFileModifiedTime(new File(folder.getRoot(), "missing"))).isEqualTo(0L);
+  }
+
+  @Test
+  public void testResultKeepsInputOrderAndOmitsMissingFiles() throws Exception {
+    File a = folder.newFile("a");
+    File b = new File(folder.newFolder("dir"), "b");
+    Files.write(b.toPath(), new byte[1]);
+    File missing = new File(folder.getRoot(), "missing");
+
+    FileAttributeProvider provider = new FileAttributeProvider();
+    ImmutableMap<File, Long> result =
+        FileAttributeScanner.readAttributes(
+            ImmutableList.of(b, missing, a),
+            provider::getFileModifiedTimes,
+            new MockBlazeExecutor());
+    assertThat(result.keySet()).containsExactly(b, a).inOrder();
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.globbing;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link GlobMatcher}. */
+@RunWith(JUnit4.class)
+public class GlobMatcherTest {
+
+  @Test
+  public void testMatchesAgreesWithUnixGlob() {
+    ImmutableList<String> patterns =
+        ImmutableList.of("*", "**", "*.java", "Foo*", "F?o.java", "**/*.java", "a/**", "[x");
+    ImmutableList<String> paths =
+        ImmutableList.of("Foo.java", ".Foo.java", "Fxo.java", "a/b", "b/c.java", "[x", "");
+    for (String pattern : patterns) {
+      GlobMatcher matcher =
+          GlobMatcher.create(ImmutableList.of(pattern), ImmutableList.of(), false);
+      for (String path : paths) {
+        assertThat(matcher.matches(path, false)).isEqualTo(UnixGlob.matches(pattern, path));
+      }
+    }
+  }
+
+  @Test
+  public void testExcludesTakePrecedence() {
+    GlobMatcher matcher =
+        GlobMatcher.create(
+            ImmutableList.of("**/*.java"), ImmutableList.of("**/*Test.java"), false);
+    assertThat(matcher.matches("foo/Bar.java", false)).isTrue();
+    assertThat(matcher.matches("foo/BarTest.java", false)).isFalse();
+  }
+
+  @Test
+  public void testDirectoriesExcluded() {
+    GlobMatcher matcher = GlobMatcher.create(ImmutableList.of("**"), ImmutableList.of(), true);
+    assertThat(matcher.matches("foo", false)).isTrue();
+    assertThat(matcher.matches("foo", true)).isFalse();
+  }
+
+  @Test
+  public void testMatchesDirectlyIgnoresWildcardPatterns() {
+    GlobMatcher matcher =
+        GlobMatcher.create(ImmutableList.of("*.java", "Foo.txt"), ImmutableList.of(), false);
+    assertThat(matcher.matches("Bar.java", false)).isTrue();
+    assertThat(matcher.matchesDirectly("Bar.java", false)).isFalse();
+    assertThat(matcher.matchesDirectly("Foo.txt", false)).isTrue();
+  }
+}
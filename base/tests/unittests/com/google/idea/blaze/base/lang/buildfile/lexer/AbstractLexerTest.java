@@ -19,6 +19,9 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import org.junit.Ignore;
 import org.junit.Test;
 
@@ -51,9 +54,27 @@ public abstract class AbstractLexerTest {
   protected Token[] tokens(String input) {
     Token[] tokens = createLexer(input).getTokens().toArray(new Token[0]);
     assertNoCharactersMissing(input.length(), tokens);
+    Token[] streamed = streamTokens(input, 0);
+    assertEquals(names(tokens), names(streamed));
+    assertEquals(positions(tokens), positions(streamed));
     return tokens;
   }
 
+  /**
+   * Tokenizes the input lazily, from the given offset and the initial state, as the IntelliJ lexer
+   * does. Token values aren't computed.
+   */
+  protected Token[] streamTokens(String input, int startOffset) {
+    BuildLexerBase lexer = new BuildLexerBase(mode);
+    lexer.start(input, startOffset, input.length(), 0);
+    List<Token> tokens = new ArrayList<>();
+    while (lexer.getTokenKind() != null) {
+      tokens.add(new Token(lexer.getTokenKind(), lexer.getTokenStart(), lexer.getTokenEnd()));
+      lexer.advance();
+    }
+    return tokens.toArray(new Token[0]);
+  }
+
   /**
    * Both the syntax highlighter and the parser require every character be accounted for by a
    * lexical element.
@@ -136,6 +157,35 @@ public abstract class AbstractLexerTest {
     return buf.toString();
   }
 
+  @Test
+  public void testRestartFromInitialState() throws Exception {
+    String input =
+        "load('//foo:bar.bzl', 'baz')\n"
+            + "# comment\n"
+            + "def f(x):\n"
+            + "  if x:\n"
+            + "    return [x,  # trailing comment\n"
+            + "        1]\n"
+            + "\n"
+            + "java_library(name = 'lib', srcs = glob(['*.java']))\n";
+    Token[] allTokens = streamTokens(input, 0);
+
+    BuildLexerBase lexer = new BuildLexerBase(mode);
+    lexer.start(input, 0, input.length(), 0);
+    int restartPoints = 0;
+    for (int i = 0; lexer.getTokenKind() != null; i++, lexer.advance()) {
+      if (lexer.getTokenState() != 0) {
+        continue;
+      }
+      restartPoints++;
+      Token[] expected = Arrays.copyOfRange(allTokens, i, allTokens.length);
+      Token[] restarted = streamTokens(input, lexer.getTokenStart());
+      assertEquals(names(expected), names(restarted));
+      assertEquals(positions(expected), positions(restarted));
+    }
+    assertTrue(restartPoints > 1);
+  }
+
   @Test
   public void testIntegers() throws Exception {
     // Detection of MINUS immediately following integer constant proves we
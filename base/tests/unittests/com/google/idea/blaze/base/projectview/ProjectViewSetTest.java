@@ -32,6 +32,7 @@ import com.google.idea.blaze.base.projectview.section.Section;
 import com.google.idea.blaze.base.projectview.section.SectionParser;
 import com.google.idea.blaze.base.projectview.section.sections.AdditionalLanguagesSection;
 import com.google.idea.blaze.base.projectview.section.sections.BuildFlagsSection;
+import com.google.idea.blaze.base.projectview.section.sections.ConcurrentSyncShardsSection;
 import com.google.idea.blaze.base.projectview.section.sections.DirectoryEntry;
 import com.google.idea.blaze.base.projectview.section.sections.DirectorySection;
 import com.google.idea.blaze.base.projectview.section.sections.ExcludeTargetSection;
@@ -96,6 +97,7 @@ public class ProjectViewSetTest extends BlazeTestCase {
                         ListSection.builder(RunConfigurationsSection.KEY)
                             .add(new WorkspacePath("test")))
                     .add(ScalarSection.builder(ShardBlazeBuildsSection.KEY).set(false))
+                    .add(ScalarSection.builder(ConcurrentSyncShardsSection.KEY).set(2))
                     .build())
             .build();
 
@@ -17,16 +17,14 @@ package com.google.idea.blaze.base.run.testmap;
 
 import static com.google.common.truth.Truth.assertThat;
 
-import com.google.common.collect.ImmutableMultimap;
 import com.google.idea.blaze.base.BlazeTestCase;
 import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
 import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
-import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.ideinfo.TargetMap;
 import com.google.idea.blaze.base.ideinfo.TargetMapBuilder;
 import com.google.idea.blaze.base.model.primitives.Label;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
-import com.google.idea.blaze.base.targetmaps.ReverseDependencyMap;
+import com.google.idea.blaze.base.targetmaps.TargetGraph;
 import com.google.idea.common.experiments.ExperimentService;
 import com.google.idea.common.experiments.MockExperimentService;
 import java.io.File;
@@ -66,9 +64,8 @@ public class TestMapTest extends BlazeTestCase {
 
     FilteredTargetMap testMap =
         TestTargetFilterImpl.computeTestMap(project, artifactLocationDecoder, targetMap);
-    ImmutableMultimap<TargetKey, TargetKey> reverseDependencies =
-        ReverseDependencyMap.createRdepsMap(targetMap);
-    assertThat(testMap.targetsForSourceFile(reverseDependencies, new File("/test/Test.java")))
+    TargetGraph targetGraph = TargetGraph.create(targetMap);
+    assertThat(testMap.targetsForSourceFile(targetGraph, new File("/test/Test.java")))
         .containsExactly(Label.create("//test:test"));
   }
 
@@ -92,9 +89,8 @@ public class TestMapTest extends BlazeTestCase {
 
     FilteredTargetMap testMap =
         TestTargetFilterImpl.computeTestMap(project, artifactLocationDecoder, targetMap);
-    ImmutableMultimap<TargetKey, TargetKey> reverseDependencies =
-        ReverseDependencyMap.createRdepsMap(targetMap);
-    assertThat(testMap.targetsForSourceFile(reverseDependencies, new File("/test/Test.java")))
+    TargetGraph targetGraph = TargetGraph.create(targetMap);
+    assertThat(testMap.targetsForSourceFile(targetGraph, new File("/test/Test.java")))
         .containsExactly(Label.create("//test:test"));
   }
 
@@ -124,9 +120,8 @@ public class TestMapTest extends BlazeTestCase {
 
     FilteredTargetMap testMap =
         TestTargetFilterImpl.computeTestMap(project, artifactLocationDecoder, targetMap);
-    ImmutableMultimap<TargetKey, TargetKey> reverseDependencies =
-        ReverseDependencyMap.createRdepsMap(targetMap);
-    assertThat(testMap.targetsForSourceFile(reverseDependencies, new File("/test/Test.java")))
+    TargetGraph targetGraph = TargetGraph.create(targetMap);
+    assertThat(testMap.targetsForSourceFile(targetGraph, new File("/test/Test.java")))
         .containsExactly(Label.create("//test:test"), Label.create("//test:test2"));
   }
 
@@ -162,9 +157,8 @@ public class TestMapTest extends BlazeTestCase {
 
     FilteredTargetMap testMap =
         TestTargetFilterImpl.computeTestMap(project, artifactLocationDecoder, targetMap);
-    ImmutableMultimap<TargetKey, TargetKey> reverseDependencies =
-        ReverseDependencyMap.createRdepsMap(targetMap);
-    assertThat(testMap.targetsForSourceFile(reverseDependencies, new File("/test/Test.java")))
+    TargetGraph targetGraph = TargetGraph.create(targetMap);
+    assertThat(testMap.targetsForSourceFile(targetGraph, new File("/test/Test.java")))
         .containsExactly(Label.create("//test:test"), Label.create("//test:test2"))
         .inOrder();
   }
@@ -201,9 +195,8 @@ public class TestMapTest extends BlazeTestCase {
 
     FilteredTargetMap testMap =
         TestTargetFilterImpl.computeTestMap(project, artifactLocationDecoder, targetMap);
-    ImmutableMultimap<TargetKey, TargetKey> reverseDependencies =
-        ReverseDependencyMap.createRdepsMap(targetMap);
-    assertThat(testMap.targetsForSourceFile(reverseDependencies, new File("/test/Test.java")))
+    TargetGraph targetGraph = TargetGraph.create(targetMap);
+    assertThat(testMap.targetsForSourceFile(targetGraph, new File("/test/Test.java")))
         .containsExactly(Label.create("//test:test"), Label.create("//test:test2"));
   }
 
@@ -234,9 +227,8 @@ public class TestMapTest extends BlazeTestCase {
 
     FilteredTargetMap testMap =
         TestTargetFilterImpl.computeTestMap(project, artifactLocationDecoder, targetMap);
-    ImmutableMultimap<TargetKey, TargetKey> reverseDependencies =
-        ReverseDependencyMap.createRdepsMap(targetMap);
-    assertThat(testMap.targetsForSourceFile(reverseDependencies, new File("/test/Test.java")))
+    TargetGraph targetGraph = TargetGraph.create(targetMap);
+    assertThat(testMap.targetsForSourceFile(targetGraph, new File("/test/Test.java")))
         .containsExactly(Label.create("//test:test"));
   }
 
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.model.MockBlazeProjectDataBuilder;
+import com.google.idea.blaze.base.model.MockBlazeProjectDataManager;
+import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
+import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
+import com.intellij.openapi.project.Project;
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link SyncCache}. */
+@RunWith(JUnit4.class)
+public class SyncCacheTest extends BlazeTestCase {
+  private SyncCache syncCache;
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    projectServices.register(
+        BlazeProjectDataManager.class,
+        new MockBlazeProjectDataManager(
+            MockBlazeProjectDataBuilder.builder(new WorkspaceRoot(new File("/"))).build()));
+    syncCache = new SyncCache(project);
+  }
+
+  @Test
+  public void testValueComputedOncePerSync() {
+    AtomicInteger computations = new AtomicInteger();
+    SyncCache.SyncCacheComputable<Integer> computable =
+        (project, projectData) -> computations.incrementAndGet();
+
+    assertThat(syncCache.get("key", computable)).isEqualTo(1);
+    assertThat(syncCache.get("key", computable)).isEqualTo(1);
+    assertThat(syncCache.get("otherKey", computable)).isEqualTo(2);
+
+    syncCache.clear();
+    assertThat(syncCache.get("key", computable)).isEqualTo(3);
+    assertThat(syncCache.getStats().hitCount()).isEqualTo(1);
+    assertThat(syncCache.getStats().missCount()).isEqualTo(3);
+  }
+
+  @Test
+  public void testRecursiveRequestForSameKeyIsComputedInline() {
+    AtomicInteger computations = new AtomicInteger();
+    SyncCache.SyncCacheComputable<Integer> computable =
+        new SyncCache.SyncCacheComputable<Integer>() {
+          @Override
+          public Integer compute(Project project, BlazeProjectData projectData) {
+            if (computations.incrementAndGet() == 1) {
+              return syncCache.get("key", this) + 10;
+            }
+            return computations.get();
+          }
+        };
+
+    assertThat(syncCache.get("key", computable)).isEqualTo(12);
+    assertThat(syncCache.get("key", computable)).isEqualTo(12);
+    assertThat(computations.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void testFailedComputationIsNotCached() {
+    try {
+      syncCache.get(
+          "key",
+          (project, projectData) -> {
+            throw new IllegalStateException("failed");
+          });
+      fail("Expected an IllegalStateException");
+    } catch (IllegalStateException expected) {
+      // expected
+    }
+    assertThat(syncCache.get("key", (project, projectData) -> "value")).isEqualTo("value");
+    assertThat(syncCache.getStats().loadExceptionCount()).isEqualTo(1);
+  }
+}
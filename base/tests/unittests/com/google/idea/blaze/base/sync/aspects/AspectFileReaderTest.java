@@ -0,0 +1,120 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.aspects;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.model.primitives.LanguageClass;
+import com.google.idea.blaze.base.model.primitives.WorkspaceType;
+import com.google.idea.blaze.base.sync.aspects.strategy.AspectStrategySkylark;
+import com.google.idea.blaze.base.sync.projectview.WorkspaceLanguageSettings;
+import com.google.repackaged.devtools.intellij.ideinfo.IntellijIdeInfo;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link AspectFileReader}. */
+@RunWith(JUnit4.class)
+public class AspectFileReaderTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private File cacheDirectory;
+  private File javaTarget;
+  private File pythonTarget;
+
+  @Before
+  public void setUp() throws Exception {
+    cacheDirectory = folder.newFolder("cache");
+    javaTarget =
+        writeAspectFile(
+            "lib.intellij-info.txt",
+            IntellijIdeInfo.TargetIdeInfo.newBuilder()
+                .setLabel("//java:lib")
+                .setKindString("java_library")
+                .addDependencies("//java:dep")
+                .build());
+    pythonTarget =
+        writeAspectFile(
+            "py.intellij-info.txt",
+            IntellijIdeInfo.TargetIdeInfo.newBuilder()
+                .setLabel("//py:lib")
+                .setKindString("py_library")
+                .build());
+  }
+
+  @Test
+  public void testCacheIsReusedBySecondFullSync() throws Exception {
+    AspectFileReader firstSync = createReader();
+    assertThat(firstSync.read(javaTarget)).isNotNull();
+    assertThat(firstSync.read(pythonTarget)).isNull();
+    AspectOutputCache cache = firstSync.getCacheIfUsed();
+    assertThat(cache.getHitCount()).isEqualTo(0);
+    cache.save(2);
+
+    AspectFileReader secondSync = createReader();
+    TargetIdeInfo target = secondSync.read(javaTarget);
+    assertThat(target.key.label).isEqualTo(Label.create("//java:lib"));
+    assertThat(secondSync.read(pythonTarget)).isNull();
+    assertThat(secondSync.getCacheIfUsed().getHitCount()).isEqualTo(2);
+    assertThat(secondSync.getCacheIfUsed().getMissCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testCachedTargetsAreInternedWithParsedTargets() throws Exception {
+    AspectFileReader firstSync = createReader();
+    firstSync.read(javaTarget);
+    firstSync.getCacheIfUsed().save(1);
+
+    AspectFileReader secondSync = createReader();
+    TargetIdeInfo cached = secondSync.read(javaTarget);
+    File depFile =
+        writeAspectFile(
+            "dep.intellij-info.txt",
+            IntellijIdeInfo.TargetIdeInfo.newBuilder()
+                .setLabel("//java:dep")
+                .setKindString("java_library")
+                .build());
+    TargetIdeInfo parsed = secondSync.read(depFile);
+    assertThat(cached.dependencies.iterator().next().targetKey.label).isSameAs(parsed.key.label);
+  }
+
+  private AspectFileReader createReader() {
+    return new AspectFileReader(
+        new WorkspaceLanguageSettings(WorkspaceType.JAVA, ImmutableSet.of(LanguageClass.JAVA)),
+        ImmutableSet.of(),
+        new AspectStrategySkylark(),
+        ImmutableList.of(),
+        cacheDirectory,
+        "1.0");
+  }
+
+  private File writeAspectFile(String name, IntellijIdeInfo.TargetIdeInfo message)
+      throws Exception {
+    File file = new File(folder.getRoot(), name);
+    Files.write(file.toPath(), message.toString().getBytes(StandardCharsets.UTF_8));
+    return file;
+  }
+}
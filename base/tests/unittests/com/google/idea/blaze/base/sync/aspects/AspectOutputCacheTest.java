@@ -0,0 +1,173 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.aspects;
+
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.hash.HashCode;
+import com.google.idea.blaze.base.ideinfo.IdeInfoInterner;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.idea.blaze.base.model.primitives.Label;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link AspectOutputCache}. */
+@RunWith(JUnit4.class)
+public class AspectOutputCacheTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private static final String VERSION = AspectOutputCache.formatVersion("strategy", "1.0");
+
+  @Test
+  public void testUnchangedContentsAreReusedAfterReload() throws Exception {
+    File dir = folder.getRoot();
+    HashCode digest = digest("foo");
+    TargetIdeInfo target = target("//foo:foo");
+
+    AspectOutputCache cache = AspectOutputCache.load(dir, VERSION, new IdeInfoInterner());
+    assertThat(cache.get(digest)).isNull();
+    cache.put(digest, target);
+    cache.save(1);
+
+    AspectOutputCache reloaded = AspectOutputCache.load(dir, VERSION, new IdeInfoInterner());
+    assertThat(reloaded.get(digest).key).isEqualTo(target.key);
+    assertThat(reloaded.get(digest("changed"))).isNull();
+    assertThat(reloaded.getHitCount()).isEqualTo(1);
+    assertThat(reloaded.getMissCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testDifferentVersionDiscardsCache() throws Exception {
+    File dir = folder.getRoot();
+    AspectOutputCache cache = AspectOutputCache.load(dir, VERSION, new IdeInfoInterner());
+    cache.put(digest("foo"), target("//foo:foo"));
+    cache.save(1);
+
+    String newPluginVersion = AspectOutputCache.formatVersion("strategy", "2.0");
+    IdeInfoInterner interner = new IdeInfoInterner();
+    assertThat(AspectOutputCache.load(dir, newPluginVersion, interner).get(digest("foo"))).isNull();
+    assertThat(AspectOutputCache.load(dir, VERSION, interner).get(digest("foo"))).isNull();
+  }
+
+  @Test
+  public void testLoadWaitsForBackgroundSave() throws Exception {
+    File dir = folder.getRoot();
+    AspectOutputCache cache = AspectOutputCache.load(dir, VERSION, new IdeInfoInterner());
+    cache.put(digest("foo"), target("//foo:foo"));
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      cache.saveInBackground(executor, 1);
+      assertThat(AspectOutputCache.load(dir, VERSION, new IdeInfoInterner()).get(digest("foo")))
+          .isNotNull();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testReloadedTargetsAreInterned() throws Exception {
+    File dir = folder.getRoot();
+    AspectOutputCache cache = AspectOutputCache.load(dir, VERSION, new IdeInfoInterner());
+    cache.put(digest("foo"), target("//foo:foo"));
+    cache.save(1);
+
+    IdeInfoInterner interner = new IdeInfoInterner();
+    Label label = interner.label("//foo:foo");
+    AspectOutputCache reloaded = AspectOutputCache.load(dir, VERSION, interner);
+    assertThat(reloaded.get(digest("foo")).key.label).isSameAs(label);
+  }
+
+  @Test
+  public void testSaveAppendsOnlyNewEntries() throws Exception {
+    File dir = folder.getRoot();
+    AspectOutputCache cache = AspectOutputCache.load(dir, VERSION, new IdeInfoInterner());
+    cache.put(digest("foo"), target("//foo:foo"));
+    cache.save(2);
+    byte[] before = readDataFile(dir);
+
+    AspectOutputCache second = AspectOutputCache.load(dir, VERSION, new IdeInfoInterner());
+    assertThat(second.get(digest("foo"))).isNotNull();
+    second.put(digest("bar"), target("//bar:bar"));
+    second.save(2);
+    byte[] after = readDataFile(dir);
+
+    assertThat(after.length).isGreaterThan(before.length);
+    assertThat(Arrays.copyOf(after, before.length)).isEqualTo(before);
+    AspectOutputCache reloaded = AspectOutputCache.load(dir, VERSION, new IdeInfoInterner());
+    assertThat(reloaded.get(digest("foo")).key.label).isEqualTo(Label.create("//foo:foo"));
+    assertThat(reloaded.get(digest("bar")).key.label).isEqualTo(Label.create("//bar:bar"));
+  }
+
+  @Test
+  public void testUnchangedCacheIsNotRewritten() throws Exception {
+    File dir = folder.getRoot();
+    AspectOutputCache cache = AspectOutputCache.load(dir, VERSION, new IdeInfoInterner());
+    cache.put(digest("foo"), target("//foo:foo"));
+    cache.save(1);
+    byte[] before = readDataFile(dir);
+
+    AspectOutputCache reloaded = AspectOutputCache.load(dir, VERSION, new IdeInfoInterner());
+    assertThat(reloaded.get(digest("foo"))).isNotNull();
+    reloaded.save(1);
+
+    assertThat(readDataFile(dir)).isEqualTo(before);
+  }
+
+  @Test
+  public void testEntriesFoundAfterTailIsMerged() throws Exception {
+    File dir = folder.getRoot();
+    int count = 3000;
+    // Enough small saves that the appended tail is merged into the sorted index at least once
+    for (int start = 0; start < count; start += 500) {
+      AspectOutputCache cache = AspectOutputCache.load(dir, VERSION, new IdeInfoInterner());
+      for (int i = start; i < start + 500; i++) {
+        cache.put(digest("target" + i), target("//pkg:target" + i));
+      }
+      cache.save(count);
+    }
+
+    AspectOutputCache reloaded = AspectOutputCache.load(dir, VERSION, new IdeInfoInterner());
+    for (int i = 0; i < count; i++) {
+      TargetIdeInfo target = reloaded.get(digest("target" + i));
+      assertThat(target).isNotNull();
+      assertThat(target.key.label).isEqualTo(Label.create("//pkg:target" + i));
+    }
+    assertThat(reloaded.getMissCount()).isEqualTo(0);
+  }
+
+  private static byte[] readDataFile(File dir) throws Exception {
+    return Files.readAllBytes(new File(dir, "aspect_output_cache.log").toPath());
+  }
+
+  private static HashCode digest(String contents) {
+    return AspectOutputCache.digest(contents.getBytes(StandardCharsets.UTF_8), 0);
+  }
+
+  private static TargetIdeInfo target(String label) {
+    return TargetIdeInfo.builder().setLabel(Label.create(label)).setKind(Kind.JAVA_LIBRARY).build();
+  }
+}
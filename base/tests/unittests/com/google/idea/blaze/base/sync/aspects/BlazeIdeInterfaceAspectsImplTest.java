@@ -15,9 +15,14 @@
  */
 package com.google.idea.blaze.base.sync.aspects;
 
+import static com.google.common.truth.Truth.assertThat;
+
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 import com.google.idea.blaze.base.BlazeTestCase;
 import com.google.idea.blaze.base.TestUtils;
+import com.google.idea.blaze.base.filecache.FileState;
+import com.google.idea.blaze.base.ideinfo.IdeInfoInterner;
 import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
 import com.google.idea.blaze.base.ideinfo.TargetMap;
 import com.google.idea.blaze.base.io.FileAttributeProvider;
@@ -70,7 +75,7 @@ public class BlazeIdeInterfaceAspectsImplTest extends BlazeTestCase {
                     .setJavaPackage("package"))
             .build();
 
-    TargetIdeInfo target = IdeInfoFromProtobuf.makeTargetIdeInfo(ideProto);
+    TargetIdeInfo target = IdeInfoFromProtobuf.makeTargetIdeInfo(ideProto, new IdeInfoInterner());
     TestUtils.assertIsSerializable(target);
   }
 
@@ -81,13 +86,71 @@ public class BlazeIdeInterfaceAspectsImplTest extends BlazeTestCase {
         ImmutableMap.of(
             new File("fileName"),
             TargetIdeInfo.builder().setLabel(Label.create("//test:test")).build().key);
-    state.fileState = ImmutableMap.of();
+    state.fileState = FileState.EMPTY;
     state.targetMap =
         new TargetMap(ImmutableMap.of()); // Tested separately in testRuleIdeInfoIsSerializable
 
     TestUtils.assertIsSerializable(state);
   }
 
+  @Test
+  public void testTargetsConvertedWithSameInternerShareValues() {
+    IntellijIdeInfo.TargetIdeInfo first =
+        IntellijIdeInfo.TargetIdeInfo.newBuilder()
+            .setLabel("//test:first")
+            .setKindString("java_library")
+            .setBuildFileArtifactLocation(artifactLocation("test/BUILD"))
+            .addDependencies("//test:dep")
+            .addTags("tag")
+            .build();
+    IntellijIdeInfo.TargetIdeInfo second =
+        IntellijIdeInfo.TargetIdeInfo.newBuilder()
+            .setLabel("//test:second")
+            .setKindString("java_library")
+            .setBuildFileArtifactLocation(artifactLocation("test/BUILD"))
+            .addDependencies("//test:dep")
+            .addTags("tag")
+            .build();
+
+    IdeInfoInterner interner = new IdeInfoInterner();
+    TargetIdeInfo firstTarget = IdeInfoFromProtobuf.makeTargetIdeInfo(first, interner);
+    TargetIdeInfo secondTarget = IdeInfoFromProtobuf.makeTargetIdeInfo(second, interner);
+
+    assertThat(firstTarget.buildFile).isSameAs(secondTarget.buildFile);
+    assertThat(firstTarget.tags).isSameAs(secondTarget.tags);
+    assertThat(Iterables.getOnlyElement(firstTarget.dependencies).targetKey)
+        .isSameAs(Iterables.getOnlyElement(secondTarget.dependencies).targetKey);
+    assertThat(interner.label("//test:dep"))
+        .isSameAs(Iterables.getOnlyElement(firstTarget.dependencies).targetKey.label);
+  }
+
+  @Test
+  public void testGeneratedArtifactsRecordOutputBase() {
+    IntellijIdeInfo.TargetIdeInfo message =
+        IntellijIdeInfo.TargetIdeInfo.newBuilder()
+            .setLabel("//test:test")
+            .setKindString("java_library")
+            .setBuildFileArtifactLocation(
+                artifactLocation("test/BUILD").toBuilder().setIsSource(true))
+            .setJavaIdeInfo(
+                IntellijIdeInfo.JavaIdeInfo.newBuilder()
+                    .setJdeps(
+                        artifactLocation("test/libtest.jdeps")
+                            .toBuilder()
+                            .setRootExecutionPathFragment("blaze-out/bin")))
+            .build();
+
+    IdeInfoInterner interner = new IdeInfoInterner();
+    TargetIdeInfo defaultTarget = IdeInfoFromProtobuf.makeTargetIdeInfo(message, interner);
+    TargetIdeInfo shardTarget =
+        IdeInfoFromProtobuf.makeTargetIdeInfo(message, interner.forOutputBase(1));
+
+    assertThat(defaultTarget.javaIdeInfo.jdepsFile.getOutputBaseIndex()).isEqualTo(0);
+    assertThat(shardTarget.javaIdeInfo.jdepsFile.getOutputBaseIndex()).isEqualTo(1);
+    // source artifacts don't depend on the output base
+    assertThat(shardTarget.buildFile).isSameAs(defaultTarget.buildFile);
+  }
+
   static IntellijIdeInfo.ArtifactLocation artifactLocation(String relativePath) {
     return IntellijIdeInfo.ArtifactLocation.newBuilder().setRelativePath(relativePath).build();
   }
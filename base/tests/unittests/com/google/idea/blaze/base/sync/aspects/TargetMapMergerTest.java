@@ -0,0 +1,112 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.aspects;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.sync.aspects.BlazeIdeInterfaceAspectsImpl.State;
+import java.io.File;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link TargetMapMerger}. */
+@RunWith(JUnit4.class)
+public class TargetMapMergerTest {
+  private static final File FOO_FILE = new File("/out/foo.intellij-info.txt");
+  private static final File OTHER_FOO_FILE = new File("/out/foo2.intellij-info.txt");
+  private static final File BAR_FILE = new File("/out/bar.intellij-info.txt");
+
+  @Test
+  public void testLowestIndexWinsRegardlessOfMergeOrder() {
+    TargetMapMerger merger = new TargetMapMerger(null);
+    merger.merge(1, OTHER_FOO_FILE, target("//foo:foo", Kind.JAVA_BINARY));
+    merger.merge(0, FOO_FILE, target("//foo:foo", Kind.JAVA_LIBRARY));
+    merger.merge(2, OTHER_FOO_FILE, target("//foo:foo", Kind.JAVA_TEST));
+
+    TargetMap targetMap = merger.build();
+    assertThat(targetMap.get(key("//foo:foo")).kind).isEqualTo(Kind.JAVA_LIBRARY);
+    assertThat(merger.getDuplicateTargetLabels()).isEqualTo(2);
+    assertThat(merger.getMergedFileCount()).isEqualTo(3);
+    assertThat(merger.getFileToTargetMapKey()).containsEntry(FOO_FILE, key("//foo:foo"));
+  }
+
+  @Test
+  public void testUnchangedTargetsAreRetained() {
+    TargetMapMerger merger = new TargetMapMerger(null);
+    merger.merge(0, FOO_FILE, target("//foo:foo", Kind.JAVA_LIBRARY));
+    merger.merge(1, BAR_FILE, target("//bar:bar", Kind.JAVA_LIBRARY));
+    State state = new State();
+    state.targetMap = merger.build();
+    state.fileToTargetMapKey = merger.getFileToTargetMapKey();
+
+    TargetMapMerger next = new TargetMapMerger(state);
+    next.merge(0, FOO_FILE, target("//foo:foo", Kind.JAVA_BINARY));
+    TargetMap targetMap = next.build();
+
+    assertThat(targetMap.get(key("//foo:foo")).kind).isEqualTo(Kind.JAVA_BINARY);
+    assertThat(targetMap.get(key("//bar:bar")).kind).isEqualTo(Kind.JAVA_LIBRARY);
+  }
+
+  @Test
+  public void testRemovedFileRemovesItsTarget() {
+    TargetMapMerger merger = new TargetMapMerger(null);
+    merger.merge(0, FOO_FILE, target("//foo:foo", Kind.JAVA_LIBRARY));
+    merger.merge(1, BAR_FILE, target("//bar:bar", Kind.JAVA_LIBRARY));
+    State state = new State();
+    state.targetMap = merger.build();
+    state.fileToTargetMapKey = merger.getFileToTargetMapKey();
+
+    TargetMapMerger next = new TargetMapMerger(state);
+    next.removeFile(BAR_FILE);
+    TargetMap targetMap = next.build();
+
+    assertThat(targetMap.contains(key("//bar:bar"))).isFalse();
+    assertThat(targetMap.contains(key("//foo:foo"))).isTrue();
+    assertThat(next.getFileToTargetMapKey()).doesNotContainKey(BAR_FILE);
+  }
+
+  @Test
+  public void testRemovedFileDoesNotRemoveTargetReadFromAnotherFile() {
+    TargetMapMerger merger = new TargetMapMerger(null);
+    merger.merge(0, FOO_FILE, target("//foo:foo", Kind.JAVA_LIBRARY));
+    State state = new State();
+    state.targetMap = merger.build();
+    state.fileToTargetMapKey = merger.getFileToTargetMapKey();
+
+    // The target moved to another aspect file, which was parsed before removals were processed
+    TargetMapMerger next = new TargetMapMerger(state);
+    next.merge(0, OTHER_FOO_FILE, target("//foo:foo", Kind.JAVA_BINARY));
+    next.removeFile(FOO_FILE);
+    TargetMap targetMap = next.build();
+
+    assertThat(targetMap.get(key("//foo:foo")).kind).isEqualTo(Kind.JAVA_BINARY);
+    assertThat(next.getFileToTargetMapKey()).containsEntry(OTHER_FOO_FILE, key("//foo:foo"));
+  }
+
+  private static TargetKey key(String label) {
+    return TargetKey.forPlainTarget(Label.create(label));
+  }
+
+  private static TargetIdeInfo target(String label, Kind kind) {
+    return TargetIdeInfo.builder().setLabel(Label.create(label)).setKind(kind).build();
+  }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.data;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.JavaIdeInfo;
+import com.google.idea.blaze.base.ideinfo.LibraryArtifact;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.ideinfo.TargetMapBuilder;
+import com.google.idea.blaze.base.ideinfo.TestIdeInfo;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.util.HashTrieMap;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ProjectDataFile} and {@link TargetMapSerializer}. */
+@RunWith(JUnit4.class)
+public class ProjectDataFileTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testPrimitivesRoundTrip() throws IOException {
+    File file = folder.newFile("data");
+    try (ProjectDataFile.Writer writer =
+        ProjectDataFile.newWriter(file, 1, ImmutableList.of("first", "second"))) {
+      writer.writeSection(
+          "first",
+          out -> {
+            out.writeLong(42L);
+            out.writeVarInt(300);
+            out.writeVarInt(-1);
+            out.writeString("hello");
+            out.writeString(null);
+          });
+      writer.writeSection("second", out -> out.writeString("hello"));
+      writer.finish();
+    }
+
+    ProjectDataFile dataFile = ProjectDataFile.open(file, 1);
+    SectionInput first = dataFile.section("first");
+    assertThat(first.readLong()).isEqualTo(42L);
+    assertThat(first.readVarInt()).isEqualTo(300);
+    assertThat(first.readVarInt()).isEqualTo(-1);
+    String hello = first.readString();
+    assertThat(hello).isEqualTo("hello");
+    assertThat(first.readString()).isNull();
+    assertThat(dataFile.section("second").readString()).isSameAs(hello);
+  }
+
+  @Test
+  public void testSchemaVersionMismatchFails() throws IOException {
+    File file = folder.newFile("data");
+    try (ProjectDataFile.Writer writer = ProjectDataFile.newWriter(file, 1, ImmutableList.of())) {
+      writer.finish();
+    }
+    try {
+      ProjectDataFile.open(file, 2);
+      fail("Expected IOException");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testTargetMapRoundTrip() throws IOException {
+    TargetMap targetMap =
+        TargetMapBuilder.builder()
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setLabel("//foo:lib")
+                    .setKind("java_library")
+                    .setBuildFile(source("foo/BUILD"))
+                    .addSource(source("foo/Lib.java"))
+                    .addTag("manual")
+                    .addDependency("//foo:dep")
+                    .setJavaInfo(
+                        JavaIdeInfo.builder()
+                            .addJar(
+                                LibraryArtifact.builder()
+                                    .setClassJar(generated("foo/liblib.jar"))
+                                    .setSourceJar(generated("foo/liblib-src.jar")))))
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setLabel("//foo:dep")
+                    .setKind("java_test")
+                    .setBuildFile(source("foo/BUILD"))
+                    .setTestInfo(TestIdeInfo.builder().setTestSize(TestIdeInfo.TestSize.LARGE)))
+            .build();
+
+    File file = folder.newFile("data");
+    try (ProjectDataFile.Writer writer =
+        ProjectDataFile.newWriter(file, 1, ImmutableList.of("targets"))) {
+      writer.writeSection("targets", out -> TargetMapSerializer.write(out, targetMap));
+      writer.finish();
+    }
+    Map<TargetKey, TargetIdeInfo> decoded =
+        TargetMapSerializer.read(ProjectDataFile.open(file, 1).section("targets")).asMap();
+
+    assertThat(decoded.keySet()).containsExactlyElementsIn(targetMap.map().keySet());
+    TargetIdeInfo lib = decoded.get(TargetKey.forPlainTarget(Label.create("//foo:lib")));
+    assertThat(lib.kind).isEqualTo(Kind.JAVA_LIBRARY);
+    assertThat(lib.sources).containsExactly(source("foo/Lib.java"));
+    assertThat(lib.tags).containsExactly("manual");
+    assertThat(lib.dependencies.iterator().next().targetKey)
+        .isEqualTo(TargetKey.forPlainTarget(Label.create("//foo:dep")));
+    assertThat(lib.javaIdeInfo.jars)
+        .containsExactlyElementsIn(targetMap.get(lib.key).javaIdeInfo.jars);
+    assertThat(lib.testIdeInfo).isNull();
+
+    TargetIdeInfo dep = decoded.get(TargetKey.forPlainTarget(Label.create("//foo:dep")));
+    assertThat(dep.testIdeInfo.testSize).isEqualTo(TestIdeInfo.TestSize.LARGE);
+    // equal artifacts are shared after decoding
+    assertThat(dep.buildFile).isSameAs(lib.buildFile);
+  }
+
+  @Test
+  public void testLazyTargetMapIsOnlyComputedOnce() {
+    int[] loads = new int[1];
+    TargetMap targetMap =
+        TargetMap.lazy(
+            () -> {
+              loads[0]++;
+              return HashTrieMap.of();
+            });
+    assertThat(loads[0]).isEqualTo(0);
+    assertThat(targetMap.targets()).isEmpty();
+    assertThat(targetMap.map()).isEmpty();
+    assertThat(loads[0]).isEqualTo(1);
+  }
+
+  private static ArtifactLocation source(String relativePath) {
+    return ArtifactLocation.builder().setRelativePath(relativePath).setIsSource(true).build();
+  }
+
+  private static ArtifactLocation generated(String relativePath) {
+    return ArtifactLocation.builder()
+        .setRootExecutionPathFragment("bazel-out/bin")
+        .setRelativePath(relativePath)
+        .setIsSource(false)
+        .build();
+  }
+}
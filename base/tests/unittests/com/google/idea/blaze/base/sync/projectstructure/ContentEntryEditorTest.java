@@ -0,0 +1,255 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.projectstructure;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.io.FileAttributeProvider;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
+import com.google.idea.blaze.base.projectview.ProjectViewSet;
+import com.google.idea.blaze.base.projectview.section.sections.DirectoryEntry;
+import com.google.idea.blaze.base.settings.Blaze.BuildSystem;
+import com.google.idea.blaze.base.sync.SourceFolderProvider;
+import com.google.idea.blaze.base.sync.projectstructure.ContentEntryEditor.PreviousSync;
+import com.google.idea.blaze.base.sync.projectview.ImportRoots;
+import com.google.idea.blaze.base.sync.projectview.SourceTestConfig;
+import com.google.idea.blaze.base.util.UrlUtil;
+import com.intellij.openapi.roots.ContentEntry;
+import com.intellij.openapi.roots.ModifiableRootModel;
+import com.intellij.openapi.roots.SourceFolder;
+import java.io.File;
+import javax.annotation.Nullable;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ContentEntryEditor}. */
+@RunWith(JUnit4.class)
+public class ContentEntryEditorTest extends BlazeTestCase {
+  private static final long NOW = 1_000_000L;
+
+  /** Every directory is empty, and was last modified well before the current time. */
+  private static class MockFileAttributeProvider extends FileAttributeProvider {
+    @Override
+    public boolean isDirectory(File file) {
+      return true;
+    }
+
+    @Override
+    public long getFileModifiedTime(File file) {
+      return NOW - 60_000L;
+    }
+
+    @Override
+    public File[] listFiles(File file) {
+      return new File[0];
+    }
+  }
+
+  private static class MockSourceFolderProvider implements SourceFolderProvider {
+    @Nullable final Object inputs;
+
+    MockSourceFolderProvider(@Nullable Object inputs) {
+      this.inputs = inputs;
+    }
+
+    @Override
+    public ImmutableMap<File, SourceFolder> initializeSourceFolders(ContentEntry contentEntry) {
+      SourceFolder sourceFolder = mock(SourceFolder.class);
+      return ImmutableMap.of(UrlUtil.urlToFile(contentEntry.getUrl()), sourceFolder);
+    }
+
+    @Override
+    public SourceFolder setSourceFolderForLocation(
+        ContentEntry contentEntry, SourceFolder parentFolder, File file, boolean isTestSource) {
+      return parentFolder;
+    }
+
+    @Override
+    public Object getSourceFolderInputs(File contentRoot) {
+      return inputs;
+    }
+  }
+
+  private final WorkspaceRoot workspaceRoot = new WorkspaceRoot(new File("/root"));
+  private final ModifiableRootModel modifiableRootModel = mock(ModifiableRootModel.class);
+
+  @Override
+  protected void initTest(
+      @NotNull Container applicationServices, @NotNull Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    applicationServices.register(FileAttributeProvider.class, new MockFileAttributeProvider());
+    when(modifiableRootModel.addContentEntry(any(String.class)))
+        .thenAnswer(invocation -> contentEntry((String) invocation.getArguments()[0]));
+  }
+
+  @Test
+  public void testUnchangedContentEntryIsRetained() {
+    ContentEntry existing = contentEntry(url("java"));
+    DirectoryStructure previousStructure = computeStructure(null);
+    PreviousSync previousSync =
+        new PreviousSync(
+            previousStructure,
+            new MockSourceFolderProvider("inputs"),
+            new MockSourceFolderProvider("inputs"));
+
+    updateContentEntries(previousSync, computeStructure(previousStructure), existing);
+
+    verify(modifiableRootModel, never()).removeContentEntry(any(ContentEntry.class));
+    verify(modifiableRootModel, never()).addContentEntry(any(String.class));
+  }
+
+  @Test
+  public void testContentEntryIsRebuiltWithoutPreviousSync() {
+    ContentEntry existing = contentEntry(url("java"));
+
+    updateContentEntries(null, computeStructure(null), existing);
+
+    verify(modifiableRootModel).removeContentEntry(existing);
+    verify(modifiableRootModel).addContentEntry(url("java"));
+  }
+
+  @Test
+  public void testContentEntryIsRebuiltWhenDirectoryStructureChanges() {
+    ContentEntry existing = contentEntry(url("java"));
+    // structures computed independently don't share subtrees
+    PreviousSync previousSync =
+        new PreviousSync(
+            computeStructure(null),
+            new MockSourceFolderProvider("inputs"),
+            new MockSourceFolderProvider("inputs"));
+
+    updateContentEntries(previousSync, computeStructure(null), existing);
+
+    verify(modifiableRootModel).removeContentEntry(existing);
+    verify(modifiableRootModel).addContentEntry(url("java"));
+  }
+
+  @Test
+  public void testContentEntryIsRebuiltWhenSourceFolderInputsChange() {
+    ContentEntry existing = contentEntry(url("java"));
+    DirectoryStructure previousStructure = computeStructure(null);
+    PreviousSync previousSync =
+        new PreviousSync(
+            previousStructure,
+            new MockSourceFolderProvider("new inputs"),
+            new MockSourceFolderProvider("old inputs"));
+
+    updateContentEntries(previousSync, computeStructure(previousStructure), existing);
+
+    verify(modifiableRootModel).removeContentEntry(existing);
+    verify(modifiableRootModel).addContentEntry(url("java"));
+  }
+
+  @Test
+  public void testContentEntryIsRebuiltWhenSourceFolderInputsAreUnknown() {
+    ContentEntry existing = contentEntry(url("java"));
+    DirectoryStructure previousStructure = computeStructure(null);
+    PreviousSync previousSync =
+        new PreviousSync(
+            previousStructure,
+            new MockSourceFolderProvider(null),
+            new MockSourceFolderProvider(null));
+
+    updateContentEntries(previousSync, computeStructure(previousStructure), existing);
+
+    verify(modifiableRootModel).removeContentEntry(existing);
+    verify(modifiableRootModel).addContentEntry(url("java"));
+  }
+
+  @Test
+  public void testContentEntryIsRebuiltWhenExcludesChange() {
+    ContentEntry existing = contentEntry(url("java"));
+    when(existing.getExcludeFolderUrls()).thenReturn(new String[] {url("java/excluded")});
+    DirectoryStructure previousStructure = computeStructure(null);
+    PreviousSync previousSync =
+        new PreviousSync(
+            previousStructure,
+            new MockSourceFolderProvider("inputs"),
+            new MockSourceFolderProvider("inputs"));
+
+    updateContentEntries(previousSync, computeStructure(previousStructure), existing);
+
+    verify(modifiableRootModel).removeContentEntry(existing);
+    verify(modifiableRootModel).addContentEntry(url("java"));
+  }
+
+  @Test
+  public void testStaleContentEntryIsRemoved() {
+    ContentEntry existing = contentEntry(url("java"));
+    ContentEntry stale = contentEntry(url("javatests"));
+    DirectoryStructure previousStructure = computeStructure(null);
+    PreviousSync previousSync =
+        new PreviousSync(
+            previousStructure,
+            new MockSourceFolderProvider("inputs"),
+            new MockSourceFolderProvider("inputs"));
+
+    updateContentEntries(previousSync, computeStructure(previousStructure), existing, stale);
+
+    verify(modifiableRootModel).removeContentEntry(stale);
+    verify(modifiableRootModel, never()).removeContentEntry(existing);
+    verify(modifiableRootModel, never()).addContentEntry(any(String.class));
+  }
+
+  private void updateContentEntries(
+      @Nullable PreviousSync previousSync,
+      DirectoryStructure rootDirectoryStructure,
+      ContentEntry... existingContentEntries) {
+    when(modifiableRootModel.getContentEntries()).thenReturn(existingContentEntries);
+    ContentEntryEditor.updateContentEntries(
+        workspaceRoot,
+        importRoots(),
+        new MockSourceFolderProvider("inputs"),
+        previousSync,
+        rootDirectoryStructure,
+        modifiableRootModel);
+  }
+
+  private DirectoryStructure computeStructure(@Nullable DirectoryStructure previousStructure) {
+    return DirectoryStructure.computeRootDirectoryStructure(
+        workspaceRoot,
+        importRoots(),
+        new SourceTestConfig(ProjectViewSet.builder().build()),
+        NOW,
+        previousStructure);
+  }
+
+  private ImportRoots importRoots() {
+    return ImportRoots.builder(workspaceRoot, BuildSystem.Blaze)
+        .add(DirectoryEntry.include(new WorkspacePath("java")))
+        .build();
+  }
+
+  private String url(String relativePath) {
+    return UrlUtil.fileToIdeaUrl(workspaceRoot.fileForPath(new WorkspacePath(relativePath)));
+  }
+
+  private static ContentEntry contentEntry(String url) {
+    ContentEntry contentEntry = mock(ContentEntry.class);
+    when(contentEntry.getUrl()).thenReturn(url);
+    when(contentEntry.getExcludeFolderUrls()).thenReturn(new String[0]);
+    return contentEntry;
+  }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.projectstructure;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.SetMultimap;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.io.FileAttributeProvider;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
+import com.google.idea.blaze.base.projectview.ProjectViewSet;
+import com.google.idea.blaze.base.projectview.section.sections.DirectoryEntry;
+import com.google.idea.blaze.base.settings.Blaze.BuildSystem;
+import com.google.idea.blaze.base.sync.projectview.ImportRoots;
+import com.google.idea.blaze.base.sync.projectview.SourceTestConfig;
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link DirectoryStructure}. */
+@RunWith(JUnit4.class)
+public class DirectoryStructureTest extends BlazeTestCase {
+  private static final long NOW = 1_000_000L;
+  private static final long OLD = NOW - 60_000L;
+
+  private static class MockFileAttributeProvider extends FileAttributeProvider {
+    final Map<File, Long> directories = Maps.newHashMap();
+    final SetMultimap<File, File> children = LinkedHashMultimap.create();
+    final List<File> listed = Lists.newArrayList();
+
+    void addDirectory(File directory, long modifiedTime) {
+      directories.put(directory, modifiedTime);
+      File parent = directory.getParentFile();
+      if (directories.containsKey(parent)) {
+        children.put(parent, directory);
+      }
+    }
+
+    @Override
+    public boolean isDirectory(File file) {
+      return directories.containsKey(file);
+    }
+
+    @Override
+    public long getFileModifiedTime(File file) {
+      Long modifiedTime = directories.get(file);
+      return modifiedTime != null ? modifiedTime : 0;
+    }
+
+    @Override
+    public File[] listFiles(File file) {
+      listed.add(file);
+      return children.get(file).toArray(new File[0]);
+    }
+  }
+
+  private final MockFileAttributeProvider fileAttributeProvider = new MockFileAttributeProvider();
+  private final WorkspaceRoot workspaceRoot = new WorkspaceRoot(new File("/root"));
+
+  @Override
+  protected void initTest(
+      @NotNull Container applicationServices, @NotNull Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    applicationServices.register(FileAttributeProvider.class, fileAttributeProvider);
+
+    addDirectory("java", OLD);
+    addDirectory("java/a", OLD);
+    addDirectory("java/a/sub", OLD);
+    addDirectory("java/b", OLD);
+  }
+
+  @Test
+  public void testUnchangedStructureIsReusedWithoutListing() {
+    DirectoryStructure first = compute(NOW, null);
+    assertThat(fileAttributeProvider.listed).hasSize(4);
+
+    fileAttributeProvider.listed.clear();
+    DirectoryStructure second = compute(NOW + 1000, first);
+    assertThat(fileAttributeProvider.listed).isEmpty();
+    assertThat(root(second)).isSameAs(root(first));
+  }
+
+  @Test
+  public void testOnlyModifiedDirectoryIsListedAgain() {
+    DirectoryStructure first = compute(NOW, null);
+
+    addDirectory("java/a/sub/new", OLD + 1000);
+    setModifiedTime("java/a/sub", OLD + 1000);
+    fileAttributeProvider.listed.clear();
+    DirectoryStructure second = compute(NOW + 1000, first);
+
+    assertThat(fileAttributeProvider.listed)
+        .containsExactly(file("java/a/sub"), file("java/a/sub/new"));
+    DirectoryStructure java = root(second);
+    assertThat(java).isNotSameAs(root(first));
+    assertThat(child(java, "java/b")).isSameAs(child(root(first), "java/b"));
+    assertThat(child(child(child(java, "java/a"), "java/a/sub"), "java/a/sub/new")).isNotNull();
+  }
+
+  @Test
+  public void testRecentlyModifiedDirectoryIsListedAgainOnNextSync() {
+    setModifiedTime("java/b", NOW - DirectoryStructure.RACY_MODIFICATION_WINDOW_MILLIS / 2);
+    DirectoryStructure first = compute(NOW, null);
+
+    // the directory may have changed since it was listed without its timestamp changing
+    fileAttributeProvider.listed.clear();
+    DirectoryStructure second = compute(NOW + 10_000, first);
+    assertThat(fileAttributeProvider.listed).containsExactly(file("java/b"));
+    assertThat(child(root(second), "java/a")).isSameAs(child(root(first), "java/a"));
+
+    // once it's out of the racy window, it's reused
+    fileAttributeProvider.listed.clear();
+    DirectoryStructure third = compute(NOW + 20_000, second);
+    assertThat(fileAttributeProvider.listed).isEmpty();
+    assertThat(root(third)).isSameAs(root(second));
+  }
+
+  @Test
+  public void testRemovedDirectoryIsDropped() {
+    DirectoryStructure first = compute(NOW, null);
+
+    fileAttributeProvider.directories.remove(file("java/b"));
+    fileAttributeProvider.children.remove(file("java"), file("java/b"));
+    setModifiedTime("java", OLD + 1000);
+    DirectoryStructure second = compute(NOW + 1000, first);
+
+    assertThat(root(second).directories.keySet()).containsExactly(new WorkspacePath("java/a"));
+    assertThat(child(root(second), "java/a")).isSameAs(child(root(first), "java/a"));
+  }
+
+  @Test
+  public void testChangedExcludesListEverythingAgain() {
+    DirectoryStructure first = compute(NOW, null);
+
+    fileAttributeProvider.listed.clear();
+    ImportRoots importRoots =
+        ImportRoots.builder(workspaceRoot, BuildSystem.Blaze)
+            .add(DirectoryEntry.include(new WorkspacePath("java")))
+            .add(DirectoryEntry.exclude(new WorkspacePath("java/b")))
+            .build();
+    DirectoryStructure second =
+        DirectoryStructure.computeRootDirectoryStructure(
+            workspaceRoot, importRoots, testConfig(), NOW + 1000, first);
+
+    assertThat(fileAttributeProvider.listed)
+        .containsExactly(file("java"), file("java/a"), file("java/a/sub"));
+    assertThat(child(root(second), "java/b")).isNull();
+  }
+
+  @Test
+  public void testChangedTestSourcesAreNotReused() {
+    DirectoryStructure first = compute(NOW, null);
+    assertThat(child(root(first), "java/a").isTestSource).isFalse();
+
+    SourceTestConfig testConfig =
+        new SourceTestConfig(ProjectViewSet.builder().build()) {
+          @Override
+          public boolean isTestSource(String relativePath) {
+            return relativePath.startsWith("java/a");
+          }
+        };
+    DirectoryStructure second =
+        DirectoryStructure.computeRootDirectoryStructure(
+            workspaceRoot, importRoots(), testConfig, NOW + 1000, first);
+
+    DirectoryStructure a = child(root(second), "java/a");
+    assertThat(a.isTestSource).isTrue();
+    assertThat(child(a, "java/a/sub").isTestSource).isTrue();
+    assertThat(child(root(second), "java/b")).isSameAs(child(root(first), "java/b"));
+  }
+
+  private DirectoryStructure compute(
+      long currentTimeMillis, @Nullable DirectoryStructure previousStructure) {
+    return DirectoryStructure.computeRootDirectoryStructure(
+        workspaceRoot, importRoots(), testConfig(), currentTimeMillis, previousStructure);
+  }
+
+  private ImportRoots importRoots() {
+    return ImportRoots.builder(workspaceRoot, BuildSystem.Blaze)
+        .add(DirectoryEntry.include(new WorkspacePath("java")))
+        .build();
+  }
+
+  private static SourceTestConfig testConfig() {
+    return new SourceTestConfig(ProjectViewSet.builder().build());
+  }
+
+  private static DirectoryStructure root(DirectoryStructure rootDirectoryStructure) {
+    return child(rootDirectoryStructure, "java");
+  }
+
+  @Nullable
+  private static DirectoryStructure child(DirectoryStructure structure, String relativePath) {
+    return structure.directories.get(new WorkspacePath(relativePath));
+  }
+
+  private void addDirectory(String relativePath, long modifiedTime) {
+    fileAttributeProvider.addDirectory(file(relativePath), modifiedTime);
+  }
+
+  private void setModifiedTime(String relativePath, long modifiedTime) {
+    fileAttributeProvider.directories.put(file(relativePath), modifiedTime);
+  }
+
+  private File file(String relativePath) {
+    return workspaceRoot.fileForPath(new WorkspacePath(relativePath));
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.projectstructure;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.intellij.openapi.roots.ContentEntry;
+import com.intellij.openapi.roots.LibraryOrderEntry;
+import com.intellij.openapi.roots.ModifiableRootModel;
+import com.intellij.openapi.roots.ModuleOrderEntry;
+import com.intellij.openapi.roots.ModuleSourceOrderEntry;
+import com.intellij.openapi.roots.OrderEntry;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ModuleEditorImpl}. */
+@RunWith(JUnit4.class)
+public class ModuleEditorImplTest {
+
+  @Test
+  public void testRemoveOrderEntriesRetainsModuleSourceAndContentEntries() {
+    ModuleSourceOrderEntry moduleSource = mock(ModuleSourceOrderEntry.class);
+    LibraryOrderEntry library = mock(LibraryOrderEntry.class);
+    ModuleOrderEntry moduleDependency = mock(ModuleOrderEntry.class);
+    ModifiableRootModel modifiableModel = mock(ModifiableRootModel.class);
+    when(modifiableModel.getOrderEntries())
+        .thenReturn(new OrderEntry[] {moduleSource, library, moduleDependency});
+
+    ModuleEditorImpl.removeOrderEntries(modifiableModel);
+
+    verify(modifiableModel).removeOrderEntry(library);
+    verify(modifiableModel).removeOrderEntry(moduleDependency);
+    verify(modifiableModel, never()).removeOrderEntry(moduleSource);
+    verify(modifiableModel, never()).clear();
+    verify(modifiableModel, never()).removeContentEntry(any(ContentEntry.class));
+  }
+}
@@ -19,6 +19,7 @@ import static com.google.common.truth.Truth.assertThat;
 
 import com.google.common.collect.ImmutableList;
 import com.google.idea.blaze.base.model.primitives.TargetExpression;
+import java.util.ArrayList;
 import java.util.List;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -92,4 +93,42 @@ public class PartitionTargetsTest {
             TargetExpression.fromString("-//java/com/google:six"))
         .inOrder();
   }
+
+  @Test
+  public void testShardsBalancedByMeasuredCost() {
+    List<TargetExpression> targets = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      targets.add(TargetExpression.fromString("//java/com/google/heavy:target" + i));
+    }
+    for (int i = 0; i < 30; i++) {
+      targets.add(TargetExpression.fromString("//java/com/google/light:target" + i));
+    }
+    ShardStatistics.Recorder recorder = new ShardStatistics.Recorder();
+    recorder.recordShard(targets.subList(0, 10), 10000, 1000, false);
+    recorder.recordShard(targets.subList(10, 40), 3000, 3000, false);
+
+    ShardedTargetList shards =
+        BlazeBuildTargetSharder.shardTargets(targets, 20, recorder.build(null));
+    assertThat(shards.shardedTargets).hasSize(2);
+    assertThat(shards.shardedTargets.get(0)).isEqualTo(targets.subList(0, 7));
+    assertThat(shards.shardedTargets.get(1)).isEqualTo(targets.subList(7, 40));
+  }
+
+  @Test
+  public void testShardsShrunkAfterOutOfMemory() {
+    List<TargetExpression> targets = new ArrayList<>();
+    for (int i = 0; i < 40; i++) {
+      targets.add(TargetExpression.fromString("//java/com/google:target" + i));
+    }
+    ShardStatistics.Recorder recorder = new ShardStatistics.Recorder();
+    recorder.recordShard(targets.subList(0, 20), 1000, 2000, false);
+    recorder.recordShard(targets.subList(20, 40), 1000, 0, true);
+
+    ShardedTargetList shards =
+        BlazeBuildTargetSharder.shardTargets(targets, 20, recorder.build(null));
+    assertThat(shards.shardedTargets).hasSize(3);
+    for (List<TargetExpression> shard : shards.shardedTargets) {
+      assertThat(shard.size()).isAtMost(15);
+    }
+  }
 }
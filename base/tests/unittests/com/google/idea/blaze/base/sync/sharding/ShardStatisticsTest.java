@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.sharding;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.model.primitives.TargetExpression;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ShardStatistics}. */
+@RunWith(JUnit4.class)
+public class ShardStatisticsTest {
+
+  @Test
+  public void testOutOfMemoryLimitsRelaxedBySuccessfulSyncs() {
+    List<TargetExpression> targets = targets("//java/com/google", 40);
+    ShardStatistics.Recorder recorder = new ShardStatistics.Recorder();
+    recorder.recordShard(targets.subList(0, 20), 1000, 2000, false);
+    recorder.recordShard(targets.subList(20, 40), 1000, 0, true);
+    ShardStatistics statistics = recorder.build(null);
+    assertThat(statistics.getMaxShardTargets()).isEqualTo(15);
+    assertThat(statistics.getMaxShardBytes()).isEqualTo(1500L);
+
+    ShardStatistics.Recorder nextSync = new ShardStatistics.Recorder();
+    nextSync.recordShard(targets.subList(0, 15), 1000, 1500, false);
+    ShardStatistics relaxed = nextSync.build(statistics);
+
+    assertThat(relaxed.getMaxShardTargets()).isGreaterThan(15);
+    assertThat(relaxed.getMaxShardBytes()).isGreaterThan(statistics.getMaxShardBytes());
+  }
+
+  @Test
+  public void testLimitsNotRelaxedWithoutSuccessfulShards() {
+    ShardStatistics.Recorder recorder = new ShardStatistics.Recorder();
+    recorder.recordShard(targets("//java/com/google", 20), 1000, 2000, true);
+    ShardStatistics statistics = recorder.build(null);
+
+    ShardStatistics unchanged = new ShardStatistics.Recorder().build(statistics);
+
+    assertThat(unchanged.getMaxShardTargets()).isEqualTo(statistics.getMaxShardTargets());
+    assertThat(unchanged.getMaxShardBytes()).isEqualTo(statistics.getMaxShardBytes());
+  }
+
+  @Test
+  public void testCostsOfRemovedPackagesArePruned() {
+    ShardStatistics.Recorder recorder = new ShardStatistics.Recorder();
+    recorder.recordShard(ImmutableList.of(Label.create("//kept:one")), 1000, 100, false);
+    recorder.recordShard(ImmutableList.of(Label.create("//removed:one")), 9000, 900, false);
+    ShardStatistics statistics = recorder.build(null);
+    assertThat(statistics.estimateMillis(Label.create("//removed:two"))).isEqualTo(9000.0);
+
+    TargetIdeInfo kept =
+        TargetIdeInfo.builder().setLabel("//kept:one").setKind(Kind.JAVA_LIBRARY).build();
+    ShardStatistics pruned =
+        statistics.retainPackagesIn(new TargetMap(ImmutableMap.of(kept.key, kept)));
+
+    // unmeasured packages are estimated from the average of the remaining ones
+    assertThat(pruned.estimateMillis(Label.create("//removed:two"))).isEqualTo(1000.0);
+    assertThat(pruned.estimateMillis(Label.create("//kept:two"))).isEqualTo(1000.0);
+  }
+
+  private static List<TargetExpression> targets(String packagePath, int count) {
+    List<TargetExpression> targets = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      targets.add(TargetExpression.fromString(packagePath + ":target" + i));
+    }
+    return targets;
+  }
+}
@@ -17,11 +17,14 @@ package com.google.idea.blaze.base.sync.workspace;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import com.google.common.collect.ImmutableList;
 import com.google.idea.blaze.base.BlazeTestCase;
 import com.google.idea.blaze.base.command.info.BlazeInfo;
 import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.IdeInfoInterner;
 import com.google.idea.blaze.base.sync.aspects.IdeInfoFromProtobuf;
 import com.google.repackaged.devtools.intellij.ideinfo.IntellijIdeInfo;
+import java.io.File;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -63,7 +66,8 @@ public class ArtifactLocationDecoderTest extends BlazeTestCase {
                 .setRelativePath("external/repo_name/com/google/Bla.java")
                 .setIsSource(true)
                 .setIsExternal(true)
-                .build());
+                .build(),
+            new IdeInfoInterner());
 
     assertThat(artifactLocation.getRelativePath()).isEqualTo("com/google/Bla.java");
     assertThat(artifactLocation.getExecutionRootRelativePath())
@@ -91,7 +95,8 @@ public class ArtifactLocationDecoderTest extends BlazeTestCase {
                 .setRootExecutionPathFragment("blaze-out/crosstool/bin")
                 .setIsSource(false)
                 .setIsExternal(true)
-                .build());
+                .build(),
+            new IdeInfoInterner());
 
     assertThat(artifactLocation.getRelativePath()).isEqualTo("com/google/Bla.java");
     assertThat(artifactLocation.getExecutionRootRelativePath())
@@ -121,7 +126,8 @@ public class ArtifactLocationDecoderTest extends BlazeTestCase {
                 .setIsSource(true)
                 .setIsExternal(true)
                 .setIsNewExternalVersion(true)
-                .build());
+                .build(),
+            new IdeInfoInterner());
 
     assertThat(artifactLocation.getRelativePath()).isEqualTo("com/google/Bla.java");
     assertThat(artifactLocation.getExecutionRootRelativePath())
@@ -149,7 +155,8 @@ public class ArtifactLocationDecoderTest extends BlazeTestCase {
                 .setRootExecutionPathFragment("../repo_name/blaze-out/crosstool/bin")
                 .setIsSource(false)
                 .setIsNewExternalVersion(true)
-                .build());
+                .build(),
+            new IdeInfoInterner());
 
     assertThat(artifactLocation.getRelativePath()).isEqualTo("com/google/Bla.java");
     assertThat(artifactLocation.getExecutionRootRelativePath())
@@ -167,4 +174,48 @@ public class ArtifactLocationDecoderTest extends BlazeTestCase {
     assertThat(decoder.decode(artifactLocation).getPath())
         .isEqualTo(OUTPUT_BASE + "/execroot/repo_name/blaze-out/crosstool/bin/com/google/Bla.java");
   }
+
+  @Test
+  public void testGeneratedArtifactInAdditionalExecutionRoot() throws Exception {
+    String additionalExecutionRoot = "/path/to/shard_output_bases/1/execroot/my_proj";
+    ArtifactLocationDecoder decoder =
+        new ArtifactLocationDecoderImpl(
+            BlazeInfo.createMockBlazeInfo(
+                OUTPUT_BASE,
+                EXECUTION_ROOT,
+                EXECUTION_ROOT + "/blaze-out/crosstool/bin",
+                EXECUTION_ROOT + "/blaze-out/crosstool/genfiles"),
+            null,
+            ImmutableList.of(new File(additionalExecutionRoot)));
+
+    assertThat(decoder.decode(generatedArtifact(0)).getPath())
+        .isEqualTo(EXECUTION_ROOT + "/blaze-out/bin/com/google/Bla.java");
+    assertThat(decoder.decode(generatedArtifact(1)).getPath())
+        .isEqualTo(additionalExecutionRoot + "/blaze-out/bin/com/google/Bla.java");
+  }
+
+  @Test
+  public void testGeneratedArtifactInUnusedOutputBaseDefaultsToMainExecutionRoot()
+      throws Exception {
+    ArtifactLocationDecoder decoder =
+        new ArtifactLocationDecoderImpl(
+            BlazeInfo.createMockBlazeInfo(
+                OUTPUT_BASE,
+                EXECUTION_ROOT,
+                EXECUTION_ROOT + "/blaze-out/crosstool/bin",
+                EXECUTION_ROOT + "/blaze-out/crosstool/genfiles"),
+            null);
+
+    assertThat(decoder.decode(generatedArtifact(2)).getPath())
+        .isEqualTo(EXECUTION_ROOT + "/blaze-out/bin/com/google/Bla.java");
+  }
+
+  private static ArtifactLocation generatedArtifact(int outputBaseIndex) {
+    return ArtifactLocation.builder()
+        .setRootExecutionPathFragment("blaze-out/bin")
+        .setRelativePath("com/google/Bla.java")
+        .setIsSource(false)
+        .setOutputBaseIndex(outputBaseIndex)
+        .build();
+  }
 }
@@ -0,0 +1,316 @@
+/*
+ * Copyright 2016 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.targetmaps;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.ideinfo.TargetMapBuilder;
+import com.google.idea.blaze.base.model.primitives.Label;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link TargetGraph} */
+@RunWith(JUnit4.class)
+public class TargetGraphTest extends BlazeTestCase {
+  @Override
+  protected void initTest(
+      @NotNull Container applicationServices, @NotNull Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+  }
+
+  @Test
+  public void testSingleDep() {
+    TargetMapBuilder builder = TargetMapBuilder.builder();
+    TargetMap targetMap =
+        builder
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("test/BUILD"))
+                    .setLabel("//l:l1")
+                    .setKind("java_library")
+                    .addDependency("//l:l2"))
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("test/BUILD"))
+                    .setLabel("//l:l2")
+                    .setKind("java_library"))
+            .build();
+
+    TargetGraph targetGraph = TargetGraph.create(targetMap);
+    assertThat(targetGraph.getReverseDependencies(TargetKey.forPlainTarget(Label.create("//l:l2"))))
+        .contains(TargetKey.forPlainTarget(Label.create("//l:l1")));
+  }
+
+  @Test
+  public void testLabelDepsOnTwoLabels() {
+    TargetMapBuilder builder = TargetMapBuilder.builder();
+    TargetMap targetMap =
+        builder
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("test/BUILD"))
+                    .setLabel("//l:l1")
+                    .setKind("java_library")
+                    .addDependency("//l:l2")
+                    .addDependency("//l:l3"))
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("test/BUILD"))
+                    .setLabel("//l:l2")
+                    .setKind("java_library"))
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("test/BUILD"))
+                    .setLabel("//l:l3")
+                    .setKind("java_library"))
+            .build();
+
+    TargetGraph targetGraph = TargetGraph.create(targetMap);
+    assertThat(targetGraph.getReverseDependencies(TargetKey.forPlainTarget(Label.create("//l:l2"))))
+        .contains(TargetKey.forPlainTarget(Label.create("//l:l1")));
+    assertThat(targetGraph.getReverseDependencies(TargetKey.forPlainTarget(Label.create("//l:l3"))))
+        .contains(TargetKey.forPlainTarget(Label.create("//l:l1")));
+  }
+
+  @Test
+  public void testTwoLabelsDepOnSameLabel() {
+    TargetMapBuilder builder = TargetMapBuilder.builder();
+    TargetMap targetMap =
+        builder
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("test/BUILD"))
+                    .setLabel("//l:l1")
+                    .setKind("java_library")
+                    .addDependency("//l:l3"))
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("test/BUILD"))
+                    .setLabel("//l:l2")
+                    .addDependency("//l:l3")
+                    .setKind("java_library"))
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("test/BUILD"))
+                    .setLabel("//l:l3")
+                    .setKind("java_library"))
+            .build();
+
+    TargetGraph targetGraph = TargetGraph.create(targetMap);
+    assertThat(targetGraph.getReverseDependencies(TargetKey.forPlainTarget(Label.create("//l:l3"))))
+        .contains(TargetKey.forPlainTarget(Label.create("//l:l1")));
+    assertThat(targetGraph.getReverseDependencies(TargetKey.forPlainTarget(Label.create("//l:l3"))))
+        .contains(TargetKey.forPlainTarget(Label.create("//l:l2")));
+  }
+
+  @Test
+  public void testThreeLevelGraph() {
+    TargetMapBuilder builder = TargetMapBuilder.builder();
+    TargetMap targetMap =
+        builder
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("test/BUILD"))
+                    .setLabel("//l:l1")
+                    .setKind("java_library")
+                    .addDependency("//l:l3"))
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("test/BUILD"))
+                    .setLabel("//l:l2")
+                    .addDependency("//l:l3")
+                    .setKind("java_library"))
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("test/BUILD"))
+                    .setLabel("//l:l3")
+                    .setKind("java_library"))
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("test/BUILD"))
+                    .setLabel("//l:l4")
+                    .addDependency("//l:l3")
+                    .setKind("java_library"))
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("test/BUILD"))
+                    .setLabel("//l:l5")
+                    .addDependency("//l:l4")
+                    .setKind("java_library"))
+            .build();
+
+    TargetGraph targetGraph = TargetGraph.create(targetMap);
+    assertThat(targetGraph.getReverseDependencies(TargetKey.forPlainTarget(Label.create("//l:l3"))))
+        .contains(TargetKey.forPlainTarget(Label.create("//l:l1")));
+    assertThat(targetGraph.getReverseDependencies(TargetKey.forPlainTarget(Label.create("//l:l3"))))
+        .contains(TargetKey.forPlainTarget(Label.create("//l:l2")));
+    assertThat(targetGraph.getReverseDependencies(TargetKey.forPlainTarget(Label.create("//l:l3"))))
+        .contains(TargetKey.forPlainTarget(Label.create("//l:l4")));
+    assertThat(targetGraph.getReverseDependencies(TargetKey.forPlainTarget(Label.create("//l:l4"))))
+        .contains(TargetKey.forPlainTarget(Label.create("//l:l5")));
+  }
+
+  @Test
+  public void testIncrementalUpdateMatchesRebuiltMap() {
+    TargetMap targetMap =
+        TargetMapBuilder.builder()
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("test/BUILD"))
+                    .setLabel("//l:l1")
+                    .setKind("java_library")
+                    .addDependency("//l:l2")
+                    .addDependency("//l:l3"))
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("test/BUILD"))
+                    .setLabel("//l:l2")
+                    .setKind("java_library"))
+            .build();
+    TargetGraph targetGraph = TargetGraph.create(targetMap);
+
+    TargetMap.Builder builder = targetMap.toBuilder();
+    TargetIdeInfo l1 =
+        TargetIdeInfo.builder()
+            .setBuildFile(sourceRoot("test/BUILD"))
+            .setLabel("//l:l1")
+            .setKind("java_library")
+            .addDependency("//l:l3")
+            .build();
+    TargetIdeInfo l3 =
+        TargetIdeInfo.builder()
+            .setBuildFile(sourceRoot("test/BUILD"))
+            .setLabel("//l:l3")
+            .setKind("java_library")
+            .build();
+    builder.put(l1.key, l1);
+    builder.put(l3.key, l3);
+    TargetMap updatedTargetMap = builder.build();
+
+    assertThat(updatedTargetMap.diff(targetMap).changed).containsExactly(l1.key);
+    assertThat(updatedTargetMap.diff(targetMap).added).containsExactly(l3.key);
+    TargetGraph updatedGraph = targetGraph.update(targetMap, updatedTargetMap);
+    TargetGraph rebuiltGraph = TargetGraph.create(updatedTargetMap);
+    for (String label : ImmutableList.of("//l:l1", "//l:l2", "//l:l3")) {
+      TargetKey key = TargetKey.forPlainTarget(Label.create(label));
+      assertThat(updatedGraph.getDependencies(key))
+          .containsExactlyElementsIn(rebuiltGraph.getDependencies(key));
+      assertThat(updatedGraph.getReverseDependencies(key))
+          .containsExactlyElementsIn(rebuiltGraph.getReverseDependencies(key));
+    }
+    assertThat(targetGraph.update(targetMap, targetMap)).isSameAs(targetGraph);
+  }
+
+  @Test
+  public void testIncrementalUpdateDropsRemovedTargets() {
+    TargetMapBuilder builder = TargetMapBuilder.builder();
+    builder.addTarget(
+        TargetIdeInfo.builder()
+            .setBuildFile(sourceRoot("test/BUILD"))
+            .setLabel("//l:l1")
+            .setKind("java_library")
+            .addDependency("//l:l2")
+            .addDependency("//l:missing"));
+    builder.addTarget(
+        TargetIdeInfo.builder()
+            .setBuildFile(sourceRoot("test/BUILD"))
+            .setLabel("//l:l2")
+            .setKind("java_library"));
+    for (String label : ImmutableList.of("//l:l3", "//l:l4", "//l:l5")) {
+      builder.addTarget(
+          TargetIdeInfo.builder()
+              .setBuildFile(sourceRoot("test/BUILD"))
+              .setLabel(label)
+              .setKind("java_library")
+              .addDependency("//l:l2"));
+    }
+    TargetMap targetMap = builder.build();
+    TargetGraph targetGraph = TargetGraph.create(targetMap);
+    assertThat(targetGraph.size()).isEqualTo(6);
+
+    TargetKey l1 = TargetKey.forPlainTarget(Label.create("//l:l1"));
+    TargetKey l2 = TargetKey.forPlainTarget(Label.create("//l:l2"));
+    TargetMap.Builder updatedBuilder = targetMap.toBuilder();
+    updatedBuilder.remove(l1);
+    TargetMap updatedTargetMap = updatedBuilder.build();
+    assertThat(updatedTargetMap.diff(targetMap).removed).containsExactly(l1);
+
+    TargetGraph updatedGraph = targetGraph.update(targetMap, updatedTargetMap);
+    assertThat(updatedGraph.size()).isEqualTo(4);
+    assertThat(updatedGraph.size()).isEqualTo(TargetGraph.create(updatedTargetMap).size());
+    assertThat(updatedGraph.idOf(l1)).isEqualTo(-1);
+    assertThat(updatedGraph.idOf(TargetKey.forPlainTarget(Label.create("//l:missing"))))
+        .isEqualTo(-1);
+    assertThat(updatedGraph.getReverseDependencies(l2))
+        .containsExactly(
+            TargetKey.forPlainTarget(Label.create("//l:l3")),
+            TargetKey.forPlainTarget(Label.create("//l:l4")),
+            TargetKey.forPlainTarget(Label.create("//l:l5")));
+    assertThat(updatedGraph.getDependencies(l2)).isEmpty();
+  }
+
+  @Test
+  public void testTransitiveReverseDependencies() {
+    TargetMap targetMap =
+        TargetMapBuilder.builder()
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("test/BUILD"))
+                    .setLabel("//l:l1")
+                    .setKind("java_library")
+                    .addDependency("//l:l2"))
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("test/BUILD"))
+                    .setLabel("//l:l2")
+                    .setKind("java_library")
+                    .addDependency("//l:l3"))
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("test/BUILD"))
+                    .setLabel("//l:l4")
+                    .setKind("java_library")
+                    .addDependency("//l:l3"))
+            .build();
+    TargetKey l1 = TargetKey.forPlainTarget(Label.create("//l:l1"));
+    TargetKey l2 = TargetKey.forPlainTarget(Label.create("//l:l2"));
+    TargetKey l3 = TargetKey.forPlainTarget(Label.create("//l:l3"));
+    TargetKey l4 = TargetKey.forPlainTarget(Label.create("//l:l4"));
+
+    TargetGraph targetGraph = TargetGraph.create(targetMap);
+    assertThat(targetGraph.getTransitiveReverseDependencies(ImmutableList.of(l3)))
+        .containsExactly(l1, l2, l4);
+    assertThat(targetGraph.getTransitiveReverseDependencies(ImmutableList.of(l1))).isEmpty();
+    assertThat(targetGraph.getTransitiveDependencies(ImmutableList.of(l1)))
+        .containsExactly(l2, l3)
+        .inOrder();
+  }
+
+  private static ArtifactLocation sourceRoot(String relativePath) {
+    return ArtifactLocation.builder()
+        .setRelativePath(relativePath)
+        .setIsSource(true)
+        .build();
+  }
+}
@@ -17,7 +17,10 @@ package com.google.idea.blaze.base.targetmaps;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import com.google.common.collect.ImmutableList;
 import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.ideinfo.Dependency;
+import com.google.idea.blaze.base.ideinfo.Dependency.DependencyType;
 import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
 import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.ideinfo.TargetMap;
@@ -35,6 +38,8 @@ import org.junit.runners.JUnit4;
 /** Unit tests for {@link TransitiveDependencyMap}. */
 @RunWith(JUnit4.class)
 public class TransitiveDependencyMapTest extends BlazeTestCase {
+  private static final ImmutableList<String> ASPECT_IDS = ImmutableList.of("proto_aspect");
+
   private TransitiveDependencyMap transitiveDependencyMap;
   private final WorkspaceRoot workspaceRoot = new WorkspaceRoot(new File("/"));
 
@@ -100,12 +105,49 @@ public class TransitiveDependencyMapTest extends BlazeTestCase {
     assertThat(transitiveDependencyMap.getTransitiveDependencies(diamondCCC)).isEmpty();
   }
 
+  @Test
+  public void testGetCyclicDependencies() {
+    TargetKey cycleA = TargetKey.forPlainTarget(Label.create("//com/google/example/cycle:a"));
+    TargetKey cycleB = TargetKey.forPlainTarget(Label.create("//com/google/example/cycle:b"));
+    TargetKey cycleC = TargetKey.forPlainTarget(Label.create("//com/google/example/cycle:c"));
+
+    assertThat(transitiveDependencyMap.getTransitiveDependencies(cycleA))
+        .containsExactly(cycleA, cycleB, cycleC);
+    assertThat(transitiveDependencyMap.getTransitiveDependencies(cycleB))
+        .containsExactly(cycleA, cycleB, cycleC);
+    assertThat(transitiveDependencyMap.getTransitiveDependencies(cycleC)).isEmpty();
+    // Repeated queries are answered from the closure cache.
+    assertThat(transitiveDependencyMap.getTransitiveDependencies(cycleA))
+        .containsExactly(cycleA, cycleB, cycleC);
+  }
+
   @Test
   public void testGetDependencyForNonExistentTarget() {
     TargetKey bogus = TargetKey.forPlainTarget(Label.create("//com/google/fake:target"));
     assertThat(transitiveDependencyMap.getTransitiveDependencies(bogus)).isEmpty();
   }
 
+  @Test
+  public void testDependenciesAreResolvedToPlainTargets() {
+    TargetKey aspectA = TargetKey.forPlainTarget(Label.create("//com/google/example/aspect:a"));
+    TargetKey aspectB = TargetKey.forPlainTarget(Label.create("//com/google/example/aspect:b"));
+    TargetKey aspectC = TargetKey.forPlainTarget(Label.create("//com/google/example/aspect:c"));
+    TargetKey aspectD = TargetKey.forPlainTarget(Label.create("//com/google/example/aspect:d"));
+    TargetKey aspectBWithAspect = TargetKey.forGeneralTarget(aspectB.label, ASPECT_IDS);
+
+    // a depends on b with an aspect, whose own dependencies aren't followed
+    assertThat(transitiveDependencyMap.getTransitiveDependencies(aspectA))
+        .containsExactly(aspectB, aspectC);
+    assertThat(transitiveDependencyMap.getTransitiveDependencies(aspectBWithAspect))
+        .containsExactly(aspectD);
+    assertThat(transitiveDependencyMap.getTransitiveDependencies(aspectA))
+        .containsExactlyElementsIn(
+            TransitiveDependencyMap.getTransitiveDependencies(aspectA, buildTargetMap()));
+    assertThat(transitiveDependencyMap.getTransitiveDependencies(aspectBWithAspect))
+        .containsExactlyElementsIn(
+            TransitiveDependencyMap.getTransitiveDependencies(aspectBWithAspect, buildTargetMap()));
+  }
+
   private static TargetMap buildTargetMap() {
     Label simpleA = Label.create("//com/google/example/simple:a");
     Label simpleB = Label.create("//com/google/example/simple:b");
@@ -120,6 +162,13 @@ public class TransitiveDependencyMapTest extends BlazeTestCase {
     Label diamondC = Label.create("//com/google/example/diamond:c");
     Label diamondCC = Label.create("//com/google/example/diamond:cc");
     Label diamondCCC = Label.create("//com/google/example/diamond:ccc");
+    Label cycleA = Label.create("//com/google/example/cycle:a");
+    Label cycleB = Label.create("//com/google/example/cycle:b");
+    Label cycleC = Label.create("//com/google/example/cycle:c");
+    Label aspectA = Label.create("//com/google/example/aspect:a");
+    Label aspectB = Label.create("//com/google/example/aspect:b");
+    Label aspectC = Label.create("//com/google/example/aspect:c");
+    Label aspectD = Label.create("//com/google/example/aspect:d");
     return TargetMapBuilder.builder()
         .addTarget(TargetIdeInfo.builder().setLabel(simpleA).addDependency(simpleB))
         .addTarget(TargetIdeInfo.builder().setLabel(simpleB))
@@ -148,6 +197,44 @@ public class TransitiveDependencyMapTest extends BlazeTestCase {
         .addTarget(TargetIdeInfo.builder().setLabel(diamondC))
         .addTarget(TargetIdeInfo.builder().setLabel(diamondCC))
         .addTarget(TargetIdeInfo.builder().setLabel(diamondCCC))
+        .addTarget(TargetIdeInfo.builder().setLabel(cycleA).addDependency(cycleB))
+        .addTarget(
+            TargetIdeInfo.builder().setLabel(cycleB).addDependency(cycleA).addDependency(cycleC))
+        .addTarget(TargetIdeInfo.builder().setLabel(cycleC))
+        .addTarget(
+            withAspect(
+                TargetIdeInfo.builder().setLabel(aspectA).build(),
+                TargetKey.forPlainTarget(aspectA),
+                TargetKey.forGeneralTarget(aspectB, ASPECT_IDS)))
+        .addTarget(TargetIdeInfo.builder().setLabel(aspectB).addDependency(aspectC))
+        .addTarget(
+            withAspect(
+                TargetIdeInfo.builder().setLabel(aspectB).build(),
+                TargetKey.forGeneralTarget(aspectB, ASPECT_IDS),
+                TargetKey.forPlainTarget(aspectD)))
+        .addTarget(TargetIdeInfo.builder().setLabel(aspectC))
+        .addTarget(TargetIdeInfo.builder().setLabel(aspectD))
         .build();
   }
+
+  /** Returns a copy of the target with the given key and a single dependency. */
+  private static TargetIdeInfo withAspect(
+      TargetIdeInfo target, TargetKey key, TargetKey dependency) {
+    return new TargetIdeInfo(
+        key,
+        target.kind,
+        target.buildFile,
+        ImmutableList.of(new Dependency(dependency, DependencyType.COMPILE_TIME)),
+        target.tags,
+        target.sources,
+        target.cIdeInfo,
+        target.cToolchainIdeInfo,
+        target.javaIdeInfo,
+        target.androidIdeInfo,
+        target.androidSdkIdeInfo,
+        target.pyIdeInfo,
+        target.testIdeInfo,
+        target.protoLibraryLegacyInfo,
+        target.javaToolchainIdeInfo);
+  }
 }
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.util;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link HashTrieMap}. */
+@RunWith(JUnit4.class)
+public class HashTrieMapTest {
+
+  @Test
+  public void testMatchesHashMapUnderRandomUpdates() {
+    Random random = new Random(0);
+    Map<Key, Integer> expected = Maps.newHashMap();
+    HashTrieMap<Key, Integer> map = HashTrieMap.of();
+    for (int round = 0; round < 20; round++) {
+      HashTrieMap<Key, Integer> previous = map;
+      Map<Key, Integer> previousExpected = ImmutableMap.copyOf(expected);
+      HashTrieMap.Builder<Key, Integer> builder = map.toBuilder();
+      for (int i = 0; i < 200; i++) {
+        Key key = new Key(random.nextInt(1000));
+        if (random.nextInt(3) == 0) {
+          assertThat(builder.remove(key)).isEqualTo(expected.remove(key));
+        } else {
+          int value = random.nextInt(10);
+          assertThat(builder.put(key, value)).isEqualTo(expected.put(key, value));
+        }
+      }
+      map = builder.build();
+      assertThat(map.asMap()).isEqualTo(expected);
+      assertThat(map.size()).isEqualTo(expected.size());
+      // earlier maps are unaffected by later updates
+      assertThat(previous.asMap()).isEqualTo(previousExpected);
+    }
+  }
+
+  @Test
+  public void testDiffReportsOnlyUpdatedEntries() {
+    HashTrieMap.Builder<Key, Integer> builder = HashTrieMap.<Key, Integer>of().toBuilder();
+    for (int i = 0; i < 1000; i++) {
+      builder.put(new Key(i), i);
+    }
+    HashTrieMap<Key, Integer> before = builder.build();
+
+    builder = before.toBuilder();
+    builder.put(new Key(1), 1);
+    builder.put(new Key(2), -2);
+    builder.remove(new Key(3));
+    builder.put(new Key(1001), 1001);
+    HashTrieMap<Key, Integer> after = builder.build();
+
+    Map<Key, String> diff = Maps.newHashMap();
+    HashTrieMap.diff(
+        before,
+        after,
+        new HashTrieMap.DiffVisitor<Key, Integer>() {
+          @Override
+          public void added(Key key, Integer value) {
+            diff.put(key, "added");
+          }
+
+          @Override
+          public void removed(Key key, Integer value) {
+            diff.put(key, "removed");
+          }
+
+          @Override
+          public void changed(Key key, Integer before, Integer after) {
+            diff.put(key, "changed");
+          }
+        });
+    assertThat(diff)
+        .containsExactly(new Key(2), "changed", new Key(3), "removed", new Key(1001), "added");
+  }
+
+  /** A key with many hash collisions. */
+  private static final class Key {
+    private final int value;
+
+    Key(int value) {
+      this.value = value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Key && ((Key) o).value == value;
+    }
+
+    @Override
+    public int hashCode() {
+      return value % 100;
+    }
+
+    @Override
+    public String toString() {
+      return "Key" + value;
+    }
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.util;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link WorkspacePathTrie}. */
+@RunWith(JUnit4.class)
+public class WorkspacePathTrieTest {
+
+  @Test
+  public void testFindsDeepestAncestor() {
+    WorkspacePath java = new WorkspacePath("java");
+    WorkspacePath javaComGoogle = new WorkspacePath("java/com/google");
+    WorkspacePathTrie trie = new WorkspacePathTrie(ImmutableList.of(java, javaComGoogle));
+
+    assertThat(trie.findAncestor("java")).isEqualTo(java);
+    assertThat(trie.findAncestor("java/com/Foo.java")).isEqualTo(java);
+    assertThat(trie.findAncestor("java/com/google")).isEqualTo(javaComGoogle);
+    assertThat(trie.findAncestor("java/com/google/app/Foo.java")).isEqualTo(javaComGoogle);
+    assertThat(trie.findAncestor(new WorkspacePath("java/com/google/app")))
+        .isEqualTo(javaComGoogle);
+  }
+
+  @Test
+  public void testOnlyMatchesWholeSegments() {
+    WorkspacePathTrie trie =
+        new WorkspacePathTrie(ImmutableList.of(new WorkspacePath("java/com")));
+
+    assertThat(trie.findAncestor("java/common/Foo.java")).isNull();
+    assertThat(trie.findAncestor("java")).isNull();
+    assertThat(trie.findAncestor("javascript/com")).isNull();
+    assertThat(trie.containsAncestor(new WorkspacePath(""))).isFalse();
+  }
+
+  @Test
+  public void testWorkspaceRootContainsEverything() {
+    WorkspacePath workspaceRoot = new WorkspacePath("");
+    WorkspacePathTrie trie = new WorkspacePathTrie(ImmutableList.of(workspaceRoot));
+
+    assertThat(trie.findAncestor("java/com/Foo.java")).isEqualTo(workspaceRoot);
+    assertThat(trie.containsAncestor(workspaceRoot)).isTrue();
+  }
+}
@@ -16,10 +16,8 @@
 package com.google.idea.blaze.base.model;
 
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableSet;
 import com.google.idea.blaze.base.command.info.BlazeInfo;
-import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.ideinfo.TargetMap;
 import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
 import com.google.idea.blaze.base.model.primitives.WorkspaceType;
@@ -28,6 +26,7 @@ import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoderImpl;
 import com.google.idea.blaze.base.sync.workspace.WorkspacePathResolver;
 import com.google.idea.blaze.base.sync.workspace.WorkspacePathResolverImpl;
+import com.google.idea.blaze.base.targetmaps.TargetGraph;
 
 /**
  * Use to build mock project data for tests.
@@ -47,7 +46,7 @@ public class MockBlazeProjectDataBuilder {
   private ArtifactLocationDecoder artifactLocationDecoder;
   private WorkspaceLanguageSettings workspaceLanguageSettings;
   private SyncState syncState;
-  private ImmutableMultimap<TargetKey, TargetKey> reverseDependencies;
+  private TargetGraph targetGraph;
 
   private MockBlazeProjectDataBuilder(WorkspaceRoot workspaceRoot) {
     this.workspaceRoot = workspaceRoot;
@@ -105,9 +104,8 @@ public class MockBlazeProjectDataBuilder {
     return this;
   }
 
-  public MockBlazeProjectDataBuilder setReverseDependencies(
-      ImmutableMultimap<TargetKey, TargetKey> reverseDependencies) {
-    this.reverseDependencies = reverseDependencies;
+  public MockBlazeProjectDataBuilder setTargetGraph(TargetGraph targetGraph) {
+    this.targetGraph = targetGraph;
     return this;
   }
 
@@ -140,8 +138,8 @@ public class MockBlazeProjectDataBuilder {
             : new WorkspaceLanguageSettings(WorkspaceType.JAVA, ImmutableSet.of());
     SyncState syncState =
         this.syncState != null ? this.syncState : new SyncState(ImmutableMap.of());
-    ImmutableMultimap<TargetKey, TargetKey> reverseDependencies =
-        this.reverseDependencies != null ? this.reverseDependencies : ImmutableMultimap.of();
+    TargetGraph targetGraph =
+        this.targetGraph != null ? this.targetGraph : TargetGraph.create(targetMap);
 
     return new BlazeProjectData(
         syncTime,
@@ -152,6 +150,6 @@ public class MockBlazeProjectDataBuilder {
         artifactLocationDecoder,
         workspaceLanguageSettings,
         syncState,
-        reverseDependencies);
+        targetGraph);
   }
 }
@@ -15,11 +15,11 @@
  */
 package com.google.idea.blaze.java.libraries;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
 import com.google.idea.blaze.base.ideinfo.LibraryArtifact;
-import com.google.idea.blaze.base.model.BlazeLibrary;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.model.LibraryKey;
 import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
@@ -36,6 +36,7 @@ import com.intellij.openapi.roots.libraries.Library;
 import com.intellij.openapi.roots.libraries.LibraryTable;
 import com.intellij.openapi.util.ActionCallback;
 import com.intellij.psi.PsiFile;
+import java.io.File;
 import java.util.Collection;
 import java.util.List;
 import org.jetbrains.annotations.NotNull;
@@ -53,14 +54,16 @@ public class BlazeAttachSourceProvider implements AttachSourcesProvider {
       return ImmutableList.of();
     }
 
-    List<BlazeLibrary> librariesToAttachSourceTo = Lists.newArrayList();
+    List<BlazeJarLibrary> librariesToAttachSourceTo = Lists.newArrayList();
     for (LibraryOrderEntry orderEntry : orderEntries) {
       Library library = orderEntry.getLibrary();
       if (library == null) {
         continue;
       }
       LibraryKey libraryKey = LibraryKey.fromIntelliJLibrary(library);
-      if (SourceJarManager.getInstance(project).hasSourceJarAttached(libraryKey)) {
+      SourceJarManager sourceJarManager = SourceJarManager.getInstance(project);
+      if (sourceJarManager.hasSourceJarAttached(libraryKey)
+          || sourceJarManager.isAttachingSourceJar(libraryKey)) {
         continue;
       }
       BlazeJarLibrary blazeLibrary =
@@ -82,14 +85,14 @@ public class BlazeAttachSourceProvider implements AttachSourcesProvider {
 
     /**
      * Semi-hack: When sources are requested and we have them, we attach them automatically if the
-     * corresponding user setting is active.
+     * corresponding user setting is active. Sources attached by default but fetched lazily are
+     * attached here too, the first time they're requested.
      */
-    if (BlazeJavaUserSettings.getInstance().getAttachSourcesOnDemand()) {
-      Transactions.submitTransaction(
-          project,
-          () -> {
-            attachSources(project, blazeProjectData, librariesToAttachSourceTo);
-          });
+    BlazeJavaUserSettings settings = BlazeJavaUserSettings.getInstance();
+    boolean attachSourcesLazily =
+        settings.getAttachSourcesByDefault() && settings.getAttachSourcesLazily();
+    if (settings.getAttachSourcesOnDemand() || attachSourcesLazily) {
+      cacheAndAttachSources(project, blazeProjectData, librariesToAttachSourceTo);
       return ImmutableList.of();
     }
 
@@ -107,22 +110,92 @@ public class BlazeAttachSourceProvider implements AttachSourcesProvider {
 
           @Override
           public ActionCallback perform(List<LibraryOrderEntry> orderEntriesContainingFile) {
-            attachSources(project, blazeProjectData, librariesToAttachSourceTo);
-            return ActionCallback.DONE;
+            return cacheAndAttachSources(project, blazeProjectData, librariesToAttachSourceTo);
           }
         });
   }
 
+  /**
+   * Adds the libraries' source jars to the jar cache in the background, then attaches them. Source
+   * jars which weren't prefetched are only cached once requested, so this is the first time they're
+   * read. Libraries whose source jars are already being attached are skipped.
+   */
+  private static ActionCallback cacheAndAttachSources(
+      Project project,
+      BlazeProjectData blazeProjectData,
+      Collection<BlazeJarLibrary> librariesToAttachSourceTo) {
+    ActionCallback callback = new ActionCallback();
+    List<BlazeJarLibrary> libraries =
+        startAttachingSourceJars(SourceJarManager.getInstance(project), librariesToAttachSourceTo);
+    if (libraries.isEmpty()) {
+      callback.setDone();
+      return callback;
+    }
+    List<File> sourceJars = Lists.newArrayList();
+    for (BlazeJarLibrary library : libraries) {
+      ArtifactLocation sourceJar = library.libraryArtifact.sourceJar;
+      if (sourceJar != null) {
+        sourceJars.add(blazeProjectData.artifactLocationDecoder.decode(sourceJar));
+      }
+    }
+    ApplicationManager.getApplication()
+        .executeOnPooledThread(
+            () -> {
+              try {
+                JarCache.getInstance(project).cacheSourceJars(sourceJars);
+              } catch (RuntimeException e) {
+                finishAttachingSourceJars(project, libraries);
+                callback.setRejected();
+                throw e;
+              }
+              Transactions.submitTransaction(
+                  project,
+                  () -> {
+                    try {
+                      attachSources(project, blazeProjectData, libraries);
+                    } finally {
+                      finishAttachingSourceJars(project, libraries);
+                    }
+                    callback.setDone();
+                  });
+            });
+    return callback;
+  }
+
+  /**
+   * Returns the libraries whose source jars aren't already being attached, marking them as being
+   * attached.
+   */
+  @VisibleForTesting
+  static List<BlazeJarLibrary> startAttachingSourceJars(
+      SourceJarManager sourceJarManager, Collection<BlazeJarLibrary> libraries) {
+    List<BlazeJarLibrary> result = Lists.newArrayList();
+    for (BlazeJarLibrary library : libraries) {
+      if (sourceJarManager.startAttachingSourceJar(library.key)) {
+        result.add(library);
+      }
+    }
+    return result;
+  }
+
+  private static void finishAttachingSourceJars(
+      Project project, Collection<BlazeJarLibrary> libraries) {
+    SourceJarManager sourceJarManager = SourceJarManager.getInstance(project);
+    for (BlazeJarLibrary library : libraries) {
+      sourceJarManager.finishAttachingSourceJar(library.key);
+    }
+  }
+
   static void attachSources(
       Project project,
       BlazeProjectData blazeProjectData,
-      Collection<BlazeLibrary> librariesToAttachSourceTo) {
+      Collection<BlazeJarLibrary> librariesToAttachSourceTo) {
     ApplicationManager.getApplication()
         .runWriteAction(
             () -> {
               LibraryTable libraryTable = ProjectLibraryTable.getInstance(project);
               LibraryTable.ModifiableModel libraryTableModel = libraryTable.getModifiableModel();
-              for (BlazeLibrary blazeLibrary : librariesToAttachSourceTo) {
+              for (BlazeJarLibrary blazeLibrary : librariesToAttachSourceTo) {
                 // Make sure we don't do it twice
                 if (SourceJarManager.getInstance(project).hasSourceJarAttached(blazeLibrary.key)) {
                   continue;
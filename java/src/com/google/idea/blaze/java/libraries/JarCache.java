@@ -15,19 +15,29 @@
  */
 package com.google.idea.blaze.java.libraries;
 
-import com.google.common.collect.BiMap;
-import com.google.common.collect.HashBiMap;
+import static java.util.stream.Collectors.toSet;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.idea.blaze.base.filecache.FileCache;
 import com.google.idea.blaze.base.filecache.FileDiffer;
-import com.google.idea.blaze.base.io.FileSizeScanner;
+import com.google.idea.blaze.base.filecache.FileState;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.LibraryArtifact;
 import com.google.idea.blaze.base.model.BlazeLibrary;
 import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.model.LibraryKey;
 import com.google.idea.blaze.base.prefetch.FetchExecutor;
+import com.google.idea.blaze.base.projectview.ProjectViewManager;
 import com.google.idea.blaze.base.projectview.ProjectViewSet;
 import com.google.idea.blaze.base.scope.BlazeContext;
 import com.google.idea.blaze.base.scope.output.PrintOutput;
@@ -36,45 +46,93 @@ import com.google.idea.blaze.base.settings.BlazeImportSettingsManager;
 import com.google.idea.blaze.base.sync.BlazeSyncParams;
 import com.google.idea.blaze.base.sync.BlazeSyncParams.SyncMode;
 import com.google.idea.blaze.base.sync.data.BlazeDataStorage;
+import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
 import com.google.idea.blaze.base.sync.libraries.BlazeLibraryCollector;
+import com.google.idea.blaze.base.sync.libraries.LibraryEditor;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
+import com.google.idea.blaze.base.util.SerializationUtil;
 import com.google.idea.blaze.java.settings.BlazeJavaUserSettings;
+import com.google.idea.blaze.java.sync.jdeps.JdepsFileReader;
 import com.google.idea.blaze.java.sync.model.BlazeJarLibrary;
+import com.google.idea.sdkcompat.transactions.Transactions;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.impl.libraries.ProjectLibraryTable;
+import com.intellij.openapi.roots.libraries.LibraryTable;
+import com.intellij.openapi.util.Disposer;
 import com.intellij.openapi.util.io.FileUtil;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 
-/** Local cache of the jars referenced by the project. */
+/**
+ * Local cache of the jars referenced by the project.
+ *
+ * <p>Jars are kept in a {@link JarStore} shared with other projects. The digest of each source jar
+ * is remembered along with its modification time, so only jars which have changed since the
+ * previous sync are read again.
+ */
 public class JarCache {
   private static final Logger logger = Logger.getInstance(JarCache.class);
 
+  /**
+   * When sources are attached lazily, the source jars of this many of the most used libraries are
+   * cached in the background after sync, so they're ready by the time they're opened.
+   */
+  private static final int MAX_PREFETCHED_SOURCE_JARS = 100;
+
   private final Project project;
   private final BlazeImportSettings importSettings;
-  private final File cacheDir;
-  private boolean enabled;
-  @Nullable private BiMap<File, String> sourceFileToCacheKey = null;
+  private final JarStore jarStore;
+  private final String projectId;
+  private volatile boolean enabled;
+  /** The jars to cache. Null until the first sync. */
+  @Nullable private ImmutableSet<File> sourceFiles = null;
+  /** The cached jars, by source jar. Null until the first sync. */
+  @Nullable private volatile ImmutableMap<File, File> sourceFileToCachedFile = null;
+  @Nullable private Map<File, CachedJar> index = null;
+  /** Keeps the project's jars from being evicted while it's open. Null until the first sync. */
+  @Nullable private Closeable projectLock = null;
 
   public static JarCache getInstance(Project project) {
     return ServiceManager.getService(project, JarCache.class);
   }
 
   public JarCache(Project project) {
+    this(
+        project,
+        BlazeImportSettingsManager.getInstance(project).getImportSettings(),
+        JarStore.getDefault(),
+        false);
+  }
+
+  @VisibleForTesting
+  JarCache(
+      Project project, BlazeImportSettings importSettings, JarStore jarStore, boolean enabled) {
     this.project = project;
-    this.importSettings = BlazeImportSettingsManager.getInstance(project).getImportSettings();
-    this.cacheDir = getCacheDir();
+    this.importSettings = importSettings;
+    this.jarStore = jarStore;
+    this.enabled = enabled;
+    this.projectId =
+        Hashing.sha256()
+            .hashString(getIndexFile().getAbsolutePath(), StandardCharsets.UTF_8)
+            .toString()
+            .substring(0, 16);
+    Disposer.register(project, this::releaseProjectLock);
   }
 
   public void onSync(
@@ -84,19 +142,17 @@ public class JarCache {
       BlazeSyncParams.SyncMode syncMode) {
     Collection<BlazeLibrary> libraries =
         BlazeLibraryCollector.getLibraries(projectViewSet, projectData);
-    boolean fullRefresh = syncMode == SyncMode.FULL;
-    boolean removeMissingFiles = syncMode == SyncMode.INCREMENTAL;
+    boolean removeMissingFiles = syncMode != SyncMode.PARTIAL;
     boolean enabled = updateEnabled();
 
-    if (!enabled || fullRefresh) {
-      clearCache();
-    }
+    deleteLegacyCacheDirectory();
     if (!enabled) {
+      clearCache();
       return;
     }
 
-    boolean attachAllSourceJars = BlazeJavaUserSettings.getInstance().getAttachSourcesByDefault();
     SourceJarManager sourceJarManager = SourceJarManager.getInstance(project);
+    boolean attachSourcesLazily = BlazeJavaUserSettings.getInstance().getAttachSourcesLazily();
 
     List<BlazeJarLibrary> jarLibraries =
         libraries
@@ -106,22 +162,96 @@ public class JarCache {
             .collect(Collectors.toList());
 
     ArtifactLocationDecoder artifactLocationDecoder = projectData.artifactLocationDecoder;
-    BiMap<File, String> sourceFileToCacheKey = HashBiMap.create(jarLibraries.size());
+    ImmutableSet.Builder<File> jarsBuilder = ImmutableSet.builder();
+    ImmutableSet.Builder<File> sourceJarsBuilder = ImmutableSet.builder();
     for (BlazeJarLibrary library : jarLibraries) {
-      File jarFile =
-          artifactLocationDecoder.decode(library.libraryArtifact.jarForIntellijLibrary());
-      sourceFileToCacheKey.put(jarFile, cacheKeyForJar(jarFile));
-
-      boolean attachSourceJar =
-          attachAllSourceJars || sourceJarManager.hasSourceJarAttached(library.key);
-      if (attachSourceJar && library.libraryArtifact.sourceJar != null) {
-        File srcJarFile = artifactLocationDecoder.decode(library.libraryArtifact.sourceJar);
-        sourceFileToCacheKey.put(srcJarFile, cacheKeyForSourceJar(srcJarFile));
+      jarsBuilder.add(
+          artifactLocationDecoder.decode(library.libraryArtifact.jarForIntellijLibrary()));
+      if (sourceJarManager.shouldAttachSourceJar(library.key)
+          && library.libraryArtifact.sourceJar != null) {
+        sourceJarsBuilder.add(artifactLocationDecoder.decode(library.libraryArtifact.sourceJar));
+      }
+    }
+    if (attachSourcesLazily) {
+      ImmutableMap<String, Integer> dependentTargetCounts =
+          JdepsFileReader.getDependentTargetCounts(projectData.syncState);
+      for (BlazeJarLibrary library :
+          selectSourceJarsToPrefetch(
+              jarLibraries,
+              sourceJarManager::shouldAttachSourceJar,
+              dependentTargetCounts,
+              MAX_PREFETCHED_SOURCE_JARS)) {
+        sourceJarsBuilder.add(artifactLocationDecoder.decode(library.libraryArtifact.sourceJar));
       }
     }
+    ImmutableSet<File> jars = jarsBuilder.build();
+    ImmutableSet<File> sourceJars = sourceJarsBuilder.build();
 
-    this.sourceFileToCacheKey = sourceFileToCacheKey;
-    refresh(context, removeMissingFiles);
+    ImmutableSet<File> sourceFiles =
+        ImmutableSet.<File>builder().addAll(jars).addAll(sourceJars).build();
+    if (!attachSourcesLazily || sourceJars.isEmpty()) {
+      update(context, sourceFiles, sourceFiles, removeMissingFiles);
+      return;
+    }
+    // Source jars the user has opened before, and those of the most used libraries, are brought up
+    // to date after the sync. Until then, their libraries use the previously cached copies.
+    update(context, sourceFiles, jars, removeMissingFiles);
+    ApplicationManager.getApplication()
+        .executeOnPooledThread(() -> refreshAndUpdateLibraries(sourceJars));
+  }
+
+  /**
+   * Returns the libraries whose source jars are worth caching before they're requested, most used
+   * first. A library is used by each target whose compilation read one of its jars. Libraries
+   * which already get their source jars attached during sync are left out.
+   */
+  @VisibleForTesting
+  static ImmutableList<BlazeJarLibrary> selectSourceJarsToPrefetch(
+      Collection<BlazeJarLibrary> libraries,
+      Predicate<LibraryKey> attachedDuringSync,
+      Map<String, Integer> dependentTargetCounts,
+      int maxCount) {
+    List<BlazeJarLibrary> candidates = Lists.newArrayList();
+    Map<LibraryKey, Integer> usage = Maps.newHashMap();
+    for (BlazeJarLibrary library : libraries) {
+      LibraryArtifact libraryArtifact = library.libraryArtifact;
+      if (libraryArtifact.sourceJar == null || attachedDuringSync.test(library.key)) {
+        continue;
+      }
+      int count =
+          Math.max(
+              getDependentTargetCount(dependentTargetCounts, libraryArtifact.interfaceJar),
+              getDependentTargetCount(dependentTargetCounts, libraryArtifact.classJar));
+      if (count > 0 && usage.put(library.key, count) == null) {
+        candidates.add(library);
+      }
+    }
+    candidates.sort(
+        Comparator.<BlazeJarLibrary>comparingInt(library -> usage.get(library.key))
+            .reversed()
+            .thenComparing(library -> library.key.getIntelliJLibraryName()));
+    return ImmutableList.copyOf(candidates.subList(0, Math.min(maxCount, candidates.size())));
+  }
+
+  private static int getDependentTargetCount(
+      Map<String, Integer> dependentTargetCounts, @Nullable ArtifactLocation jar) {
+    if (jar == null) {
+      return 0;
+    }
+    return dependentTargetCounts.getOrDefault(jar.getExecutionRootRelativePath(), 0);
+  }
+
+  /** Sets the jars to cache, and brings the given subset of them up to date in the store. */
+  @VisibleForTesting
+  void update(
+      @Nullable BlazeContext context,
+      ImmutableSet<File> sourceFiles,
+      Collection<File> files,
+      boolean removeMissingFiles) {
+    synchronized (this) {
+      this.sourceFiles = sourceFiles;
+    }
+    refresh(context, files, removeMissingFiles);
   }
 
   public boolean isEnabled() {
@@ -137,146 +267,369 @@ public class JarCache {
 
   /** Refreshes any updated files in the cache. Does not add or removes any files */
   public void refresh() {
-    refresh(null, false);
-  }
-
-  private void refresh(@Nullable BlazeContext context, boolean removeMissingFiles) {
-    if (!enabled || sourceFileToCacheKey == null) {
-      return;
+    ImmutableSet<File> sourceFiles = this.sourceFiles;
+    if (sourceFiles != null) {
+      refreshAndUpdateLibraries(sourceFiles);
     }
+  }
 
-    // Ensure the cache dir exists
-    if (!cacheDir.exists()) {
-      if (!cacheDir.mkdirs()) {
-        logger.error("Could not create jar cache directory");
+  /**
+   * Adds source jars which weren't cached during sync, once their sources have been requested. The
+   * caller is responsible for updating their libraries.
+   */
+  public void cacheSourceJars(Collection<File> sourceJars) {
+    List<File> uncachedSourceJars;
+    synchronized (this) {
+      ImmutableSet<File> sourceFiles = this.sourceFiles;
+      if (!enabled || sourceFiles == null) {
         return;
       }
+      // prefetched source jars are already cached
+      ImmutableMap<File, File> sourceFileToCachedFile = this.sourceFileToCachedFile;
+      uncachedSourceJars =
+          sourceJars
+              .stream()
+              .filter(
+                  file ->
+                      sourceFileToCachedFile == null || !sourceFileToCachedFile.containsKey(file))
+              .collect(Collectors.toList());
+      if (uncachedSourceJars.isEmpty()) {
+        return;
+      }
+      this.sourceFiles =
+          ImmutableSet.<File>builder().addAll(sourceFiles).addAll(uncachedSourceJars).build();
     }
+    refresh(null, uncachedSourceJars, false);
+  }
 
-    // Discover state of source jars
-    ImmutableMap<File, Long> sourceFileTimestamps =
-        FileDiffer.readFileState(sourceFileToCacheKey.keySet());
-    if (sourceFileTimestamps == null) {
-      return;
+  private void refreshAndUpdateLibraries(Collection<File> files) {
+    ImmutableMap<File, File> previousCachedFiles = sourceFileToCachedFile;
+    refresh(null, files, false);
+    if (previousCachedFiles != null && !previousCachedFiles.equals(sourceFileToCachedFile)) {
+      // modified jars are stored under a new digest, so their libraries need to be updated
+      updateProjectLibraries();
     }
-    ImmutableMap.Builder<String, Long> sourceFileCacheKeyToTimestamp = ImmutableMap.builder();
-    for (Map.Entry<File, Long> entry : sourceFileTimestamps.entrySet()) {
-      String cacheKey = sourceFileToCacheKey.get(entry.getKey());
-      sourceFileCacheKeyToTimestamp.put(cacheKey, entry.getValue());
+  }
+
+  private void updateProjectLibraries() {
+    BlazeProjectData projectData =
+        BlazeProjectDataManager.getInstance(project).getBlazeProjectData();
+    ProjectViewSet projectViewSet = ProjectViewManager.getInstance(project).getProjectViewSet();
+    if (projectData == null || projectViewSet == null) {
+      return;
     }
+    Collection<BlazeLibrary> libraries =
+        BlazeLibraryCollector.getLibraries(projectViewSet, projectData);
+    Transactions.submitTransaction(
+        project,
+        () ->
+            ApplicationManager.getApplication()
+                .runWriteAction(
+                    () -> {
+                      LibraryTable libraryTable = ProjectLibraryTable.getInstance(project);
+                      LibraryTable.ModifiableModel libraryTableModel =
+                          libraryTable.getModifiableModel();
+                      for (BlazeLibrary library : libraries) {
+                        String libraryName = library.key.getIntelliJLibraryName();
+                        if (libraryTable.getLibraryByName(libraryName) != null) {
+                          LibraryEditor.updateLibrary(
+                              project,
+                              projectData.artifactLocationDecoder,
+                              libraryTable,
+                              libraryTableModel,
+                              library);
+                        }
+                      }
+                      libraryTableModel.commit();
+                    }));
+  }
 
-    // Discover current on-disk cache state
-    File[] cacheFiles = cacheDir.listFiles();
-    assert cacheFiles != null;
-    ImmutableMap<File, Long> cacheFileTimestamps =
-        FileDiffer.readFileState(Lists.newArrayList(cacheFiles));
-    if (cacheFileTimestamps == null) {
+  /**
+   * Brings the given files up to date in the store. Other files are assumed to be unchanged since
+   * they were last cached.
+   */
+  private synchronized void refresh(
+      @Nullable BlazeContext context, Collection<File> files, boolean removeMissingFiles) {
+    ImmutableSet<File> sourceFiles = this.sourceFiles;
+    if (!enabled || sourceFiles == null) {
       return;
     }
-    ImmutableMap.Builder<String, Long> cachedFileCacheKeyToTimestamp = ImmutableMap.builder();
-    for (Map.Entry<File, Long> entry : cacheFileTimestamps.entrySet()) {
-      String cacheKey = entry.getKey().getName(); // Cache key == file name
-      cachedFileCacheKeyToTimestamp.put(cacheKey, entry.getValue());
+    Map<File, CachedJar> index = getIndex();
+
+    // Discover state of source jars
+    FileState sourceFileState = FileDiffer.readFileState(files);
+    if (sourceFileState == null) {
+      return;
     }
 
-    List<String> updatedFiles = Lists.newArrayList();
-    List<String> removedFiles = Lists.newArrayList();
-    FileDiffer.diffState(
-        cachedFileCacheKeyToTimestamp.build(),
-        sourceFileCacheKeyToTimestamp.build(),
-        updatedFiles,
-        removedFiles);
+    // Jars which are unchanged since they were last cached just need to still be in the store
+    List<File> updatedFiles = Lists.newArrayList();
+    List<File> unchangedFiles = Lists.newArrayList();
+    sourceFileState.forEach(
+        (file, modifiedTime) -> {
+          CachedJar cachedJar = index.get(file);
+          if (cachedJar != null && cachedJar.sourceModifiedTime == modifiedTime) {
+            unchangedFiles.add(file);
+          } else {
+            updatedFiles.add(file);
+          }
+        });
+    FileState storedFileState =
+        FileDiffer.readFileState(
+            unchangedFiles
+                .stream()
+                .map(file -> jarStore.fileForDigest(index.get(file).digest))
+                .collect(Collectors.toList()));
+    if (storedFileState == null) {
+      return;
+    }
 
     ListeningExecutorService executor = FetchExecutor.EXECUTOR;
-    List<ListenableFuture<?>> futures = Lists.newArrayList();
-    Map<String, File> cacheKeyToSourceFile = sourceFileToCacheKey.inverse();
-    for (String cacheKey : updatedFiles) {
-      File sourceFile = cacheKeyToSourceFile.get(cacheKey);
-      File cacheFile = cacheFileForKey(cacheKey);
+    List<ListenableFuture<JarStore.AddResult>> futures = Lists.newArrayList();
+    Map<File, CachedJar> updatedIndex = Maps.newConcurrentMap();
+    Set<File> failedFiles = Sets.newConcurrentHashSet();
+    for (File file : updatedFiles) {
+      long modifiedTime = sourceFileState.getModifiedTime(file);
+      CachedJar previous = index.get(file);
       futures.add(
           executor.submit(
-              () -> {
-                try {
-                  Files.copy(
-                      Paths.get(sourceFile.getPath()),
-                      Paths.get(cacheFile.getPath()),
-                      StandardCopyOption.REPLACE_EXISTING,
-                      StandardCopyOption.COPY_ATTRIBUTES);
-                } catch (IOException e) {
-                  logger.warn(e);
-                }
-              }));
+              () -> cacheUpdatedJar(file, modifiedTime, previous, updatedIndex, failedFiles)));
     }
-
-    if (removeMissingFiles) {
-      for (String cacheKey : removedFiles) {
-        File cacheFile = cacheFileForKey(cacheKey);
+    for (File file : unchangedFiles) {
+      CachedJar cachedJar = index.get(file);
+      long storedModifiedTime =
+          storedFileState.getModifiedTime(jarStore.fileForDigest(cachedJar.digest));
+      if (storedModifiedTime != cachedJar.storedModifiedTime) {
         futures.add(
             executor.submit(
-                () -> {
-                  try {
-                    Files.deleteIfExists(Paths.get(cacheFile.getPath()));
-                  } catch (IOException e) {
-                    logger.warn(e);
-                  }
-                }));
+                () ->
+                    restoreJar(
+                        file, cachedJar, storedModifiedTime != 0, updatedIndex, failedFiles)));
       }
     }
 
+    int linked = 0;
+    int copied = 0;
     try {
-      Futures.allAsList(futures).get();
+      for (JarStore.AddResult result : Futures.allAsList(futures).get()) {
+        if (result == JarStore.AddResult.LINKED) {
+          linked++;
+        } else if (result == JarStore.AddResult.COPIED) {
+          copied++;
+        }
+      }
     } catch (InterruptedException e) {
       Thread.currentThread().interrupt();
       logger.warn(e);
     } catch (ExecutionException e) {
       logger.error(e);
     }
-    if (context != null && updatedFiles.size() > 0) {
-      context.output(PrintOutput.log(String.format("Copied %d jars", updatedFiles.size())));
+    index.putAll(updatedIndex);
+    // their stored copies can't be trusted, so they're read again on the next refresh
+    index.keySet().removeAll(failedFiles);
+
+    int removed = 0;
+    if (removeMissingFiles) {
+      int sizeBefore = index.size();
+      index.keySet().retainAll(sourceFiles);
+      removed = sizeBefore - index.size();
+    }
+
+    Set<String> digests = index.values().stream().map(jar -> jar.digest).collect(toSet());
+    boolean manifestWritten = false;
+    try {
+      if (projectLock == null) {
+        projectLock = jarStore.lockProject(projectId);
+      }
+      jarStore.writeManifest(projectId, digests);
+      manifestWritten = true;
+    } catch (IOException e) {
+      logger.warn("Could not update jar cache", e);
+    }
+    if (manifestWritten) {
+      restoreEvictedJars(updatedIndex.keySet(), index);
+    }
+
+    ImmutableMap.Builder<File, File> sourceFileToCachedFile = ImmutableMap.builder();
+    ImmutableSet<File> refreshedFiles = ImmutableSet.copyOf(files);
+    for (File file : sourceFiles) {
+      CachedJar cachedJar = index.get(file);
+      if (cachedJar == null) {
+        continue;
+      }
+      if (refreshedFiles.contains(file)
+          && cachedJar.sourceModifiedTime != sourceFileState.getModifiedTime(file)) {
+        continue;
+      }
+      sourceFileToCachedFile.put(file, jarStore.fileForDigest(cachedJar.digest));
+    }
+    this.sourceFileToCachedFile = sourceFileToCachedFile.build();
+
+    int evicted = 0;
+    try {
+      SerializationUtil.saveToDisk(getIndexFile(), Maps.newHashMap(index));
+      if (manifestWritten) {
+        evicted = jarStore.evict(getMaxStoreSizeBytes(), digests);
+      }
+    } catch (IOException e) {
+      logger.warn("Could not update jar cache", e);
+    }
+
+    if (context != null && linked + copied > 0) {
+      context.output(
+          PrintOutput.log(String.format("Cached %d jars (%d copied)", linked + copied, copied)));
+    }
+    if (context != null && removed > 0) {
+      context.output(PrintOutput.log(String.format("Removed %d jars", removed)));
     }
-    if (context != null && removedFiles.size() > 0 && removeMissingFiles) {
-      context.output(PrintOutput.log(String.format("Removed %d jars", removedFiles.size())));
+    if (context != null && evicted > 0) {
+      context.output(
+          PrintOutput.log(String.format("Evicted %d least recently used jars", evicted)));
     }
     if (context != null) {
+      context.output(
+          PrintOutput.log(
+              String.format(
+                  "Jar cache: %d of %d jars cached (%d changed)",
+                  this.sourceFileToCachedFile.size(), files.size(), updatedFiles.size())));
+    }
+  }
+
+  /**
+   * Adds back any of the given jars which were evicted (by another project, possibly in another
+   * process) after they were found in the store, but before this project's manifest was written.
+   * Now the manifest is written and the project is locked, they can't be evicted again. Jars which
+   * can't be added back are dropped from the index.
+   */
+  private void restoreEvictedJars(Collection<File> files, Map<File, CachedJar> index) {
+    for (File file : files) {
+      CachedJar cachedJar = index.get(file);
+      if (cachedJar == null || jarStore.fileForDigest(cachedJar.digest).exists()) {
+        continue;
+      }
       try {
-        File[] finalCacheFiles = cacheDir.listFiles();
-        assert finalCacheFiles != null;
-        ImmutableMap<File, Long> cacheFileSizes =
-            FileSizeScanner.readFilesizes(Lists.newArrayList(finalCacheFiles));
-        Long total =
-            cacheFileSizes.values().stream().reduce((size1, size2) -> size1 + size2).orElse(0L);
-        context.output(
-            PrintOutput.log(
-                String.format(
-                    "Total Jar Cache size: %d kB (%d files)",
-                    total / 1024, finalCacheFiles.length)));
-      } catch (Exception e) {
-        logger.warn("Could not determine cache size", e);
+        addToStore(file, cachedJar.sourceModifiedTime, cachedJar.digest, index);
+      } catch (IOException e) {
+        logger.warn(e);
+        index.remove(file);
       }
     }
   }
 
-  private void clearCache() {
-    if (cacheDir.exists()) {
-      File[] cacheFiles = cacheDir.listFiles();
-      if (cacheFiles != null) {
-        FileUtil.asyncDelete(Lists.newArrayList(cacheFiles));
+  /** Adds a new or modified jar to the store, recording it in the given index. */
+  @Nullable
+  private JarStore.AddResult cacheUpdatedJar(
+      File file,
+      long sourceModifiedTime,
+      @Nullable CachedJar previous,
+      Map<File, CachedJar> updatedIndex,
+      Set<File> failedFiles) {
+    try {
+      if (previous != null) {
+        File previousStoredFile = jarStore.fileForDigest(previous.digest);
+        if (previousStoredFile.exists()
+            && Files.isSameFile(previousStoredFile.toPath(), file.toPath())) {
+          // the stored jar was a hard link to a jar which has since been modified in place
+          jarStore.remove(previous.digest);
+        }
       }
+      return addToStore(file, sourceModifiedTime, JarStore.digest(file), updatedIndex);
+    } catch (IOException e) {
+      logger.warn(e);
+      failedFiles.add(file);
+      return null;
+    }
+  }
+
+  /**
+   * Adds an unchanged jar back to the store, if it was evicted or if the stored copy doesn't match
+   * its digest any more.
+   */
+  @Nullable
+  private JarStore.AddResult restoreJar(
+      File file,
+      CachedJar cachedJar,
+      boolean stored,
+      Map<File, CachedJar> updatedIndex,
+      Set<File> failedFiles) {
+    try {
+      if (stored
+          && !JarStore.digest(jarStore.fileForDigest(cachedJar.digest)).equals(cachedJar.digest)) {
+        jarStore.remove(cachedJar.digest);
+      }
+      return addToStore(file, cachedJar.sourceModifiedTime, cachedJar.digest, updatedIndex);
+    } catch (IOException e) {
+      logger.warn(e);
+      failedFiles.add(file);
+      return null;
+    }
+  }
+
+  private JarStore.AddResult addToStore(
+      File file, long sourceModifiedTime, String digest, Map<File, CachedJar> updatedIndex)
+      throws IOException {
+    JarStore.AddResult result = jarStore.add(file, digest);
+    long storedModifiedTime = jarStore.fileForDigest(digest).lastModified();
+    updatedIndex.put(file, new CachedJar(sourceModifiedTime, digest, storedModifiedTime));
+    return result;
+  }
+
+  private Map<File, CachedJar> getIndex() {
+    if (index == null) {
+      index = Maps.newHashMap();
+      try {
+        Object loaded =
+            SerializationUtil.loadFromDisk(
+                getIndexFile(), ImmutableList.of(JarCache.class.getClassLoader()));
+        if (loaded instanceof Map) {
+          @SuppressWarnings("unchecked")
+          Map<File, CachedJar> loadedIndex = (Map<File, CachedJar>) loaded;
+          index.putAll(loadedIndex);
+        }
+      } catch (IOException e) {
+        logger.info("Could not load jar cache index", e);
+      }
+    }
+    return index;
+  }
+
+  private synchronized void clearCache() {
+    releaseProjectLock();
+    try {
+      jarStore.removeManifest(projectId);
+      Files.deleteIfExists(getIndexFile().toPath());
+    } catch (IOException e) {
+      logger.warn(e);
+    }
+    index = null;
+    sourceFiles = null;
+    sourceFileToCachedFile = null;
+  }
+
+  private synchronized void releaseProjectLock() {
+    if (projectLock == null) {
+      return;
+    }
+    try {
+      projectLock.close();
+    } catch (IOException e) {
+      logger.warn(e);
+    }
+    projectLock = null;
+  }
+
+  /** Jars used to be copied into a per-project directory. */
+  private void deleteLegacyCacheDirectory() {
+    File legacyCacheDir = new File(BlazeDataStorage.getProjectDataDir(importSettings), "libraries");
+    if (legacyCacheDir.exists()) {
+      FileUtil.asyncDelete(legacyCacheDir);
     }
-    sourceFileToCacheKey = null;
   }
 
   /** Gets the cached file for a jar. If it doesn't exist, we return the file from the library. */
   public File getCachedJar(ArtifactLocationDecoder decoder, BlazeJarLibrary library) {
     File file = decoder.decode(library.libraryArtifact.jarForIntellijLibrary());
-    if (!enabled || sourceFileToCacheKey == null) {
-      return file;
-    }
-    String cacheKey = sourceFileToCacheKey.get(file);
-    if (cacheKey == null) {
-      return file;
-    }
-    return cacheFileForKey(cacheKey);
+    return getCachedFile(file);
   }
 
   /** Gets the cached file for a source jar. */
@@ -286,35 +639,40 @@ public class JarCache {
       return null;
     }
     File file = decoder.decode(library.libraryArtifact.sourceJar);
-    if (!enabled || sourceFileToCacheKey == null) {
-      return file;
-    }
-    String cacheKey = sourceFileToCacheKey.get(file);
-    if (cacheKey == null) {
+    return getCachedFile(file);
+  }
+
+  @VisibleForTesting
+  File getCachedFile(File file) {
+    ImmutableMap<File, File> sourceFileToCachedFile = this.sourceFileToCachedFile;
+    if (!enabled || sourceFileToCachedFile == null) {
       return file;
     }
-    return cacheFileForKey(cacheKey);
+    File cachedFile = sourceFileToCachedFile.get(file);
+    return cachedFile != null ? cachedFile : file;
   }
 
-  private static String cacheKeyInternal(File jar) {
-    int parentHash = jar.getParent().hashCode();
-    return FileUtil.getNameWithoutExtension(jar) + "_" + Integer.toHexString(parentHash);
+  private static long getMaxStoreSizeBytes() {
+    return BlazeJavaUserSettings.getInstance().getJarCacheSizeLimitMb() * 1024L * 1024L;
   }
 
-  private static String cacheKeyForJar(File jar) {
-    return cacheKeyInternal(jar) + ".jar";
+  private File getIndexFile() {
+    return new File(BlazeDataStorage.getProjectDataDir(importSettings), "jar_cache.dat");
   }
 
-  private static String cacheKeyForSourceJar(File srcjar) {
-    return cacheKeyInternal(srcjar) + "-src.jar";
-  }
+  /** A jar in the store, and the state of its source when it was stored. */
+  private static class CachedJar implements Serializable {
+    private static final long serialVersionUID = 1L;
 
-  private File cacheFileForKey(String key) {
-    return new File(cacheDir, key);
-  }
+    final long sourceModifiedTime;
+    final String digest;
+    final long storedModifiedTime;
 
-  private File getCacheDir() {
-    return new File(BlazeDataStorage.getProjectDataDir(importSettings), "libraries");
+    CachedJar(long sourceModifiedTime, String digest, long storedModifiedTime) {
+      this.sourceModifiedTime = sourceModifiedTime;
+      this.digest = digest;
+      this.storedModifiedTime = storedModifiedTime;
+    }
   }
 
   static class FileCacheAdapter implements FileCache {
@@ -0,0 +1,331 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.libraries;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A content-addressed store of jars, shared by all projects on this machine.
+ *
+ * <p>Jars are stored under their SHA-256 digest, so identical jars are only stored once. They're
+ * hard linked from their source when possible, and copied otherwise.
+ *
+ * <p>Each project records the jars it uses in a manifest. When the store grows beyond its size
+ * limit, the jars least recently used by any project are evicted first. Open projects hold a lock
+ * on a file next to their manifest, and the jars they use are never evicted.
+ */
+final class JarStore {
+  private static final Logger logger = Logger.getInstance(JarStore.class);
+
+  private static final String JAR_SUFFIX = ".jar";
+  private static final String TEMP_SUFFIX = ".tmp";
+  private static final String LOCK_SUFFIX = ".lock";
+  private static final String MANIFESTS_DIRECTORY = "manifests";
+  /** Temp files older than this are left over from interrupted writes. */
+  private static final long STALE_TEMP_FILE_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+  /** How a jar was added to the store. */
+  enum AddResult {
+    EXISTING,
+    LINKED,
+    COPIED
+  }
+
+  /**
+   * The lock files held by projects open in this process. Another channel can't be opened on them
+   * to check whether they're locked, as closing it would release the lock on some platforms.
+   */
+  private static final Set<String> heldLockFiles = Sets.newConcurrentHashSet();
+
+  private final File storeDirectory;
+  private final File manifestDirectory;
+
+  @VisibleForTesting
+  JarStore(File storeDirectory) {
+    this.storeDirectory = storeDirectory;
+    this.manifestDirectory = new File(storeDirectory, MANIFESTS_DIRECTORY);
+  }
+
+  /** The store shared by all projects. */
+  static JarStore getDefault() {
+    return new JarStore(new File(PathManager.getSystemPath(), "blaze/jars").getAbsoluteFile());
+  }
+
+  /** Returns the SHA-256 digest of the file's contents. */
+  static String digest(File file) throws IOException {
+    return com.google.common.io.Files.asByteSource(file).hash(Hashing.sha256()).toString();
+  }
+
+  /** Returns the stored file for the given digest. It isn't guaranteed to exist. */
+  File fileForDigest(String digest) {
+    return new File(storeDirectory, digest + JAR_SUFFIX);
+  }
+
+  /**
+   * Adds the given file to the store under the given digest, unless it's already there.
+   *
+   * <p>Only read-only files are hard linked, as a link would see later writes to its source. The
+   * stored file is checked against the digest before it's added, in case the source was modified
+   * after it was hashed.
+   *
+   * <p>A jar found in the store may still be evicted by another project until it's recorded in a
+   * manifest of a locked project, so callers should check it still exists after {@link
+   * #writeManifest}.
+   */
+  AddResult add(File source, String digest) throws IOException {
+    File target = fileForDigest(digest);
+    if (target.exists()) {
+      return AddResult.EXISTING;
+    }
+    Files.createDirectories(storeDirectory.toPath());
+    Path temp = newTempFile(storeDirectory);
+    AddResult result = null;
+    if (!Files.isWritable(source.toPath())) {
+      try {
+        Files.createLink(temp, source.toPath());
+        result = AddResult.LINKED;
+      } catch (IOException | UnsupportedOperationException e) {
+        // different file systems, or no hard link support
+      }
+    }
+    if (result == null) {
+      Files.copy(source.toPath(), temp, StandardCopyOption.COPY_ATTRIBUTES);
+      result = AddResult.COPIED;
+    }
+    if (!digest(temp.toFile()).equals(digest)) {
+      Files.deleteIfExists(temp);
+      throw new IOException("Jar was modified while it was being cached: " + source);
+    }
+    try {
+      moveAtomically(temp, target.toPath());
+    } catch (FileAlreadyExistsException e) {
+      // added concurrently by another project
+      Files.deleteIfExists(temp);
+      return AddResult.EXISTING;
+    }
+    return result;
+  }
+
+  /** Removes the stored file for the given digest. */
+  void remove(String digest) throws IOException {
+    Files.deleteIfExists(fileForDigest(digest).toPath());
+  }
+
+  /** Records the jars currently used by the given project. */
+  void writeManifest(String projectId, Collection<String> digests) throws IOException {
+    Files.createDirectories(manifestDirectory.toPath());
+    Path temp = newTempFile(manifestDirectory);
+    Files.write(temp, digests, UTF_8);
+    Files.move(
+        temp,
+        new File(manifestDirectory, projectId).toPath(),
+        StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Marks the given project as open until the returned lock is closed. Jars in the manifests of
+   * open projects are never evicted. The lock is released by the OS if the process exits without
+   * closing it.
+   */
+  Closeable lockProject(String projectId) throws IOException {
+    Files.createDirectories(manifestDirectory.toPath());
+    File lockFile = lockFile(projectId);
+    String lockPath = lockFile.getPath();
+    if (!heldLockFiles.add(lockPath)) {
+      // already locked by this process
+      return () -> {};
+    }
+    FileChannel channel;
+    try {
+      channel =
+          FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    } catch (IOException e) {
+      heldLockFiles.remove(lockPath);
+      throw e;
+    }
+    try {
+      // null if another process has the same project open, in which case its lock is enough
+      channel.tryLock();
+    } catch (IOException | OverlappingFileLockException e) {
+      logger.warn("Could not lock jar store manifest " + projectId, e);
+    }
+    return () -> {
+      heldLockFiles.remove(lockPath);
+      channel.close();
+    };
+  }
+
+  /** Removes the given project's manifest, so its jars can be evicted. */
+  void removeManifest(String projectId) throws IOException {
+    Files.deleteIfExists(new File(manifestDirectory, projectId).toPath());
+  }
+
+  /**
+   * Evicts jars until the store is within the given size, least recently used first. A jar was
+   * last used when the most recent manifest referring to it was written; jars no manifest refers
+   * to are evicted first. Jars in the given set, and jars used by open projects, are never evicted.
+   *
+   * @return the number of jars evicted.
+   */
+  int evict(long maxSizeBytes, Set<String> retainedDigests) throws IOException {
+    Map<String, Long> sizes = Maps.newHashMap();
+    long totalSize = 0;
+    long staleTempTime = System.currentTimeMillis() - STALE_TEMP_FILE_MILLIS;
+    if (!storeDirectory.exists()) {
+      return 0;
+    }
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(storeDirectory.toPath())) {
+      for (Path path : stream) {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        if (!attributes.isRegularFile()) {
+          continue;
+        }
+        String name = path.getFileName().toString();
+        if (name.endsWith(TEMP_SUFFIX)) {
+          if (attributes.lastModifiedTime().toMillis() < staleTempTime) {
+            Files.deleteIfExists(path);
+          }
+        } else if (name.endsWith(JAR_SUFFIX)) {
+          String digest = name.substring(0, name.length() - JAR_SUFFIX.length());
+          sizes.put(digest, attributes.size());
+          totalSize += attributes.size();
+        }
+      }
+    }
+    if (totalSize <= maxSizeBytes) {
+      return 0;
+    }
+
+    Map<String, Long> lastUsed = Maps.newHashMap();
+    Set<String> openProjectDigests = Sets.newHashSet();
+    readManifests(lastUsed, openProjectDigests);
+    List<String> candidates = Lists.newArrayList(sizes.keySet());
+    candidates.removeAll(retainedDigests);
+    candidates.removeAll(openProjectDigests);
+    candidates.sort(Comparator.comparingLong(digest -> lastUsed.getOrDefault(digest, 0L)));
+    int evicted = 0;
+    for (String digest : candidates) {
+      if (totalSize <= maxSizeBytes) {
+        break;
+      }
+      try {
+        remove(digest);
+        totalSize -= sizes.get(digest);
+        evicted++;
+      } catch (IOException e) {
+        logger.warn("Could not evict jar " + digest, e);
+      }
+    }
+    return evicted;
+  }
+
+  /**
+   * Reads the time each jar was last used, and the jars used by projects which are currently open.
+   */
+  private void readManifests(Map<String, Long> lastUsed, Set<String> openProjectDigests) {
+    File[] manifests = manifestDirectory.listFiles();
+    if (manifests == null) {
+      return;
+    }
+    for (File manifest : manifests) {
+      String name = manifest.getName();
+      if (name.endsWith(TEMP_SUFFIX) || name.endsWith(LOCK_SUFFIX)) {
+        continue;
+      }
+      long modifiedTime = manifest.lastModified();
+      List<String> digests;
+      try {
+        digests = Files.readAllLines(manifest.toPath(), UTF_8);
+      } catch (IOException e) {
+        logger.warn("Could not read jar store manifest " + manifest, e);
+        continue;
+      }
+      for (String digest : digests) {
+        lastUsed.merge(digest, modifiedTime, Math::max);
+      }
+      if (isLocked(name)) {
+        openProjectDigests.addAll(digests);
+      }
+    }
+  }
+
+  /** Returns true if the given project is open in this or another process. */
+  private boolean isLocked(String projectId) {
+    File lockFile = lockFile(projectId);
+    if (heldLockFiles.contains(lockFile.getPath())) {
+      return true;
+    }
+    if (!lockFile.exists()) {
+      return false;
+    }
+    try (FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.WRITE)) {
+      FileLock lock = channel.tryLock();
+      if (lock == null) {
+        return true;
+      }
+      lock.release();
+      return false;
+    } catch (IOException | OverlappingFileLockException e) {
+      // keep its jars if in doubt
+      return true;
+    }
+  }
+
+  private File lockFile(String projectId) {
+    return new File(manifestDirectory, projectId + LOCK_SUFFIX);
+  }
+
+  private static Path newTempFile(File directory) {
+    return new File(directory, UUID.randomUUID() + TEMP_SUFFIX).toPath();
+  }
+
+  private static void moveAtomically(Path source, Path target) throws IOException {
+    try {
+      Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(source, target);
+    }
+  }
+}
@@ -17,6 +17,7 @@ package com.google.idea.blaze.java.libraries;
 
 import com.google.common.collect.Sets;
 import com.google.idea.blaze.base.model.LibraryKey;
+import com.google.idea.blaze.java.settings.BlazeJavaUserSettings;
 import com.intellij.openapi.components.PersistentStateComponent;
 import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.components.State;
@@ -30,6 +31,8 @@ import org.jdom.Element;
 @State(name = "BlazeSourceJarManager", storages = @Storage(StoragePathMacros.WORKSPACE_FILE))
 public class SourceJarManager implements PersistentStateComponent<Element> {
   private Set<LibraryKey> librariesWithSourceJarsAttached = Sets.newHashSet();
+  /** Libraries whose source jars are being cached so they can be attached. */
+  private final Set<LibraryKey> librariesWithSourceJarsPending = Sets.newConcurrentHashSet();
 
   public static SourceJarManager getInstance(Project project) {
     return ServiceManager.getService(project, SourceJarManager.class);
@@ -39,6 +42,16 @@ public class SourceJarManager implements PersistentStateComponent<Element> {
     return librariesWithSourceJarsAttached.contains(libraryKey);
   }
 
+  /**
+   * Whether the library's source jar is attached during sync. When sources attached by default are
+   * fetched lazily, a library only gets its source jar once the user has opened one of its classes.
+   */
+  public boolean shouldAttachSourceJar(LibraryKey libraryKey) {
+    BlazeJavaUserSettings settings = BlazeJavaUserSettings.getInstance();
+    return hasSourceJarAttached(libraryKey)
+        || (settings.getAttachSourcesByDefault() && !settings.getAttachSourcesLazily());
+  }
+
   public void setHasSourceJarAttached(LibraryKey libraryKey, boolean hasSourceJar) {
     if (hasSourceJar) {
       librariesWithSourceJarsAttached.add(libraryKey);
@@ -47,6 +60,23 @@ public class SourceJarManager implements PersistentStateComponent<Element> {
     }
   }
 
+  /**
+   * Marks the library's source jar as being attached. Returns false if it's already being attached,
+   * in which case the caller shouldn't attach it again.
+   */
+  public boolean startAttachingSourceJar(LibraryKey libraryKey) {
+    return librariesWithSourceJarsPending.add(libraryKey);
+  }
+
+  /** Called once the library's source jar is attached, or attaching it failed. */
+  public void finishAttachingSourceJar(LibraryKey libraryKey) {
+    librariesWithSourceJarsPending.remove(libraryKey);
+  }
+
+  public boolean isAttachingSourceJar(LibraryKey libraryKey) {
+    return librariesWithSourceJarsPending.contains(libraryKey);
+  }
+
   @Override
   public Element getState() {
     Element element = new Element("state");
@@ -28,9 +28,13 @@ import org.jetbrains.annotations.NotNull;
 /** Java-specific user settings. */
 @State(name = "BlazeJavaUserSettings", storages = @Storage("blaze.java.user.settings.xml"))
 public class BlazeJavaUserSettings implements PersistentStateComponent<BlazeJavaUserSettings> {
+  private static final long DEFAULT_JAR_CACHE_SIZE_LIMIT_MB = 10 * 1024;
+
   private boolean useJarCache = getDefaultJarCacheValue();
   private boolean attachSourcesByDefault = false;
   private boolean attachSourcesOnDemand = false;
+  private boolean attachSourcesLazily = true;
+  private long jarCacheSizeLimitMb = DEFAULT_JAR_CACHE_SIZE_LIMIT_MB;
   private boolean migrated;
 
   public static BlazeJavaUserSettings getInstance() {
@@ -76,6 +80,27 @@ public class BlazeJavaUserSettings implements PersistentStateComponent<BlazeJava
     this.useJarCache = useJarCache;
   }
 
+  /**
+   * Whether sources attached by default are only fetched once they're first requested, rather than
+   * during sync.
+   */
+  public boolean getAttachSourcesLazily() {
+    return attachSourcesLazily;
+  }
+
+  public void setAttachSourcesLazily(boolean attachSourcesLazily) {
+    this.attachSourcesLazily = attachSourcesLazily;
+  }
+
+  /** The maximum size of the jar store shared by all projects. */
+  public long getJarCacheSizeLimitMb() {
+    return jarCacheSizeLimitMb;
+  }
+
+  public void setJarCacheSizeLimitMb(long jarCacheSizeLimitMb) {
+    this.jarCacheSizeLimitMb = jarCacheSizeLimitMb;
+  }
+
   public boolean getAttachSourcesByDefault() {
     return attachSourcesByDefault;
   }
@@ -30,6 +30,7 @@ public class BlazeJavaUserSettingsContributor implements BlazeUserSettingsContri
   private JCheckBox useJarCache;
   private JCheckBox attachSourcesByDefault;
   private JCheckBox attachSourcesOnDemand;
+  private JCheckBox attachSourcesLazily;
   private final ImmutableList<JComponent> components;
 
   BlazeJavaUserSettingsContributor() {
@@ -66,7 +67,14 @@ public class BlazeJavaUserSettingsContributor implements BlazeUserSettingsContri
     attachSourcesOnDemand.setSelected(false);
     attachSourcesOnDemand.setText("Automatically attach sources when you open decompiled source");
 
-    components = ImmutableList.of(useJarCache, attachSourcesOnDemand, attachSourcesByDefault);
+    attachSourcesLazily = new JCheckBox();
+    attachSourcesLazily.setSelected(true);
+    attachSourcesLazily.setText(
+        "Only fetch automatically attached sources once they're opened, rather than on sync");
+
+    components =
+        ImmutableList.of(
+            useJarCache, attachSourcesOnDemand, attachSourcesByDefault, attachSourcesLazily);
   }
 
   @Override
@@ -75,6 +83,7 @@ public class BlazeJavaUserSettingsContributor implements BlazeUserSettingsContri
     settings.setUseJarCache(useJarCache.isSelected());
     settings.setAttachSourcesByDefault(attachSourcesByDefault.isSelected());
     settings.setAttachSourcesOnDemand(attachSourcesOnDemand.isSelected());
+    settings.setAttachSourcesLazily(attachSourcesLazily.isSelected());
   }
 
   @Override
@@ -83,6 +92,7 @@ public class BlazeJavaUserSettingsContributor implements BlazeUserSettingsContri
     useJarCache.setSelected(settings.getUseJarCache());
     attachSourcesByDefault.setSelected(settings.getAttachSourcesByDefault());
     attachSourcesOnDemand.setSelected(settings.getAttachSourcesOnDemand());
+    attachSourcesLazily.setSelected(settings.getAttachSourcesLazily());
   }
 
   @Override
@@ -90,7 +100,8 @@ public class BlazeJavaUserSettingsContributor implements BlazeUserSettingsContri
     BlazeJavaUserSettings settings = BlazeJavaUserSettings.getInstance();
     return !Objects.equal(useJarCache.isSelected(), settings.getUseJarCache())
         || !Objects.equal(attachSourcesByDefault.isSelected(), settings.getAttachSourcesByDefault())
-        || !Objects.equal(attachSourcesOnDemand.isSelected(), settings.getAttachSourcesOnDemand());
+        || !Objects.equal(attachSourcesOnDemand.isSelected(), settings.getAttachSourcesOnDemand())
+        || !Objects.equal(attachSourcesLazily.isSelected(), settings.getAttachSourcesLazily());
   }
 
   @Override
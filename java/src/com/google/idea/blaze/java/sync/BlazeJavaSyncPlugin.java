@@ -56,6 +56,8 @@ import com.google.idea.blaze.java.sync.model.BlazeJavaImportResult;
 import com.google.idea.blaze.java.sync.model.BlazeJavaSyncData;
 import com.google.idea.blaze.java.sync.projectstructure.JavaSourceFolderProvider;
 import com.google.idea.blaze.java.sync.projectstructure.Jdks;
+import com.google.idea.blaze.java.sync.source.JavaSourcePackageCache;
+import com.google.idea.blaze.java.sync.source.SourceDirectoryCalculator;
 import com.google.idea.blaze.java.sync.workingset.JavaWorkingSet;
 import com.google.idea.sdkcompat.transactions.Transactions;
 import com.intellij.openapi.application.ApplicationManager;
@@ -138,6 +140,11 @@ public class BlazeJavaSyncPlugin extends BlazeSyncPlugin.Adapter {
       return;
     }
 
+    SourceDirectoryCalculator sourceDirectoryCalculator =
+        new SourceDirectoryCalculator(
+            previousSyncState != null
+                ? previousSyncState.get(JavaSourcePackageCache.class)
+                : null);
     BlazeJavaWorkspaceImporter blazeJavaWorkspaceImporter =
         new BlazeJavaWorkspaceImporter(
             project,
@@ -148,7 +155,8 @@ public class BlazeJavaSyncPlugin extends BlazeSyncPlugin.Adapter {
             sourceFilter,
             jdepsMap,
             javaWorkingSet,
-            artifactLocationDecoder);
+            artifactLocationDecoder,
+            sourceDirectoryCalculator);
     BlazeJavaImportResult importResult =
         Scope.push(
             context,
@@ -164,6 +172,10 @@ public class BlazeJavaSyncPlugin extends BlazeSyncPlugin.Adapter {
                 .build());
     BlazeJavaSyncData syncData = new BlazeJavaSyncData(importResult, excludedLibraries);
     syncStateBuilder.put(BlazeJavaSyncData.class, syncData);
+    JavaSourcePackageCache packageCache = sourceDirectoryCalculator.getPackageCache();
+    if (packageCache != null) {
+      syncStateBuilder.put(JavaSourcePackageCache.class, packageCache);
+    }
   }
 
   @Override
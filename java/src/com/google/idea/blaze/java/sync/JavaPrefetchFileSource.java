@@ -24,7 +24,6 @@ import com.google.idea.blaze.base.sync.libraries.BlazeLibraryCollector;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
 import com.google.idea.blaze.java.libraries.JarCache;
 import com.google.idea.blaze.java.libraries.SourceJarManager;
-import com.google.idea.blaze.java.settings.BlazeJavaUserSettings;
 import com.google.idea.blaze.java.sync.model.BlazeJarLibrary;
 import com.google.idea.blaze.java.sync.model.BlazeJavaSyncData;
 import com.intellij.openapi.project.Project;
@@ -48,8 +47,6 @@ public class JavaPrefetchFileSource implements PrefetchFileSource {
     if (JarCache.getInstance(project).isEnabled()) {
       return;
     }
-    boolean attachSourcesByDefault =
-        BlazeJavaUserSettings.getInstance().getAttachSourcesByDefault();
     SourceJarManager sourceJarManager = SourceJarManager.getInstance(project);
     Collection<BlazeLibrary> libraries =
         BlazeLibraryCollector.getLibraries(projectViewSet, blazeProjectData);
@@ -61,8 +58,7 @@ public class JavaPrefetchFileSource implements PrefetchFileSource {
       BlazeJarLibrary jarLibrary = (BlazeJarLibrary) library;
       files.add(artifactLocationDecoder.decode(jarLibrary.libraryArtifact.jarForIntellijLibrary()));
 
-      boolean attachSourceJar =
-          attachSourcesByDefault || sourceJarManager.hasSourceJarAttached(jarLibrary.key);
+      boolean attachSourceJar = sourceJarManager.shouldAttachSourceJar(jarLibrary.key);
       if (attachSourceJar && jarLibrary.libraryArtifact.sourceJar != null) {
         files.add(artifactLocationDecoder.decode(jarLibrary.libraryArtifact.sourceJar));
       }
@@ -74,6 +74,7 @@ public final class BlazeJavaWorkspaceImporter {
   private final WorkspaceLanguageSettings workspaceLanguageSettings;
   private final List<BlazeJavaSyncAugmenter> augmenters;
   private final ProjectViewSet projectViewSet;
+  private final SourceDirectoryCalculator sourceDirectoryCalculator;
 
   public BlazeJavaWorkspaceImporter(
       Project project,
@@ -84,7 +85,8 @@ public final class BlazeJavaWorkspaceImporter {
       JavaSourceFilter sourceFilter,
       JdepsMap jdepsMap,
       @Nullable JavaWorkingSet workingSet,
-      ArtifactLocationDecoder artifactLocationDecoder) {
+      ArtifactLocationDecoder artifactLocationDecoder,
+      SourceDirectoryCalculator sourceDirectoryCalculator) {
     this.project = project;
     this.workspaceRoot = workspaceRoot;
     this.importRoots =
@@ -99,6 +101,7 @@ public final class BlazeJavaWorkspaceImporter {
     this.workspaceLanguageSettings = workspaceLanguageSettings;
     this.augmenters = Arrays.asList(BlazeJavaSyncAugmenter.EP_NAME.getExtensions());
     this.projectViewSet = projectViewSet;
+    this.sourceDirectoryCalculator = sourceDirectoryCalculator;
   }
 
   public BlazeJavaImportResult importWorkspace(BlazeContext context) {
@@ -106,8 +109,8 @@ public final class BlazeJavaWorkspaceImporter {
     for (TargetIdeInfo target : sourceFilter.sourceTargets) {
       addTargetAsSource(workspaceBuilder, target, sourceFilter.targetToJavaSources.get(target.key));
     }
+    workspaceBuilder.jdeps = jdepsMap.getDependenciesForTargets(workspaceBuilder.sourceTargetKeys);
 
-    SourceDirectoryCalculator sourceDirectoryCalculator = new SourceDirectoryCalculator();
     ImmutableList<BlazeContentEntry> contentEntries =
         sourceDirectoryCalculator.calculateContentEntries(
             project,
@@ -336,10 +339,7 @@ public final class BlazeJavaWorkspaceImporter {
     }
 
     TargetKey targetKey = target.key;
-    Collection<String> jars = jdepsMap.getDependenciesForTarget(targetKey);
-    if (jars != null) {
-      workspaceBuilder.jdeps.addAll(jars);
-    }
+    workspaceBuilder.sourceTargetKeys.add(targetKey);
 
     // Add all deps if this rule is in the current working set
     if (workingSet == null || workingSet.isTargetInWorkingSet(target)) {
@@ -398,7 +398,8 @@ public final class BlazeJavaWorkspaceImporter {
   }
 
   private static class WorkspaceBuilder {
-    Set<String> jdeps = Sets.newHashSet();
+    Set<String> jdeps = ImmutableSet.of();
+    List<TargetKey> sourceTargetKeys = Lists.newArrayList();
     Set<TargetKey> directDeps = Sets.newHashSet();
     Set<ArtifactLocation> addedSourceFiles = Sets.newHashSet();
     Multimap<TargetKey, BlazeJarLibrary> outputJarsFromSourceTargets = ArrayListMultimap.create();
@@ -23,6 +23,7 @@ import com.google.common.util.concurrent.ListenableFuture;
 import com.google.idea.blaze.base.async.FutureUtil;
 import com.google.idea.blaze.base.async.executor.BlazeExecutor;
 import com.google.idea.blaze.base.filecache.FileDiffer;
+import com.google.idea.blaze.base.filecache.FileState;
 import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
 import com.google.idea.blaze.base.ideinfo.JavaIdeInfo;
 import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
@@ -54,10 +55,10 @@ public class JdepsFileReader {
   private static final Logger logger = Logger.getInstance(JdepsFileReader.class);
 
   static class JdepsState implements Serializable {
-    private static final long serialVersionUID = 4L;
-    private ImmutableMap<File, Long> fileState = null;
+    private static final long serialVersionUID = 6L;
+    private FileState fileState = null;
     private Map<File, TargetKey> fileToTargetMap = Maps.newHashMap();
-    private Map<TargetKey, List<String>> targetToJdeps = Maps.newHashMap();
+    private JdepsIndex targetToJdeps = JdepsIndex.EMPTY;
   }
 
   private static class Result {
@@ -72,6 +73,17 @@ public class JdepsFileReader {
     }
   }
 
+  /**
+   * Returns the number of targets whose compilation used each jar, according to the jdeps files
+   * read during the given sync. Jars are keyed by their execution root relative path.
+   */
+  public static ImmutableMap<String, Integer> getDependentTargetCounts(SyncState syncState) {
+    JdepsState jdepsState = syncState.get(JdepsState.class);
+    return jdepsState != null
+        ? jdepsState.targetToJdeps.getDependentTargetCounts()
+        : ImmutableMap.of();
+  }
+
   /** Loads any updated jdeps files since the last invocation of this method. */
   @Nullable
   public JdepsMap loadJdepsFiles(
@@ -95,7 +107,7 @@ public class JdepsFileReader {
       return null;
     }
     syncStateBuilder.put(JdepsState.class, jdepsState);
-    return targetKey -> jdepsState.targetToJdeps.get(targetKey);
+    return jdepsState.targetToJdeps;
   }
 
   private JdepsState doLoadJdepsFiles(
@@ -105,8 +117,9 @@ public class JdepsFileReader {
       @Nullable JdepsState oldState,
       Iterable<TargetIdeInfo> targetsToLoad) {
     JdepsState state = new JdepsState();
+    JdepsIndex.Builder targetToJdeps =
+        (oldState != null ? oldState.targetToJdeps : JdepsIndex.EMPTY).toBuilder();
     if (oldState != null) {
-      state.targetToJdeps = Maps.newHashMap(oldState.targetToJdeps);
       state.fileToTargetMap = Maps.newHashMap(oldState.fileToTargetMap);
     }
 
@@ -144,7 +157,7 @@ public class JdepsFileReader {
     for (File removedFile : removedFiles) {
       TargetKey targetKey = state.fileToTargetMap.remove(removedFile);
       if (targetKey != null) {
-        state.targetToJdeps.remove(targetKey);
+        targetToJdeps.remove(targetKey);
       }
     }
 
@@ -182,9 +195,10 @@ public class JdepsFileReader {
       for (Result result : Futures.allAsList(futures).get()) {
         if (result != null) {
           state.fileToTargetMap.put(result.file, result.targetKey);
-          state.targetToJdeps.put(result.targetKey, result.dependencies);
+          targetToJdeps.put(result.targetKey, result.dependencies);
         }
       }
+      state.targetToJdeps = targetToJdeps.build();
       context.output(
           PrintOutput.log(
               String.format(
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.sync.jdeps;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * The jdeps dependencies of each target.
+ *
+ * <p>Jar paths are stored once in a shared table, and each target's dependencies are stored as an
+ * array of indices into that table.
+ */
+final class JdepsIndex implements JdepsMap, Serializable {
+  private static final long serialVersionUID = 1L;
+
+  static final JdepsIndex EMPTY = new JdepsIndex(new String[0], Maps.newHashMap());
+
+  private transient String[] jars;
+  private transient Map<TargetKey, int[]> targetToJdeps;
+
+  private JdepsIndex(String[] jars, Map<TargetKey, int[]> targetToJdeps) {
+    this.jars = jars;
+    this.targetToJdeps = targetToJdeps;
+  }
+
+  int targetCount() {
+    return targetToJdeps.size();
+  }
+
+  @Nullable
+  @Override
+  public List<String> getDependenciesForTarget(TargetKey targetKey) {
+    int[] jarIds = targetToJdeps.get(targetKey);
+    if (jarIds == null) {
+      return null;
+    }
+    return new AbstractList<String>() {
+      @Override
+      public String get(int index) {
+        return jars[jarIds[index]];
+      }
+
+      @Override
+      public int size() {
+        return jarIds.length;
+      }
+    };
+  }
+
+  @Override
+  public Set<String> getDependenciesForTargets(Iterable<TargetKey> targetKeys) {
+    BitSet jarIds = new BitSet(jars.length);
+    for (TargetKey targetKey : targetKeys) {
+      int[] targetJarIds = targetToJdeps.get(targetKey);
+      if (targetJarIds != null) {
+        for (int jarId : targetJarIds) {
+          jarIds.set(jarId);
+        }
+      }
+    }
+    ImmutableSet.Builder<String> result = ImmutableSet.builder();
+    for (int jarId = jarIds.nextSetBit(0); jarId >= 0; jarId = jarIds.nextSetBit(jarId + 1)) {
+      result.add(jars[jarId]);
+    }
+    return result.build();
+  }
+
+  /** Returns the number of targets whose compilation used each jar. */
+  ImmutableMap<String, Integer> getDependentTargetCounts() {
+    int[] counts = new int[jars.length];
+    for (int[] jarIds : targetToJdeps.values()) {
+      for (int jarId : jarIds) {
+        counts[jarId]++;
+      }
+    }
+    ImmutableMap.Builder<String, Integer> result = ImmutableMap.builder();
+    for (int jarId = 0; jarId < jars.length; jarId++) {
+      if (counts[jarId] > 0) {
+        result.put(jars[jarId], counts[jarId]);
+      }
+    }
+    return result.build();
+  }
+
+  /** Returns a builder initialized with the contents of this index. */
+  Builder toBuilder() {
+    return new Builder(this);
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    out.writeInt(jars.length);
+    for (String jar : jars) {
+      out.writeUTF(jar);
+    }
+    out.writeInt(targetToJdeps.size());
+    for (Map.Entry<TargetKey, int[]> entry : targetToJdeps.entrySet()) {
+      out.writeObject(entry.getKey());
+      int[] jarIds = entry.getValue();
+      out.writeInt(jarIds.length);
+      for (int jarId : jarIds) {
+        out.writeInt(jarId);
+      }
+    }
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    jars = new String[in.readInt()];
+    for (int i = 0; i < jars.length; i++) {
+      jars[i] = in.readUTF();
+    }
+    int targetCount = in.readInt();
+    targetToJdeps = Maps.newHashMapWithExpectedSize(targetCount);
+    for (int i = 0; i < targetCount; i++) {
+      TargetKey targetKey = (TargetKey) in.readObject();
+      int[] jarIds = new int[in.readInt()];
+      for (int j = 0; j < jarIds.length; j++) {
+        jarIds[j] = in.readInt();
+        if (jarIds[j] < 0 || jarIds[j] >= jars.length) {
+          throw new IOException("Invalid jar index in jdeps state: " + jarIds[j]);
+        }
+      }
+      targetToJdeps.put(targetKey, jarIds);
+    }
+  }
+
+  /**
+   * Builder for a jdeps index. Unchanged targets keep their entries from the previous index, and
+   * jars no longer referenced by any target are dropped from the table when the index is built.
+   */
+  static class Builder {
+    private final List<String> jars;
+    private final Map<String, Integer> jarIds = Maps.newHashMap();
+    private final Map<TargetKey, int[]> targetToJdeps;
+
+    private Builder(JdepsIndex previous) {
+      this.jars = Lists.newArrayList(previous.jars);
+      for (int i = 0; i < previous.jars.length; i++) {
+        jarIds.put(previous.jars[i], i);
+      }
+      this.targetToJdeps = Maps.newHashMap(previous.targetToJdeps);
+    }
+
+    Builder put(TargetKey targetKey, List<String> dependencies) {
+      int[] ids = new int[dependencies.size()];
+      for (int i = 0; i < ids.length; i++) {
+        ids[i] = intern(dependencies.get(i));
+      }
+      targetToJdeps.put(targetKey, ids);
+      return this;
+    }
+
+    Builder remove(TargetKey targetKey) {
+      targetToJdeps.remove(targetKey);
+      return this;
+    }
+
+    private int intern(String jar) {
+      Integer id = jarIds.get(jar);
+      if (id == null) {
+        id = jars.size();
+        jars.add(jar);
+        jarIds.put(jar, id);
+      }
+      return id;
+    }
+
+    JdepsIndex build() {
+      int[] remapped = new int[jars.size()];
+      Arrays.fill(remapped, -1);
+      List<String> usedJars = Lists.newArrayList();
+      Map<TargetKey, int[]> result = Maps.newHashMapWithExpectedSize(targetToJdeps.size());
+      for (Map.Entry<TargetKey, int[]> entry : targetToJdeps.entrySet()) {
+        int[] ids = entry.getValue();
+        int[] newIds = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+          int newId = remapped[ids[i]];
+          if (newId < 0) {
+            newId = usedJars.size();
+            usedJars.add(jars.get(ids[i]));
+            remapped[ids[i]] = newId;
+          }
+          newIds[i] = newId;
+        }
+        result.put(entry.getKey(), newIds);
+      }
+      return new JdepsIndex(usedJars.toArray(new String[0]), result);
+    }
+  }
+}
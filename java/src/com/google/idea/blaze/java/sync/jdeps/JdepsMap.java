@@ -15,8 +15,10 @@
  */
 package com.google.idea.blaze.java.sync.jdeps;
 
+import com.google.common.collect.Sets;
 import com.google.idea.blaze.base.ideinfo.TargetKey;
 import java.util.List;
+import java.util.Set;
 import javax.annotation.Nullable;
 
 /** Map of rule -> jdeps dependencies. */
@@ -31,4 +33,16 @@ public interface JdepsMap {
    */
   @Nullable
   List<String> getDependenciesForTarget(TargetKey targetKey);
+
+  /** Returns the union of the jdeps dependencies of the given targets. */
+  default Set<String> getDependenciesForTargets(Iterable<TargetKey> targetKeys) {
+    Set<String> result = Sets.newHashSet();
+    for (TargetKey targetKey : targetKeys) {
+      List<String> dependencies = getDependenciesForTarget(targetKey);
+      if (dependencies != null) {
+        result.addAll(dependencies);
+      }
+    }
+    return result;
+  }
 }
@@ -19,13 +19,12 @@ import com.google.common.base.Objects;
 import com.google.idea.blaze.base.ideinfo.LibraryArtifact;
 import com.google.idea.blaze.base.model.BlazeLibrary;
 import com.google.idea.blaze.base.model.LibraryKey;
+import com.google.idea.blaze.base.sync.libraries.LibraryRoots;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
 import com.google.idea.blaze.java.libraries.JarCache;
 import com.google.idea.blaze.java.libraries.SourceJarManager;
-import com.google.idea.blaze.java.settings.BlazeJavaUserSettings;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.roots.OrderRootType;
-import com.intellij.openapi.roots.libraries.Library;
 import java.io.File;
 import javax.annotation.concurrent.Immutable;
 
@@ -42,22 +41,19 @@ public final class BlazeJarLibrary extends BlazeLibrary {
   }
 
   @Override
-  public void modifyLibraryModel(
+  public void addRoots(
       Project project,
       ArtifactLocationDecoder artifactLocationDecoder,
-      Library.ModifiableModel libraryModel) {
+      LibraryRoots.Builder libraryRoots) {
     JarCache jarCache = JarCache.getInstance(project);
     File jar = jarCache.getCachedJar(artifactLocationDecoder, this);
-    libraryModel.addRoot(pathToUrl(jar), OrderRootType.CLASSES);
+    libraryRoots.addRoot(pathToUrl(jar), OrderRootType.CLASSES);
 
-    boolean attachSourcesByDefault =
-        BlazeJavaUserSettings.getInstance().getAttachSourcesByDefault();
-    SourceJarManager sourceJarManager = SourceJarManager.getInstance(project);
-    boolean attachSourceJar = attachSourcesByDefault || sourceJarManager.hasSourceJarAttached(key);
+    boolean attachSourceJar = SourceJarManager.getInstance(project).shouldAttachSourceJar(key);
     if (attachSourceJar && libraryArtifact.sourceJar != null) {
       File sourceJar = jarCache.getCachedSourceJar(artifactLocationDecoder, this);
       if (sourceJar != null) {
-        libraryModel.addRoot(pathToUrl(sourceJar), OrderRootType.SOURCES);
+        libraryRoots.addRoot(pathToUrl(sourceJar), OrderRootType.SOURCES);
       }
     }
   }
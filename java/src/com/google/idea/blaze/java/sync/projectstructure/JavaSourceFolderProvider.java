@@ -30,6 +30,7 @@ import com.intellij.openapi.vfs.VirtualFileManager;
 import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Optional;
 import javax.annotation.Nullable;
 import org.jetbrains.jps.model.JpsElement;
 import org.jetbrains.jps.model.java.JavaResourceRootType;
@@ -111,6 +112,11 @@ public class JavaSourceFolderProvider implements SourceFolderProvider {
         : parentPackagePrefix + "." + relativePath;
   }
 
+  @Override
+  public Object getSourceFolderInputs(File contentRoot) {
+    return Optional.ofNullable(blazeContentEntries.get(contentRoot));
+  }
+
   @VisibleForTesting
   static boolean isResource(SourceFolder folder) {
     return folder.getRootType() instanceof JavaResourceRootType;
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.sync.source;
+
+import java.io.IOException;
+import java.io.InputStream;
+import javax.annotation.Nullable;
+
+/**
+ * Finds the package declaration of a java-like source file by scanning its raw bytes.
+ *
+ * <p>Only the file header is read: whitespace, comments and annotations are skipped, and scanning
+ * stops at the first other token. Nothing after the package name is read or decoded.
+ */
+final class JavaPackageDeclarationScanner {
+  private static final int BUFFER_SIZE = 8192;
+
+  /** Package names are scanned from several threads, each reusing its own buffer. */
+  private static final ThreadLocal<byte[]> buffers =
+      ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
+  private final InputStream in;
+  private final byte[] buffer;
+  private int position;
+  private int limit;
+
+  private JavaPackageDeclarationScanner(InputStream in, byte[] buffer) {
+    this.in = in;
+    this.buffer = buffer;
+  }
+
+  /**
+   * Returns the declared package of the given source, or null if the first token after any
+   * comments and annotations isn't a package declaration.
+   */
+  @Nullable
+  static String scanPackage(InputStream in) throws IOException {
+    return new JavaPackageDeclarationScanner(in, buffers.get()).scan();
+  }
+
+  @Nullable
+  private String scan() throws IOException {
+    skipByteOrderMark();
+    while (true) {
+      skipWhitespaceAndComments();
+      int c = peek(0);
+      if (c == '@') {
+        skipAnnotation();
+        continue;
+      }
+      if (!isIdentifierChar(c) || !"package".equals(readWord())) {
+        return null;
+      }
+      skipWhitespaceAndComments();
+      String packageName = readPackageName();
+      return !packageName.isEmpty() ? packageName : null;
+    }
+  }
+
+  private void skipByteOrderMark() throws IOException {
+    if (peek(0) == 0xEF && peek(1) == 0xBB && peek(2) == 0xBF) {
+      position += 3;
+    }
+  }
+
+  private void skipWhitespaceAndComments() throws IOException {
+    while (true) {
+      int c = peek(0);
+      if (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f') {
+        position++;
+      } else if (c == '/' && peek(1) == '/') {
+        skipLineComment();
+      } else if (c == '/' && peek(1) == '*') {
+        skipBlockComment();
+      } else {
+        return;
+      }
+    }
+  }
+
+  private void skipLineComment() throws IOException {
+    int c;
+    do {
+      c = read();
+    } while (c != '\n' && c != -1);
+  }
+
+  private void skipBlockComment() throws IOException {
+    position += 2;
+    int c;
+    while ((c = read()) != -1) {
+      if (c == '*' && peek(0) == '/') {
+        position++;
+        return;
+      }
+    }
+  }
+
+  /**
+   * Skips an annotation, e.g. {@code @Foo}, {@code @a.b.Foo(value = ")")} or Kotlin's {@code
+   * @file:JvmName("Foo")}.
+   */
+  private void skipAnnotation() throws IOException {
+    position++;
+    skipWhitespaceAndComments();
+    readWord();
+    if (peek(0) == ':') {
+      position++;
+      readWord();
+    }
+    skipWhitespaceAndComments();
+    if (peek(0) == '(') {
+      skipParenthesized();
+    }
+  }
+
+  private void skipParenthesized() throws IOException {
+    int depth = 0;
+    int c;
+    while ((c = peek(0)) != -1) {
+      if (c == '"' || c == '\'') {
+        position++;
+        skipLiteral(c);
+        continue;
+      }
+      if (c == '/' && (peek(1) == '/' || peek(1) == '*')) {
+        skipWhitespaceAndComments();
+        continue;
+      }
+      position++;
+      if (c == '(') {
+        depth++;
+      } else if (c == ')' && --depth == 0) {
+        return;
+      }
+    }
+  }
+
+  private void skipLiteral(int quote) throws IOException {
+    int c;
+    while ((c = read()) != -1 && c != quote) {
+      if (c == '\\') {
+        read();
+      }
+    }
+  }
+
+  /** Reads a (possibly qualified) identifier. Only ASCII characters are decoded. */
+  private String readWord() throws IOException {
+    StringBuilder word = new StringBuilder();
+    int c;
+    while (isIdentifierChar(c = peek(0)) || c == '.') {
+      word.append((char) c);
+      position++;
+    }
+    return word.toString();
+  }
+
+  /** Reads the characters matching {@code [\w.]}. */
+  private String readPackageName() throws IOException {
+    StringBuilder packageName = new StringBuilder();
+    int c;
+    while (isWordChar(c = peek(0)) || c == '.') {
+      packageName.append((char) c);
+      position++;
+    }
+    return packageName.toString();
+  }
+
+  private static boolean isWordChar(int c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+  }
+
+  private static boolean isIdentifierChar(int c) {
+    return isWordChar(c) || c == '$';
+  }
+
+  /** Returns the byte at the given offset from the current position, or -1 at the end. */
+  private int peek(int offset) throws IOException {
+    if (position + offset >= limit && !fill(offset + 1)) {
+      return -1;
+    }
+    return buffer[position + offset] & 0xFF;
+  }
+
+  private int read() throws IOException {
+    int c = peek(0);
+    if (c != -1) {
+      position++;
+    }
+    return c;
+  }
+
+  /** Tries to make at least {@code count} bytes available after the current position. */
+  private boolean fill(int count) throws IOException {
+    if (position > 0) {
+      System.arraycopy(buffer, position, buffer, 0, limit - position);
+      limit -= position;
+      position = 0;
+    }
+    while (limit < count) {
+      int read = in.read(buffer, limit, buffer.length - limit);
+      if (read == -1) {
+        return false;
+      }
+      limit += read;
+    }
+    return true;
+  }
+}
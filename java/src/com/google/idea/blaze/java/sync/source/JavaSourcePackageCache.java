@@ -0,0 +1,180 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.sync.source;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.idea.blaze.base.io.FileAttributeProvider;
+import com.google.idea.blaze.base.scope.BlazeContext;
+import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
+import java.io.File;
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+/**
+ * The declared packages of java sources which had to be read from disk, keyed by path and modified
+ * time. Persisted between syncs, so unchanged sources aren't read again. Sources without a
+ * readable package declaration are cached too.
+ */
+public final class JavaSourcePackageCache implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  /** Cached in place of a null package, which can't be a valid package name. */
+  private static final String NO_PACKAGE = "<none>";
+
+  private final ImmutableMap<String, CachedPackage> packages;
+
+  private JavaSourcePackageCache(ImmutableMap<String, CachedPackage> packages) {
+    this.packages = packages;
+  }
+
+  public int size() {
+    return packages.size();
+  }
+
+  /**
+   * Returns a package reader which consults the given cache before delegating, recording every
+   * package it returns in a new cache.
+   */
+  static CachingReader cachingReader(
+      JavaPackageReader delegate, @Nullable JavaSourcePackageCache previousCache) {
+    return new CachingReader(delegate, previousCache != null ? previousCache.packages : null);
+  }
+
+  private static final class CachedPackage implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long modifiedTime;
+    private final String packageName;
+
+    CachedPackage(long modifiedTime, String packageName) {
+      this.modifiedTime = modifiedTime;
+      this.packageName = packageName;
+    }
+  }
+
+  /** A package reader backed by the cache. Thread-safe. */
+  static final class CachingReader extends JavaPackageReader {
+    private final JavaPackageReader delegate;
+    @Nullable private final ImmutableMap<String, CachedPackage> previousPackages;
+    private final Map<String, CachedPackage> packages = new ConcurrentHashMap<>();
+    /** The sources in each directory, whose modified times are read together on first use. */
+    private final Map<File, List<File>> sourcesByDirectory = new ConcurrentHashMap<>();
+    /** Modified times by path, for each directory read so far. */
+    private final Map<File, Map<String, Long>> modifiedTimesByDirectory = new ConcurrentHashMap<>();
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private final AtomicInteger missCount = new AtomicInteger();
+
+    private CachingReader(
+        JavaPackageReader delegate,
+        @Nullable ImmutableMap<String, CachedPackage> previousPackages) {
+      this.delegate = delegate;
+      this.previousPackages = previousPackages;
+    }
+
+    @Nullable
+    @Override
+    String getDeclaredPackageOfJavaFile(
+        BlazeContext context,
+        ArtifactLocationDecoder artifactLocationDecoder,
+        SourceArtifact sourceArtifact) {
+      if (sourceArtifact.artifactLocation.isGenerated()) {
+        return delegate.getDeclaredPackageOfJavaFile(
+            context, artifactLocationDecoder, sourceArtifact);
+      }
+      File file = artifactLocationDecoder.decode(sourceArtifact.artifactLocation);
+      String path = file.getPath();
+      long modifiedTime = getModifiedTime(file);
+      CachedPackage cached = previousPackages != null ? previousPackages.get(path) : null;
+      if (cached != null && cached.modifiedTime == modifiedTime && modifiedTime != 0) {
+        hitCount.incrementAndGet();
+        packages.put(path, cached);
+        return NO_PACKAGE.equals(cached.packageName) ? null : cached.packageName;
+      }
+      missCount.incrementAndGet();
+      String packageName =
+          delegate.getDeclaredPackageOfJavaFile(context, artifactLocationDecoder, sourceArtifact);
+      if (modifiedTime != 0) {
+        packages.put(
+            path, new CachedPackage(modifiedTime, packageName != null ? packageName : NO_PACKAGE));
+      }
+      return packageName;
+    }
+
+    /**
+     * Registers the sources whose packages may be requested, so the modified times of each
+     * directory's sources can be read with a single batched call.
+     */
+    void addSources(
+        ArtifactLocationDecoder artifactLocationDecoder, Collection<SourceArtifact> sources) {
+      Map<File, List<File>> filesByDirectory = Maps.newHashMap();
+      for (SourceArtifact source : sources) {
+        if (source.artifactLocation.isGenerated()) {
+          continue;
+        }
+        File file = artifactLocationDecoder.decode(source.artifactLocation);
+        File directory = file.getParentFile();
+        if (directory != null) {
+          filesByDirectory.computeIfAbsent(directory, dir -> Lists.newArrayList()).add(file);
+        }
+      }
+      sourcesByDirectory.putAll(filesByDirectory);
+    }
+
+    private long getModifiedTime(File file) {
+      FileAttributeProvider provider = FileAttributeProvider.getInstance();
+      File directory = file.getParentFile();
+      List<File> siblings = directory != null ? sourcesByDirectory.get(directory) : null;
+      if (siblings == null) {
+        return provider.getFileModifiedTime(file);
+      }
+      Long modifiedTime =
+          modifiedTimesByDirectory
+              .computeIfAbsent(directory, dir -> readModifiedTimes(provider, dir, siblings))
+              .get(file.getPath());
+      return modifiedTime != null ? modifiedTime : provider.getFileModifiedTime(file);
+    }
+
+    private static Map<String, Long> readModifiedTimes(
+        FileAttributeProvider provider, File directory, List<File> files) {
+      long[] modifiedTimes = provider.getFileModifiedTimes(directory, files);
+      Map<String, Long> result = Maps.newHashMapWithExpectedSize(files.size());
+      for (int i = 0; i < modifiedTimes.length; i++) {
+        result.put(files.get(i).getPath(), modifiedTimes[i]);
+      }
+      return result;
+    }
+
+    int getHitCount() {
+      return hitCount.get();
+    }
+
+    int getMissCount() {
+      return missCount.get();
+    }
+
+    /** Returns a cache of the packages read so far. Files which weren't requested are dropped. */
+    JavaSourcePackageCache build() {
+      return new JavaSourcePackageCache(ImmutableMap.copyOf(packages));
+    }
+  }
+}
@@ -15,22 +15,16 @@
  */
 package com.google.idea.blaze.java.sync.source;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
-
 import com.google.idea.blaze.base.io.InputStreamProvider;
 import com.google.idea.blaze.base.scope.BlazeContext;
 import com.google.idea.blaze.base.scope.output.IssueOutput;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
 import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.diagnostic.Logger;
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import javax.annotation.Nullable;
 
 /** Parse package string directly from java source */
@@ -42,9 +36,6 @@ public class JavaSourcePackageReader extends JavaPackageReader {
 
   private static final Logger logger = Logger.getInstance(SourceDirectoryCalculator.class);
 
-  // Package declaration of java-like languages.
-  private static final Pattern PACKAGE_PATTERN = Pattern.compile("^\\s*package\\s+([\\w\\.]+)");
-
   @Override
   @Nullable
   public String getDeclaredPackageOfJavaFile(
@@ -57,14 +48,9 @@ public class JavaSourcePackageReader extends JavaPackageReader {
     InputStreamProvider inputStreamProvider = InputStreamProvider.getInstance();
     File sourceFile = artifactLocationDecoder.decode(sourceArtifact.artifactLocation);
     try (InputStream javaInputStream = inputStreamProvider.getFile(sourceFile)) {
-      BufferedReader javaReader = new BufferedReader(new InputStreamReader(javaInputStream, UTF_8));
-      String javaLine;
-
-      while ((javaLine = javaReader.readLine()) != null) {
-        Matcher packageMatch = PACKAGE_PATTERN.matcher(javaLine);
-        if (packageMatch.find()) {
-          return packageMatch.group(1);
-        }
+      String packageName = JavaPackageDeclarationScanner.scanPackage(javaInputStream);
+      if (packageName != null) {
+        return packageName;
       }
       IssueOutput.warn("No package name string found in java source file: " + sourceFile)
           .inFile(sourceFile)
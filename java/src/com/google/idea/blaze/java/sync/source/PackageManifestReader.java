@@ -16,7 +16,6 @@
 package com.google.idea.blaze.java.sync.source;
 
 import com.google.common.base.Joiner;
-import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.Futures;
@@ -24,7 +23,9 @@ import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.idea.blaze.base.async.FutureUtil;
 import com.google.idea.blaze.base.filecache.FileDiffer;
+import com.google.idea.blaze.base.filecache.FileState;
 import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.IdeInfoInterner;
 import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.io.InputStreamProvider;
 import com.google.idea.blaze.base.prefetch.PrefetchService;
@@ -53,7 +54,7 @@ public class PackageManifestReader {
     return ServiceManager.getService(PackageManifestReader.class);
   }
 
-  private ImmutableMap<File, Long> fileDiffState;
+  private FileState fileDiffState;
 
   private Map<File, TargetKey> fileToLabelMap = Maps.newHashMap();
   private final Map<TargetKey, Map<ArtifactLocation, String>> manifestMap = Maps.newConcurrentMap();
@@ -87,12 +88,13 @@ public class PackageManifestReader {
       return null;
     }
 
+    IdeInfoInterner interner = new IdeInfoInterner();
     List<ListenableFuture<Void>> futures = Lists.newArrayList();
     for (File file : updatedFiles) {
       futures.add(
           executorService.submit(
               () -> {
-                Map<ArtifactLocation, String> manifest = parseManifestFile(file);
+                Map<ArtifactLocation, String> manifest = parseManifestFile(file, interner);
                 manifestMap.put(fileToLabelMap.get(file), manifest);
                 return null;
               }));
@@ -114,7 +116,8 @@ public class PackageManifestReader {
     return manifestMap;
   }
 
-  private static Map<ArtifactLocation, String> parseManifestFile(File packageManifest) {
+  private static Map<ArtifactLocation, String> parseManifestFile(
+      File packageManifest, IdeInfoInterner interner) {
     Map<ArtifactLocation, String> outputMap = Maps.newHashMap();
     InputStreamProvider inputStreamProvider = InputStreamProvider.getInstance();
 
@@ -122,7 +125,9 @@ public class PackageManifestReader {
       try (BufferedInputStream bufferedInputStream = new BufferedInputStream(input)) {
         PackageManifest proto = PackageManifest.parseFrom(bufferedInputStream);
         for (JavaSourcePackage source : proto.getSourcesList()) {
-          outputMap.put(fromProto(source.getArtifactLocation()), source.getPackageString());
+          outputMap.put(
+              fromProto(source.getArtifactLocation(), interner),
+              interner.intern(source.getPackageString()));
         }
       }
       return outputMap;
@@ -132,7 +137,8 @@ public class PackageManifestReader {
     }
   }
 
-  private static ArtifactLocation fromProto(PackageManifestOuterClass.ArtifactLocation location) {
+  private static ArtifactLocation fromProto(
+      PackageManifestOuterClass.ArtifactLocation location, IdeInfoInterner interner) {
     String relativePath = location.getRelativePath();
     String rootExecutionPathFragment = location.getRootExecutionPathFragment();
     if (!location.getIsNewExternalVersion() && location.getIsExternal()) {
@@ -151,6 +157,6 @@ public class PackageManifestReader {
         .setRelativePath(relativePath)
         .setIsSource(location.getIsSource())
         .setIsExternal(location.getIsExternal())
-        .build();
+        .build(interner);
   }
 }
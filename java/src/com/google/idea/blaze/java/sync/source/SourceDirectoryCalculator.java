@@ -40,9 +40,11 @@ import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
 import com.google.idea.blaze.base.scope.BlazeContext;
 import com.google.idea.blaze.base.scope.Scope;
 import com.google.idea.blaze.base.scope.output.IssueOutput;
+import com.google.idea.blaze.base.scope.output.PrintOutput;
 import com.google.idea.blaze.base.scope.scopes.TimingScope;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
 import com.google.idea.blaze.base.util.PackagePrefixCalculator;
+import com.google.idea.blaze.base.util.WorkspacePathTrie;
 import com.google.idea.blaze.java.sync.model.BlazeContentEntry;
 import com.google.idea.blaze.java.sync.model.BlazeSourceDirectory;
 import com.intellij.openapi.diagnostic.Logger;
@@ -74,10 +76,35 @@ public final class SourceDirectoryCalculator {
 
   private static final JavaPackageReader generatedFileJavaPackageReader =
       new FilePathJavaPackageReader();
-  private final ListeningExecutorService executorService = MoreExecutors.newDirectExecutorService();
   private final ListeningExecutorService packageReaderExecutorService =
       MoreExecutors.listeningDecorator(new TransientExecutor(16));
 
+  /** Reads the packages of java sources, caching them, or null if they aren't cached. */
+  @Nullable private final JavaSourcePackageCache.CachingReader cachingSourcePackageReader;
+
+  public SourceDirectoryCalculator() {
+    this.cachingSourcePackageReader = null;
+  }
+
+  /**
+   * Creates a calculator which caches the packages read from java sources, reusing those in {@code
+   * previousPackageCache} for unchanged files.
+   */
+  public SourceDirectoryCalculator(@Nullable JavaSourcePackageCache previousPackageCache) {
+    this.cachingSourcePackageReader =
+        JavaSourcePackageCache.cachingReader(
+            JavaSourcePackageReader.getInstance(), previousPackageCache);
+  }
+
+  /**
+   * Returns the packages read from java sources so far, for use by the next sync, or null if they
+   * aren't cached.
+   */
+  @Nullable
+  public JavaSourcePackageCache getPackageCache() {
+    return cachingSourcePackageReader != null ? cachingSourcePackageReader.build() : null;
+  }
+
   public ImmutableList<BlazeContentEntry> calculateContentEntries(
       Project project,
       BlazeContext context,
@@ -106,10 +133,15 @@ public final class SourceDirectoryCalculator {
     final List<JavaPackageReader> javaPackageReaders =
         Lists.newArrayList(
             manifestFilePackageReader,
-            JavaSourcePackageReader.getInstance(),
+            cachingSourcePackageReader != null
+                ? cachingSourcePackageReader
+                : JavaSourcePackageReader.getInstance(),
             generatedFileJavaPackageReader);
 
     Collection<SourceArtifact> nonGeneratedSources = filterGeneratedArtifacts(sources);
+    if (cachingSourcePackageReader != null) {
+      cachingSourcePackageReader.addSources(artifactLocationDecoder, nonGeneratedSources);
+    }
 
     // Sort artifacts and excludes into their respective workspace paths
     Multimap<WorkspacePath, SourceArtifact> sourcesUnderDirectoryRoot =
@@ -135,6 +167,14 @@ public final class SourceDirectoryCalculator {
             }
           }
           result.sort(Comparator.comparing(lhs -> lhs.contentRoot));
+          if (cachingSourcePackageReader != null) {
+            childContext.output(
+                PrintOutput.log(
+                    String.format(
+                        "Java source packages: %d cached, %d read",
+                        cachingSourcePackageReader.getHitCount(),
+                        cachingSourcePackageReader.getMissCount())));
+          }
         });
     return ImmutableList.copyOf(result);
   }
@@ -153,17 +193,11 @@ public final class SourceDirectoryCalculator {
       Collection<SourceArtifact> sources) {
 
     Multimap<WorkspacePath, SourceArtifact> result = ArrayListMultimap.create();
+    WorkspacePathTrie rootDirectoryTrie = new WorkspacePathTrie(rootDirectories);
 
     for (SourceArtifact sourceArtifact : sources) {
       WorkspacePath foundWorkspacePath =
-          rootDirectories
-              .stream()
-              .filter(
-                  rootDirectory ->
-                      isUnderRootDirectory(
-                          rootDirectory, sourceArtifact.artifactLocation.getRelativePath()))
-              .findFirst()
-              .orElse(null);
+          rootDirectoryTrie.findAncestor(sourceArtifact.artifactLocation.getRelativePath());
 
       if (foundWorkspacePath != null) {
         result.put(foundWorkspacePath, sourceArtifact);
@@ -180,16 +214,6 @@ public final class SourceDirectoryCalculator {
     return result;
   }
 
-  private static boolean isUnderRootDirectory(WorkspacePath rootDirectory, String relativePath) {
-    if (rootDirectory.isWorkspaceRoot()) {
-      return true;
-    }
-    String rootDirectoryString = rootDirectory.toString();
-    return relativePath.startsWith(rootDirectoryString)
-        && (relativePath.length() == rootDirectoryString.length()
-            || (relativePath.charAt(rootDirectoryString.length()) == '/'));
-  }
-
   /** Calculates all source directories for a single content root. */
   private ImmutableList<BlazeSourceDirectory> calculateSourceDirectoriesForContentRoot(
       BlazeContext context,
@@ -236,11 +260,11 @@ public final class SourceDirectoryCalculator {
 
     List<SourceRoot> sourceRootsPerFile = Lists.newArrayList();
 
-    // Get java sources
+    // Get java sources, reading their packages in parallel
     List<ListenableFuture<SourceRoot>> sourceRootFutures = Lists.newArrayList();
     for (final SourceArtifact sourceArtifact : javaArtifacts) {
       ListenableFuture<SourceRoot> future =
-          executorService.submit(
+          packageReaderExecutorService.submit(
               () ->
                   sourceRootForJavaSource(
                       context, artifactLocationDecoder, sourceArtifact, javaPackageReaders));
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.libraries;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.LibraryArtifact;
+import com.google.idea.blaze.java.sync.model.BlazeJarLibrary;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link BlazeAttachSourceProvider}. */
+@RunWith(JUnit4.class)
+public class BlazeAttachSourceProviderTest {
+
+  @Test
+  public void testLibrariesAlreadyBeingAttachedAreSkipped() {
+    SourceJarManager sourceJarManager = new SourceJarManager();
+    BlazeJarLibrary first = library("first");
+    BlazeJarLibrary second = library("second");
+
+    assertThat(
+            BlazeAttachSourceProvider.startAttachingSourceJars(
+                sourceJarManager, ImmutableList.of(first)))
+        .containsExactly(first);
+    assertThat(
+            BlazeAttachSourceProvider.startAttachingSourceJars(
+                sourceJarManager, ImmutableList.of(first, second)))
+        .containsExactly(second);
+    assertThat(
+            BlazeAttachSourceProvider.startAttachingSourceJars(
+                sourceJarManager, ImmutableList.of(first, second)))
+        .isEmpty();
+
+    sourceJarManager.finishAttachingSourceJar(first.key);
+    assertThat(
+            BlazeAttachSourceProvider.startAttachingSourceJars(
+                sourceJarManager, ImmutableList.of(first, second)))
+        .containsExactly(first);
+  }
+
+  private static BlazeJarLibrary library(String name) {
+    return new BlazeJarLibrary(
+        LibraryArtifact.builder()
+            .setInterfaceJar(jar(name + "-ijar.jar"))
+            .setClassJar(jar(name + ".jar"))
+            .setSourceJar(jar(name + "-src.jar"))
+            .build());
+  }
+
+  private static ArtifactLocation jar(String relativePath) {
+    return ArtifactLocation.builder().setRelativePath(relativePath).setIsSource(true).build();
+  }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.libraries;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.async.executor.BlazeExecutor;
+import com.google.idea.blaze.base.async.executor.MockBlazeExecutor;
+import com.google.idea.blaze.base.bazel.BazelBuildSystemProvider;
+import com.google.idea.blaze.base.bazel.BuildSystemProvider;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.LibraryArtifact;
+import com.google.idea.blaze.base.io.FileAttributeProvider;
+import com.google.idea.blaze.base.settings.Blaze.BuildSystem;
+import com.google.idea.blaze.base.settings.BlazeImportSettings;
+import com.google.idea.blaze.java.settings.BlazeJavaUserSettings;
+import com.google.idea.blaze.java.sync.model.BlazeJarLibrary;
+import com.intellij.openapi.extensions.ExtensionPoint;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link JarCache}. */
+@RunWith(JUnit4.class)
+public class JarCacheTest extends BlazeTestCase {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private JarCache jarCache;
+
+  @Override
+  protected void initTest(
+      @NotNull Container applicationServices, @NotNull Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    applicationServices.register(BlazeExecutor.class, new MockBlazeExecutor());
+    applicationServices.register(FileAttributeProvider.class, new FileAttributeProvider());
+    ExtensionPoint<BuildSystemProvider> extensionPoint =
+        registerExtensionPoint(BuildSystemProvider.EP_NAME, BuildSystemProvider.class);
+    extensionPoint.registerExtension(new BazelBuildSystemProvider());
+    BlazeJavaUserSettings settings = new BlazeJavaUserSettings();
+    settings.setMigrated(true);
+    settings.setJarCacheSizeLimitMb(1024);
+    applicationServices.register(BlazeJavaUserSettings.class, settings);
+
+    try {
+      File projectDataDirectory = folder.newFolder("project");
+      BlazeImportSettings importSettings =
+          new BlazeImportSettings("", "", projectDataDirectory.getPath(), "", BuildSystem.Blaze);
+      jarCache =
+          new JarCache(project, importSettings, new JarStore(folder.newFolder("store")), true);
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  @Test
+  public void testUncachedJarIsItsOwnCachedFile() throws IOException {
+    File jar = newJar("lib.jar", "contents");
+    assertThat(jarCache.getCachedFile(jar)).isEqualTo(jar);
+  }
+
+  @Test
+  public void testUnchangedJarIsNotStoredAgain() throws IOException {
+    File jar = newJar("lib.jar", "contents");
+    update(jar);
+    File cachedFile = jarCache.getCachedFile(jar);
+    assertThat(cachedFile).isNotEqualTo(jar);
+    assertThat(read(cachedFile)).isEqualTo("contents");
+    long storedModifiedTime = cachedFile.lastModified();
+
+    update(jar);
+    assertThat(jarCache.getCachedFile(jar)).isEqualTo(cachedFile);
+    assertThat(cachedFile.lastModified()).isEqualTo(storedModifiedTime);
+  }
+
+  @Test
+  public void testModifiedJarIsStoredUnderNewDigest() throws IOException {
+    File jar = newJar("lib.jar", "contents");
+    update(jar);
+    File cachedFile = jarCache.getCachedFile(jar);
+
+    Files.write(jar.toPath(), "new contents".getBytes(UTF_8));
+    assertThat(jar.setLastModified(jar.lastModified() + 10000)).isTrue();
+    update(jar);
+
+    File newCachedFile = jarCache.getCachedFile(jar);
+    assertThat(newCachedFile).isNotEqualTo(cachedFile);
+    assertThat(read(newCachedFile)).isEqualTo("new contents");
+  }
+
+  @Test
+  public void testWritableJarIsCopiedRatherThanLinked() throws IOException {
+    File jar = newJar("lib.jar", "contents");
+    update(jar);
+
+    File cachedFile = jarCache.getCachedFile(jar);
+    assertThat(Files.isSameFile(cachedFile.toPath(), jar.toPath())).isFalse();
+
+    // writing to the source in place can't affect the cached jar
+    Files.write(jar.toPath(), "modified".getBytes(UTF_8));
+    assertThat(read(cachedFile)).isEqualTo("contents");
+  }
+
+  @Test
+  public void testEvictedJarIsRestored() throws IOException {
+    File jar = newJar("lib.jar", "contents");
+    update(jar);
+    File cachedFile = jarCache.getCachedFile(jar);
+    Files.delete(cachedFile.toPath());
+
+    update(jar);
+    assertThat(jarCache.getCachedFile(jar)).isEqualTo(cachedFile);
+    assertThat(read(cachedFile)).isEqualTo("contents");
+  }
+
+  @Test
+  public void testCorruptedStoredJarIsReplaced() throws IOException {
+    File jar = newJar("lib.jar", "contents");
+    update(jar);
+    File cachedFile = jarCache.getCachedFile(jar);
+    Files.write(cachedFile.toPath(), "corrupted".getBytes(UTF_8));
+    assertThat(cachedFile.setLastModified(cachedFile.lastModified() + 10000)).isTrue();
+
+    update(jar);
+    assertThat(jarCache.getCachedFile(jar)).isEqualTo(cachedFile);
+    assertThat(read(cachedFile)).isEqualTo("contents");
+  }
+
+  @Test
+  public void testRemovedJarIsNoLongerCached() throws IOException {
+    File removed = newJar("removed.jar", "removed");
+    File retained = newJar("retained.jar", "retained");
+    update(removed, retained);
+
+    update(retained);
+    assertThat(jarCache.getCachedFile(removed)).isEqualTo(removed);
+    assertThat(read(jarCache.getCachedFile(retained))).isEqualTo("retained");
+  }
+
+  @Test
+  public void testRequestedSourceJarIsCached() throws IOException {
+    File jar = newJar("lib.jar", "classes");
+    File sourceJar = newJar("lib-src.jar", "sources");
+    update(jar);
+    assertThat(jarCache.getCachedFile(sourceJar)).isEqualTo(sourceJar);
+
+    jarCache.cacheSourceJars(ImmutableList.of(sourceJar));
+    File cachedSourceJar = jarCache.getCachedFile(sourceJar);
+    assertThat(cachedSourceJar).isNotEqualTo(sourceJar);
+    assertThat(read(cachedSourceJar)).isEqualTo("sources");
+    assertThat(read(jarCache.getCachedFile(jar))).isEqualTo("classes");
+  }
+
+  @Test
+  public void testSourceJarsOfMostUsedLibrariesArePrefetched() {
+    BlazeJarLibrary mostUsed = library("most_used", true);
+    BlazeJarLibrary lessUsed = library("less_used", true);
+    BlazeJarLibrary unused = library("unused", true);
+    BlazeJarLibrary attached = library("attached", true);
+    BlazeJarLibrary withoutSources = library("without_sources", false);
+    ImmutableMap<String, Integer> dependentTargetCounts =
+        ImmutableMap.of(
+            interfaceJarPath("most_used"), 3,
+            classJarPath("less_used"), 1,
+            interfaceJarPath("attached"), 5,
+            interfaceJarPath("without_sources"), 5);
+    ImmutableList<BlazeJarLibrary> libraries =
+        ImmutableList.of(unused, lessUsed, attached, withoutSources, mostUsed);
+
+    assertThat(
+            JarCache.selectSourceJarsToPrefetch(
+                libraries, key -> key.equals(attached.key), dependentTargetCounts, 10))
+        .containsExactly(mostUsed, lessUsed)
+        .inOrder();
+    assertThat(
+            JarCache.selectSourceJarsToPrefetch(
+                libraries, key -> key.equals(attached.key), dependentTargetCounts, 1))
+        .containsExactly(mostUsed);
+  }
+
+  private static BlazeJarLibrary library(String name, boolean hasSourceJar) {
+    LibraryArtifact.Builder libraryArtifact =
+        LibraryArtifact.builder()
+            .setInterfaceJar(generated(name + "-ijar.jar"))
+            .setClassJar(generated(name + ".jar"));
+    if (hasSourceJar) {
+      libraryArtifact.setSourceJar(generated(name + "-src.jar"));
+    }
+    return new BlazeJarLibrary(libraryArtifact.build());
+  }
+
+  private static ArtifactLocation generated(String relativePath) {
+    return ArtifactLocation.builder()
+        .setRootExecutionPathFragment("blaze-out/bin")
+        .setRelativePath("java/" + relativePath)
+        .setIsSource(false)
+        .build();
+  }
+
+  private static String interfaceJarPath(String name) {
+    return generated(name + "-ijar.jar").getExecutionRootRelativePath();
+  }
+
+  private static String classJarPath(String name) {
+    return generated(name + ".jar").getExecutionRootRelativePath();
+  }
+
+  private void update(File... jars) {
+    ImmutableSet<File> sourceFiles = ImmutableSet.copyOf(jars);
+    jarCache.update(null, sourceFiles, sourceFiles, true);
+  }
+
+  private File newJar(String name, String contents) throws IOException {
+    File jar = folder.newFile(name);
+    Files.write(jar.toPath(), contents.getBytes(UTF_8));
+    return jar;
+  }
+
+  private static String read(File file) throws IOException {
+    return new String(Files.readAllBytes(file.toPath()), UTF_8);
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.libraries;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link JarStore}. */
+@RunWith(JUnit4.class)
+public class JarStoreTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private JarStore store;
+
+  @Before
+  public void setUp() throws IOException {
+    store = new JarStore(folder.newFolder("store"));
+  }
+
+  @Test
+  public void testIdenticalJarsAreStoredOnce() throws IOException {
+    File first = newJar("first.jar", "contents");
+    File second = newJar("second.jar", "contents");
+    String digest = JarStore.digest(first);
+
+    assertThat(JarStore.digest(second)).isEqualTo(digest);
+    assertThat(store.add(first, digest)).isNotEqualTo(JarStore.AddResult.EXISTING);
+    assertThat(store.add(second, digest)).isEqualTo(JarStore.AddResult.EXISTING);
+    assertThat(Files.readAllLines(store.fileForDigest(digest).toPath(), UTF_8))
+        .containsExactly("contents");
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsedJarsFirst() throws IOException {
+    String older = addJar("older.jar", "older");
+    String newer = addJar("newer.jar", "newer");
+    store.writeManifest("olderProject", ImmutableList.of(older));
+    store.writeManifest("newerProject", ImmutableList.of(newer));
+    File olderManifest = new File(folder.getRoot(), "store/manifests/olderProject");
+    assertThat(olderManifest.setLastModified(olderManifest.lastModified() - 10000)).isTrue();
+
+    assertThat(store.evict(100, ImmutableSet.of())).isEqualTo(0);
+    assertThat(store.evict(5, ImmutableSet.of())).isEqualTo(1);
+    assertThat(store.fileForDigest(older).exists()).isFalse();
+    assertThat(store.fileForDigest(newer).exists()).isTrue();
+  }
+
+  @Test
+  public void testRetainedJarsAreNotEvicted() throws IOException {
+    String retained = addJar("retained.jar", "retained");
+    String unreferenced = addJar("unreferenced.jar", "unreferenced");
+
+    assertThat(store.evict(0, ImmutableSet.of(retained))).isEqualTo(1);
+    assertThat(store.fileForDigest(retained).exists()).isTrue();
+    assertThat(store.fileForDigest(unreferenced).exists()).isFalse();
+  }
+
+  @Test
+  public void testJarsOfOpenProjectsAreNotEvicted() throws IOException {
+    String open = addJar("open.jar", "open");
+    String closed = addJar("closed.jar", "closed");
+    store.writeManifest("openProject", ImmutableList.of(open));
+    store.writeManifest("closedProject", ImmutableList.of(closed));
+
+    try (Closeable lock = store.lockProject("openProject")) {
+      assertThat(store.evict(0, ImmutableSet.of())).isEqualTo(1);
+      assertThat(store.fileForDigest(open).exists()).isTrue();
+      assertThat(store.fileForDigest(closed).exists()).isFalse();
+    }
+    assertThat(store.evict(0, ImmutableSet.of())).isEqualTo(1);
+    assertThat(store.fileForDigest(open).exists()).isFalse();
+  }
+
+  @Test
+  public void testJarNotMatchingItsDigestIsNotAdded() throws IOException {
+    File jar = newJar("modified.jar", "contents");
+    String digest = JarStore.digest(newJar("original.jar", "original contents"));
+
+    try {
+      store.add(jar, digest);
+      fail("Expected IOException");
+    } catch (IOException e) {
+      // expected
+    }
+    assertThat(store.fileForDigest(digest).exists()).isFalse();
+    assertThat(new File(folder.getRoot(), "store").list()).isEmpty();
+  }
+
+  @Test
+  public void testWritableJarIsCopied() throws IOException {
+    File jar = newJar("writable.jar", "contents");
+    String digest = JarStore.digest(jar);
+
+    assertThat(store.add(jar, digest)).isEqualTo(JarStore.AddResult.COPIED);
+    assertThat(Files.isSameFile(store.fileForDigest(digest).toPath(), jar.toPath())).isFalse();
+  }
+
+  private String addJar(String name, String contents) throws IOException {
+    File jar = newJar(name, contents);
+    String digest = JarStore.digest(jar);
+    store.add(jar, digest);
+    return digest;
+  }
+
+  private File newJar(String name, String contents) throws IOException {
+    File jar = folder.newFile(name);
+    Files.write(jar.toPath(), contents.getBytes(UTF_8));
+    return jar;
+  }
+}
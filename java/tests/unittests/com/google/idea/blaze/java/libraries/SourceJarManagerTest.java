@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.libraries;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.bazel.BazelBuildSystemProvider;
+import com.google.idea.blaze.base.bazel.BuildSystemProvider;
+import com.google.idea.blaze.base.model.LibraryKey;
+import com.google.idea.blaze.java.settings.BlazeJavaUserSettings;
+import com.intellij.openapi.extensions.ExtensionPoint;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link SourceJarManager}. */
+@RunWith(JUnit4.class)
+public class SourceJarManagerTest extends BlazeTestCase {
+  private BlazeJavaUserSettings settings;
+  private final SourceJarManager sourceJarManager = new SourceJarManager();
+  private final LibraryKey libraryKey = LibraryKey.fromIntelliJLibraryName("lib");
+
+  @Override
+  protected void initTest(
+      @NotNull Container applicationServices, @NotNull Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    ExtensionPoint<BuildSystemProvider> extensionPoint =
+        registerExtensionPoint(BuildSystemProvider.EP_NAME, BuildSystemProvider.class);
+    extensionPoint.registerExtension(new BazelBuildSystemProvider());
+    settings = new BlazeJavaUserSettings();
+    settings.setMigrated(true);
+    applicationServices.register(BlazeJavaUserSettings.class, settings);
+  }
+
+  @Test
+  public void testSourceJarNotAttachedByDefault() {
+    settings.setAttachSourcesByDefault(false);
+    assertThat(sourceJarManager.shouldAttachSourceJar(libraryKey)).isFalse();
+  }
+
+  @Test
+  public void testSourceJarAttachedDuringSyncWhenAttachedByDefaultEagerly() {
+    settings.setAttachSourcesByDefault(true);
+    settings.setAttachSourcesLazily(false);
+    assertThat(sourceJarManager.shouldAttachSourceJar(libraryKey)).isTrue();
+  }
+
+  @Test
+  public void testSourceJarAttachedLazilyOnlyOnceOpened() {
+    settings.setAttachSourcesByDefault(true);
+    settings.setAttachSourcesLazily(true);
+    assertThat(sourceJarManager.shouldAttachSourceJar(libraryKey)).isFalse();
+
+    sourceJarManager.setHasSourceJarAttached(libraryKey, true);
+    assertThat(sourceJarManager.shouldAttachSourceJar(libraryKey)).isTrue();
+  }
+
+  @Test
+  public void testAttachedSourceJarIsKeptRegardlessOfSettings() {
+    settings.setAttachSourcesByDefault(false);
+    sourceJarManager.setHasSourceJarAttached(libraryKey, true);
+    assertThat(sourceJarManager.shouldAttachSourceJar(libraryKey)).isTrue();
+  }
+
+  @Test
+  public void testSourceJarIsOnlyAttachedOnceAtATime() {
+    assertThat(sourceJarManager.startAttachingSourceJar(libraryKey)).isTrue();
+    assertThat(sourceJarManager.isAttachingSourceJar(libraryKey)).isTrue();
+    assertThat(sourceJarManager.startAttachingSourceJar(libraryKey)).isFalse();
+
+    sourceJarManager.finishAttachingSourceJar(libraryKey);
+    assertThat(sourceJarManager.isAttachingSourceJar(libraryKey)).isFalse();
+    assertThat(sourceJarManager.startAttachingSourceJar(libraryKey)).isTrue();
+  }
+}
@@ -72,6 +72,7 @@ import com.google.idea.blaze.java.sync.source.JavaLikeLanguage;
 import com.google.idea.blaze.java.sync.source.JavaSourcePackageReader;
 import com.google.idea.blaze.java.sync.source.PackageManifestReader;
 import com.google.idea.blaze.java.sync.source.SourceArtifact;
+import com.google.idea.blaze.java.sync.source.SourceDirectoryCalculator;
 import com.google.idea.blaze.java.sync.workingset.JavaWorkingSet;
 import com.google.idea.common.experiments.ExperimentService;
 import com.google.idea.common.experiments.MockExperimentService;
@@ -185,7 +186,8 @@ public class BlazeJavaWorkspaceImporterTest extends BlazeTestCase {
             sourceFilter,
             jdepsMap,
             workingSet,
-            FAKE_ARTIFACT_DECODER);
+            FAKE_ARTIFACT_DECODER,
+            new SourceDirectoryCalculator());
 
     return blazeWorkspaceImporter.importWorkspace(context);
   }
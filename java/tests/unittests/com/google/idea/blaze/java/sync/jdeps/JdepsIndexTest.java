@@ -0,0 +1,101 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.sync.jdeps;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.model.primitives.Label;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link JdepsIndex}. */
+@RunWith(JUnit4.class)
+public class JdepsIndexTest {
+  private static final TargetKey TARGET_A = TargetKey.forPlainTarget(Label.create("//a:a"));
+  private static final TargetKey TARGET_B = TargetKey.forPlainTarget(Label.create("//b:b"));
+  private static final TargetKey TARGET_C = TargetKey.forPlainTarget(Label.create("//c:c"));
+
+  @Test
+  public void testUpdatesAndUnion() {
+    JdepsIndex index =
+        JdepsIndex.EMPTY
+            .toBuilder()
+            .put(TARGET_A, ImmutableList.of("a.jar", "common.jar"))
+            .put(TARGET_B, ImmutableList.of("b.jar", "common.jar"))
+            .build();
+    index =
+        index
+            .toBuilder()
+            .remove(TARGET_A)
+            .put(TARGET_C, ImmutableList.of("c.jar"))
+            .build();
+
+    assertThat(index.getDependenciesForTarget(TARGET_A)).isNull();
+    assertThat(index.getDependenciesForTarget(TARGET_B))
+        .containsExactly("b.jar", "common.jar")
+        .inOrder();
+    assertThat(index.getDependenciesForTargets(ImmutableList.of(TARGET_A, TARGET_B, TARGET_C)))
+        .containsExactly("b.jar", "common.jar", "c.jar");
+  }
+
+  @Test
+  public void testDependentTargetCounts() {
+    JdepsIndex index =
+        JdepsIndex.EMPTY
+            .toBuilder()
+            .put(TARGET_A, ImmutableList.of("a.jar", "common.jar"))
+            .put(TARGET_B, ImmutableList.of("b.jar", "common.jar"))
+            .put(TARGET_C, ImmutableList.of("common.jar"))
+            .build()
+            .toBuilder()
+            .remove(TARGET_A)
+            .build();
+
+    assertThat(index.getDependentTargetCounts()).containsExactly("b.jar", 1, "common.jar", 2);
+  }
+
+  @Test
+  public void testSerialization() throws Exception {
+    JdepsIndex index =
+        JdepsIndex.EMPTY
+            .toBuilder()
+            .put(TARGET_A, ImmutableList.of("a.jar", "common.jar"))
+            .put(TARGET_B, ImmutableList.of("common.jar"))
+            .build();
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(index);
+    }
+    JdepsIndex copy;
+    try (ObjectInputStream in =
+        new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      copy = (JdepsIndex) in.readObject();
+    }
+
+    assertThat(copy.getDependenciesForTarget(TARGET_A))
+        .containsExactly("a.jar", "common.jar")
+        .inOrder();
+    assertThat(copy.getDependenciesForTarget(TARGET_B)).containsExactly("common.jar");
+  }
+}
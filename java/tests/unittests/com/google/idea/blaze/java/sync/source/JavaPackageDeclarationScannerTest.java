@@ -0,0 +1,104 @@
+/*
+ * Copyright 2017 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.sync.source;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import javax.annotation.Nullable;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link JavaPackageDeclarationScanner}. */
+@RunWith(JUnit4.class)
+public class JavaPackageDeclarationScannerTest {
+
+  @Test
+  public void testSimplePackage() throws Exception {
+    assertThat(scan("package com.google;\npublic class Bla {}")).isEqualTo("com.google");
+    assertThat(scan("package com.google\nclass Foo")).isEqualTo("com.google");
+  }
+
+  @Test
+  public void testSkipsCommentsAndByteOrderMark() throws Exception {
+    assertThat(
+            scan(
+                "\uFEFF/*\n * Copyright package not.this;\n */\n"
+                    + "// package nor.this;\n"
+                    + "package /* inline */ com.google.app;"))
+        .isEqualTo("com.google.app");
+  }
+
+  @Test
+  public void testSkipsAnnotations() throws Exception {
+    assertThat(scan("@ParametersAreNonnullByDefault\npackage com.google;"))
+        .isEqualTo("com.google");
+    assertThat(scan("@Deprecated(since = \")\") @a.B(x = {1, (2)}) package com.google;"))
+        .isEqualTo("com.google");
+    assertThat(scan("@file:JvmName(\"Foo\")\npackage com.google")).isEqualTo("com.google");
+  }
+
+  @Test
+  public void testStopsAtFirstOtherToken() throws Exception {
+    assertThat(scan("import java.util.List;\npackage com.google;")).isNull();
+    assertThat(scan("public class Bla {}\n// package com.google;")).isNull();
+    assertThat(scan("packages com.google;")).isNull();
+    assertThat(scan("/* unterminated package com.google;")).isNull();
+    assertThat(scan("")).isNull();
+  }
+
+  @Test
+  public void testLongHeaderSpanningSeveralBuffers() throws Exception {
+    StringBuilder source = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      source.append("// Licensed under the Apache License, Version 2.0\n");
+    }
+    source.append("package com.google;");
+    assertThat(scan(source.toString())).isEqualTo("com.google");
+  }
+
+  @Test
+  public void testDoesNotReadPastPackageName() throws Exception {
+    CountingInputStream in =
+        new CountingInputStream(("package com.google;" + new String(new char[100000])).getBytes());
+    assertThat(JavaPackageDeclarationScanner.scanPackage(in)).isEqualTo("com.google");
+    assertThat(in.bytesRead).isLessThan(10000);
+  }
+
+  @Nullable
+  private static String scan(String source) throws IOException {
+    return JavaPackageDeclarationScanner.scanPackage(
+        new ByteArrayInputStream(source.getBytes(UTF_8)));
+  }
+
+  private static class CountingInputStream extends ByteArrayInputStream {
+    int bytesRead;
+
+    CountingInputStream(byte[] bytes) {
+      super(bytes);
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) {
+      int read = super.read(b, off, len);
+      bytesRead += Math.max(read, 0);
+      return read;
+    }
+  }
+}
@@ -160,6 +160,95 @@ public class SourceDirectoryCalculatorTest extends BlazeTestCase {
     issues.assertNoIssues();
   }
 
+  @Test
+  public void testUnchangedSourcePackagesAreReusedFromCache() throws Exception {
+    mockInputStreamProvider.addFile(
+        "/root/java/com/google/Bla.java", "package com.google;\n public class Bla {}");
+    List<SourceArtifact> sourceArtifacts =
+        ImmutableList.of(
+            SourceArtifact.builder(TargetKey.forPlainTarget(LABEL))
+                .setArtifactLocation(
+                    ArtifactLocation.builder()
+                        .setRelativePath("java/com/google/Bla.java")
+                        .setIsSource(true))
+                .build());
+    SourceDirectoryCalculator firstSync = new SourceDirectoryCalculator(null);
+    firstSync.calculateContentEntries(
+        project,
+        context,
+        workspaceRoot,
+        decoder,
+        ImmutableList.of(new WorkspacePath("java/com/google")),
+        sourceArtifacts,
+        NO_MANIFESTS);
+    JavaSourcePackageCache packageCache = firstSync.getPackageCache();
+    assertThat(packageCache.size()).isEqualTo(1);
+
+    // The modified time is unchanged, so the file shouldn't be read again
+    mockInputStreamProvider.addFile(
+        "/root/java/com/google/Bla.java", "package com.changed;\n public class Bla {}");
+    ImmutableList<BlazeContentEntry> result =
+        new SourceDirectoryCalculator(packageCache)
+            .calculateContentEntries(
+                project,
+                context,
+                workspaceRoot,
+                decoder,
+                ImmutableList.of(new WorkspacePath("java/com/google")),
+                sourceArtifacts,
+                NO_MANIFESTS);
+    assertThat(result)
+        .containsExactly(
+            BlazeContentEntry.builder("/root/java/com/google")
+                .addSource(
+                    BlazeSourceDirectory.builder("/root/java/com/google")
+                        .setPackagePrefix("com.google")
+                        .build())
+                .build());
+    issues.assertNoIssues();
+  }
+
+  @Test
+  public void testSourcesWithoutPackageAreCached() throws Exception {
+    mockInputStreamProvider.addFile("/root/java/com/google/Bla.java", "public class Bla {}");
+    List<SourceArtifact> sourceArtifacts =
+        ImmutableList.of(
+            SourceArtifact.builder(TargetKey.forPlainTarget(LABEL))
+                .setArtifactLocation(
+                    ArtifactLocation.builder()
+                        .setRelativePath("java/com/google/Bla.java")
+                        .setIsSource(true))
+                .build());
+    SourceDirectoryCalculator firstSync = new SourceDirectoryCalculator(null);
+    firstSync.calculateContentEntries(
+        project,
+        context,
+        workspaceRoot,
+        decoder,
+        ImmutableList.of(new WorkspacePath("java/com/google")),
+        sourceArtifacts,
+        NO_MANIFESTS);
+    issues.assertIssueContaining("No package name string found");
+    JavaSourcePackageCache packageCache = firstSync.getPackageCache();
+    assertThat(packageCache.size()).isEqualTo(1);
+
+    // The cached result is reused, so the file isn't read (and warned about) again
+    BlazeContext secondContext = new BlazeContext();
+    ErrorCollector secondIssues = new ErrorCollector();
+    secondContext.addOutputSink(IssueOutput.class, secondIssues);
+    SourceDirectoryCalculator secondSync = new SourceDirectoryCalculator(packageCache);
+    secondSync.calculateContentEntries(
+        project,
+        secondContext,
+        workspaceRoot,
+        decoder,
+        ImmutableList.of(new WorkspacePath("java/com/google")),
+        sourceArtifacts,
+        NO_MANIFESTS);
+    secondIssues.assertNoIssues();
+    assertThat(secondSync.getPackageCache().size()).isEqualTo(1);
+  }
+
   @Test
   public void testHandlesSourceAtProjectRoot() throws Exception {
     mockInputStreamProvider.addFile("/root/Bla.java", "package com.google;\n public class Bla {}");
@@ -58,6 +58,7 @@ import com.google.idea.blaze.java.sync.source.JavaLikeLanguage;
 import com.google.idea.blaze.java.sync.source.JavaSourcePackageReader;
 import com.google.idea.blaze.java.sync.source.PackageManifestReader;
 import com.google.idea.blaze.java.sync.source.SourceArtifact;
+import com.google.idea.blaze.java.sync.source.SourceDirectoryCalculator;
 import com.google.idea.blaze.scala.sync.model.BlazeScalaImportResult;
 import com.google.idea.blaze.scala.sync.source.ScalaJavaLikeLanguage;
 import com.intellij.openapi.extensions.ExtensionPoint;
@@ -549,7 +550,8 @@ public class BlazeScalaWorkspaceImporterTest extends BlazeTestCase {
             sourceFilter,
             jdepsMap,
             null,
-            decoder)
+            decoder,
+            new SourceDirectoryCalculator())
         .importWorkspace(context);
   }
 